@@ -1,10 +1,26 @@
 package contact;
 
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.DispatcherType;
+import javax.ws.rs.core.MediaType;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.server.ServerProperties;
 
+import contact.resource.ContactBinaryProvider;
+import contact.resource.JaxbContextResolver;
 import contact.service.DaoFactory;
 /**
  * Use a Jetty sever that is created and started via code.
@@ -18,6 +34,13 @@ import contact.service.DaoFactory;
 public class JettyMain {
 	/** Package(s) where REST resource classes are */
 	static final String RESOURCE_PACKAGE = "contact.resource";
+	/** Providers that share one JAXBContext and reuse marshallers on each thread. */
+	static final String JAXB_PROVIDERS = JaxbContextResolver.class.getName()
+			+ "," + JaxbContextResolver.MarshallerResolver.class.getName()
+			+ "," + JaxbContextResolver.UnmarshallerResolver.class.getName();
+	/** Media types of responses that are compressed. */
+	static final String[] COMPRESSED_TYPES = { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON,
+			ContactBinaryProvider.CONTACT_BINARY, MediaType.TEXT_PLAIN };
 	/** A specified port on Jetty server. */
 	static  final int PORT = 8080;
 	
@@ -29,35 +52,99 @@ public class JettyMain {
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
-		startServer(8080);
+		startServer(ServerConfig.load());
 		System.out.println("Server started.  Press ENTER to stop it.");
 		int ch = System.in.read();
 		stopServer();
 	}
 	
+	/**
+	 * Create Jetty server on a port, with the other settings from ServerConfig.load().
+	 * @param port port for starting the server
+	 * @return URI of server
+	 */
+	public static String startServer(int port){
+		return startServer(ServerConfig.load().set("port", port));
+	}
+	
 	/**
 	 * Create Jetty server and a context.
+	 * The thread pool and connector are made from the config.
+	 * The connector speaks HTTP/1.1 and, if the config allows it, cleartext
+	 * HTTP/2, so a client can send many requests at once on one connection.
 	 * Use ServletContextHandler to hold a context.
 	 * ServletHolder holds Jersey ServletContainer for managing the resource class
 	 * and pass HTTP request to Contact resource.
-	 * @param port port for starting the server
+	 * If the config asks for virtual threads and Java has them,
+	 * a VirtualThreadFilter runs each request on its own virtual thread.
+	 * If compression is on, a GzipHandler compresses responses of
+	 * COMPRESSED_TYPES for clients that accept gzip.
+	 * @param config the server settings
 	 * @return URI of server
 	 */
-	public static String startServer(int port){
-		server = new Server(port);
+	public static String startServer(ServerConfig config){
+		int queueSize = config.getQueueSize();
+		QueuedThreadPool threadPool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(),
+				config.getThreadIdleTimeout(), queueSize > 0 ? new BlockingArrayQueue<Runnable>(queueSize) : null);
+		threadPool.setName("contact-server");
+		server = new Server(threadPool);
+		
+		HttpConfiguration httpConfig = new HttpConfiguration();
+		httpConfig.setRequestHeaderSize(config.getRequestHeaderSize());
+		httpConfig.setResponseHeaderSize(config.getResponseHeaderSize());
+		httpConfig.setOutputBufferSize(config.getOutputBufferSize());
+		httpConfig.setPersistentConnectionsEnabled(config.isPersistentConnections());
+		HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+		ServerConnector connector;
+		if(config.isHttp2()){
+			HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(httpConfig);
+			http2.setMaxConcurrentStreams(config.getHttp2MaxConcurrentStreams());
+			http2.setInitialStreamRecvWindow(config.getHttp2StreamWindow());
+			http2.setInitialSessionRecvWindow(config.getHttp2SessionWindow());
+			connector = new ServerConnector(server, config.getAcceptors(), config.getSelectors(), http1, http2);
+		}else{
+			connector = new ServerConnector(server, config.getAcceptors(), config.getSelectors(), http1);
+		}
+		connector.setPort(config.getPort());
+		connector.setIdleTimeout(config.getIdleTimeout());
+		connector.setAcceptQueueSize(config.getAcceptQueueSize());
+		server.addConnector(connector);
 		
 		ServletContextHandler context = new ServletContextHandler( ServletContextHandler.SESSIONS );
 		context.setContextPath("/");
 		
 		ServletHolder holder = new ServletHolder(org.glassfish.jersey.servlet.ServletContainer.class);
 		holder.setInitParameter(ServerProperties.PROVIDER_PACKAGES, RESOURCE_PACKAGE);
+		holder.setInitParameter(ServerProperties.PROVIDER_CLASSNAMES, JAXB_PROVIDERS);
 		holder.setInitParameter(ServerProperties.JSON_PROCESSING_FEATURE_DISABLE, "false");
+		holder.setAsyncSupported(true);
 		
 		context.addServlet(holder, "/*");
 		
-		server.setHandler(context);
+		if(config.isVirtualThreads()){
+			ExecutorService executor = VirtualThreadFilter.newExecutor();
+			if(executor == null){
+				System.out.println("Virtual threads need Java 21, using the thread pool.");
+			}else{
+				FilterHolder filter = new FilterHolder(new VirtualThreadFilter(executor));
+				filter.setAsyncSupported(true);
+				context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+				System.out.println("Requests run on virtual threads.");
+			}
+		}
+		
+		if(config.isCompression()){
+			GzipHandler gzip = new GzipHandler();
+			gzip.setMinGzipSize(config.getCompressionMinSize());
+			gzip.setCompressionLevel(config.getCompressionLevel());
+			gzip.setIncludedMimeTypes(COMPRESSED_TYPES);
+			gzip.setHandler(context);
+			server.setHandler(gzip);
+		}else{
+			server.setHandler(context);
+		}
 		
-		System.out.println("Starting Jetty server on port " + port);
+		System.out.println("Starting Jetty server on port " + config.getPort());
 		
 		try {
 			server.start();
@@ -0,0 +1,199 @@
+package contact;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Settings of the Jetty server started by JettyMain.
+ * Each setting is a property named "contact.server." plus the setting name,
+ * for example contact.server.maxThreads=400. Properties are read from
+ * the file named by the system property contact.server.config, if any,
+ * and system properties override the file. A setting that is not
+ * given keeps Jetty's default.
+ * <p>
+ * Settings:
+ * <ul>
+ * <li>port - port to listen on (8080)</li>
+ * <li>minThreads, maxThreads - size of the thread pool (8, 200)</li>
+ * <li>queueSize - most requests waiting for a thread, or 0 for no limit (0)</li>
+ * <li>threadIdleTimeout - milliseconds before an idle pool thread stops (60000)</li>
+ * <li>acceptors, selectors - threads that accept connections and wait
+ *     for I/O, or -1 for a number based on the cores (-1)</li>
+ * <li>acceptQueueSize - backlog of connections not accepted yet, or 0 for the OS default (0)</li>
+ * <li>idleTimeout - milliseconds before an idle connection is closed (30000)</li>
+ * <li>persistentConnections - true to keep connections open for more
+ *     requests (keep-alive), including pipelined HTTP/1.1 requests (true)</li>
+ * <li>http2 - true to accept cleartext HTTP/2 (h2c) on the same port as
+ *     HTTP/1.1, by prior knowledge or by upgrade (true)</li>
+ * <li>http2MaxConcurrentStreams - most requests at once on one HTTP/2 connection (128)</li>
+ * <li>http2StreamWindow, http2SessionWindow - bytes of a request body that a client
+ *     can send before waiting for the server, per stream and per connection
+ *     (524288, 1048576)</li>
+ * <li>requestHeaderSize, responseHeaderSize - largest headers in bytes (8192)</li>
+ * <li>outputBufferSize - response buffer in bytes (32768)</li>
+ * <li>compression - true to gzip responses for clients that accept it (true)</li>
+ * <li>compressionMinSize - smallest response in bytes that is compressed (1024)</li>
+ * <li>compressionLevel - deflate level from 1 (fastest) to 9 (smallest),
+ *     or -1 for the zlib default, which is 6 (-1)</li>
+ * <li>virtualThreads - true to run each request on a virtual thread (false).
+ *     Needs Java 21; on older Java the pool threads are used.</li>
+ * </ul>
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ServerConfig {
+	/** Prefix of every setting's property name. */
+	public static final String PREFIX = "contact.server.";
+	/** System property naming a properties file of settings. */
+	public static final String CONFIG_FILE_PROPERTY = PREFIX + "config";
+
+	private final Properties properties;
+
+	/**
+	 * Create settings from properties; names include PREFIX.
+	 * @param properties the settings
+	 */
+	public ServerConfig(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Read the settings from the config file, if there is one, and system properties.
+	 * @return the settings
+	 * @throws IllegalArgumentException if the config file can't be read
+	 */
+	public static ServerConfig load() {
+		Properties properties = new Properties();
+		String file = System.getProperty(CONFIG_FILE_PROPERTY);
+		if (file != null) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException ex) {
+				throw new IllegalArgumentException("Can't read server config "+file, ex);
+			}
+		}
+		for(String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(PREFIX)) properties.setProperty(name, System.getProperty(name));
+		}
+		return new ServerConfig(properties);
+	}
+
+	/**
+	 * Change a setting.
+	 * @param name the setting name without PREFIX, such as "port"
+	 * @param value the new value
+	 * @return this config
+	 */
+	public ServerConfig set(String name, Object value) {
+		properties.setProperty(PREFIX + name, String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * @param name the setting name without PREFIX
+	 * @param defaultValue value if the setting is not given
+	 * @return the setting as an int
+	 * @throws IllegalArgumentException if the setting is not a number
+	 */
+	int getInt(String name, int defaultValue) {
+		String value = properties.getProperty(PREFIX + name);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(PREFIX + name + " must be a number, not "+value);
+		}
+	}
+
+	public int getPort() {
+		return getInt("port", JettyMain.PORT);
+	}
+
+	public int getMinThreads() {
+		return getInt("minThreads", 8);
+	}
+
+	public int getMaxThreads() {
+		return getInt("maxThreads", 200);
+	}
+
+	public int getQueueSize() {
+		return getInt("queueSize", 0);
+	}
+
+	public int getThreadIdleTimeout() {
+		return getInt("threadIdleTimeout", 60000);
+	}
+
+	public int getAcceptors() {
+		return getInt("acceptors", -1);
+	}
+
+	public int getSelectors() {
+		return getInt("selectors", -1);
+	}
+
+	public int getAcceptQueueSize() {
+		return getInt("acceptQueueSize", 0);
+	}
+
+	public int getIdleTimeout() {
+		return getInt("idleTimeout", 30000);
+	}
+
+	public boolean isPersistentConnections() {
+		return Boolean.parseBoolean(properties.getProperty(PREFIX + "persistentConnections", "true").trim());
+	}
+
+	public boolean isHttp2() {
+		return Boolean.parseBoolean(properties.getProperty(PREFIX + "http2", "true").trim());
+	}
+
+	public int getHttp2MaxConcurrentStreams() {
+		return getInt("http2MaxConcurrentStreams", 128);
+	}
+
+	public int getHttp2StreamWindow() {
+		return getInt("http2StreamWindow", 512 * 1024);
+	}
+
+	public int getHttp2SessionWindow() {
+		return getInt("http2SessionWindow", 1024 * 1024);
+	}
+
+	public int getRequestHeaderSize() {
+		return getInt("requestHeaderSize", 8192);
+	}
+
+	public int getResponseHeaderSize() {
+		return getInt("responseHeaderSize", 8192);
+	}
+
+	public int getOutputBufferSize() {
+		return getInt("outputBufferSize", 32768);
+	}
+
+	public boolean isCompression() {
+		return Boolean.parseBoolean(properties.getProperty(PREFIX + "compression", "true").trim());
+	}
+
+	public int getCompressionMinSize() {
+		return getInt("compressionMinSize", 1024);
+	}
+
+	public int getCompressionLevel() {
+		return getInt("compressionLevel", -1);
+	}
+
+	public boolean isVirtualThreads() {
+		return Boolean.parseBoolean(properties.getProperty(PREFIX + "virtualThreads", "false").trim());
+	}
+}
@@ -0,0 +1,180 @@
+package contact;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs each request on a new virtual thread instead of the Jetty pool
+ * thread that received it. The pool thread goes back to the pool at once,
+ * so a request that blocks, such as a slow JPA query, holds only a
+ * virtual thread, and the pool keeps serving connections.
+ * <p>
+ * The request is put in async mode, the rest of the filter chain
+ * (Jersey) runs on the virtual thread, and the request is completed
+ * when it returns. Jetty clears the request's paths when the pool
+ * thread leaves the filter, so the chain gets a copy of them.
+ * If the chain suspends the request itself, as a JAX-RS method with an
+ * AsyncResponse does, it is given the async context that is already
+ * started, and the request is completed when the chain resumes it.
+ * Virtual threads need Java 21; newExecutor finds them by reflection,
+ * so the server still compiles and runs on older Java without this filter.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class VirtualThreadFilter implements Filter {
+	private static final Logger logger = Logger.getLogger(VirtualThreadFilter.class.getName());
+	private final ExecutorService executor;
+
+	/**
+	 * @param executor runs the requests, usually from newExecutor
+	 */
+	public VirtualThreadFilter(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Create an executor that starts a virtual thread for each task.
+	 * @return the executor, or null if this Java has no virtual threads
+	 */
+	public static ExecutorService newExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		// nothing to configure
+	}
+
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+			throws IOException, ServletException {
+		if (request.getDispatcherType() != DispatcherType.REQUEST || request.isAsyncStarted()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final AsyncContext async = request.startAsync();
+		final PathsRequest paths = new PathsRequest((HttpServletRequest) request, async);
+		// a request may take as long as it needs, like on a pool thread
+		async.setTimeout(0);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						chain.doFilter(paths, response);
+					} catch (Exception ex) {
+						logger.log(Level.SEVERE, "Request to " + paths.getRequestURI() + " failed", ex);
+						HttpServletResponse http = (HttpServletResponse) response;
+						if (! http.isCommitted()) http.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					} finally {
+						if (! paths.isSuspended()) async.complete();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			// the executor is shut down because the server is stopping
+			((HttpServletResponse) response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			async.complete();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+	/**
+	 * A request with the paths and context it had when it was wrapped.
+	 * To the chain it looks like a request that is not async yet.
+	 * Starting async gives the async context the filter started, and
+	 * marks the request suspended, so the filter doesn't complete it.
+	 */
+	private static class PathsRequest extends HttpServletRequestWrapper {
+		private final String contextPath;
+		private final String servletPath;
+		private final String pathInfo;
+		private final ServletContext servletContext;
+		private final AsyncContext async;
+		private volatile boolean suspended;
+
+		PathsRequest(HttpServletRequest request, AsyncContext async) {
+			super(request);
+			contextPath = request.getContextPath();
+			servletPath = request.getServletPath();
+			pathInfo = request.getPathInfo();
+			servletContext = request.getServletContext();
+			this.async = async;
+		}
+
+		boolean isSuspended() {
+			return suspended;
+		}
+
+		@Override
+		public AsyncContext startAsync() {
+			suspended = true;
+			return async;
+		}
+
+		@Override
+		public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+			suspended = true;
+			return async;
+		}
+
+		@Override
+		public boolean isAsyncStarted() {
+			return suspended;
+		}
+
+		@Override
+		public AsyncContext getAsyncContext() {
+			if (! suspended) throw new IllegalStateException("async not started");
+			return async;
+		}
+
+		@Override
+		public String getContextPath() {
+			return contextPath;
+		}
+
+		@Override
+		public String getServletPath() {
+			return servletPath;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return pathInfo;
+		}
+
+		@Override
+		public ServletContext getServletContext() {
+			return servletContext;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package contact.entity;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Result of one operation in a bulk request: the position of the
+ * operation in the request, the id of the contact, and an HTTP status
+ * code such as 201 (created), 200 (updated or deleted) or 404 (not found).
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.27
+ *
+ */
+@XmlRootElement(name="result")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class BatchResult {
+	/** position of the operation in the request, starting at 0. */
+	@XmlAttribute
+	private int index;
+	
+	/** id of the contact. */
+	@XmlAttribute
+	private long id;
+	
+	/** HTTP status code for the operation. */
+	@XmlAttribute
+	private int status;
+	
+	/** No-arg constructor for JAXB. */
+	public BatchResult() { }
+	
+	public BatchResult(int index, long id, int status) {
+		this.index = index;
+		this.id = id;
+		this.status = status;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+	
+	public long getId() {
+		return id;
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+}
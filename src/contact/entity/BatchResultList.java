@@ -0,0 +1,28 @@
+package contact.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Results of all operations in a bulk request, in the order of the operations.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.27
+ *
+ */
+@XmlRootElement(name="results")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class BatchResultList {
+	/** result of each operation. */
+	@XmlElement(name="result")
+	private List<BatchResult> results = new ArrayList<BatchResult>();
+	
+	public List<BatchResult> getResults() {
+		return results;
+	}
+}
@@ -0,0 +1,54 @@
+package contact.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Contacts that were saved, updated or deleted since a client last synced,
+ * and the version token that the client sends next time.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.26
+ *
+ */
+@XmlRootElement(name="changes")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ChangeList {
+	/** Token for the store version these changes bring the client up to. */
+	@XmlAttribute
+	private String version;
+	
+	/** Contacts that were saved or updated. */
+	@XmlElement(name="contact")
+	private List<Contact> contacts = new ArrayList<Contact>();
+	
+	/** Contacts that were deleted. */
+	@XmlElement(name="deleted")
+	private List<Tombstone> deleted = new ArrayList<Tombstone>();
+	
+	public String getVersion() {
+		return version;
+	}
+	
+	public void setVersion(String version) {
+		this.version = version;
+	}
+	
+	public List<Contact> getContacts() {
+		return contacts;
+	}
+	
+	public void setContacts(List<Contact> contacts) {
+		this.contacts = contacts;
+	}
+	
+	public List<Tombstone> getDeleted() {
+		return deleted;
+	}
+}
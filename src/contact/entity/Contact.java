@@ -1,29 +1,54 @@
 package contact.entity;
 import java.io.Serializable;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GenerationType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * A person is a contact with a name, title, and email.
  * title is text to display for this contact in a list of contacts,
  * such as a nickname or company name.
+ * <p>
+ * Each contact has an entity tag (ETag) that changes whenever any
+ * of its data changes. The tag is computed once and cached until
+ * the contact is changed, so getting it again costs nothing.
+ * <p>
+ * A contact that other threads can read, such as one in a DAO's map,
+ * must be changed only with applyUpdate or copyOf, while the writer
+ * holds the DAO's lock for it. They compute the new tag after the last
+ * field is set and publish it in a volatile field, so a reader never
+ * caches the tag of a half-updated contact. The setters only clear the
+ * tag, and are for contacts that no other thread can see yet.
  */
 @Entity
-@Table(name="Contact")
+@Table(name="Contact", indexes={ @Index(name="IDX_CONTACT_TITLE_KEY", columnList="title_key") })
 @XmlRootElement(name="contact")
 @XmlAccessorType(XmlAccessType.FIELD)
 public class Contact implements Serializable {
 	private static final long serialVersionUID = 1L;
+	/** multiplier for the FNV-1a hash used for entity tags */
+	private static final long FNV_PRIME = 0x100000001b3L;
+	/** sets a tag computed by a reader only if no writer has published one */
+	private static final AtomicReferenceFieldUpdater<Contact,String> TAG =
+			AtomicReferenceFieldUpdater.newUpdater(Contact.class, String.class, "tag");
 
 	@Id
 	@GeneratedValue(strategy=GenerationType.AUTO)
@@ -44,6 +69,22 @@ public class Contact implements Serializable {
 	@Column(name="photoURL")
 	private String photoUrl;
 	
+	/**
+	 * Lower case title, maintained by JPA so the database can search titles
+	 * ignoring case with an index. Not part of the XML representation.
+	 */
+	@Column(name="title_key")
+	@XmlTransient
+	private String titleKey;
+	
+	/** Optimistic locking version, maintained by JPA. Not part of the XML representation. */
+	@Version
+	@XmlTransient
+	private long version;
+	
+	/** Cached entity tag, or null if it must be computed again. Not persisted or marshalled. */
+	private transient volatile String tag;
+	
 	/** Create a new contact with no data.  Intended for use by persistence framework. */
 	public Contact() { }
 	
@@ -65,6 +106,7 @@ public class Contact implements Serializable {
 
 	public void setPhotoUrl(String photo) {
 		this.photoUrl = photo;
+		this.tag = null;
 	}
 
   
@@ -74,6 +116,7 @@ public class Contact implements Serializable {
 
 	public void setName(String name) {
 		this.name = name;
+		this.tag = null;
 	}
 
 	public String getTitle() {
@@ -82,6 +125,7 @@ public class Contact implements Serializable {
 
 	public void setTitle(String title) {
 		this.title = title;
+		this.tag = null;
 	}
 
 	public String getEmail() {
@@ -90,6 +134,7 @@ public class Contact implements Serializable {
 
 	public void setEmail(String email) {
 		this.email = email;
+		this.tag = null;
 	}
 
 	public long getId() {
@@ -98,6 +143,16 @@ public class Contact implements Serializable {
 
 	public void setId(long id) {
 		this.id = id;
+		this.tag = null;
+	}
+	
+	/**
+	 * Get the JPA version number of this contact.
+	 * It is only maintained when contacts are saved using JPA.
+	 * @return the version number
+	 */
+	public long getVersion() {
+		return version;
 	}
 
 	@Override
@@ -125,10 +180,11 @@ public class Contact implements Serializable {
 	public void copyOf(Contact other) {
 		if (other == null) throw new IllegalArgumentException("source contact may not be null");
 		// don't check the id value. Its the caller's responsibility to supply correct argument
-		this.setTitle(other.getTitle()); 
-		this.setName(other.getName()); 
-		this.setEmail(other.getEmail());
-		this.setPhotoUrl(other.getPhotoUrl());
+		this.title = other.getTitle(); 
+		this.name = other.getName(); 
+		this.email = other.getEmail();
+		this.photoUrl = other.getPhotoUrl();
+		publishTag();
 	}
 	
 	/**
@@ -141,11 +197,21 @@ public class Contact implements Serializable {
 		if (update.getId() != 0 && update.getId() != this.getId() )
 			throw new IllegalArgumentException("Update contact must have same id as contact to update");
 		// Since title is used to display contacts, don't allow empty title
-		if (! isEmpty( update.getTitle()) ) this.setTitle(update.getTitle()); // empty nickname is ok
+		if (! isEmpty( update.getTitle()) ) this.title = update.getTitle(); // empty nickname is ok
 		// other attributes: allow an empty string as a way of deleting an attribute in update (this is hacky)
-		this.setName(update.getName()); 
-		this.setEmail(update.getEmail());
-		this.setPhotoUrl(update.getPhotoUrl());
+		this.name = update.getName(); 
+		this.email = update.getEmail();
+		this.photoUrl = update.getPhotoUrl();
+		publishTag();
+	}
+	
+	/**
+	 * Compute the tag of the contact's data and publish it, after a writer
+	 * has set all the fields. The old tag is kept while the fields change,
+	 * so readers see either it or the new one.
+	 */
+	private void publishTag() {
+		tag = Long.toHexString(contentHash());
 	}
 	
 	/**
@@ -157,7 +223,81 @@ public class Contact implements Serializable {
 		return arg == null || arg.matches("\\s*") ;
 	}
 	
+	/**
+	 * Get the entity tag of this contact.
+	 * The tag is a 64-bit hash of the id, title, name, email and photoUrl,
+	 * in hexadecimal. It is cached until the contact is changed.
+	 * A tag computed here is only kept if no writer published one meanwhile.
+	 * @return the entity tag
+	 */
 	public String getTag(){
-		return Integer.toString((getId() + getTitle() + getName() + getEmail()).hashCode());
+		String t = tag;
+		if (t == null) {
+			t = Long.toHexString(contentHash());
+			if (! TAG.compareAndSet(this, null, t)) {
+				String published = tag;
+				if (published != null) t = published;
+			}
+		}
+		return t;
+	}
+	
+	/**
+	 * Set the lower case title. JPA calls this before it saves the contact;
+	 * the JPA DAO also calls it for contacts saved before the lower case title was kept.
+	 */
+	@PrePersist
+	@PreUpdate
+	public void updateTitleKey() {
+		titleKey = (title == null) ? "" : title.toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Forget the cached tag when JPA sets the fields directly, without using the setters.
+	 */
+	@PostLoad
+	@PostUpdate
+	void resetTag() {
+		tag = null;
+	}
+	
+	/**
+	 * Compute a 64-bit FNV-1a hash of all the contact's data,
+	 * then mix the bits so that similar contacts get very different tags.
+	 * @return the hash value
+	 */
+	private long contentHash() {
+		long h = 0xcbf29ce484222325L;
+		h = hash(h, id);
+		h = hash(h, title);
+		h = hash(h, name);
+		h = hash(h, email);
+		h = hash(h, photoUrl);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	private static long hash(long h, long value) {
+		for(int k=0; k<8; k++) {
+			h = (h ^ (value & 0xff)) * FNV_PRIME;
+			value >>>= 8;
+		}
+		return h;
+	}
+	
+	private static long hash(long h, String s) {
+		// hash the length first (-1 for null), so text can't move between fields unnoticed
+		if (s == null) return hash(h, -1L);
+		h = hash(h, s.length());
+		for(int k=0; k<s.length(); k++) {
+			char c = s.charAt(k);
+			h = (h ^ (c & 0xff)) * FNV_PRIME;
+			h = (h ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return h;
 	}
 }
\ No newline at end of file
@@ -19,7 +19,7 @@ public class ContactList {
 	/** Collect all contacts. */
 	private List<Contact> contact;
 	
-	/** A string representing a version of a representation of a ContactList. */
+	/** A string representing the store version that this list of contacts was taken from. */
 	private String etag;
 	
 	/**
@@ -27,7 +27,6 @@ public class ContactList {
 	 */
 	public ContactList() {
 		setContacts(new ArrayList<Contact>());
-		setEtag(this.hashCode());
 	}
 	
 	public List<Contact> getContacts() {
@@ -42,7 +41,11 @@ public class ContactList {
 		return etag;
 	}
 
-	public void setEtag(int hashCode) {
-		this.etag = Integer.toString(hashCode);
+	/**
+	 * Set the etag from the version of the store the contacts came from.
+	 * @param version a store version, see ContactDao.getVersion()
+	 */
+	public void setEtag(long version) {
+		this.etag = Long.toString(version);
 	}
 }
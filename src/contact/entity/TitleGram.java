@@ -0,0 +1,85 @@
+package contact.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * One trigram of a contact's lower case title, so a database can find
+ * titles that contain a string by looking up its trigrams in an index
+ * instead of scanning every title.
+ * Searches look up grams with the (gram, contactId) index, which has every
+ * column they need; the contactId index is used to remove the grams of a contact.
+ * Only used by the JPA DAO.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.29
+ *
+ */
+@Entity
+@Table(name="TitleGram", indexes={
+		@Index(name="IDX_TITLEGRAM_GRAM", columnList="gram, contact_id"),
+		@Index(name="IDX_TITLEGRAM_CONTACT", columnList="contact_id") })
+@IdClass(TitleGram.Key.class)
+public class TitleGram implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	@Id
+	@Column(name="gram", length=3)
+	private String gram;
+	
+	@Id
+	@Column(name="contact_id")
+	private long contactId;
+	
+	/** Primary key of a TitleGram. */
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private String gram;
+		private long contactId;
+		
+		public Key() { }
+		
+		public Key(String gram, long contactId) {
+			this.gram = gram;
+			this.contactId = contactId;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return key.contactId == contactId && key.gram.equals(gram);
+		}
+		
+		@Override
+		public int hashCode() {
+			return gram.hashCode() * 31 + (int)(contactId ^ (contactId >>> 32));
+		}
+	}
+	
+	/** Create an empty gram. Intended for use by persistence framework. */
+	public TitleGram() { }
+	
+	/**
+	 * @param gram a trigram of the contact's lower case title
+	 * @param contactId id of the contact
+	 */
+	public TitleGram(String gram, long contactId) {
+		this.gram = gram;
+		this.contactId = contactId;
+	}
+	
+	public String getGram() {
+		return gram;
+	}
+	
+	public long getContactId() {
+		return contactId;
+	}
+}
@@ -0,0 +1,36 @@
+package contact.entity;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Marks a contact that was deleted, in a list of changes
+ * sent to a client that is syncing.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.26
+ *
+ */
+@XmlRootElement(name="deleted")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class Tombstone {
+	/** id of the deleted contact. */
+	@XmlAttribute
+	private long id;
+	
+	/** No-arg constructor for JAXB. */
+	public Tombstone() { }
+	
+	/**
+	 * @param id id of the deleted contact
+	 */
+	public Tombstone(long id) {
+		this.id = id;
+	}
+	
+	public long getId() {
+		return id;
+	}
+}
@@ -0,0 +1,103 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.DaoFactory;
+import contact.service.xml.ContactXmlReader;
+import contact.service.xml.ContactXmlWriter;
+
+/**
+ * AdminResource imports and exports the whole address book as XML,
+ * in the same form as the data file of the memory DAO:
+ * <tt>&lt;contacts&gt;&lt;contact id="1"&gt;...&lt;/contact&gt;...&lt;etag&gt;version&lt;/etag&gt;&lt;/contacts&gt;</tt>.
+ * Both directions stream one contact at a time, so an address book
+ * of any size is imported or exported with a bounded amount of memory.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+@Path("/admin")
+@Singleton
+public class AdminResource {
+	private ContactDao dao;
+
+	/**
+	 * Get ContactDao from DaoFactory.
+	 */
+	public AdminResource() {
+		dao = DaoFactory.getInstance().getContactDao();
+	}
+
+	/**
+	 * Export all contacts and the store version.
+	 * @return 200 OK with the contacts, written while they are read
+	 */
+	@GET
+	@Path("export")
+	@Produces(MediaType.APPLICATION_XML)
+	public Response export(){
+		// read the version before any contacts, like a sync, so no change is missed
+		final String version = Long.toString(dao.getVersion());
+		StreamingOutput output = new StreamingOutput() {
+			@Override
+			public void write(OutputStream out) throws IOException, WebApplicationException {
+				ContactCursor cursor = dao.openCursor();
+				try {
+					ContactXmlWriter.write(out, cursor, version);
+				} finally {
+					cursor.close();
+				}
+			}
+		};
+		return Response.ok(output).build();
+	}
+
+	/**
+	 * Import contacts, saving them BULK_CHUNK_SIZE at a time.
+	 * A contact with an id replaces the contact with that id, or is
+	 * saved with that id if there is none, and a contact without one
+	 * is saved as a new contact. See ContactXmlReader.readInto.
+	 * @param body the contacts
+	 * @return 200 OK with the number of contacts saved, or 400 BAD_REQUEST
+	 *     with the number saved before the malformed XML was found
+	 */
+	@POST
+	@Path("import")
+	@Consumes(MediaType.APPLICATION_XML)
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response importContacts(InputStream body){
+		ContactXmlReader reader = null;
+		try{
+			reader = new ContactXmlReader(body);
+			int saved = reader.readInto(dao, ContactResource.BULK_CHUNK_SIZE);
+			return Response.ok(saved + "\n").build();
+		}catch(XMLStreamException e){
+			return badImport(reader, e.getMessage());
+		}catch(JAXBException e){
+			return badImport(reader, e.getMessage());
+		}
+	}
+
+	private static Response badImport(ContactXmlReader reader, String message){
+		int saved = reader == null ? 0 : reader.getSaved();
+		return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN)
+				.entity(saved + "\n" + message + "\n").build();
+	}
+}
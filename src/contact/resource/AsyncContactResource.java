@@ -0,0 +1,408 @@
+package contact.resource;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import contact.entity.Contact;
+import contact.service.AsyncContactDao;
+import contact.service.DaoFactory;
+import contact.service.ExecutorContactDao;
+import contact.service.TitleQuery;
+
+/**
+ * AsyncContactResource has the same operations on contacts as
+ * ContactResource, but no method waits for the DAO. Each request is
+ * suspended, the DAO work is queued on an AsyncContactDao with its own
+ * threads, and the response is sent when the work is done, so a slow
+ * database holds the DAO threads and not the server's threads.
+ * <p>
+ * When the DAO's queue is full, or the work is not done within
+ * TIMEOUT_MILLIS, the response is 503 SERVICE_UNAVAILABLE with a
+ * Retry-After header, instead of letting requests pile up. A 503 means
+ * nothing was changed: a timeout cancels the DAO work that has not
+ * started, and keeps a write that was still to come from starting.
+ * If a write has already started, the request waits TIMEOUT_MILLIS more
+ * for its result, and then gets 504 GATEWAY_TIMEOUT, since the write
+ * may still be done.
+ * Lists are sent one page at a time; the full list is streamed
+ * by ContactResource. ETags and Vary: Accept are the same as ContactResource's.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+@Path("/async/contacts")
+@Singleton
+public class AsyncContactResource {
+	/** Number of threads calling the DAO, can be set by system property. */
+	static final int THREADS = Integer.getInteger("contact.async.threads", 16);
+	/** Most DAO operations waiting for a thread, can be set by system property. */
+	static final int QUEUE_SIZE = Integer.getInteger("contact.async.queueSize", 256);
+	/** Milliseconds before a request that is not done gets 503, can be set by system property. */
+	static final long TIMEOUT_MILLIS = Long.getLong("contact.async.timeoutMillis", 10000L);
+	/** Seconds in the Retry-After header of a 503 response, can be set by system property. */
+	static final int RETRY_AFTER_SECONDS = Integer.getInteger("contact.async.retryAfterSeconds", 1);
+	private final AsyncContactDao dao;
+	private final long timeoutMillis;
+	private final Response NOT_FOUND = Response.status(Response.Status.NOT_FOUND).build();
+	private final Response CONFLICT = Response.status(Response.Status.CONFLICT).build();
+	private final Response BAD_REQUEST = Response.status(Response.Status.BAD_REQUEST).build();
+
+	/**
+	 * Queue the work of the DAO from DaoFactory on THREADS threads.
+	 */
+	public AsyncContactResource() {
+		this(new ExecutorContactDao(DaoFactory.getInstance().getContactDao(), THREADS, QUEUE_SIZE), TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param dao the DAO to use
+	 * @param timeoutMillis milliseconds before a request that is not done gets 503
+	 */
+	AsyncContactResource(AsyncContactDao dao, long timeoutMillis) {
+		this.dao = dao;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Stop the DAO threads when the application stops.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		dao.shutdown();
+	}
+
+	/**
+	 * Get contacts whose title matches the query string, or a page of
+	 * contacts ordered by id, as ContactResource.getContacts does.
+	 * The next page is in the Link header with rel="next".
+	 *
+	 * @param title, the query string that we want to find in contact's title.
+	 * @param match, "contains" (default) or "prefix".
+	 * @param order, "id" or "title" to order the matches.
+	 * @param limit, maximum number of contacts to return, or 0 for the default.
+	 * @param cursor, opaque cursor from a "next" link, to get the following page.
+	 * @param request the request, for choosing the media type
+	 * @param async the suspended response: 200 OK with contacts, 400 BAD_REQUEST
+	 *     if an option is invalid, or 503 SERVICE_UNAVAILABLE
+	 */
+	@GET
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public void getContacts(@QueryParam("title") String title, @QueryParam("match") String match,
+			@QueryParam("order") String order, @QueryParam("limit") @DefaultValue("0") int limit,
+			@QueryParam("cursor") String cursor, @Context UriInfo uriInfo, @Context Request request,
+			@Suspended AsyncResponse async){
+		final MediaType type = ContactResource.selectType(request);
+		if(title != null){
+			TitleQuery query = (cursor == null) ? ContactResource.createTitleQuery(title, match, order, limit) : null;
+			if(query == null){
+				async.resume(BAD_REQUEST);
+				return;
+			}
+			DaoCalls calls = new DaoCalls();
+			CompletableFuture<List<Contact>> found = calls.read(dao.search(query));
+			resume(async, calls, found.thenApply(new Function<List<Contact>,Response>(){
+				@Override
+				public Response apply(List<Contact> contacts){
+					return Response.ok(entity(contacts)).type(type).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+				}
+			}));
+			return;
+		}
+		long afterId = 0;
+		try{
+			if(cursor != null) afterId = PageCursor.decode(cursor);
+		}catch(IllegalArgumentException e){
+			async.resume(BAD_REQUEST);
+			return;
+		}
+		if(limit < 0){
+			async.resume(BAD_REQUEST);
+			return;
+		}
+		final int size = (limit == 0) ? ContactResource.DEFAULT_PAGE_SIZE : Math.min(limit, ContactResource.MAX_PAGE_SIZE);
+		// the request's URI info can't be used after the request thread returns
+		final UriBuilder next = uriInfo.getRequestUriBuilder();
+		DaoCalls calls = new DaoCalls();
+		CompletableFuture<List<Contact>> found = calls.read(dao.findPage(afterId, size + 1));
+		resume(async, calls, found.thenApply(new Function<List<Contact>,Response>(){
+			@Override
+			public Response apply(List<Contact> page){
+				ResponseBuilder builder = Response.ok().type(type).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+				if(page.size() <= size) return builder.entity(entity(page)).build();
+				page = new ArrayList<Contact>(page.subList(0, size));
+				String nextCursor = PageCursor.encode(page.get(size - 1).getId());
+				URI nextUri = next.replaceQueryParam("cursor", nextCursor).replaceQueryParam("limit", size).build();
+				return builder.entity(entity(page)).link(nextUri, "next").build();
+			}
+		}));
+	}
+
+	/**
+	 * Get one contact by id.
+	 * @param request the request, for If-None-Match and If-Match
+	 * @param id of contact that user request.
+	 * @param async the suspended response: 200 OK, 304 NOT_MODIFIED, 404 NOT_FOUND,
+	 *     or 503 SERVICE_UNAVAILABLE
+	 */
+	@GET
+	@Path("{id}")
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public void getContact(@Context final Request request, @PathParam("id") long id, @Suspended AsyncResponse async){
+		final MediaType type = ContactResource.selectType(request);
+		DaoCalls calls = new DaoCalls();
+		CompletableFuture<Contact> found = calls.read(dao.find(id));
+		resume(async, calls, found.thenApply(new Function<Contact,Response>(){
+			@Override
+			public Response apply(Contact contact){
+				if(contact == null) return NOT_FOUND;
+				EntityTag etag = ContactResource.variantTag(new EntityTag(contact.getTag()), type);
+				ResponseBuilder builder = request.evaluatePreconditions(etag);
+				if(builder == null) builder = Response.ok(contact).type(type);
+				return ContactResource.negotiated(builder, etag).build();
+			}
+		}));
+	}
+
+	/**
+	 * Create a new contact.
+	 * @param contact the new contact, as XML, JSON or binary
+	 * @param uriInfo information about the request URI, for the Location header
+	 * @param headers the request headers, for the type of the ETag
+	 * @param async the suspended response: 201 CREATED with the Location header,
+	 *     409 CONFLICT if the contact already exists, 503 SERVICE_UNAVAILABLE,
+	 *     or 504 GATEWAY_TIMEOUT
+	 */
+	@POST
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public void postContact(final Contact contact, @Context UriInfo uriInfo, @Context HttpHeaders headers,
+			@Suspended AsyncResponse async){
+		final UriBuilder location = uriInfo.getAbsolutePathBuilder();
+		final MediaType type = ContactResource.bodyType(headers);
+		DaoCalls calls = new DaoCalls();
+		CompletableFuture<Boolean> created = calls.write(new Supplier<CompletableFuture<Boolean>>(){
+			@Override
+			public CompletableFuture<Boolean> get(){
+				return dao.create(contact);
+			}
+		});
+		resume(async, calls, created.thenApply(new Function<Boolean,Response>(){
+			@Override
+			public Response apply(Boolean saved){
+				if(! saved) return CONFLICT;
+				return Response.created(location.path(Long.toString(contact.getId())).build())
+						.tag(ContactResource.variantTag(new EntityTag(contact.getTag()), type)).build();
+			}
+		}));
+	}
+
+	/**
+	 * Update a contact, if it matches the request's If-Match or If-None-Match.
+	 * @param request the request, for If-Match and If-None-Match
+	 * @param ifMatch the If-Match header, which may have the tag of any representation
+	 * @param contact the new values of the contact, as XML, JSON or binary
+	 * @param id the id of the contact
+	 * @param headers the request headers, for the type of the ETag
+	 * @param async the suspended response: 200 OK, 400 BAD_REQUEST if the ids differ,
+	 *     404 NOT_FOUND, 412 PRECONDITION_FAILED, 503 SERVICE_UNAVAILABLE, or 504 GATEWAY_TIMEOUT
+	 */
+	@PUT
+	@Path("{id}")
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public void putContact(@Context final Request request, @HeaderParam("If-Match") final String ifMatch,
+			final Contact contact, @PathParam("id") long id, @Context HttpHeaders headers, @Suspended AsyncResponse async){
+		if(contact.getId() != id){
+			async.resume(BAD_REQUEST);
+			return;
+		}
+		final MediaType type = ContactResource.bodyType(headers);
+		final DaoCalls calls = new DaoCalls();
+		CompletableFuture<Contact> found = calls.read(dao.find(id));
+		resume(async, calls, found.thenCompose(new Function<Contact,CompletionStage<Response>>(){
+			@Override
+			public CompletionStage<Response> apply(Contact old){
+				if(old == null) return CompletableFuture.completedFuture(NOT_FOUND);
+				ResponseBuilder builder = ContactResource.evaluateWritePreconditions(request, new EntityTag(old.getTag()), ifMatch != null);
+				if(builder != null) return CompletableFuture.completedFuture(builder.build());
+				return calls.write(new Supplier<CompletableFuture<Boolean>>(){
+					@Override
+					public CompletableFuture<Boolean> get(){
+						return dao.update(contact);
+					}
+				}).thenApply(new Function<Boolean,Response>(){
+					@Override
+					public Response apply(Boolean updated){
+						return updated ? Response.ok().tag(ContactResource.variantTag(new EntityTag(contact.getTag()), type)).build() : NOT_FOUND;
+					}
+				});
+			}
+		}));
+	}
+
+	/**
+	 * Delete a contact, if it matches the request's If-Match or If-None-Match.
+	 * @param request the request, for If-Match and If-None-Match
+	 * @param ifMatch the If-Match header, which may have the tag of any representation
+	 * @param id the id of the contact
+	 * @param async the suspended response: 200 OK, 404 NOT_FOUND,
+	 *     412 PRECONDITION_FAILED, 503 SERVICE_UNAVAILABLE, or 504 GATEWAY_TIMEOUT
+	 */
+	@DELETE
+	@Path("{id}")
+	public void deleteContact(@Context final Request request, @HeaderParam("If-Match") final String ifMatch,
+			@PathParam("id") final long id, @Suspended AsyncResponse async){
+		final DaoCalls calls = new DaoCalls();
+		CompletableFuture<Contact> found = calls.read(dao.find(id));
+		resume(async, calls, found.thenCompose(new Function<Contact,CompletionStage<Response>>(){
+			@Override
+			public CompletionStage<Response> apply(Contact old){
+				if(old == null) return CompletableFuture.completedFuture(NOT_FOUND);
+				ResponseBuilder builder = ContactResource.evaluateWritePreconditions(request, new EntityTag(old.getTag()), ifMatch != null);
+				if(builder != null) return CompletableFuture.completedFuture(builder.build());
+				return calls.write(new Supplier<CompletableFuture<Boolean>>(){
+					@Override
+					public CompletableFuture<Boolean> get(){
+						return dao.delete(id);
+					}
+				}).thenApply(new Function<Boolean,Response>(){
+					@Override
+					public Response apply(Boolean deleted){
+						return deleted ? Response.ok().build() : NOT_FOUND;
+					}
+				});
+			}
+		}));
+	}
+
+	/**
+	 * Send a response when it is ready, or 503 if the DAO's queue is full
+	 * or the response is not ready within the timeout. A timeout cancels
+	 * the DAO work of the request, unless a write has started; then the
+	 * request waits one more timeout for the write, and gets 504 if it is
+	 * still not done.
+	 * @param async the suspended response
+	 * @param calls the DAO operations of the request
+	 * @param response the response made from the DAO's results
+	 */
+	private void resume(final AsyncResponse async, final DaoCalls calls, final CompletableFuture<Response> response){
+		async.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+		async.setTimeoutHandler(new TimeoutHandler(){
+			private boolean waited;
+
+			@Override
+			public void handleTimeout(AsyncResponse timedOut){
+				if(calls.cancel()) timedOut.resume(unavailable());
+				else if(waited) timedOut.resume(Response.status(Response.Status.GATEWAY_TIMEOUT).build());
+				else{
+					waited = true;
+					timedOut.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+		response.whenComplete(new BiConsumer<Response,Throwable>(){
+			@Override
+			public void accept(Response value, Throwable error){
+				if(error == null){
+					async.resume(value);
+					return;
+				}
+				Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+				if(cause instanceof RejectedExecutionException) async.resume(unavailable());
+				// a cancelled request has had its response already
+				else if(! (cause instanceof CancellationException)) async.resume(cause);
+			}
+		});
+	}
+
+	/**
+	 * @return 503 SERVICE_UNAVAILABLE asking the client to retry after RETRY_AFTER_SECONDS
+	 */
+	private static Response unavailable(){
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+	}
+
+	/**
+	 * The DAO operation a request is waiting for, so a timeout can cancel it,
+	 * and whether it is a write. After a timeout no more operations start.
+	 */
+	private static class DaoCalls {
+		private CompletableFuture<?> current;
+		private boolean writing;
+		private boolean cancelled;
+
+		/**
+		 * Keep a read the request has started.
+		 * @param read the future of the read
+		 * @return the same future
+		 */
+		synchronized <T> CompletableFuture<T> read(CompletableFuture<T> read){
+			if(cancelled) read.cancel(false);
+			current = read;
+			writing = false;
+			return read;
+		}
+
+		/**
+		 * Start a write, unless the request has timed out.
+		 * @param write starts the write and returns its future
+		 * @return the future of the write, or a cancelled future if it was not started
+		 */
+		synchronized <T> CompletableFuture<T> write(Supplier<CompletableFuture<T>> write){
+			CompletableFuture<T> future;
+			if(cancelled){
+				future = new CompletableFuture<T>();
+				future.cancel(false);
+				return future;
+			}
+			future = write.get();
+			current = future;
+			writing = true;
+			return future;
+		}
+
+		/**
+		 * Stop the request's DAO work: cancel the current operation if it has not
+		 * started, and keep later operations from starting.
+		 * @return true if nothing is changed by the request, false if a write has started
+		 */
+		synchronized boolean cancel(){
+			cancelled = true;
+			if(current == null || current.cancel(false)) return true;
+			// a write that has started, or has finished and is about to be sent
+			return ! writing;
+		}
+	}
+
+	/**
+	 * @return a list of contacts with its generic type, so it can be written as XML, JSON or binary
+	 */
+	private static GenericEntity<List<Contact>> entity(List<Contact> contacts){
+		return new GenericEntity<List<Contact>>(contacts){};
+	}
+}
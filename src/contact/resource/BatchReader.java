@@ -0,0 +1,96 @@
+package contact.resource;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.xml.JaxbSupport;
+
+/**
+ * Reads the operations of a bulk request a few at a time, so a request
+ * with any number of operations can be applied without reading it all first.
+ * The XML looks like:
+ * <p><tt>
+ * &lt;operations&gt;<br>
+ * &nbsp;&lt;save&gt;&lt;contact&gt;...&lt;/contact&gt;&lt;/save&gt;<br>
+ * &nbsp;&lt;update&gt;&lt;contact id="101"&gt;...&lt;/contact&gt;&lt;/update&gt;<br>
+ * &nbsp;&lt;delete id="102"/&gt;<br>
+ * &lt;/operations&gt;
+ * </tt>
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.27
+ */
+class BatchReader {
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+	static {
+		// a bulk request never needs a DTD, so don't let one read other files
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private final XMLStreamReader reader;
+	private boolean done;
+
+	/**
+	 * Start reading a bulk request.
+	 * @param in the request body
+	 * @throws XMLStreamException if the body doesn't start with an operations element
+	 * @throws JAXBException if contacts can't be unmarshalled
+	 */
+	BatchReader(InputStream in) throws XMLStreamException, JAXBException {
+		reader = INPUT_FACTORY.createXMLStreamReader(in);
+		reader.nextTag();
+		reader.require(XMLStreamConstants.START_ELEMENT, null, "operations");
+	}
+
+	/**
+	 * Read the next operations.
+	 * @param max the most operations to read
+	 * @return up to max operations, or an empty list after the last one
+	 * @throws XMLStreamException if the XML is malformed or has an unknown operation
+	 * @throws JAXBException if a contact is malformed
+	 */
+	List<BatchOperation> next(int max) throws XMLStreamException, JAXBException {
+		List<BatchOperation> operations = new ArrayList<BatchOperation>();
+		Unmarshaller unmarshaller = JaxbSupport.getUnmarshaller();
+		while (! done && operations.size() < max) {
+			if (reader.nextTag() == XMLStreamConstants.END_ELEMENT) {
+				// end of the operations element
+				done = true;
+				break;
+			}
+			String name = reader.getLocalName();
+			if (name.equals("delete")) {
+				String id = reader.getAttributeValue(null, "id");
+				if (id == null) throw new XMLStreamException("delete without an id", reader.getLocation());
+				try {
+					operations.add(BatchOperation.delete(Long.parseLong(id)));
+				} catch (NumberFormatException ex) {
+					throw new XMLStreamException("bad id "+id, reader.getLocation());
+				}
+				reader.nextTag();
+			} else if (name.equals("save") || name.equals("update")) {
+				reader.nextTag();
+				reader.require(XMLStreamConstants.START_ELEMENT, null, "contact");
+				Contact contact = unmarshaller.unmarshal(reader, Contact.class).getValue();
+				operations.add(name.equals("save") ? BatchOperation.save(contact) : BatchOperation.update(contact));
+				// the unmarshaller stops just after the contact, which may be whitespace
+				while (reader.isWhiteSpace()) reader.next();
+			} else {
+				throw new XMLStreamException("unknown operation "+name, reader.getLocation());
+			}
+			reader.require(XMLStreamConstants.END_ELEMENT, null, name);
+		}
+		return operations;
+	}
+}
@@ -0,0 +1,224 @@
+package contact.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.MediaType;
+
+import contact.service.ContactDao;
+import contact.service.Metrics;
+
+/**
+ * Keeps the gzip bytes of the full list of contacts, one copy for each
+ * media type, so a list that has not changed is not written and
+ * compressed again for every request. A copy is used only by requests
+ * for the same store version as when it was made; any change to a
+ * contact makes the next request build a new one. A request that read
+ * an older version than the cached copy gets null, and doesn't replace
+ * the copy. A copy is kept only if the version did not change while the
+ * list was written, so its bytes are never newer than its version.
+ * <p>
+ * The list is compressed once per version, so the best compression
+ * level is used. Only one request at a time compresses the list of a
+ * media type, without locking the cache; other requests for that type
+ * get null meanwhile instead of waiting for it. A list shorter than the minimum size is not worth
+ * compressing, and one whose gzip bytes don't fit in the cache is
+ * not kept; for those get returns null and the list is streamed as usual.
+ * The copies of all media types together never use more than the
+ * maximum size; older versions are evicted first.
+ * Hits and misses are counted in Metrics as listingCache.*.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class CompressedListingCache {
+	/** A compressed list, or null bytes if the list of that version is not cached. */
+	private static class Entry {
+		final long version;
+		final byte[] bytes;
+
+		Entry(long version, byte[] bytes) {
+			this.version = version;
+			this.bytes = bytes;
+		}
+
+		int size() {
+			return bytes == null ? 0 : bytes.length;
+		}
+	}
+
+	private final long maxSize;
+	private final int minSize;
+	/** entries by media type. Always locked while used. */
+	private final Map<String,Entry> entries = new HashMap<String,Entry>();
+	/** media types whose list is being compressed. Always locked while used. */
+	private final Set<String> compressing = new HashSet<String>();
+	private long size;
+	private final AtomicLong hits = Metrics.counter("listingCache.hits");
+	private final AtomicLong misses = Metrics.counter("listingCache.misses");
+
+	/**
+	 * @param maxSize most bytes of compressed lists to keep
+	 * @param minSize smallest list in bytes, before compression, that is compressed
+	 */
+	public CompressedListingCache(long maxSize, int minSize) {
+		this.maxSize = maxSize;
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Get the gzip bytes of all contacts, compressing them if there is no
+	 * cached copy of the version.
+	 * @param dao the DAO to read contacts from
+	 * @param type the media type of the list
+	 * @param version the store version, read before the contacts
+	 * @return the gzip bytes, or null if the list is too small or too big to cache,
+	 *     the version is older than the cached copy, or the list is being compressed
+	 * @throws IOException if the contacts can't be written
+	 */
+	public byte[] get(ContactDao dao, MediaType type, long version) throws IOException {
+		String key = type.getType() + "/" + type.getSubtype();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.version == version) {
+				if (entry.bytes != null) hits.incrementAndGet();
+				return entry.bytes;
+			}
+			misses.incrementAndGet();
+			if (entry != null && entry.version > version) return null;
+			if (! compressing.add(key)) return null;
+		}
+		try {
+			byte[] bytes = compress(dao, type);
+			// a list written after a change has contacts newer than its version
+			if (dao.getVersion() == version) put(key, new Entry(version, bytes));
+			return bytes;
+		} finally {
+			synchronized (this) {
+				compressing.remove(key);
+			}
+		}
+	}
+
+	/** @return total bytes of the cached lists */
+	public synchronized long size() {
+		return size;
+	}
+
+	/** Write the list through gzip into memory, giving up if it gets bigger than the cache. */
+	private byte[] compress(ContactDao dao, MediaType type) throws IOException {
+		LimitedBuffer buffer = new LimitedBuffer(maxSize);
+		BestGzipStream gzip = new BestGzipStream(buffer);
+		CountingStream counter = new CountingStream(gzip);
+		try {
+			new ContactListStreamer(dao, type).write(counter);
+			gzip.finish();
+		} catch (LimitedBuffer.FullException ex) {
+			return null;
+		} finally {
+			gzip.end();
+		}
+		return (counter.count < minSize) ? null : buffer.toByteArray();
+	}
+
+	/** Add a copy, unless the cached copy of its media type is the same version or newer. */
+	private synchronized void put(String key, Entry entry) {
+		Entry old = entries.get(key);
+		if (old != null) {
+			if (old.version >= entry.version) return;
+			entries.remove(key);
+			size -= old.size();
+		}
+		evict(entry.size());
+		entries.put(key, entry);
+		size += entry.size();
+	}
+
+	/** Remove copies, stale versions first, until there is room for more bytes. */
+	private void evict(int needed) {
+		long newest = Long.MIN_VALUE;
+		for(Entry entry : entries.values()) newest = Math.max(newest, entry.version);
+		for(int pass = 0; pass < 2 && size + needed > maxSize; pass++) {
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext() && size + needed > maxSize) {
+				Entry entry = it.next();
+				if (pass == 0 && entry.version == newest) continue;
+				it.remove();
+				size -= entry.size();
+			}
+		}
+	}
+
+	/** Counts the bytes written through it. */
+	private static class CountingStream extends FilterOutputStream {
+		long count;
+
+		CountingStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/** Gzip at the best level, with a way to free the deflater if writing fails. */
+	private static class BestGzipStream extends GZIPOutputStream {
+		BestGzipStream(OutputStream out) throws IOException {
+			super(out, 8192);
+			def.setLevel(Deflater.BEST_COMPRESSION);
+		}
+
+		void end() {
+			def.end();
+		}
+	}
+
+	/** A byte buffer that throws FullException when more than its limit is written. */
+	private static class LimitedBuffer extends OutputStream {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final long limit;
+
+		LimitedBuffer(long limit) {
+			this.limit = limit;
+		}
+
+		static class FullException extends IOException {
+			private static final long serialVersionUID = 1L;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (bytes.size() + 1 > limit) throw new FullException();
+			bytes.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (bytes.size() + len > limit) throw new FullException();
+			bytes.write(b, off, len);
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+}
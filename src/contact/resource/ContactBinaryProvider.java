@@ -0,0 +1,109 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import contact.entity.BatchResult;
+import contact.entity.BatchResultList;
+import contact.entity.Contact;
+import contact.service.binary.ContactBinaryReader;
+import contact.service.binary.ContactBinaryWriter;
+
+/**
+ * Reads and writes a Contact, a List of Contact, or a BatchResultList
+ * in the binary form of ContactBinaryWriter, for services that call
+ * this one. Its media type is CONTACT_BINARY.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+@Provider
+@Produces(ContactBinaryProvider.CONTACT_BINARY)
+@Consumes(ContactBinaryProvider.CONTACT_BINARY)
+public class ContactBinaryProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+	/** Media type of the binary form. */
+	public static final String CONTACT_BINARY = "application/x-contact-binary";
+	/** CONTACT_BINARY as a MediaType. */
+	public static final MediaType CONTACT_BINARY_TYPE = new MediaType("application", "x-contact-binary");
+
+	/**
+	 * @return true if the type is List&lt;Contact&gt;
+	 */
+	private static boolean isContactList(Class<?> type, Type genericType) {
+		if (! List.class.isAssignableFrom(type) || ! (genericType instanceof ParameterizedType)) return false;
+		Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+		return arguments.length == 1 && arguments[0] == Contact.class;
+	}
+
+	private static boolean isSupported(Class<?> type, Type genericType) {
+		return type == Contact.class || type == BatchResultList.class || isContactList(type, genericType);
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return isSupported(type, genericType);
+	}
+
+	@Override
+	public long getSize(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+		ContactBinaryWriter writer = new ContactBinaryWriter(entityStream);
+		if (t instanceof Contact) {
+			writer.writeContact((Contact) t);
+		} else if (t instanceof BatchResultList) {
+			for(BatchResult result : ((BatchResultList) t).getResults()) writer.writeResult(result);
+		} else {
+			@SuppressWarnings("unchecked")
+			List<Contact> contacts = (List<Contact>) t;
+			writer.writeContacts(contacts.iterator());
+		}
+		writer.flush();
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return isSupported(type, genericType);
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+		ContactBinaryReader reader = new ContactBinaryReader(entityStream);
+		try {
+			if (Contact.class.equals(type)) {
+				Contact contact = reader.readContact();
+				reader.end();
+				return contact;
+			}
+			if (BatchResultList.class.equals(type)) {
+				BatchResultList results = new BatchResultList();
+				BatchResult result;
+				while ((result = reader.readResult()) != null) results.getResults().add(result);
+				return results;
+			}
+			return reader.readContacts();
+		} catch (ContactBinaryReader.MalformedRecordException ex) {
+			throw new BadRequestException(ex);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import contact.entity.BatchResultList;
+import contact.entity.Contact;
+import contact.service.json.ContactJsonReader;
+import contact.service.json.ContactJsonWriter;
+
+/**
+ * Reads and writes a Contact, or a List of Contact, as application/json
+ * with ContactJsonReader and ContactJsonWriter, and writes a BatchResultList.
+ * The field names are the same as in the XML form.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class ContactJsonProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+	/**
+	 * @return true if the type is List&lt;Contact&gt;
+	 */
+	private static boolean isContactList(Class<?> type, Type genericType) {
+		if (! List.class.isAssignableFrom(type) || ! (genericType instanceof ParameterizedType)) return false;
+		Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+		return arguments.length == 1 && arguments[0] == Contact.class;
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == Contact.class || type == BatchResultList.class || isContactList(type, genericType);
+	}
+
+	@Override
+	public long getSize(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+		ContactJsonWriter writer = new ContactJsonWriter(entityStream);
+		if (t instanceof Contact) {
+			writer.writeContact((Contact) t);
+		} else if (t instanceof BatchResultList) {
+			writer.writeResults(((BatchResultList) t).getResults());
+		} else {
+			@SuppressWarnings("unchecked")
+			List<Contact> contacts = (List<Contact>) t;
+			writer.writeContacts(contacts.iterator());
+		}
+		writer.flush();
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == Contact.class || isContactList(type, genericType);
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+		ContactJsonReader reader = new ContactJsonReader(entityStream);
+		try {
+			Object entity = Contact.class.equals(type) ? reader.readContact() : reader.readContacts();
+			reader.end();
+			return entity;
+		} catch (ContactJsonReader.MalformedJsonException ex) {
+			throw new BadRequestException(ex);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.binary.ContactBinaryWriter;
+import contact.service.json.ContactJsonWriter;
+import contact.service.xml.ContactXmlWriter;
+
+/**
+ * Writes all contacts as XML, JSON or binary while they are read from the DAO,
+ * instead of building a list and marshalling it all at once.
+ * The contacts come from a DAO cursor and are written by ContactXmlWriter,
+ * ContactJsonWriter or ContactBinaryWriter, so memory use is the same
+ * for 10 contacts or 10 million.
+ * Output is flushed to the client in chunks as it is written.
+ * <p>
+ * The XML has the same form as a marshalled list of contacts:
+ * <tt>&lt;contacts&gt;&lt;contact id="1"&gt;&lt;title&gt;...&lt;/title&gt;...&lt;/contact&gt;...&lt;/contacts&gt;</tt>,
+ * the JSON is an array of contact objects, and the binary form is
+ * contact records one after another.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactListStreamer implements StreamingOutput {
+	private final ContactDao dao;
+	private final MediaType type;
+
+	/**
+	 * Write the contacts as XML.
+	 * @param dao the DAO to read contacts from
+	 */
+	public ContactListStreamer(ContactDao dao) {
+		this(dao, MediaType.APPLICATION_XML_TYPE);
+	}
+
+	/**
+	 * @param dao the DAO to read contacts from
+	 * @param type application/json for JSON, ContactBinaryProvider.CONTACT_BINARY_TYPE
+	 *     for binary, otherwise XML
+	 */
+	public ContactListStreamer(ContactDao dao, MediaType type) {
+		this.dao = dao;
+		this.type = type;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		ContactCursor cursor = dao.openCursor();
+		try {
+			if (type.getSubtype().equals(MediaType.APPLICATION_JSON_TYPE.getSubtype())) {
+				ContactJsonWriter writer = new ContactJsonWriter(output);
+				writer.writeContacts(cursor);
+				writer.flush();
+			} else if (type.getSubtype().equals(ContactBinaryProvider.CONTACT_BINARY_TYPE.getSubtype())) {
+				ContactBinaryWriter writer = new ContactBinaryWriter(output);
+				writer.writeContacts(cursor);
+				writer.flush();
+			} else {
+				ContactXmlWriter.write(output, cursor, null);
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+}
@@ -1,28 +1,45 @@
 package contact.resource;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import javax.inject.Singleton;
 import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
-import javax.xml.bind.JAXBElement;
+import javax.ws.rs.core.Variant;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import contact.entity.BatchResult;
+import contact.entity.BatchResultList;
 import contact.entity.Contact;
+import contact.service.BatchOperation;
 import contact.service.ContactDao;
 import contact.service.DaoFactory;
+import contact.service.LatencyStats;
+import contact.service.Metrics;
+import contact.service.TitleQuery;
+import contact.service.binary.ContactBinaryReader;
+import contact.service.json.ContactJsonReader;
 
 /**
  * ContactResource provides RESTful Contact server.
  * ContactResourcr can create new contacts, get contacts by id or title, 
  * get all contacts, update a contact, delete a contact.
+ * Contacts and lists of contacts are XML, JSON, or the binary form of
+ * ContactBinaryProvider for other services, as the client accepts.
  * 
  * @author Juthamas Utamaphethai
  * @version 2014.10.6
@@ -31,7 +48,32 @@ import contact.service.DaoFactory;
 @Path("/contacts")
 @Singleton
 public class ContactResource {
+	/** Latency target for title searches in milliseconds, can be set by system property. */
+	static final long SEARCH_TARGET_MILLIS = Long.getLong("contact.search.targetMillis", 20L);
+	/** Page size when a cursor is given without a limit. */
+	static final int DEFAULT_PAGE_SIZE = 100;
+	/** Largest page that a client can ask for. */
+	static final int MAX_PAGE_SIZE = 1000;
+	/** Number of operations of a bulk request applied at a time, can be set by system property. */
+	static final int BULK_CHUNK_SIZE = Integer.getInteger("contact.bulk.chunkSize", 1000);
+	/** Start time of this server, part of every collection ETag. */
+	static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+	/** Most bytes of compressed lists to cache, or 0 for no cache, can be set by system property. */
+	static final long LISTING_CACHE_SIZE = Long.getLong("contact.listing.cacheSize", 8L << 20);
+	/** Smallest list in bytes that is cached compressed, can be set by system property. */
+	static final int LISTING_CACHE_MIN_SIZE = Integer.getInteger("contact.listing.cacheMinSize", 1024);
+	/** Added to the ETag of a gzip list, the same as GzipHandler adds to the tags of responses it compresses. */
+	static final String GZIP_TAG_SUFFIX = "--gzip";
+	/** Most bytes of encoded single contacts to cache, or 0 for no cache, can be set by system property. */
+	static final long REPRESENTATION_CACHE_SIZE = Long.getLong("contact.representationCache.size", 16L << 20);
+	/** Representations of a contact or streamed list, XML first so it is the default. */
+	static final List<Variant> LIST_VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_XML_TYPE,
+			MediaType.APPLICATION_JSON_TYPE, ContactBinaryProvider.CONTACT_BINARY_TYPE).build();
 	private ContactDao dao;
+	private final RepresentationCache representationCache;
+	private final CompressedListingCache listingCache = (LISTING_CACHE_SIZE > 0)
+			? new CompressedListingCache(LISTING_CACHE_SIZE, LISTING_CACHE_MIN_SIZE) : null;
+	private final LatencyStats searchStats = Metrics.timer("search", SEARCH_TARGET_MILLIS);
 	private final Response NOT_FOUND = Response.status(Response.Status.NOT_FOUND).build();
 	private final Response NOT_MODIFIED = Response.status(Response.Status.NOT_MODIFIED).build();
 	private final Response CONFLICT = Response.status(Response.Status.CONFLICT).build();
@@ -43,35 +85,288 @@ public class ContactResource {
 	 */
 	public ContactResource() {
 		dao = DaoFactory.getInstance().getContactDao();
+		representationCache = (REPRESENTATION_CACHE_SIZE > 0) ? new RepresentationCache(dao, REPRESENTATION_CACHE_SIZE) : null;
 		System.out.println("ContactResource : Initializing.");
 	}
 	
 	/**
 	 * Get a list of contacts or
-	 * get contact(s) whose title contains the query string.
+	 * get contact(s) whose title matches the query string.
+	 * A title query is answered only by the DAO's title search, and its
+	 * latency is recorded in the "search" metrics.
+	 * Without any parameters all contacts are streamed to the client.
+	 * If a limit or cursor is given without a title, the contacts are
+	 * returned one page at a time, ordered by id. When there are more
+	 * contacts, the response has a Link header with rel="next" for the next page.
+	 * Every response has a collection ETag that changes whenever any contact
+	 * changes, so a client can send If-None-Match to get 304 NOT_MODIFIED
+	 * without the server reading any contacts.
+	 * If the client accepts gzip, the full list is sent from a cache of
+	 * compressed lists while the store version is the same, so an unchanged
+	 * list is not read and compressed again (see CompressedListingCache).
+	 * Its ETag ends with GZIP_TAG_SUFFIX, like those of responses GzipHandler compresses.
+	 * Each media type has its own ETag (see variantTag), and every response
+	 * has Vary: Accept.
 	 * 
 	 * @param title, the query string that we want to find in contact's title.
-	 * @return 200 OK with contact, 404 NOT_FOUND if don't have a contact, 304 NOT_MODIFIED if contact isn't changed.
+	 * @param match, "contains" (default) to match anywhere in the title, or "prefix" to match the start.
+	 * @param order, "id" or "title" to order the matches. Default is title for prefix matches, id otherwise.
+	 * @param limit, maximum number of contacts to return, or 0 for no limit.
+	 * @param cursor, opaque cursor from a "next" link, to get the following page.
+	 * @param acceptEncoding, the Accept-Encoding header.
+	 * @return 200 OK with contacts, 304 NOT_MODIFIED if the client's copy is current,
+	 *     400 BAD_REQUEST if an option is invalid.
 	 */
 	@GET
-	@Produces(MediaType.APPLICATION_XML)
-	public Response getContacts(@QueryParam("title") String title){
-		List<Contact> contact = null;
-		if(title != null){
-				contact = dao.findByTitle(title);
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public Response getContacts(@QueryParam("title") String title, @QueryParam("match") String match,
+			@QueryParam("order") String order, @QueryParam("limit") @DefaultValue("0") int limit,
+			@QueryParam("cursor") String cursor, @HeaderParam("Accept-Encoding") String acceptEncoding,
+			@Context UriInfo uriInfo, @Context Request request){
+		if(title == null){
+			// the full list is streamed from a DAO cursor, not marshalled all at once
+			if(limit == 0 && cursor == null){
+				long version = dao.getVersion();
+				MediaType type = selectType(request);
+				EntityTag etag = variantTag(collectionTag(uriInfo, version), type);
+				boolean gzipAccepted = listingCache != null && acceptsGzip(acceptEncoding);
+				ResponseBuilder builder = request.evaluatePreconditions(etag);
+				if(builder != null)return negotiated(builder, etag).build();
+				// GzipHandler removes the suffix from If-None-Match, but it may not be installed
+				EntityTag gzipTag = gzipTag(etag);
+				if(gzipAccepted && (builder = request.evaluatePreconditions(gzipTag)) != null)return negotiated(builder, gzipTag).build();
+				byte[] gzip = gzipAccepted ? getCompressedList(type, version) : null;
+				if(gzip != null){
+					return Response.ok(gzip).type(type).tag(gzipTag).header(HttpHeaders.CONTENT_ENCODING, "gzip")
+							.header(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING).build();
+				}
+				return negotiated(Response.ok(new ContactListStreamer(dao, type)).type(type), etag).build();
+			}
+			return getPage(cursor, limit, uriInfo, request);
+		}
+		// title queries are limited, not paged
+		if(cursor != null)return BAD_REQUEST;
+		TitleQuery query = createTitleQuery(title, match, order, limit);
+		if(query == null)return BAD_REQUEST;
+		MediaType type = selectType(request);
+		EntityTag etag = variantTag(collectionTag(uriInfo), type);
+		ResponseBuilder builder = request.evaluatePreconditions(etag);
+		if(builder != null)return negotiated(builder, etag).build();
+		
+		long start = System.nanoTime();
+		List<Contact> contact = dao.search(query);
+		searchStats.record(System.nanoTime() - start);
+		return negotiated(Response.ok(mashal(contact)).type(type), etag).build();
+	}
+	
+	/**
+	 * Get one page of contacts ordered by id.
+	 * One extra contact is requested from the DAO to know if there is a next page.
+	 * @param cursor the cursor for this page, or null for the first page
+	 * @param limit the page size, or 0 for the default size
+	 * @param uriInfo information about the request URI, for building the next link
+	 * @param request the request, for evaluating If-None-Match
+	 * @return 200 OK with the page, 304 NOT_MODIFIED if the client's copy is current,
+	 *     400 BAD_REQUEST if the cursor or limit is invalid.
+	 */
+	private Response getPage(String cursor, int limit, UriInfo uriInfo, Request request){
+		if(limit < 0)return BAD_REQUEST;
+		long afterId = 0;
+		if(cursor != null){
+			try{
+				afterId = PageCursor.decode(cursor);
+			}catch(IllegalArgumentException e){
+				return BAD_REQUEST;
+			}
+		}
+		MediaType type = selectType(request);
+		EntityTag etag = variantTag(collectionTag(uriInfo), type);
+		ResponseBuilder builder = request.evaluatePreconditions(etag);
+		if(builder != null)return negotiated(builder, etag).build();
+		
+		int size = (limit == 0) ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+		List<Contact> page = dao.findPage(afterId, size + 1);
+		if(page.size() <= size) return negotiated(Response.ok(mashal(page)).type(type), etag).build();
+		
+		page = new ArrayList<Contact>(page.subList(0, size));
+		String next = PageCursor.encode(page.get(size - 1).getId());
+		URI nextUri = uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", next).replaceQueryParam("limit", size).build();
+		return negotiated(Response.ok(mashal(page)).type(type), etag).link(nextUri, "next").build();
+	}
+	
+	/**
+	 * Create the ETag for a response built from many contacts.
+	 * The tag is the DAO's store version, so it changes whenever any
+	 * contact changes, plus the time this server started, so tags from
+	 * before a restart never match. Responses to different query strings
+	 * get different tags. Only the version is read, not any contacts.
+	 * @param uriInfo information about the request URI
+	 * @return the collection ETag for this request
+	 */
+	private EntityTag collectionTag(UriInfo uriInfo){
+		return collectionTag(uriInfo, dao.getVersion());
+	}
+	
+	/**
+	 * Create the ETag for a response built from many contacts of a store version.
+	 * @param uriInfo information about the request URI
+	 * @param version the store version
+	 * @return the collection ETag for this request
+	 */
+	private EntityTag collectionTag(UriInfo uriInfo, long version){
+		StringBuilder tag = new StringBuilder(EPOCH).append('-').append(Long.toHexString(version));
+		String query = uriInfo.getRequestUri().getRawQuery();
+		if(query != null) tag.append('-').append(Integer.toHexString(query.hashCode()));
+		return new EntityTag(tag.toString());
+	}
+	
+	/**
+	 * Create the ETag of the gzip bytes of a response, which differs from
+	 * the tag of its identity bytes, as a strong tag must.
+	 * @param etag the tag of the response before it is compressed
+	 * @return the tag with GZIP_TAG_SUFFIX
+	 */
+	static EntityTag gzipTag(EntityTag etag){
+		return new EntityTag(etag.getValue() + GZIP_TAG_SUFFIX, etag.isWeak());
+	}
+	
+	/**
+	 * Create the ETag of one representation of a resource. XML, JSON and
+	 * binary are different bytes, so as strong tags they must differ.
+	 * @param etag the tag of the resource, such as a contact's tag
+	 * @param type the media type of the representation
+	 * @return the tag with "-xml", "-json" or "-binary" added
+	 */
+	static EntityTag variantTag(EntityTag etag, MediaType type){
+		String name = type.isCompatible(MediaType.APPLICATION_JSON_TYPE) ? "json"
+				: type.isCompatible(ContactBinaryProvider.CONTACT_BINARY_TYPE) ? "binary" : "xml";
+		return new EntityTag(etag.getValue() + "-" + name, etag.isWeak());
+	}
+	
+	/**
+	 * Choose the media type of a response from the Accept header.
+	 * @param request the request
+	 * @return the type of LIST_VARIANTS the client prefers, or XML
+	 */
+	static MediaType selectType(Request request){
+		Variant variant = request.selectVariant(LIST_VARIANTS);
+		return (variant == null) ? MediaType.APPLICATION_XML_TYPE : variant.getMediaType();
+	}
+	
+	/**
+	 * Add the ETag of a representation, and Vary: Accept since the
+	 * representation was chosen by the Accept header, to a response.
+	 * @param builder the response, which may be 304 NOT_MODIFIED
+	 * @param etag the tag from variantTag
+	 * @return the builder
+	 */
+	static ResponseBuilder negotiated(ResponseBuilder builder, EntityTag etag){
+		return builder.tag(etag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+	}
+	
+	/**
+	 * Evaluate the If-Match or If-None-Match of a PUT or DELETE, which may have
+	 * the tag of any representation of the contact. If-Match passes if it has
+	 * the tag of one of them, and If-None-Match fails if it has any of them.
+	 * @param request the request
+	 * @param etag the contact's tag
+	 * @param ifMatch true if the request has If-Match
+	 * @return null if the request can go on, or the builder of the failed precondition
+	 */
+	static ResponseBuilder evaluateWritePreconditions(Request request, EntityTag etag, boolean ifMatch){
+		ResponseBuilder builder = null;
+		for(Variant variant : LIST_VARIANTS){
+			builder = request.evaluatePreconditions(variantTag(etag, variant.getMediaType()));
+			if((builder == null) == ifMatch)return builder;
+		}
+		return builder;
+	}
+	
+	/**
+	 * Get the media type of a request body, for the tag of what was written.
+	 * @param headers the request headers
+	 * @return the Content-Type, or XML if there is none
+	 */
+	static MediaType bodyType(HttpHeaders headers){
+		MediaType type = headers.getMediaType();
+		return (type == null) ? MediaType.APPLICATION_XML_TYPE : type;
+	}
+	
+	/**
+	 * Get the gzip bytes of all contacts from the cache of compressed lists.
+	 * @param type the media type of the list
+	 * @param version the store version of the response's ETag
+	 * @return the gzip bytes, or null if the list is not cached
+	 */
+	private byte[] getCompressedList(MediaType type, long version){
+		try{
+			return listingCache.get(dao, type, version);
+		}catch(IOException e){
+			throw new WebApplicationException(e);
+		}
+	}
+	
+	/**
+	 * Check if an Accept-Encoding header accepts gzip, that is it has
+	 * gzip or * without q=0.
+	 * @param acceptEncoding the header, or null if there is none
+	 * @return true if a gzip response is acceptable
+	 */
+	static boolean acceptsGzip(String acceptEncoding){
+		if(acceptEncoding == null)return false;
+		for(String coding : acceptEncoding.split(",")){
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			if(! name.equalsIgnoreCase("gzip") && ! name.equals("*"))continue;
+			boolean refused = false;
+			for(int k = 1; k < parts.length; k++){
+				String param = parts[k].trim();
+				if(param.startsWith("q=") || param.startsWith("Q=")){
+					try{
+						refused = Double.parseDouble(param.substring(2).trim()) <= 0;
+					}catch(NumberFormatException e){
+						refused = true;
+					}
+				}
+			}
+			if(! refused)return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Create a title query from the request's query parameters.
+	 * @return the query, or null if a parameter is invalid
+	 */
+	static TitleQuery createTitleQuery(String title, String match, String order, int limit){
+		TitleQuery query = new TitleQuery(title);
+		if(match != null){
+			if(match.equalsIgnoreCase("prefix")) query.setPrefix(true);
+			else if(! match.equalsIgnoreCase("contains")) return null;
+		}
+		if(order != null){
+			try{
+				query.setOrder(TitleQuery.Order.valueOf(order.toUpperCase(Locale.ROOT)));
+			}catch(IllegalArgumentException e){
+				return null;
+			}
 		}
-		contact = dao.findAll();
-		return Response.ok(mashal(contact)).build();
+		if(limit < 0)return null;
+		if(limit > 0) query.setLimit(limit);
+		return query;
 	}
 	
 	/**
 	 * Get one contact by id.
+	 * The contact is sent as bytes from the RepresentationCache, which
+	 * encodes it only the first time after it changes. Each media type
+	 * has its own ETag, and the response has Vary: Accept.
 	 * @param id of contact that user request.
 	 * @return 200 OK if success, 404 NOT_FOUND if don't have a contact, 304 NOT_MODIFIED if contact isn't changed.
 	 */
 	@GET
 	@Path("{id}")
-	@Produces(MediaType.APPLICATION_XML)
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
 	public Response getContact(@HeaderParam("If-Match") String ifMatch,@HeaderParam("If-None-Match") String ifNoneMatch, @Context Request request, @PathParam("id") long id){
 		Contact contact = dao.find(id);
 		if(contact == null)return NOT_FOUND;
@@ -84,41 +379,56 @@ public class ContactResource {
 			CacheControl cc = new CacheControl();
 			cc.setMaxAge(-1);
 			
-			EntityTag etag = new EntityTag(oldEtag);
+			MediaType type = selectType(request);
+			EntityTag etag = variantTag(new EntityTag(oldEtag), type);
 			
 			ResponseBuilder builder = request.evaluatePreconditions(etag);
 			
 			if(builder == null){
-				builder = Response.ok(contact);
-				builder.tag(etag);
+				builder = (representationCache == null) ? Response.ok(contact).type(type) : encodedContact(contact, type);
 			}
 			
-			builder.cacheControl(cc);
+			negotiated(builder, etag).cacheControl(cc);
 			return builder.build();
 		}
 		return NOT_MODIFIED;
 	}
 	
+	/**
+	 * Start a response with the cached bytes of a contact, in the
+	 * media type that the client accepts.
+	 * @param contact the contact to send
+	 * @param type the media type from selectType
+	 * @return 200 OK with the encoded contact
+	 */
+	private ResponseBuilder encodedContact(Contact contact, MediaType type){
+		try{
+			return Response.ok(representationCache.get(contact, type)).type(type);
+		}catch(IOException e){
+			throw new WebApplicationException(e);
+		}
+	}
+	
 	/**
 	 * Create a new contact.
-	 * Use JAX-RS that automatically unmarshal data to Contact object annotaion
-	 * with JAXB annotation.
+	 * JAX-RS unmarshals the XML to a Contact with its JAXB annotations,
+	 * or reads JSON or binary with ContactJsonProvider or ContactBinaryProvider.
 	 * 
-	 * @param element get values of contact's element.
+	 * @param contact the new contact
 	 * @param uriInfo access request header and build URI information
+	 * @param headers the request headers; the ETag is that of the representation in the request's type
 	 * @return the Location header if it created and 409 CONFLICT if the contact already exists
 	 */
 	@POST
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
 	@Produces(MediaType.APPLICATION_XML)
-	public Response postContacts(JAXBElement<Contact> element, @Context UriInfo uriInfo, @Context Request request){
-		Contact contact = element.getValue();
-		
+	public Response postContacts(Contact contact, @Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers){
 		if(isContactExist(contact)){
 			return CONFLICT;
 		}
 		
 		dao.save(contact);
-		EntityTag etag = new EntityTag(contact.getTag());
+		EntityTag etag = variantTag(new EntityTag(contact.getTag()), bodyType(headers));
 		ResponseBuilder builder = request.evaluatePreconditions(etag);
 			
 		if(builder == null){
@@ -132,18 +442,133 @@ public class ContactResource {
 		return builder.build();
 	}
 	
+	/**
+	 * Create, update and delete many contacts in one request.
+	 * The operations are read and applied BULK_CHUNK_SIZE at a time
+	 * with the DAO's batch method, so the request can be any size.
+	 * The result of each operation is 201 if a contact was saved,
+	 * 409 if it wasn't, 200 if a contact was updated or deleted, or
+	 * 404 if there was no contact to update or delete.
+	 * See BatchReader for the form of the request.
+	 * 
+	 * @param body the request body with the operations
+	 * @return 200 OK with the result of each operation, or 400 BAD_REQUEST
+	 *     with the results of the operations that were applied before
+	 *     a malformed operation was found
+	 */
+	@POST
+	@Path("bulk")
+	@Consumes(MediaType.APPLICATION_XML)
+	@Produces(MediaType.APPLICATION_XML)
+	public Response postBulk(InputStream body){
+		BatchResultList results = new BatchResultList();
+		try{
+			BatchReader reader = new BatchReader(body);
+			List<BatchOperation> operations;
+			while(! (operations = reader.next(BULK_CHUNK_SIZE)).isEmpty()){
+				applyBatch(operations, results);
+			}
+		}catch(XMLStreamException e){
+			return Response.status(Response.Status.BAD_REQUEST).entity(results).build();
+		}catch(JAXBException e){
+			return Response.status(Response.Status.BAD_REQUEST).entity(results).build();
+		}
+		return Response.ok(results).build();
+	}
+	
+	/**
+	 * Create, update and delete many contacts in one request, in the binary
+	 * form of ContactBinaryWriter, the same way as postBulk.
+	 * 
+	 * @param body the request body with the operations
+	 * @return 200 OK with the result of each operation, or 400 BAD_REQUEST
+	 *     with the results of the operations that were applied before
+	 *     a malformed operation was found
+	 */
+	@POST
+	@Path("bulk")
+	@Consumes(ContactBinaryProvider.CONTACT_BINARY)
+	@Produces(ContactBinaryProvider.CONTACT_BINARY)
+	public Response postBulkBinary(InputStream body){
+		BatchResultList results = new BatchResultList();
+		try{
+			ContactBinaryReader reader = new ContactBinaryReader(body);
+			List<BatchOperation> operations;
+			while(! (operations = reader.nextOperations(BULK_CHUNK_SIZE)).isEmpty()){
+				applyBatch(operations, results);
+			}
+		}catch(ContactBinaryReader.MalformedRecordException e){
+			return Response.status(Response.Status.BAD_REQUEST).entity(results).build();
+		}catch(IOException e){
+			throw new WebApplicationException(e);
+		}
+		return Response.ok(results).build();
+	}
+	
+	/**
+	 * Create, update and delete many contacts in one request, in the JSON
+	 * form of ContactJsonReader, the same way as postBulk.
+	 * 
+	 * @param body the request body with the operations
+	 * @return 200 OK with the result of each operation, or 400 BAD_REQUEST
+	 *     with the results of the operations that were applied before
+	 *     a malformed operation was found
+	 */
+	@POST
+	@Path("bulk")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response postBulkJson(InputStream body){
+		BatchResultList results = new BatchResultList();
+		try{
+			ContactJsonReader reader = new ContactJsonReader(body);
+			List<BatchOperation> operations;
+			while(! (operations = reader.readOperations(BULK_CHUNK_SIZE)).isEmpty()){
+				applyBatch(operations, results);
+			}
+			reader.end();
+		}catch(ContactJsonReader.MalformedJsonException e){
+			return Response.status(Response.Status.BAD_REQUEST).entity(results).build();
+		}catch(IOException e){
+			throw new WebApplicationException(e);
+		}
+		return Response.ok(results).build();
+	}
+	
+	/**
+	 * Apply some operations of a bulk request and add their results.
+	 * @param operations the operations to apply
+	 * @param results the results so far; the next result's index is its size
+	 */
+	private void applyBatch(List<BatchOperation> operations, BatchResultList results){
+		boolean[] applied = dao.batch(operations);
+		int index = results.getResults().size();
+		for(int k = 0; k < applied.length; k++){
+			BatchOperation op = operations.get(k);
+			results.getResults().add(new BatchResult(index++, op.getId(), batchStatus(op, applied[k]).getStatusCode()));
+		}
+	}
+	
+	/**
+	 * @return the status of one operation of a bulk request, like the status of a single request
+	 */
+	private static Response.Status batchStatus(BatchOperation op, boolean applied){
+		if(op.getType() == BatchOperation.Type.SAVE) return applied ? Response.Status.CREATED : Response.Status.CONFLICT;
+		return applied ? Response.Status.OK : Response.Status.NOT_FOUND;
+	}
+	
 	/**
 	 * Update a contact.
-	 * @param element contains value that wants to update
+	 * @param contact the new values of the contact, as XML, JSON or binary
 	 * @param uriInfo access request header
 	 * @param id for updating the contact
+	 * @param headers the request headers; the ETag is that of the representation in the request's type
 	 * @return the Location header in the response of 200 OK and 400 NOT FOUND if can't update id
 	 */
 	@PUT
 	@Path("{id}")
-	public Response putContact(@HeaderParam("If-Match") String ifMatch, @HeaderParam("If-None-Match") String ifNoneMatch, @Context Request request, JAXBElement<Contact> element, @Context UriInfo uriInfo, @PathParam("id") long id){
-		Contact contact = element.getValue();
-		
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.CONTACT_BINARY})
+	public Response putContact(@HeaderParam("If-Match") String ifMatch, @HeaderParam("If-None-Match") String ifNoneMatch, @Context Request request, Contact contact, @Context UriInfo uriInfo, @PathParam("id") long id, @Context HttpHeaders headers){
 		if(contact.getId() != id || (ifMatch != null && ifNoneMatch != null)){
 			return BAD_REQUEST;
 		}
@@ -155,12 +580,12 @@ public class ContactResource {
 			if(old == null)return NOT_FOUND;
 			
 			EntityTag etag = new EntityTag(old.getTag());
-			ResponseBuilder builder = request.evaluatePreconditions(etag);
+			ResponseBuilder builder = evaluateWritePreconditions(request, etag, ifMatch != null);
 			
 			if(builder == null){
 				dao.update(contact);
 				builder = Response.ok();
-				builder.tag(new EntityTag( contact.getTag() ));
+				builder.tag(variantTag(new EntityTag( contact.getTag() ), bodyType(headers)));
 			}	
 			return builder.build();
 		}
@@ -184,7 +609,7 @@ public class ContactResource {
 		if(ifMatch == null || ifNoneMatch == null || ifMatch.equals(oldEtag) || !ifNoneMatch.equals(oldEtag)){
 			
 			EntityTag etag = new EntityTag(oldContact.getTag());
-			ResponseBuilder builder = request.evaluatePreconditions(etag);
+			ResponseBuilder builder = evaluateWritePreconditions(request, etag, ifMatch != null);
 			
 			if(builder == null){
 				dao.delete(id);
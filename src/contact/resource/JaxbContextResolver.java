@@ -0,0 +1,74 @@
+package contact.resource;
+
+import javax.ws.rs.ext.ContextResolver;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import contact.service.xml.JaxbSupport;
+
+/**
+ * Gives Jersey's XML providers the shared JAXBContext from JaxbSupport,
+ * so they don't create a context for Contact, ContactList, and the
+ * other entities the first time each is read or written.
+ * MarshallerResolver and UnmarshallerResolver give them the request
+ * thread's marshaller and unmarshaller, instead of a new one for
+ * every request. These are registered by JettyMain.
+ * For a class that is not in the shared context, they return null
+ * and Jersey makes its own.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class JaxbContextResolver implements ContextResolver<JAXBContext> {
+
+	/**
+	 * @see javax.ws.rs.ext.ContextResolver#getContext(java.lang.Class)
+	 */
+	@Override
+	public JAXBContext getContext(Class<?> type) {
+		if (! JaxbSupport.isBound(type)) return null;
+		try {
+			return JaxbSupport.getContext();
+		} catch (JAXBException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Resolves the request thread's marshaller.
+	 */
+	public static class MarshallerResolver implements ContextResolver<Marshaller> {
+		/**
+		 * @see javax.ws.rs.ext.ContextResolver#getContext(java.lang.Class)
+		 */
+		@Override
+		public Marshaller getContext(Class<?> type) {
+			if (! JaxbSupport.isBound(type)) return null;
+			try {
+				return JaxbSupport.getMarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the request thread's unmarshaller.
+	 */
+	public static class UnmarshallerResolver implements ContextResolver<Unmarshaller> {
+		/**
+		 * @see javax.ws.rs.ext.ContextResolver#getContext(java.lang.Class)
+		 */
+		@Override
+		public Unmarshaller getContext(Class<?> type) {
+			if (! JaxbSupport.isBound(type)) return null;
+			try {
+				return JaxbSupport.getUnmarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package contact.resource;
+
+import java.util.Map;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import contact.service.Metrics;
+
+/**
+ * MetricsResource reports the service's counters and latency statistics,
+ * such as the latency of title searches compared with their target.
+ * The result is plain text with one "name value" pair per line.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.22
+ */
+@Path("/metrics")
+@Singleton
+public class MetricsResource {
+	
+	/**
+	 * Get all metrics.
+	 * @return 200 OK with the metrics as plain text
+	 */
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getMetrics(){
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<String,Number> metric : Metrics.snapshot().entrySet()){
+			text.append(metric.getKey()).append(' ').append(metric.getValue()).append('\n');
+		}
+		return Response.ok(text.toString()).build();
+	}
+}
@@ -0,0 +1,48 @@
+package contact.resource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for paging through contacts.
+ * A cursor records the id of the last contact on a page, so the next
+ * page can start right after it (keyset paging). The id is encoded so
+ * clients treat the cursor as a token rather than build their own.
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.23
+ */
+class PageCursor {
+	/** Prefix of the cursor text, so the format can change later. */
+	private static final String VERSION = "c1:";
+
+	private PageCursor() {
+		// static methods only
+	}
+	
+	/**
+	 * Create a cursor for the page after a contact.
+	 * @param lastId id of the last contact on the current page
+	 * @return the cursor
+	 */
+	static String encode(long lastId) {
+		byte[] text = (VERSION + lastId).getBytes(StandardCharsets.UTF_8);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text);
+	}
+	
+	/**
+	 * Get the id of the last contact before the page a cursor refers to.
+	 * @param cursor a cursor created by encode
+	 * @return the id in the cursor
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	static long decode(String cursor) {
+		String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		if (! text.startsWith(VERSION)) throw new IllegalArgumentException("invalid cursor");
+		try {
+			return Long.parseLong(text.substring(VERSION.length()));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("invalid cursor");
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package contact.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBException;
+
+import contact.entity.Contact;
+import contact.service.ChangeLog;
+import contact.service.ContactDao;
+import contact.service.Metrics;
+import contact.service.binary.ContactBinaryWriter;
+import contact.service.json.ContactJsonWriter;
+import contact.service.xml.JaxbSupport;
+
+/**
+ * Keeps the encoded bytes of single contacts, so a GET of a contact
+ * that has not changed is answered without marshalling it again.
+ * There is one representation for each media type of a contact, and
+ * each is kept with the contact's ETag; it is used only for a contact
+ * with the same tag. A contact is encoded from a private copy, and the
+ * bytes are kept only if the copy has the tag they were looked up with,
+ * so an update of the contact while it is copied can't put new or mixed
+ * bytes under its old tag.
+ * <p>
+ * Before each lookup the DAO's changes since the last lookup are read,
+ * and the representations of every contact that was saved, updated or
+ * deleted are removed, so they don't use memory after they are stale.
+ * The cache is bounded by bytes, not entries: the representations are
+ * counted by their length plus a fixed overhead, and the contacts used
+ * least recently are evicted when the total is over the maximum.
+ * Hits and misses are counted in Metrics as representationCache.*,
+ * with gauges of the hit ratio and the bytes in the cache.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class RepresentationCache {
+	/** Bytes counted for each representation besides its bytes, for the objects that hold it. */
+	static final int OVERHEAD = 96;
+
+	/** The bytes of one contact in one media type, and the contact's tag. */
+	private static class Representation {
+		final String type;
+		final String tag;
+		final byte[] bytes;
+
+		Representation(String type, String tag, byte[] bytes) {
+			this.type = type;
+			this.tag = tag;
+			this.bytes = bytes;
+		}
+
+		int size() {
+			return bytes.length + OVERHEAD;
+		}
+	}
+
+	private final ContactDao dao;
+	private final long maxSize;
+	/** representations of each contact by id, least recently used first. Always locked while used. */
+	private final LinkedHashMap<Long,Representation[]> representations = new LinkedHashMap<Long,Representation[]>(16, 0.75f, true);
+	private long size;
+	/** store version of the last changes read from the DAO */
+	private long version;
+	private final AtomicLong hits = Metrics.counter("representationCache.hits");
+	private final AtomicLong misses = Metrics.counter("representationCache.misses");
+
+	/**
+	 * @param dao the DAO whose contacts are cached, to read its changes
+	 * @param maxSize most bytes of representations to keep
+	 */
+	public RepresentationCache(ContactDao dao, long maxSize) {
+		this.dao = dao;
+		this.maxSize = maxSize;
+		this.version = dao.getVersion();
+		Metrics.ratio("representationCache.hitRatio", hits, misses);
+		Metrics.gauge("representationCache.bytes", new Metrics.Gauge() {
+			@Override
+			public Number getValue() {
+				return size();
+			}
+		});
+	}
+
+	/**
+	 * Get the encoded bytes of a contact, encoding and caching them
+	 * if they are not cached for the contact's current tag.
+	 * @param contact the contact, as found in the DAO
+	 * @param type application/json, ContactBinaryProvider.CONTACT_BINARY_TYPE, or XML
+	 * @return the bytes of the contact in that media type
+	 * @throws IOException if the contact can't be encoded
+	 */
+	public byte[] get(Contact contact, MediaType type) throws IOException {
+		String key = type.getType() + "/" + type.getSubtype();
+		String tag = contact.getTag();
+		removeChanged();
+		byte[] bytes = find(contact.getId(), key, tag);
+		if (bytes != null) {
+			hits.incrementAndGet();
+			return bytes;
+		}
+		misses.incrementAndGet();
+		// encode a copy outside the lock, so other lookups don't wait for it
+		// and an update of the DAO's contact can't change it while it is encoded
+		Contact copy = new Contact(contact.getId());
+		copy.copyOf(contact);
+		bytes = encode(copy, type);
+		// a different tag means the contact changed after its tag was read
+		if (copy.getTag().equals(tag)) put(contact.getId(), new Representation(key, tag, bytes));
+		return bytes;
+	}
+
+	/** @return total bytes of the representations, with their overhead */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Remove the representations of all contacts.
+	 */
+	public synchronized void clear() {
+		representations.clear();
+		size = 0;
+	}
+
+	/**
+	 * Encode one contact in a media type, the same as its MessageBodyWriter would.
+	 * @param contact the contact to encode
+	 * @param type application/json, ContactBinaryProvider.CONTACT_BINARY_TYPE, or XML
+	 * @return the encoded contact
+	 * @throws IOException if the contact can't be encoded
+	 */
+	static byte[] encode(Contact contact, MediaType type) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		if (type.getSubtype().equals(MediaType.APPLICATION_JSON_TYPE.getSubtype())) {
+			ContactJsonWriter writer = new ContactJsonWriter(out);
+			writer.writeContact(contact);
+			writer.flush();
+		} else if (type.getSubtype().equals(ContactBinaryProvider.CONTACT_BINARY_TYPE.getSubtype())) {
+			ContactBinaryWriter writer = new ContactBinaryWriter(out);
+			writer.writeContact(contact);
+			writer.flush();
+		} else {
+			try {
+				JaxbSupport.getMarshaller().marshal(contact, out);
+			} catch (JAXBException ex) {
+				throw new IOException("Can't marshal contact "+contact.getId(), ex);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the cached bytes of a contact with the tag, or null */
+	private synchronized byte[] find(long id, String type, String tag) {
+		Representation[] forContact = representations.get(id);
+		if (forContact == null) return null;
+		for(Representation representation : forContact) {
+			if (representation.type.equals(type)) return representation.tag.equals(tag) ? representation.bytes : null;
+		}
+		return null;
+	}
+
+	/** Add or replace a representation, then evict until the cache is not over its size. */
+	private synchronized void put(long id, Representation representation) {
+		if (representation.size() > maxSize) return;
+		Representation[] old = representations.get(id);
+		Representation[] forContact;
+		if (old == null) {
+			forContact = new Representation[] { representation };
+		} else {
+			forContact = replace(old, representation);
+			for(Representation replaced : old) size -= replaced.size();
+		}
+		representations.put(id, forContact);
+		for(Representation added : forContact) size += added.size();
+		Iterator<Map.Entry<Long,Representation[]>> eldest = representations.entrySet().iterator();
+		while (size > maxSize && eldest.hasNext()) {
+			Map.Entry<Long,Representation[]> entry = eldest.next();
+			if (entry.getKey() == id) continue;
+			for(Representation evicted : entry.getValue()) size -= evicted.size();
+			eldest.remove();
+		}
+	}
+
+	/** @return a copy of the representations with the one of the same type replaced or added */
+	private static Representation[] replace(Representation[] forContact, Representation representation) {
+		for(int k = 0; k < forContact.length; k++) {
+			if (forContact[k].type.equals(representation.type)) {
+				Representation[] copy = forContact.clone();
+				copy[k] = representation;
+				return copy;
+			}
+		}
+		Representation[] copy = new Representation[forContact.length + 1];
+		System.arraycopy(forContact, 0, copy, 0, forContact.length);
+		copy[forContact.length] = representation;
+		return copy;
+	}
+
+	/**
+	 * Remove the representations of contacts that changed since the last lookup.
+	 * The DAO is called without the lock, so lookups don't wait for each other's
+	 * DAO calls; if another thread removes the changes first, these are dropped
+	 * and the next lookup reads any that are left.
+	 */
+	private void removeChanged() {
+		long seen;
+		synchronized (this) {
+			seen = version;
+		}
+		long current = dao.getVersion();
+		if (current == seen) return;
+		List<ChangeLog.Change> changes = dao.findChanges(seen);
+		synchronized (this) {
+			if (version != seen) return;
+			if (changes == null) {
+				// too many changes to know which contacts they were
+				clear();
+			} else {
+				for(ChangeLog.Change change : changes) remove(change.getId());
+			}
+			version = current;
+		}
+	}
+
+	private void remove(long id) {
+		Representation[] forContact = representations.remove(id);
+		if (forContact == null) return;
+		for(Representation old : forContact) size -= old.size();
+	}
+}
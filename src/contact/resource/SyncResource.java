@@ -0,0 +1,89 @@
+package contact.resource;
+
+import java.util.List;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import contact.entity.ChangeList;
+import contact.entity.Contact;
+import contact.entity.Tombstone;
+import contact.service.ChangeLog;
+import contact.service.ContactDao;
+import contact.service.DaoFactory;
+
+/**
+ * SyncResource lets a client keep a copy of the contacts up to date
+ * by getting only what changed since it last synced.
+ * The first sync (without a version) returns all contacts.
+ * Every response has a version token; the client sends it back as
+ * <tt>GET /sync?since=token</tt> and gets the contacts that were saved
+ * or updated since then, and a <tt>deleted</tt> element for each contact
+ * that was deleted. If the changes since that version are no longer kept,
+ * or the server has restarted, the response is 410 GONE and the client
+ * has to sync everything again.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.26
+ */
+@Path("/sync")
+@Singleton
+public class SyncResource {
+	private ContactDao dao;
+	private final Response BAD_REQUEST = Response.status(Response.Status.BAD_REQUEST).build();
+	private final Response GONE = Response.status(Response.Status.GONE).build();
+
+	/**
+	 * Get ContactDao from DaoFactory.
+	 */
+	public SyncResource() {
+		dao = DaoFactory.getInstance().getContactDao();
+	}
+
+	/**
+	 * Get changes since a version, or all contacts if no version is given.
+	 * A contact that changed more than once is sent once, as it is now.
+	 * @param since version token from the client's last sync
+	 * @return 200 OK with the changes and a new version token,
+	 *     400 BAD_REQUEST if the token is malformed,
+	 *     410 GONE if the client has to sync everything again.
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_XML)
+	public Response getChanges(@QueryParam("since") String since){
+		// read the version before any contacts, so no change is missed
+		long version = dao.getVersion();
+		ChangeList list = new ChangeList();
+		list.setVersion(ContactResource.EPOCH + "." + version);
+		if(since == null){
+			list.setContacts(dao.findAll());
+			return Response.ok(list).build();
+		}
+
+		int dot = since.lastIndexOf('.');
+		if(dot < 0)return BAD_REQUEST;
+		// versions from before a restart mean nothing now
+		if(! since.substring(0, dot).equals(ContactResource.EPOCH))return GONE;
+		long from;
+		try{
+			from = Long.parseLong(since.substring(dot + 1));
+		}catch(NumberFormatException e){
+			return BAD_REQUEST;
+		}
+
+		List<ChangeLog.Change> changes = dao.findChanges(from);
+		if(changes == null)return GONE;
+		for(ChangeLog.Change change : changes){
+			Contact contact = change.isDeleted() ? null : dao.find(change.getId());
+			// a contact that was deleted after the log was read is also a tombstone
+			if(contact == null) list.getDeleted().add(new Tombstone(change.getId()));
+			else list.getContacts().add(contact);
+		}
+		return Response.ok(list).build();
+	}
+}
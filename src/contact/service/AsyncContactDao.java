@@ -0,0 +1,74 @@
+package contact.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import contact.entity.Contact;
+
+/**
+ * Data access for contacts that does not block the caller.
+ * Each method starts the work on other threads and returns a future
+ * that is completed with the result of the ContactDao method of the
+ * same name, or completed exceptionally with the exception it threw.
+ * <p>
+ * The work waits in a bounded queue. When the queue is full a method
+ * does not wait for room; its future fails at once with a
+ * RejectedExecutionException, so the caller can tell its client to
+ * come back later. Cancelling a future before its work has started
+ * keeps the work from running. Once the work has started, cancel
+ * returns false and the future is completed with the work's result,
+ * so a caller can tell whether a write may still happen.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public interface AsyncContactDao {
+
+	/**
+	 * Find a contact by id.
+	 * @param id the id of the contact
+	 * @return future of the contact, or of null if there is none
+	 */
+	public abstract CompletableFuture<Contact> find(long id);
+
+	/**
+	 * Find contacts whose title matches a query.
+	 * @param query the title query
+	 * @return future of the matching contacts
+	 */
+	public abstract CompletableFuture<List<Contact>> search(TitleQuery query);
+
+	/**
+	 * Find one page of contacts ordered by id.
+	 * @param afterId the page has contacts with ids greater than this
+	 * @param limit most contacts to return
+	 * @return future of the contacts of the page
+	 */
+	public abstract CompletableFuture<List<Contact>> findPage(long afterId, int limit);
+
+	/**
+	 * Save a new contact, unless there is already a contact with its id.
+	 * @param contact the new contact; an id of 0 is assigned a new id
+	 * @return future of true if it was saved, false if the id was used
+	 */
+	public abstract CompletableFuture<Boolean> create(Contact contact);
+
+	/**
+	 * Update a contact, as ContactDao.update.
+	 * @param update the new values of the contact
+	 * @return future of true if it was updated, false if there is no such contact
+	 */
+	public abstract CompletableFuture<Boolean> update(Contact update);
+
+	/**
+	 * Delete a contact by id.
+	 * @param id the id of the contact
+	 * @return future of true if it was deleted, false if there is no such contact
+	 */
+	public abstract CompletableFuture<Boolean> delete(long id);
+
+	/**
+	 * Stop taking work. Work already queued is still done.
+	 */
+	public abstract void shutdown();
+}
@@ -0,0 +1,83 @@
+package contact.service;
+
+import contact.entity.Contact;
+
+/**
+ * One operation in a batch of changes given to ContactDao.batch.
+ * Create operations with the static methods, for example:
+ * <p><tt>
+ * List&lt;BatchOperation&gt; ops = new ArrayList&lt;BatchOperation&gt;();<br>
+ * ops.add(BatchOperation.save(contact));<br>
+ * ops.add(BatchOperation.delete(101));<br>
+ * boolean[] applied = dao.batch(ops);
+ * </tt>
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.27
+ */
+public class BatchOperation {
+	/** Kinds of operations, with the same meaning as the DAO methods. */
+	public enum Type {
+		/** save a new contact, like ContactDao.save, but not if a contact has its id */
+		SAVE,
+		/** update an existing contact, like ContactDao.update */
+		UPDATE,
+		/** delete a contact by id, like ContactDao.delete */
+		DELETE
+	}
+
+	private final Type type;
+	private final Contact contact;
+	private final long id;
+
+	private BatchOperation(Type type, Contact contact, long id) {
+		this.type = type;
+		this.contact = contact;
+		this.id = id;
+	}
+
+	/**
+	 * @param contact the contact to save. Must not be null.
+	 * @return operation to save the contact
+	 */
+	public static BatchOperation save(Contact contact) {
+		if (contact == null) throw new IllegalArgumentException("Can't save a null contact");
+		return new BatchOperation(Type.SAVE, contact, contact.getId());
+	}
+
+	/**
+	 * @param update the new values and id of the contact to update. Must not be null.
+	 * @return operation to update the contact
+	 */
+	public static BatchOperation update(Contact update) {
+		if (update == null) throw new IllegalArgumentException("Can't update a null contact");
+		return new BatchOperation(Type.UPDATE, update, update.getId());
+	}
+
+	/**
+	 * @param id id of the contact to delete
+	 * @return operation to delete the contact
+	 */
+	public static BatchOperation delete(long id) {
+		return new BatchOperation(Type.DELETE, null, id);
+	}
+
+	/** @return the kind of operation */
+	public Type getType() {
+		return type;
+	}
+
+	/** @return the contact to save or update, or null for a delete */
+	public Contact getContact() {
+		return contact;
+	}
+
+	/**
+	 * Get the id of the contact. For a save of a new contact this is 0
+	 * until the batch is applied, then it is the id the contact was given.
+	 * @return id of the contact this operation changes
+	 */
+	public long getId() {
+		return contact != null ? contact.getId() : id;
+	}
+}
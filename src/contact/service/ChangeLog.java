@@ -0,0 +1,150 @@
+package contact.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Log of changes to a store of contacts, used for delta sync.
+ * Each change gets the next store version. The log is compacted:
+ * only the latest change to each contact is kept, so a contact that
+ * is updated many times costs one entry. Retention is bounded;
+ * when there are more than <tt>capacity</tt> entries the oldest
+ * are discarded and the floor moves up. Changes since a version
+ * below the floor can't be answered, and the client has to
+ * sync everything again.
+ * <p>
+ * A DAO records a change after it is visible to the DAO's find methods,
+ * so a client that reads the version before reading contacts never
+ * misses a change.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.26
+ */
+public class ChangeLog {
+	/** Default number of changes to keep, can be set by system property. */
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("contact.changelog.capacity", 10000);
+
+	/** One change to a contact. */
+	public static class Change {
+		private final long id;
+		private final long version;
+		private final boolean deleted;
+
+		Change(long id, long version, boolean deleted) {
+			this.id = id;
+			this.version = version;
+			this.deleted = deleted;
+		}
+
+		/** @return id of the contact that changed */
+		public long getId() {
+			return id;
+		}
+
+		/** @return store version of the change */
+		public long getVersion() {
+			return version;
+		}
+
+		/** @return true if the contact was deleted, false if it was saved or updated */
+		public boolean isDeleted() {
+			return deleted;
+		}
+	}
+
+	private final int capacity;
+	/** changes ordered by version */
+	private final TreeMap<Long,Change> changes = new TreeMap<Long,Change>();
+	/** version of the latest change to each contact in the log */
+	private final Map<Long,Long> latest = new HashMap<Long,Long>();
+	private long version;
+	/** changes after this version are all in the log */
+	private long floor;
+
+	/**
+	 * Create a log with the default capacity.
+	 */
+	public ChangeLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity maximum number of changes to keep. Must be positive.
+	 */
+	public ChangeLog(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Record that a contact was saved or updated.
+	 * @param id id of the contact
+	 * @return the new store version
+	 */
+	public long updated(long id) {
+		return record(id, false);
+	}
+
+	/**
+	 * Record that a contact was deleted.
+	 * @param id id of the contact
+	 * @return the new store version
+	 */
+	public long deleted(long id) {
+		return record(id, true);
+	}
+
+	/**
+	 * Record that all contacts were removed. All changes are discarded,
+	 * so clients must sync everything again.
+	 * @return the new store version
+	 */
+	public synchronized long cleared() {
+		changes.clear();
+		latest.clear();
+		floor = ++version;
+		return version;
+	}
+
+	private synchronized long record(long id, boolean deleted) {
+		version++;
+		Long previous = latest.put(id, version);
+		if (previous != null) changes.remove(previous);
+		changes.put(version, new Change(id, version, deleted));
+		while (changes.size() > capacity) {
+			Change oldest = changes.pollFirstEntry().getValue();
+			latest.remove(oldest.getId());
+			floor = oldest.getVersion();
+		}
+		return version;
+	}
+
+	/** @return the current store version */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/** @return oldest version that changesSince can answer */
+	public synchronized long getFloor() {
+		return floor;
+	}
+
+	/**
+	 * Get the latest change to each contact that changed after a version.
+	 * @param since a store version returned by getVersion
+	 * @return changes in version order, or null if the version is below the
+	 *     floor or above the current version
+	 */
+	public synchronized List<Change> changesSince(long since) {
+		if (since < floor || since > version) return null;
+		return new ArrayList<Change>(changes.tailMap(since, false).values());
+	}
+
+	/** @return number of changes in the log */
+	public synchronized int size() {
+		return changes.size();
+	}
+}
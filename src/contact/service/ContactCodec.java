@@ -0,0 +1,110 @@
+package contact.service;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import contact.entity.Contact;
+
+/**
+ * Compact binary encoding of a Contact, for storage engines
+ * that keep contacts as bytes instead of objects.
+ * A record is the contact id (8 bytes) followed by the title, name,
+ * email and photoUrl. Each string is written as its length in bytes
+ * (4 bytes, -1 for null) followed by its UTF-8 bytes.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+public class ContactCodec {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Length written for a null string. */
+	private static final int NULL_LENGTH = -1;
+
+	private ContactCodec() {
+		// static methods only
+	}
+
+	/**
+	 * Encode a contact as a new byte array.
+	 * @param contact the contact to encode. Must not be null.
+	 * @return the encoded record
+	 */
+	public static byte[] encode(Contact contact) {
+		byte[] title = bytes(contact.getTitle());
+		byte[] name = bytes(contact.getName());
+		byte[] email = bytes(contact.getEmail());
+		byte[] photoUrl = bytes(contact.getPhotoUrl());
+		int size = 8 + size(title) + size(name) + size(email) + size(photoUrl);
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putLong(contact.getId());
+		put(buf, title);
+		put(buf, name);
+		put(buf, email);
+		put(buf, photoUrl);
+		return buf.array();
+	}
+
+	/**
+	 * Decode a contact starting at the buffer's position.
+	 * The position is advanced past the record.
+	 * @param buf buffer containing an encoded record
+	 * @return a new Contact
+	 * @throws IllegalArgumentException if the record is malformed
+	 */
+	public static Contact decode(ByteBuffer buf) {
+		try {
+			Contact contact = new Contact(buf.getLong());
+			contact.setTitle(getString(buf));
+			contact.setName(getString(buf));
+			contact.setEmail(getString(buf));
+			contact.setPhotoUrl(getString(buf));
+			return contact;
+		} catch (BufferUnderflowException ex) {
+			throw new IllegalArgumentException("truncated contact record");
+		}
+	}
+
+	/**
+	 * Read a length-prefixed UTF-8 string at the buffer's position.
+	 * @param buf the buffer to read from
+	 * @return the string, or null if a null string was written
+	 */
+	public static String getString(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length == NULL_LENGTH) return null;
+		if (length < 0 || length > buf.remaining()) throw new IllegalArgumentException("bad string length "+length);
+		String s;
+		if (buf.hasArray()) {
+			s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, UTF8);
+			buf.position(buf.position() + length);
+		} else {
+			byte[] b = new byte[length];
+			buf.get(b);
+			s = new String(b, UTF8);
+		}
+		return s;
+	}
+
+	/**
+	 * Write a length-prefixed UTF-8 string at the buffer's position.
+	 * @param buf the buffer to write to
+	 * @param s the string to write, may be null
+	 */
+	public static void putString(ByteBuffer buf, String s) {
+		put(buf, bytes(s));
+	}
+
+	private static byte[] bytes(String s) {
+		return s == null ? null : s.getBytes(UTF8);
+	}
+
+	private static int size(byte[] b) {
+		return 4 + (b == null ? 0 : b.length);
+	}
+
+	private static void put(ByteBuffer buf, byte[] b) {
+		if (b == null) buf.putInt(NULL_LENGTH);
+		else buf.putInt(b.length).put(b);
+	}
+}
@@ -0,0 +1,27 @@
+package contact.service;
+
+import java.util.Iterator;
+
+import contact.entity.Contact;
+
+/**
+ * A forward-only cursor over contacts, for reading all contacts
+ * one at a time without holding them all in memory.
+ * A cursor must be closed after use, to release database resources.
+ * <p><tt>
+ * try (ContactCursor cursor = dao.openCursor()) {<br>
+ * &nbsp;&nbsp;while (cursor.hasNext()) process( cursor.next() );<br>
+ * }
+ * </tt>
+ * 
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.24
+ */
+public interface ContactCursor extends Iterator<Contact>, AutoCloseable {
+	
+	/**
+	 * Release resources used by the cursor. Closing a cursor twice has no effect.
+	 */
+	@Override
+	public abstract void close();
+}
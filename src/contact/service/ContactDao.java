@@ -1,5 +1,6 @@
 package contact.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import contact.entity.Contact;
@@ -28,14 +29,89 @@ public interface ContactDao {
 	public abstract List<Contact> findAll();
 	
 	/**
-	 * Find a contact whose title starts with the  
-	 * string parameter (the way Gmail does).
-	 * @param prefix a string containing the start 
-	 * of a contact title.  Must not be null.
+	 * Find contacts whose title contains the string
+	 * parameter anywhere, ignoring case.
+	 * @param match a string to find in contact titles.
+	 * Must not be null.
 	 * @return List of matching contacts. Return an empty list
 	 * if no matches.
 	 */
-	public abstract List<Contact> findByTitle(String prefix);
+	public abstract List<Contact> findByTitle(String match);
+	
+	/**
+	 * Find contacts whose title starts with the  
+	 * string parameter (the way Gmail does), ignoring case.
+	 * @param prefix a string containing the start 
+	 * of a contact title.  Must not be null.
+	 * @return List of matching contacts ordered by title. 
+	 * Return an empty list if no matches.
+	 */
+	public abstract List<Contact> findByTitlePrefix(String prefix);
+	
+	/**
+	 * Find contacts by title, with control over how titles are
+	 * matched, how results are ordered and how many are returned.
+	 * @param query the title query.  Must not be null.
+	 * @return List of matching contacts, in the order the query asks for.
+	 * Return an empty list if no matches.
+	 */
+	public abstract List<Contact> search(TitleQuery query);
+	
+	/**
+	 * Return one page of contacts in order of id, for paging
+	 * through all contacts without loading them all at once.
+	 * To get the next page, call this method again using the
+	 * id of the last contact in the page as afterId.
+	 * @param afterId the page begins with the first contact whose
+	 * id is greater than this. Use 0 for the first page.
+	 * @param limit maximum number of contacts in the page. Must be positive.
+	 * @return List of contacts ordered by id. Return an empty list
+	 * if there are no more contacts.
+	 */
+	public abstract List<Contact> findPage(long afterId, int limit);
+	
+	/**
+	 * Open a cursor over all contacts in order of id.
+	 * Unlike findAll, the contacts are read as the cursor advances,
+	 * so callers can stream any number of contacts in constant memory.
+	 * The caller must close the cursor.
+	 * @return a new cursor positioned before the first contact
+	 */
+	public abstract ContactCursor openCursor();
+	
+	/**
+	 * Get the version of the whole store of contacts.
+	 * The version increases every time a contact is saved, updated
+	 * or deleted, or all contacts are removed, so it can be used to
+	 * tell if anything has changed without reading any contacts.
+	 * A change is visible to find methods before the version that
+	 * includes it is returned.
+	 * @return the current store version
+	 */
+	public abstract long getVersion();
+	
+	/**
+	 * Get the latest change to each contact that changed after a store version.
+	 * Only a bounded number of changes are kept, so old versions can't be answered.
+	 * @param since a store version returned by getVersion
+	 * @return changes in version order, or null if changes since that version
+	 *     are no longer known
+	 */
+	public abstract List<ChangeLog.Change> findChanges(long since);
+	
+	/**
+	 * Apply many saves, updates and deletes at once.
+	 * This is much faster than calling save, update or delete for each
+	 * contact, because the DAO can group the work, such as in one lock
+	 * or a few database transactions.
+	 * Each operation succeeds or fails the same as the DAO method it is named for,
+	 * except that a save of a contact whose id is used is not applied in any DAO,
+	 * as POST /contacts answers 409 CONFLICT for it.
+	 * @param operations the operations to apply, in order
+	 * @return array with true for each operation that was applied,
+	 *     false for each that was not (such as an update of a missing contact)
+	 */
+	public abstract boolean[] batch(List<BatchOperation> operations);
 
 	/**
 	 * Delete a saved contact by id.
@@ -68,6 +144,15 @@ public interface ContactDao {
 	 */
 	public abstract boolean update(Contact update);
 	
+	/**
+	 * Delete many contacts by id at once.
+	 * This is much faster than calling delete for each id.
+	 * Ids of contacts that don't exist are ignored.
+	 * @param ids ids of the contacts to delete
+	 * @return the number of contacts that were deleted
+	 */
+	public abstract int deleteByIds(Collection<Long> ids);
+	
 	/**
 	 * Remove all contacts.
 	 */
@@ -1,5 +1,7 @@
 package contact.service;
 
+import java.lang.reflect.InvocationTargetException;
+
 import javax.xml.bind.JAXBException;
 
 /**
@@ -12,10 +14,16 @@ import javax.xml.bind.JAXBException;
  * This factory is an abstract class.  There are concrete subclasses for
  * each persistence mechanism.  You can add your own factory by subclassing
  * this factory.
+ * <p>
+ * The concrete factory is chosen by the system property <tt>contact.dao</tt>,
+ * which may be <tt>mem</tt> (the default), <tt>offheap</tt>, <tt>jpa</tt>,
+ * or the class name of another DaoFactory with a public no-argument constructor.
  * 
  * @author jim
  */
 public abstract class DaoFactory {
+	/** Name of the system property that selects the persistence mechanism. */
+	public static final String DAO_PROPERTY = "contact.dao";
 	// singleton instance of this factory
 	private static DaoFactory factory;
 	
@@ -28,11 +36,35 @@ public abstract class DaoFactory {
 	 * Get a singleton instance of the DaoFactory.
 	 * @return instance of a concrete DaoFactory
 	 */
-	public static DaoFactory getInstance() {
-		if (factory == null) factory = new contact.service.mem.MemDaoFactory();
+	public static synchronized DaoFactory getInstance() {
+		if (factory == null) factory = createFactory( System.getProperty(DAO_PROPERTY, "mem") );
 		return factory;
 	}
 	
+	/**
+	 * Create the concrete factory for a persistence mechanism.
+	 * @param type name of the persistence mechanism
+	 * @return a new DaoFactory
+	 */
+	private static DaoFactory createFactory(String type) {
+		if ("offheap".equalsIgnoreCase(type)) return new contact.service.offheap.OffHeapDaoFactory();
+		if ("jpa".equalsIgnoreCase(type)) return new contact.service.jpa.JpaDaoFactory();
+		if ("mem".equalsIgnoreCase(type)) return new contact.service.mem.MemDaoFactory();
+		if (type.indexOf('.') > 0) {
+			try {
+				return Class.forName(type).asSubclass(DaoFactory.class).getDeclaredConstructor().newInstance();
+			} catch (InvocationTargetException ex) {
+				// the constructor threw; report what it threw, not the reflection wrapper
+				throw new IllegalArgumentException("Can't create "+DAO_PROPERTY+" "+type, ex.getCause());
+			} catch (ReflectiveOperationException ex) {
+				throw new IllegalArgumentException("Can't create "+DAO_PROPERTY+" "+type, ex);
+			} catch (ClassCastException ex) {
+				throw new IllegalArgumentException(type+" is not a DaoFactory");
+			}
+		}
+		throw new IllegalArgumentException("Unknown "+DAO_PROPERTY+": "+type);
+	}
+	
 	/**
 	 * Get an instance of a data access object for Contact objects.
 	 * Subclasses of the base DaoFactory class must provide a concrete
@@ -0,0 +1,181 @@
+package contact.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import contact.entity.Contact;
+
+/**
+ * An AsyncContactDao that runs the methods of a ContactDao on a fixed
+ * number of threads, so slow storage, such as a JPA database with a
+ * latency spike, holds these threads and not the server's threads.
+ * Work waits in a queue of bounded size; when it is full, new work is
+ * rejected instead of queued, which bounds both memory and how long
+ * work can wait. Work whose future is cancelled while it waits,
+ * usually because the request timed out, leaves the queue; once work has
+ * started its future can't be cancelled, so the caller knows it will run.
+ * Rejected work is counted in Metrics as asyncDao.rejected, and the
+ * queue length is the gauge asyncDao.queued.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ExecutorContactDao implements AsyncContactDao {
+	private final ContactDao dao;
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejected = Metrics.counter("asyncDao.rejected");
+
+	/**
+	 * @param dao the DAO that does the work
+	 * @param threads number of threads calling the DAO
+	 * @param queueSize most operations waiting for a thread
+	 */
+	public ExecutorContactDao(ContactDao dao, int threads, int queueSize) {
+		this.dao = dao;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new DaoThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+		Metrics.gauge("asyncDao.queued", new Metrics.Gauge() {
+			@Override
+			public Number getValue() {
+				return executor.getQueue().size();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Contact> find(final long id) {
+		return submit(new Callable<Contact>() {
+			@Override
+			public Contact call() {
+				return dao.find(id);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<Contact>> search(final TitleQuery query) {
+		return submit(new Callable<List<Contact>>() {
+			@Override
+			public List<Contact> call() {
+				return dao.search(query);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<Contact>> findPage(final long afterId, final int limit) {
+		return submit(new Callable<List<Contact>>() {
+			@Override
+			public List<Contact> call() {
+				return dao.findPage(afterId, limit);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Boolean> create(final Contact contact) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				// a batch save doesn't replace a contact whose id is used, and
+				// checks the id in the same step that saves, unlike find then save
+				return dao.batch(Collections.singletonList(BatchOperation.save(contact)))[0];
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Boolean> update(final Contact update) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return dao.update(update);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Boolean> delete(final long id) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return dao.delete(id);
+			}
+		});
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Queue a call to the DAO.
+	 * @return future of its result, already failed if the queue is full
+	 */
+	private <T> CompletableFuture<T> submit(Callable<T> call) {
+		Work<T> work = new Work<T>(call);
+		try {
+			executor.execute(work);
+		} catch (RejectedExecutionException ex) {
+			rejected.incrementAndGet();
+			work.completeExceptionally(ex);
+		}
+		return work;
+	}
+
+	/**
+	 * A call to the DAO and the future of its result. Either the call starts
+	 * or the future is cancelled, whichever is first; the other does nothing.
+	 */
+	private class Work<T> extends CompletableFuture<T> implements Runnable {
+		private final Callable<T> call;
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		Work(Callable<T> call) {
+			this.call = call;
+		}
+
+		@Override
+		public void run() {
+			// cancelled while it waited
+			if (! started.compareAndSet(false, true)) return;
+			try {
+				complete(call.call());
+			} catch (Throwable ex) {
+				completeExceptionally(ex);
+			}
+		}
+
+		/** @return false if the call has started, so it can't be cancelled */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (! started.compareAndSet(false, true)) return false;
+			// make room in the queue for other work
+			executor.remove(this);
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+	/** Makes daemon threads named contact-dao-N, so they don't keep the JVM running. */
+	private static class DaoThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "contact-dao-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
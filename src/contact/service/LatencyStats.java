@@ -0,0 +1,92 @@
+package contact.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics for one kind of operation, compared against a target.
+ * Latencies are counted in a histogram with power-of-2 microsecond buckets,
+ * so percentiles are estimates (the upper bound of the bucket).
+ * Recording a latency is lock-free and allocates nothing.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.22
+ */
+public class LatencyStats {
+	/** bucket k counts latencies below 2^k microseconds */
+	private static final int BUCKETS = 32;
+
+	private final long targetNanos;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong overTarget = new AtomicLong();
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * @param targetMillis the latency target in milliseconds
+	 */
+	public LatencyStats(long targetMillis) {
+		this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+	}
+
+	/**
+	 * Record the latency of one operation.
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void record(long nanos) {
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		if (nanos > targetNanos) overTarget.incrementAndGet();
+		long max = maxNanos.get();
+		while(nanos > max && ! maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		histogram.incrementAndGet(Math.min(bucket, BUCKETS-1));
+	}
+
+	/** @return number of operations recorded */
+	public long getCount() {
+		return count.get();
+	}
+
+	/** @return number of operations slower than the target */
+	public long getOverTarget() {
+		return overTarget.get();
+	}
+
+	/**
+	 * Estimate a percentile of the recorded latencies.
+	 * @param percent the percentile, between 0 and 100
+	 * @return estimated latency in microseconds
+	 */
+	public long percentileMicros(double percent) {
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = (long)Math.ceil(n * percent / 100.0);
+		long seen = 0;
+		for(int k=0; k<BUCKETS; k++) {
+			seen += histogram.get(k);
+			if (seen >= rank) return 1L << k;
+		}
+		return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+	}
+
+	/**
+	 * Add the statistics to a map of metric values.
+	 * @param name prefix for the metric names
+	 * @param metrics the map to add to
+	 */
+	public void addTo(String name, Map<String,Number> metrics) {
+		long n = count.get();
+		metrics.put(name+".count", n);
+		metrics.put(name+".meanMicros", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / n));
+		metrics.put(name+".p50Micros", percentileMicros(50));
+		metrics.put(name+".p99Micros", percentileMicros(99));
+		metrics.put(name+".maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+		metrics.put(name+".targetMicros", TimeUnit.NANOSECONDS.toMicros(targetNanos));
+		metrics.put(name+".overTarget", overTarget.get());
+	}
+}
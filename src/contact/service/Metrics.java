@@ -0,0 +1,102 @@
+package contact.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of named counters and latency statistics for the service.
+ * Any part of the application can get a counter or timer by name;
+ * the first call creates it, or can add a gauge that computes its value
+ * when asked, such as a hit ratio. The metrics resource reports all of them.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.22
+ */
+public class Metrics {
+	private static final ConcurrentMap<String,AtomicLong> counters = new ConcurrentHashMap<String,AtomicLong>();
+	private static final ConcurrentMap<String,LatencyStats> timers = new ConcurrentHashMap<String,LatencyStats>();
+	private static final ConcurrentMap<String,Gauge> gauges = new ConcurrentHashMap<String,Gauge>();
+
+	/**
+	 * A metric whose value is computed each time the metrics are read.
+	 */
+	public interface Gauge {
+		/** @return the current value */
+		Number getValue();
+	}
+
+	private Metrics() {
+		// static methods only
+	}
+
+	/**
+	 * Get a counter, creating it if needed.
+	 * @param name name of the counter
+	 * @return the counter
+	 */
+	public static AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new AtomicLong());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	/**
+	 * Get latency statistics, creating them if needed.
+	 * @param name name of the statistics
+	 * @param targetMillis latency target, used only if the statistics are created by this call
+	 * @return the latency statistics
+	 */
+	public static LatencyStats timer(String name, long targetMillis) {
+		LatencyStats stats = timers.get(name);
+		if (stats == null) {
+			timers.putIfAbsent(name, new LatencyStats(targetMillis));
+			stats = timers.get(name);
+		}
+		return stats;
+	}
+
+	/**
+	 * Add a gauge, replacing any gauge with the same name.
+	 * @param name name of the gauge
+	 * @param gauge the gauge
+	 */
+	public static void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Add a gauge of the ratio of hits to hits plus misses, or 0 before
+	 * the first of either, replacing any gauge with the same name.
+	 * @param name name of the gauge
+	 * @param hits counter of hits
+	 * @param misses counter of misses
+	 */
+	public static void ratio(String name, final AtomicLong hits, final AtomicLong misses) {
+		gauge(name, new Gauge() {
+			@Override
+			public Number getValue() {
+				long hit = hits.get();
+				long total = hit + misses.get();
+				return (total == 0) ? 0.0 : (double) hit / total;
+			}
+		});
+	}
+
+	/**
+	 * Get the current value of every metric.
+	 * @return map of metric name to value, sorted by name
+	 */
+	public static Map<String,Number> snapshot() {
+		Map<String,Number> metrics = new TreeMap<String,Number>();
+		for(Map.Entry<String,AtomicLong> entry : counters.entrySet()) metrics.put(entry.getKey(), entry.getValue().get());
+		for(Map.Entry<String,LatencyStats> entry : timers.entrySet()) entry.getValue().addTo(entry.getKey(), metrics);
+		for(Map.Entry<String,Gauge> entry : gauges.entrySet()) metrics.put(entry.getKey(), entry.getValue().getValue());
+		return metrics;
+	}
+}
@@ -0,0 +1,65 @@
+package contact.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How titles are compared and split into trigrams (3 character substrings)
+ * for searching, shared by the DAOs that index titles.
+ * Titles are compared ignoring case.
+ * Each title is padded with a start and end marker before taking its trigrams,
+ * so a title shorter than 3 characters still has trigrams, and a query of
+ * 1 or 2 characters is always inside some trigram of a matching title.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public final class TitleGrams {
+	/** Length of the substrings in the n-gram index. */
+	public static final int GRAM_LENGTH = 3;
+	/** Marks the start of a title in its grams. */
+	private static final char START = '\u0002';
+	/** Marks the end of a title in its grams. */
+	private static final char END = '\u0003';
+
+	/** this class only has static methods */
+	private TitleGrams() {
+	}
+
+	/**
+	 * Normalize a title or query for case-insensitive comparison.
+	 * @param s the string to normalize
+	 * @return lower case version of s, or "" if s is null
+	 */
+	public static String normalize(String s) {
+		return s == null ? "" : s.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Get the distinct trigrams of a normalized title, including the start and end markers.
+	 * @param title a normalized title
+	 * @return list of distinct trigrams
+	 */
+	public static List<String> titleGrams(String title) {
+		return grams(START + title + END);
+	}
+
+	/**
+	 * Get the distinct trigrams of a normalized query.
+	 * @param query a normalized query at least GRAM_LENGTH characters long
+	 * @return list of distinct trigrams
+	 */
+	public static List<String> queryGrams(String query) {
+		return grams(query);
+	}
+
+	private static List<String> grams(String s) {
+		List<String> result = new ArrayList<String>(Math.max(1, s.length() - GRAM_LENGTH + 1));
+		for(int k=0; k + GRAM_LENGTH <= s.length(); k++) {
+			String gram = s.substring(k, k + GRAM_LENGTH);
+			if (! result.contains(gram)) result.add(gram);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,125 @@
+package contact.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import contact.entity.Contact;
+
+/**
+ * A search for contacts by title, with options for how titles
+ * are matched, how results are ordered, and how many are returned.
+ * Use it with ContactDao.search, for example:
+ * <p><tt>
+ * TitleQuery query = new TitleQuery("fre");<br>
+ * query.setPrefix(true);<br>
+ * query.setLimit(10);<br>
+ * List&lt;Contact&gt; matches = dao.search(query);
+ * </tt>
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.22
+ */
+public class TitleQuery {
+	/** Ways to order search results. */
+	public enum Order {
+		/** ascending contact id */
+		ID,
+		/** title ignoring case, then contact id */
+		TITLE
+	}
+
+	private final String match;
+	private boolean prefix;
+	private Order order;
+	private int limit = Integer.MAX_VALUE;
+
+	/**
+	 * Create a query for titles that contain a string, ignoring case.
+	 * @param match string to look for in titles. Must not be null.
+	 */
+	public TitleQuery(String match) {
+		if (match == null) throw new IllegalArgumentException("match string may not be null");
+		this.match = match;
+	}
+
+	/** @return the string to look for in titles */
+	public String getMatch() {
+		return match;
+	}
+
+	/** @return true if titles must start with the match string, false if they may contain it anywhere */
+	public boolean isPrefix() {
+		return prefix;
+	}
+
+	/** @param prefix true to match only the start of titles */
+	public void setPrefix(boolean prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Get the order of results. If no order was set, prefix queries
+	 * are ordered by title and substring queries by id.
+	 * @return the order of results
+	 */
+	public Order getOrder() {
+		if (order != null) return order;
+		return prefix ? Order.TITLE : Order.ID;
+	}
+
+	/** @param order the order of results, or null for the default order */
+	public void setOrder(Order order) {
+		this.order = order;
+	}
+
+	/** @return maximum number of contacts to return */
+	public int getLimit() {
+		return limit;
+	}
+
+	/** @param limit maximum number of contacts to return. Must be positive. */
+	public void setLimit(int limit) {
+		if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+		this.limit = limit;
+	}
+
+	/**
+	 * Order a list of matching contacts and drop any beyond the limit.
+	 * DAO implementations can use this when their search doesn't produce
+	 * results in the requested order.
+	 * @param matches contacts that match this query
+	 * @return new list of at most limit contacts in the requested order
+	 */
+	public List<Contact> orderAndLimit(List<Contact> matches) {
+		List<Contact> result = new ArrayList<Contact>(matches);
+		Collections.sort(result, getOrder() == Order.TITLE ? BY_TITLE : BY_ID);
+		return result.size() <= limit ? result : new ArrayList<Contact>(result.subList(0, limit));
+	}
+
+	private static final Comparator<Contact> BY_ID = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			return Long.compare(a.getId(), b.getId());
+		}
+	};
+
+	private static final Comparator<Contact> BY_TITLE = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			int c = key(a).compareTo(key(b));
+			return c != 0 ? c : Long.compare(a.getId(), b.getId());
+		}
+
+		private String key(Contact contact) {
+			return contact.getTitle() == null ? "" : contact.getTitle().toLowerCase(Locale.ROOT);
+		}
+	};
+
+	@Override
+	public String toString() {
+		return String.format("%s \"%s\" order by %s limit %d", prefix ? "prefix" : "contains", match, getOrder(), limit);
+	}
+}
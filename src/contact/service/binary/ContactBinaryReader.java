@@ -0,0 +1,149 @@
+package contact.service.binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import contact.entity.BatchResult;
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactCodec;
+
+/**
+ * Reads contacts, bulk operations and their results in the binary
+ * form written by ContactBinaryWriter.
+ * One buffer is reused for the records, so reading a list creates only
+ * the contacts and their strings.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactBinaryReader {
+	/** Largest record that is read, so a bad length can't use up memory. */
+	static final int MAX_RECORD_SIZE = 1024*1024;
+	private static final int BUFFER_SIZE = 1024;
+
+	private final BufferedInputStream buffered;
+	private final DataInputStream in;
+	private byte[] record = new byte[512];
+
+	/**
+	 * @param in the binary data
+	 */
+	public ContactBinaryReader(InputStream in) {
+		this.buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		this.in = new DataInputStream(buffered);
+	}
+
+	/**
+	 * Thrown when the input is not in the binary form, or ends in the middle of something.
+	 */
+	public static class MalformedRecordException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public MalformedRecordException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Read one contact record.
+	 * @return the contact
+	 * @throws MalformedRecordException if the record is malformed or incomplete
+	 * @throws IOException if the input can't be read
+	 */
+	public Contact readContact() throws IOException {
+		try {
+			int length = in.readInt();
+			if (length < 0 || length > MAX_RECORD_SIZE) throw new MalformedRecordException("bad record length "+length);
+			if (length > record.length) record = new byte[Math.max(length, 2 * record.length)];
+			in.readFully(record, 0, length);
+			return ContactCodec.decode(ByteBuffer.wrap(record, 0, length));
+		} catch (EOFException ex) {
+			throw new MalformedRecordException("incomplete contact record");
+		} catch (IllegalArgumentException ex) {
+			throw new MalformedRecordException(ex.getMessage());
+		}
+	}
+
+	/**
+	 * Read contact records to the end of the input.
+	 * @return the contacts
+	 * @throws MalformedRecordException if a record is malformed or incomplete
+	 * @throws IOException if the input can't be read
+	 */
+	public List<Contact> readContacts() throws IOException {
+		List<Contact> contacts = new ArrayList<Contact>();
+		while (! atEnd()) contacts.add(readContact());
+		return contacts;
+	}
+
+	/**
+	 * Read the next bulk operations.
+	 * @param max the most operations to read
+	 * @return up to max operations, or an empty list at the end of the input
+	 * @throws MalformedRecordException if an operation is malformed or incomplete
+	 * @throws IOException if the input can't be read
+	 */
+	public List<BatchOperation> nextOperations(int max) throws IOException {
+		List<BatchOperation> operations = new ArrayList<BatchOperation>();
+		while (operations.size() < max && ! atEnd()) {
+			int type = in.readByte();
+			switch (type) {
+			case ContactBinaryWriter.OP_SAVE:
+				operations.add(BatchOperation.save(readContact()));
+				break;
+			case ContactBinaryWriter.OP_UPDATE:
+				operations.add(BatchOperation.update(readContact()));
+				break;
+			case ContactBinaryWriter.OP_DELETE:
+				try {
+					operations.add(BatchOperation.delete(in.readLong()));
+				} catch (EOFException ex) {
+					throw new MalformedRecordException("incomplete delete");
+				}
+				break;
+			default:
+				throw new MalformedRecordException("unknown operation "+type);
+			}
+		}
+		return operations;
+	}
+
+	/**
+	 * Read the result of one bulk operation.
+	 * @return the result, or null at the end of the input
+	 * @throws MalformedRecordException if the result is incomplete
+	 * @throws IOException if the input can't be read
+	 */
+	public BatchResult readResult() throws IOException {
+		if (atEnd()) return null;
+		try {
+			return new BatchResult(in.readInt(), in.readLong(), in.readInt());
+		} catch (EOFException ex) {
+			throw new MalformedRecordException("incomplete result");
+		}
+	}
+
+	/**
+	 * Check that nothing is left.
+	 * @throws MalformedRecordException if there is more
+	 * @throws IOException if the input can't be read
+	 */
+	public void end() throws IOException {
+		if (! atEnd()) throw new MalformedRecordException("data after the end");
+	}
+
+	/** @return true if there is nothing more to read */
+	private boolean atEnd() throws IOException {
+		buffered.mark(1);
+		if (buffered.read() < 0) return true;
+		buffered.reset();
+		return false;
+	}
+}
@@ -0,0 +1,121 @@
+package contact.service.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import contact.entity.BatchResult;
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactCodec;
+
+/**
+ * Writes contacts, bulk operations and their results in a compact binary
+ * form for services that call each other, which is much smaller and
+ * faster to read than XML.
+ * <p>
+ * A contact is a record: its length (4 bytes) followed by the contact
+ * encoded by ContactCodec, the same records as in a SnapshotFile.
+ * A list of contacts is records one after another until the end of
+ * the stream. A bulk operation is a type byte (OP_SAVE, OP_UPDATE or
+ * OP_DELETE) followed by a contact record, or by the id (8 bytes) for
+ * a delete. A bulk result is the operation's index (4 bytes), the
+ * contact id (8 bytes) and the status (4 bytes).
+ * All numbers are big-endian.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactBinaryWriter implements Flushable {
+	/** Type byte of an operation to save a contact. */
+	public static final int OP_SAVE = 1;
+	/** Type byte of an operation to update a contact. */
+	public static final int OP_UPDATE = 2;
+	/** Type byte of an operation to delete a contact. */
+	public static final int OP_DELETE = 3;
+	/** Size of the output buffer in bytes. */
+	private static final int BUFFER_SIZE = 1024;
+	/** Flush the output after this many contacts of a list. */
+	public static final int FLUSH_EVERY = 500;
+
+	private final DataOutputStream out;
+
+	/**
+	 * @param out where to write. It is flushed but not closed.
+	 */
+	public ContactBinaryWriter(OutputStream out) {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+	}
+
+	/**
+	 * Write one contact record.
+	 * @param contact the contact to write
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeContact(Contact contact) throws IOException {
+		byte[] record = ContactCodec.encode(contact);
+		out.writeInt(record.length);
+		out.write(record);
+	}
+
+	/**
+	 * Write contacts as they come from an iterator (usually a ContactCursor),
+	 * so the whole list is never in memory.
+	 * @param contacts the contacts to write
+	 * @return number of contacts written
+	 * @throws IOException if the output can't be written
+	 */
+	public int writeContacts(Iterator<Contact> contacts) throws IOException {
+		int count = 0;
+		while (contacts.hasNext()) {
+			writeContact(contacts.next());
+			if (++count % FLUSH_EVERY == 0) flush();
+		}
+		return count;
+	}
+
+	/**
+	 * Write one bulk operation.
+	 * @param operation the operation to write
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeOperation(BatchOperation operation) throws IOException {
+		switch (operation.getType()) {
+		case SAVE:
+			out.writeByte(OP_SAVE);
+			writeContact(operation.getContact());
+			break;
+		case UPDATE:
+			out.writeByte(OP_UPDATE);
+			writeContact(operation.getContact());
+			break;
+		case DELETE:
+			out.writeByte(OP_DELETE);
+			out.writeLong(operation.getId());
+			break;
+		}
+	}
+
+	/**
+	 * Write the result of one bulk operation.
+	 * @param result the result to write
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeResult(BatchResult result) throws IOException {
+		out.writeInt(result.getIndex());
+		out.writeLong(result.getId());
+		out.writeInt(result.getStatus());
+	}
+
+	/**
+	 * Write the buffer and flush the output.
+	 * @throws IOException if the output can't be written
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+}
@@ -0,0 +1,273 @@
+package contact.service.jpa;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ChangeLog;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.Metrics;
+import contact.service.TitleQuery;
+
+/**
+ * A read-through cache in front of another ContactDao, for a database
+ * DAO where most requests read the same few contacts again and again.
+ * Contacts found by id are kept in a ClockCache of bounded size, which
+ * removes contacts not used recently like an LRU cache, but without a
+ * lock on a hit, so concurrent requests for cached contacts don't wait
+ * for each other. Contacts are removed when they are saved, updated or
+ * deleted through this DAO.
+ * Results of title searches are cached too; a result is used only if
+ * nothing has changed since it was found (the store version is the same)
+ * and it is younger than the time to live, which bounds how stale it
+ * can be if the database is changed by another program.
+ * Hits and misses are counted in Metrics as jpa.cache.* and jpa.queryCache.*.
+ * <p>
+ * Cached contacts are shared, like the contacts of the memory DAO,
+ * so callers must not change them without saving them.
+ * Search results are unmodifiable lists.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.28
+ */
+public class CachedContactDao implements ContactDao {
+	/** Default number of contacts to cache, can be set by system property. */
+	public static final int DEFAULT_SIZE = Integer.getInteger("contact.jpa.cache.size", 10000);
+	/** Default number of title search results to cache, can be set by system property. */
+	public static final int DEFAULT_QUERY_SIZE = Integer.getInteger("contact.jpa.queryCache.size", 1000);
+	/** Default time to live of title search results, can be set by system property. */
+	public static final long DEFAULT_QUERY_TTL_MILLIS = Long.getLong("contact.jpa.queryCache.ttlMillis", 5000L);
+
+	/** A cached search result, with the store version and time it was found. */
+	private static class QueryResult {
+		final List<Contact> contacts;
+		final long version;
+		final long expires;
+
+		QueryResult(List<Contact> contacts, long version, long expires) {
+			this.contacts = contacts;
+			this.version = version;
+			this.expires = expires;
+		}
+	}
+
+	private final ContactDao dao;
+	private final long queryTtlNanos;
+	/** contacts by id */
+	private final ClockCache<Long,Contact> contacts;
+	/** search results by query */
+	private final ClockCache<String,QueryResult> queries;
+	private final AtomicLong hits = Metrics.counter("jpa.cache.hits");
+	private final AtomicLong misses = Metrics.counter("jpa.cache.misses");
+	private final AtomicLong queryHits = Metrics.counter("jpa.queryCache.hits");
+	private final AtomicLong queryMisses = Metrics.counter("jpa.queryCache.misses");
+
+	/**
+	 * Cache a DAO with the default sizes and time to live.
+	 * @param dao the DAO that reads and writes the database
+	 */
+	public CachedContactDao(ContactDao dao) {
+		this(dao, DEFAULT_SIZE, DEFAULT_QUERY_SIZE, DEFAULT_QUERY_TTL_MILLIS);
+	}
+
+	/**
+	 * @param dao the DAO that reads and writes the database
+	 * @param size maximum number of contacts to cache
+	 * @param querySize maximum number of search results to cache
+	 * @param queryTtlMillis how long a search result can be used, in milliseconds
+	 */
+	public CachedContactDao(ContactDao dao, int size, int querySize, long queryTtlMillis) {
+		this.dao = dao;
+		this.contacts = new ClockCache<Long,Contact>(size);
+		this.queries = new ClockCache<String,QueryResult>(querySize);
+		this.queryTtlNanos = TimeUnit.MILLISECONDS.toNanos(queryTtlMillis);
+	}
+
+	/**
+	 * Find a contact in the cache, or in the database if it isn't cached.
+	 * A contact read from the database stays cached only if nothing changed
+	 * while it was read, so a concurrent update can't leave an old copy in the cache.
+	 * The version is checked after the contact is cached: a change that
+	 * comes later evicts the contact itself.
+	 * @see contact.service.ContactDao#find(long)
+	 */
+	@Override
+	public Contact find(long id) {
+		Contact contact = contacts.get(id);
+		if (contact != null) {
+			hits.incrementAndGet();
+			return contact;
+		}
+		misses.incrementAndGet();
+		long version = dao.getVersion();
+		contact = dao.find(id);
+		if (contact != null) {
+			contacts.put(id, contact);
+			if (dao.getVersion() != version) contacts.remove(id, contact);
+		}
+		return contact;
+	}
+
+	/**
+	 * Search the cached results, or the database if there is no current result.
+	 * @see contact.service.ContactDao#search(contact.service.TitleQuery)
+	 */
+	@Override
+	public List<Contact> search(TitleQuery query) {
+		String key = query.toString();
+		long version = dao.getVersion();
+		QueryResult result = queries.get(key);
+		if (result != null && result.version == version && System.nanoTime() - result.expires < 0) {
+			queryHits.incrementAndGet();
+			return result.contacts;
+		}
+		queryMisses.incrementAndGet();
+		List<Contact> contacts = Collections.unmodifiableList(dao.search(query));
+		queries.put(key, new QueryResult(contacts, version, System.nanoTime() + queryTtlNanos));
+		return contacts;
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitle(String title) {
+		return search( new TitleQuery(title) );
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findByTitlePrefix(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitlePrefix(String prefix) {
+		TitleQuery query = new TitleQuery(prefix);
+		query.setPrefix(true);
+		return search(query);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findAll()
+	 */
+	@Override
+	public List<Contact> findAll() {
+		return dao.findAll();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findPage(long, int)
+	 */
+	@Override
+	public List<Contact> findPage(long afterId, int limit) {
+		return dao.findPage(afterId, limit);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#openCursor()
+	 */
+	@Override
+	public ContactCursor openCursor() {
+		return dao.openCursor();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#delete(long)
+	 */
+	@Override
+	public boolean delete(long id) {
+		try {
+			return dao.delete(id);
+		} finally {
+			evict(id);
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#save(contact.entity.Contact)
+	 */
+	@Override
+	public boolean save(Contact contact) {
+		try {
+			return dao.save(contact);
+		} finally {
+			evict(contact.getId());
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#update(contact.entity.Contact)
+	 */
+	@Override
+	public boolean update(Contact update) {
+		try {
+			return dao.update(update);
+		} finally {
+			evict(update.getId());
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#batch(java.util.List)
+	 */
+	@Override
+	public boolean[] batch(List<BatchOperation> operations) {
+		try {
+			return dao.batch(operations);
+		} finally {
+			for(BatchOperation op : operations) contacts.remove(op.getId());
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#deleteByIds(java.util.Collection)
+	 */
+	@Override
+	public int deleteByIds(Collection<Long> ids) {
+		try {
+			return dao.deleteByIds(ids);
+		} finally {
+			for(long id : ids) contacts.remove(id);
+		}
+	}
+
+	/**
+	 * Remove a contact from the cache, after it was changed in the database.
+	 * @param id id of the contact
+	 */
+	private void evict(long id) {
+		contacts.remove(id);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return dao.getVersion();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findChanges(long)
+	 */
+	@Override
+	public List<ChangeLog.Change> findChanges(long since) {
+		return dao.findChanges(since);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#removeAll()
+	 */
+	@Override
+	public void removeAll() {
+		try {
+			dao.removeAll();
+		} finally {
+			contacts.clear();
+			queries.clear();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package contact.service.jpa;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of bounded size that removes entries that were not used
+ * recently, like an LRU cache, but that takes no lock on a hit.
+ * Entries are kept in a ConcurrentHashMap; a hit only sets the entry's
+ * referenced flag. Entries are also kept in a queue in the order they were
+ * added (the clock). When the cache is full, put takes entries from the head
+ * of the queue: an entry that was referenced since it was last passed loses
+ * its flag and goes to the back, and the first one that wasn't is removed.
+ * Only put and clear lock the queue, and put is called after a cache miss,
+ * which already paid for reading the database.
+ * <p>
+ * The cache is thread-safe.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+class ClockCache<K,V> {
+	/** A cached value and whether it was used since the clock last passed it. */
+	private static class Entry<K,V> {
+		final K key;
+		final V value;
+		volatile boolean referenced;
+
+		Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final int size;
+	private final ConcurrentMap<K,Entry<K,V>> map;
+	/** entries in the order the clock passes them. Locked while used. */
+	private final ArrayDeque<Entry<K,V>> clock = new ArrayDeque<Entry<K,V>>();
+
+	/**
+	 * @param size maximum number of entries
+	 */
+	ClockCache(int size) {
+		this.size = size;
+		this.map = new ConcurrentHashMap<K,Entry<K,V>>(Math.min(size, 1024));
+	}
+
+	/**
+	 * @param key the key
+	 * @return the cached value, or null if none
+	 */
+	V get(K key) {
+		Entry<K,V> entry = map.get(key);
+		if (entry == null) return null;
+		// a plain read first, so hits on a popular entry don't all write its flag
+		if (! entry.referenced) entry.referenced = true;
+		return entry.value;
+	}
+
+	/**
+	 * Add or replace a value, then remove entries not used recently
+	 * until the cache is not over its size.
+	 * @param key the key
+	 * @param value the value to cache
+	 */
+	void put(K key, V value) {
+		Entry<K,V> entry = new Entry<K,V>(key, value);
+		synchronized (clock) {
+			map.put(key, entry);
+			clock.addLast(entry);
+			while (map.size() > size && ! clock.isEmpty()) {
+				Entry<K,V> oldest = clock.pollFirst();
+				if (map.get(oldest.key) != oldest) continue;
+				if (oldest.referenced) {
+					oldest.referenced = false;
+					clock.addLast(oldest);
+				} else {
+					map.remove(oldest.key, oldest);
+				}
+			}
+			// removed and replaced entries stay in the clock until it passes them,
+			// so drop them when they are as many as the live ones
+			if (clock.size() > 2 * Math.max(size, map.size())) {
+				for(Iterator<Entry<K,V>> it = clock.iterator(); it.hasNext(); ) {
+					Entry<K,V> e = it.next();
+					if (map.get(e.key) != e) it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key the key
+	 */
+	void remove(K key) {
+		map.remove(key);
+	}
+
+	/**
+	 * Remove a key only if it is still cached with a value.
+	 * @param key the key
+	 * @param value the value put for the key
+	 */
+	void remove(K key, V value) {
+		Entry<K,V> entry = map.get(key);
+		if (entry != null && entry.value == value) map.remove(key, entry);
+	}
+
+	/** Remove all entries. */
+	void clear() {
+		synchronized (clock) {
+			map.clear();
+			clock.clear();
+		}
+	}
+}
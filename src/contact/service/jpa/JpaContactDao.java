@@ -1,20 +1,44 @@
 package contact.service.jpa;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 import java.util.logging.Logger;
 
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.queries.CursoredStream;
+
 import jersey.repackaged.com.google.common.collect.Lists;
 import contact.entity.Contact;
+import contact.entity.TitleGram;
+import contact.service.BatchOperation;
+import contact.service.ChangeLog;
+import contact.service.ContactCursor;
 import contact.service.ContactDao;
+import contact.service.TitleGrams;
+import contact.service.TitleQuery;
 
 /**
  * Data access object for saving and retrieving contacts,
  * using JPA.
+ * An EntityManager is not thread-safe, so each operation uses its own
+ * EntityManager from the EntityManagerFactory and closes it when done.
+ * EntityManagers are cheap to create; the database connections come
+ * from the connection pool of the factory (see JpaDaoFactory) and
+ * contacts that were read recently come from the shared cache,
+ * so operations from many threads run in parallel.
+ * Contacts returned by this DAO are detached, so changing them
+ * has no effect until they are saved or updated.
  * To get an instance of this class use:
  * <p>
  * <tt>
@@ -24,15 +48,30 @@ import contact.service.ContactDao;
  * @author jim
  */
 public class JpaContactDao implements ContactDao {
-	/** the EntityManager for accessing JPA persistence services. */
-	private final EntityManager em;
+	/** Number of rows fetched at a time by a cursor. */
+	private static final int CURSOR_PAGE_SIZE = 500;
+	/** Number of batch operations between flushes, the same as the JDBC batch size in persistence.xml. */
+	private static final int FLUSH_SIZE = 100;
+	/** Number of batch operations in each transaction. */
+	private static final int TRANSACTION_SIZE = 1000;
+	/** Number of ids deleted in each transaction by deleteByIds. */
+	private static final int BATCH_DELETE_SIZE = 1000;
+	/** Most contacts a trigram lookup can find before it is faster to scan all titles. */
+	private static final int MAX_GRAM_CANDIDATES = 1000;
+	/** the factory that creates an EntityManager for each operation. */
+	private final EntityManagerFactory emf;
+	/**
+	 * changes committed through this DAO, and the store version.
+	 * Changes made to the database by other programs are not logged.
+	 */
+	private final ChangeLog changes = new ChangeLog();
 	
 	/**
-	 * constructor with injected EntityManager to use.
-	 * @param em an EntityManager for accessing JPA services.
+	 * constructor with injected EntityManagerFactory to use.
+	 * @param emf factory for the EntityManagers used to access JPA services.
 	 */
-	public JpaContactDao(EntityManager em) {
-		this.em = em;
+	public JpaContactDao(EntityManagerFactory emf) {
+		this.emf = emf;
 //		createTestContact( );
 	}
 	
@@ -57,7 +96,12 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public Contact find(long id) {
-		return em.find(Contact.class, id);  // isn't this sooooo much easier than JDBC?
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.find(Contact.class, id);  // isn't this sooooo much easier than JDBC?
+		} finally {
+			em.close();
+		}
 	}
 
 	/**
@@ -65,9 +109,14 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public List<Contact> findAll() {
-		Query query = em.createQuery("SELECT c FROM Contact c");
-		List list = query.getResultList();
-		return list;
+		EntityManager em = emf.createEntityManager();
+		try {
+			Query query = em.createQuery("SELECT c FROM Contact c");
+			List list = query.getResultList();
+			return list;
+		} finally {
+			em.close();
+		}
 	}
 
 	/**
@@ -76,13 +125,159 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public List<Contact> findByTitle(String titlestr) {
-		// LIKE does string match using patterns.
-		Query query = em.createQuery("select c from Contact c where LOWER(c.title) LIKE :title");
-		// % is wildcard that matches anything
-		query.setParameter("title", "%"+titlestr.toLowerCase()+"%");
-		// now why bother to copy one list to another list?
-		java.util.List<Contact> result = Lists.newArrayList( query.getResultList() );
-		return result;
+		return search( new TitleQuery(titlestr) );
+	}
+
+	/**
+	 * Find contacts whose title starts with a prefix.
+	 * @see contact.service.ContactDao#findByTitlePrefix(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitlePrefix(String prefix) {
+		TitleQuery query = new TitleQuery(prefix);
+		query.setPrefix(true);
+		return search(query);
+	}
+
+	/**
+	 * Search the indexed lower case titles, letting the database order and limit the results.
+	 * A prefix search is <tt>titleKey LIKE 'x%'</tt>, which the database answers
+	 * with the title index. A substring search first finds the ids of contacts that
+	 * have all trigrams of the string in the TitleGram table, then checks only those
+	 * titles with <tt>LIKE '%x%'</tt>. Strings shorter than a trigram, or with trigrams
+	 * so common that the lookup doesn't narrow the search, scan all titles.
+	 * @see contact.service.ContactDao#search(contact.service.TitleQuery)
+	 */
+	@Override
+	public List<Contact> search(TitleQuery titleQuery) {
+		String order = titleQuery.getOrder() == TitleQuery.Order.TITLE ? " order by c.titleKey, c.id" : " order by c.id";
+		String match = TitleGrams.normalize(titleQuery.getMatch());
+		EntityManager em = emf.createEntityManager();
+		try {
+			List<Long> ids = null;
+			if (!titleQuery.isPrefix() && match.length() >= TitleGrams.GRAM_LENGTH) {
+				ids = findGramCandidates(em, match);
+				if (ids != null && ids.isEmpty()) return new ArrayList<Contact>();
+			}
+			String where = "c.titleKey LIKE :title ESCAPE '\\'";
+			if (ids != null) where = "c.id IN :ids and " + where;
+			// LIKE does string match using patterns.
+			Query query = em.createQuery("select c from Contact c where " + where + order);
+			// % is wildcard that matches anything
+			String pattern = escapeLike(match) + "%";
+			query.setParameter("title", titleQuery.isPrefix() ? pattern : "%"+pattern);
+			if (ids != null) query.setParameter("ids", ids);
+			if (titleQuery.getLimit() < Integer.MAX_VALUE) query.setMaxResults(titleQuery.getLimit());
+			// now why bother to copy one list to another list?
+			java.util.List<Contact> result = Lists.newArrayList( query.getResultList() );
+			return result;
+		} finally {
+			em.close();
+		}
+	}
+	
+	/**
+	 * Find the ids of contacts whose title has every trigram of a string.
+	 * The lookup uses the primary key index of TitleGram.
+	 * @param em the EntityManager to query with
+	 * @param match a normalized string at least GRAM_LENGTH characters long
+	 * @return ids of contacts that may contain the string, or null if there are
+	 *     more than MAX_GRAM_CANDIDATES
+	 */
+	private static List<Long> findGramCandidates(EntityManager em, String match) {
+		List<String> grams = TitleGrams.queryGrams(match);
+		TypedQuery<Long> query = em.createQuery("select g.contactId from TitleGram g where g.gram IN :grams"
+				+ " group by g.contactId having count(g.gram) = :count", Long.class);
+		query.setParameter("grams", grams);
+		query.setParameter("count", (long) grams.size());
+		query.setMaxResults(MAX_GRAM_CANDIDATES + 1);
+		List<Long> ids = query.getResultList();
+		return ids.size() > MAX_GRAM_CANDIDATES ? null : ids;
+	}
+	
+	/**
+	 * Get a page of contacts using a keyset query on the primary key,
+	 * so the database seeks to the start of the page with the id index
+	 * instead of skipping rows like OFFSET does.
+	 * @see contact.service.ContactDao#findPage(long, int)
+	 */
+	@Override
+	public List<Contact> findPage(long afterId, int limit) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			TypedQuery<Contact> query = em.createQuery("select c from Contact c where c.id > :after order by c.id", Contact.class);
+			query.setParameter("after", afterId);
+			query.setMaxResults(limit);
+			return query.getResultList();
+		} finally {
+			em.close();
+		}
+	}
+	
+	/**
+	 * Open a forward-only database cursor over all contacts.
+	 * Rows are fetched from the result set in pages as the cursor advances,
+	 * and contacts already returned are released from the persistence
+	 * context, so memory use doesn't grow with the number of contacts.
+	 * The cursor has its own EntityManager, which is closed with the cursor.
+	 * @see contact.service.ContactDao#openCursor()
+	 */
+	@Override
+	public ContactCursor openCursor() {
+		final EntityManager em = emf.createEntityManager();
+		final CursoredStream stream;
+		try {
+			Query query = em.createQuery("select c from Contact c order by c.id");
+			query.setHint(QueryHints.CURSOR, HintValues.TRUE);
+			query.setHint(QueryHints.CURSOR_PAGE_SIZE, CURSOR_PAGE_SIZE);
+			stream = (CursoredStream) query.getSingleResult();
+		} catch (RuntimeException ex) {
+			em.close();
+			throw ex;
+		}
+		return new ContactCursor() {
+			private int count = 0;
+			private boolean closed = false;
+
+			@Override
+			public boolean hasNext() {
+				return !closed && stream.hasNext();
+			}
+
+			@Override
+			public Contact next() {
+				if (closed) throw new NoSuchElementException();
+				Contact contact = (Contact) stream.next();
+				// let go of the contacts we have already returned
+				if (++count % CURSOR_PAGE_SIZE == 0) stream.releasePrevious();
+				return contact;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				if (closed) return;
+				closed = true;
+				try {
+					stream.close();
+				} finally {
+					em.close();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Escape the LIKE wildcards in a string, so it is matched literally.
+	 * @param s the string to escape
+	 * @return s with \, % and _ escaped by a backslash
+	 */
+	private static String escapeLike(String s) {
+		return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
 	}
 
 	/**
@@ -90,18 +285,22 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean delete(long id) {
+		EntityManager em = emf.createEntityManager();
 		EntityTransaction tx = em.getTransaction();
 		try {
 			tx.begin();
-			Contact contact = this.find(id);
+			Contact contact = em.find(Contact.class, id);
 			if (contact == null) throw new IllegalArgumentException("Can't get a null contact");
+			removeGrams(em, id);
 			em.remove(contact);
 			tx.commit();
+			changes.deleted(id);
 			return true;
 		} catch (EntityExistsException ex) {
 			Logger.getLogger(this.getClass().getName()).warning(ex.getMessage());
-			if (tx.isActive()) try { tx.rollback(); } catch(Exception e) {}
 			return false;
+		} finally {
+			close(em);
 		}
 	}
 	
@@ -111,16 +310,20 @@ public class JpaContactDao implements ContactDao {
 	@Override
 	public boolean save(Contact contact) {
 		if (contact == null) throw new IllegalArgumentException("Can't save a null contact");
+		EntityManager em = emf.createEntityManager();
 		EntityTransaction tx = em.getTransaction();
 		try {
 			tx.begin();
 			em.persist(contact);
+			addGrams(em, contact);
 			tx.commit();
+			changes.updated(contact.getId());
 			return true;
 		} catch (EntityExistsException ex) {
 			Logger.getLogger(this.getClass().getName()).warning(ex.getMessage());
-			if (tx.isActive()) try { tx.rollback(); } catch(Exception e) {}
 			return false;
+		} finally {
+			close(em);
 		}
 	}
 
@@ -129,21 +332,378 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean update(Contact update) {
+		EntityManager em = emf.createEntityManager();
 		EntityTransaction tx = em.getTransaction();
 		try {
 			tx.begin();
-			Contact contact = this.find(update.getId());
+			Contact contact = em.find(Contact.class, update.getId());
 			if (contact == null || update == null) throw new IllegalArgumentException("Can't get a null contact");
-			contact.applyUpdate(update);
+			updateGrams(em, contact, update);
 			tx.commit();
+			changes.updated(contact.getId());
 			return true;
 		} catch (EntityExistsException ex) {
 			Logger.getLogger(this.getClass().getName()).warning(ex.getMessage());
-			if (tx.isActive()) try { tx.rollback(); } catch(Exception e) {}
 			return false;
+		} finally {
+			close(em);
+		}
+	}
+
+	/**
+	 * Add the title grams of a contact that was just persisted.
+	 * @param em the EntityManager of the current transaction
+	 * @param contact the new contact, with its id
+	 */
+	private static void addGrams(EntityManager em, Contact contact) {
+		for(String gram : TitleGrams.titleGrams(TitleGrams.normalize(contact.getTitle()))) {
+			em.persist(new TitleGram(gram, contact.getId()));
+		}
+	}
+
+	/**
+	 * Remove the title grams of a contact.
+	 * The bulk delete runs in the database right away; EclipseLink flushes
+	 * changes waiting in the persistence context before it, so grams added
+	 * earlier in the transaction are removed too.
+	 * @param em the EntityManager of the current transaction
+	 * @param id id of the contact
+	 */
+	private static void removeGrams(EntityManager em, long id) {
+		em.createQuery("DELETE FROM TitleGram g WHERE g.contactId = :id").setParameter("id", id).executeUpdate();
+	}
+
+	/**
+	 * Title grams changed by the operations of a batch since the last flush.
+	 * Grams in the database are removed with one JDBC batch just before the
+	 * flush, not with a bulk JPQL delete for each contact, which would make
+	 * EclipseLink flush before every one and break up its batch writing.
+	 */
+	private static class GramChanges {
+		/** contacts whose grams in the database are removed at the next flush */
+		private final List<Long> removed = new ArrayList<Long>();
+		/** grams persisted since the last flush, by contact id */
+		private final Map<Long,List<TitleGram>> added = new HashMap<Long,List<TitleGram>>();
+
+		/** Add the title grams of a contact that was just persisted or retitled. */
+		void add(EntityManager em, Contact contact) {
+			List<TitleGram> grams = new ArrayList<TitleGram>();
+			for(String gram : TitleGrams.titleGrams(TitleGrams.normalize(contact.getTitle()))) {
+				TitleGram titleGram = new TitleGram(gram, contact.getId());
+				em.persist(titleGram);
+				grams.add(titleGram);
+			}
+			List<TitleGram> earlier = added.get(contact.getId());
+			if (earlier == null) added.put(contact.getId(), grams);
+			else earlier.addAll(grams);
+		}
+
+		/** Remove the title grams of a contact, those in the database and those not flushed yet. */
+		void remove(EntityManager em, long id) {
+			List<TitleGram> grams = added.remove(id);
+			if (grams != null) for(TitleGram gram : grams) em.remove(gram);
+			removed.add(id);
+		}
+
+		/** Delete the removed grams from the database. Call before every flush and commit. */
+		void flush(EntityManager em) {
+			if (! removed.isEmpty()) removeGrams(em, removed);
+			removed.clear();
+			added.clear();
 		}
 	}
 
+	/**
+	 * Remove the title grams of many contacts with one JDBC batch of deletes by contact id.
+	 * @param em the EntityManager of the current transaction
+	 * @param ids ids of the contacts
+	 */
+	private static void removeGrams(EntityManager em, List<Long> ids) {
+		executeBatch(em, "DELETE FROM TitleGram WHERE contact_id = ?", ids);
+	}
+
+	/**
+	 * Run a statement with one id parameter for each id, as one JDBC batch
+	 * on the connection of the current transaction, so it commits with the transaction.
+	 * @param em the EntityManager of the current transaction
+	 * @param sql statement with one parameter
+	 * @param ids values of the parameter
+	 * @return number of rows changed by each statement, in the order of ids
+	 */
+	private static int[] executeBatch(EntityManager em, String sql, List<Long> ids) {
+		Connection connection = em.unwrap(Connection.class);
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for(long id : ids) {
+				statement.setLong(1, id);
+				statement.addBatch();
+			}
+			return statement.executeBatch();
+		} catch (SQLException ex) {
+			throw new PersistenceException(ex);
+		}
+	}
+
+	/**
+	 * Apply an update to a managed contact, replacing its title grams if the title changes.
+	 * @param em the EntityManager of the current transaction
+	 * @param contact the managed contact
+	 * @param update the new values
+	 */
+	private static void updateGrams(EntityManager em, Contact contact, Contact update) {
+		String oldTitle = TitleGrams.normalize(contact.getTitle());
+		contact.applyUpdate(update);
+		if (oldTitle.equals(TitleGrams.normalize(contact.getTitle()))) return;
+		removeGrams(em, contact.getId());
+		addGrams(em, contact);
+	}
+
+	/**
+	 * Set the lower case title and add the title grams of contacts that were
+	 * saved before they were kept, TRANSACTION_SIZE contacts at a time.
+	 * JpaDaoFactory calls this when it starts.
+	 * @return number of contacts that were indexed
+	 */
+	int indexTitles() {
+		EntityManager em = emf.createEntityManager();
+		int count = 0;
+		try {
+			while(true) {
+				em.getTransaction().begin();
+				List<Contact> contacts = em.createQuery("select c from Contact c where c.titleKey is null", Contact.class)
+						.setMaxResults(TRANSACTION_SIZE).getResultList();
+				if (contacts.isEmpty()) break;
+				// contacts without a lower case title were saved before grams were kept, so they have none
+				for(Contact contact : contacts) {
+					contact.updateTitleKey();
+					addGrams(em, contact);
+				}
+				em.getTransaction().commit();
+				em.clear();
+				count += contacts.size();
+			}
+		} finally {
+			close(em);
+		}
+		return count;
+	}
+
+	/**
+	 * Roll back the EntityManager's transaction if it wasn't committed, and close it.
+	 * @param em the EntityManager used by one operation
+	 */
+	private static void close(EntityManager em) {
+		rollback(em.getTransaction());
+		em.close();
+	}
+
+	/**
+	 * Roll back a transaction if it is active, logging it if it can't be rolled back.
+	 * @param tx the transaction
+	 */
+	private static void rollback(EntityTransaction tx) {
+		if (! tx.isActive()) return;
+		try {
+			tx.rollback();
+		} catch (PersistenceException ex) {
+			Logger.getLogger(JpaContactDao.class.getName()).severe("Can't roll back: "+ex.getMessage());
+		}
+	}
+
+	/**
+	 * Apply the operations in a few transactions of up to TRANSACTION_SIZE operations.
+	 * The persistence context is flushed and cleared every FLUSH_SIZE operations,
+	 * so JDBC batch writing (see persistence.xml) sends the statements in groups
+	 * and memory use doesn't grow with the size of the batch.
+	 * If a transaction fails, its operations are applied again one at a time,
+	 * each in its own transaction, so only the operations that fail by themselves
+	 * are reported as not applied. Operations in earlier transactions stay applied.
+	 * A new contact whose save was rolled back gets back the id it had before.
+	 * @see contact.service.ContactDao#batch(java.util.List)
+	 */
+	@Override
+	public boolean[] batch(List<BatchOperation> operations) {
+		boolean[] applied = new boolean[operations.size()];
+		EntityManager em = emf.createEntityManager();
+		try {
+			batch(em, operations, applied);
+		} finally {
+			close(em);
+		}
+		return applied;
+	}
+	
+	/**
+	 * Apply a batch using one EntityManager.
+	 * @param applied set to true for each operation that was committed
+	 */
+	private void batch(EntityManager em, List<BatchOperation> operations, boolean[] applied) {
+		for(int start = 0; start < operations.size(); start += TRANSACTION_SIZE) {
+			int end = Math.min(start + TRANSACTION_SIZE, operations.size());
+			if (! commit(em, operations, start, end, applied) && end - start > 1) {
+				Logger.getLogger(this.getClass().getName()).warning("Applying "+(end - start)+" operations one at a time");
+				for(int k = start; k < end; k++) commit(em, operations, k, k + 1, applied);
+			}
+			// log the changes only after they are committed
+			for(int k = start; k < end; k++) {
+				if (! applied[k]) continue;
+				BatchOperation op = operations.get(k);
+				if (op.getType() == BatchOperation.Type.DELETE) changes.deleted(op.getId());
+				else changes.updated(op.getId());
+			}
+		}
+	}
+	
+	/**
+	 * Apply some operations of a batch in one transaction.
+	 * @param start index of the first operation
+	 * @param end index after the last operation
+	 * @param applied set to true for each operation that was committed
+	 * @return true if the transaction was committed, false if it was rolled back
+	 */
+	private boolean commit(EntityManager em, List<BatchOperation> operations, int start, int end, boolean[] applied) {
+		// ids of new contacts before they are saved, to undo the ids they get if the save is rolled back
+		long[] ids = new long[end - start];
+		for(int k = start; k < end; k++) {
+			BatchOperation op = operations.get(k);
+			if (op.getType() == BatchOperation.Type.SAVE) ids[k - start] = op.getContact().getId();
+		}
+		EntityTransaction tx = em.getTransaction();
+		GramChanges grams = new GramChanges();
+		try {
+			tx.begin();
+			for(int k = start; k < end; k++) {
+				applied[k] = apply(em, operations.get(k), grams);
+				if ((k - start + 1) % FLUSH_SIZE == 0) {
+					grams.flush(em);
+					em.flush();
+					em.clear();
+				}
+			}
+			grams.flush(em);
+			tx.commit();
+			em.clear();
+			return true;
+		} catch (PersistenceException ex) {
+			Logger.getLogger(this.getClass().getName()).warning(ex.getMessage());
+			rollback(tx);
+			em.clear();
+			Arrays.fill(applied, start, end, false);
+			for(int k = start; k < end; k++) {
+				BatchOperation op = operations.get(k);
+				if (op.getType() == BatchOperation.Type.SAVE) op.getContact().setId(ids[k - start]);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Apply one operation of a batch in the current transaction.
+	 * @param grams the title grams changed since the last flush
+	 * @return true if the operation was applied
+	 */
+	private boolean apply(EntityManager em, BatchOperation op, GramChanges grams) {
+		Contact contact;
+		switch (op.getType()) {
+		case SAVE:
+			contact = op.getContact();
+			// like save, a contact with an id that is already used is not saved
+			if (contact.getId() != 0 && em.find(Contact.class, contact.getId()) != null) return false;
+			em.persist(contact);
+			grams.add(em, contact);
+			return true;
+		case UPDATE:
+			contact = em.find(Contact.class, op.getId());
+			if (contact == null) return false;
+			String oldTitle = TitleGrams.normalize(contact.getTitle());
+			contact.applyUpdate(op.getContact());
+			if (! oldTitle.equals(TitleGrams.normalize(contact.getTitle()))) {
+				// a contact persisted earlier in the batch is inserted without PreUpdate
+				contact.updateTitleKey();
+				grams.remove(em, contact.getId());
+				grams.add(em, contact);
+			}
+			return true;
+		case DELETE:
+			contact = em.find(Contact.class, op.getId());
+			if (contact == null) return false;
+			grams.remove(em, op.getId());
+			em.remove(contact);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return changes.getVersion();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findChanges(long)
+	 */
+	@Override
+	public List<ChangeLog.Change> findChanges(long since) {
+		return changes.changesSince(since);
+	}
+
+	/**
+	 * Delete contacts and their title grams with JDBC batches of deletes by id,
+	 * BATCH_DELETE_SIZE ids in each transaction, without loading any contacts.
+	 * Derby reads the whole table for a delete with a long IN list,
+	 * but uses the primary key or index for each delete in a batch.
+	 * The deleted contacts are removed from EclipseLink's shared cache.
+	 * @see contact.service.ContactDao#deleteByIds(java.util.Collection)
+	 */
 	@Override
-	public void removeAll() {}
+	public int deleteByIds(Collection<Long> ids) {
+		List<Long> all = new ArrayList<Long>(ids);
+		int count = 0;
+		EntityManager em = emf.createEntityManager();
+		try {
+			for(int start = 0; start < all.size(); start += BATCH_DELETE_SIZE) {
+				List<Long> chunk = all.subList(start, Math.min(start + BATCH_DELETE_SIZE, all.size()));
+				EntityTransaction tx = em.getTransaction();
+				tx.begin();
+				removeGrams(em, chunk);
+				int[] deleted = executeBatch(em, "DELETE FROM Contact WHERE id = ?", chunk);
+				tx.commit();
+				for(int k = 0; k < deleted.length; k++) {
+					// only contacts that existed are logged
+					if (deleted[k] <= 0) continue;
+					long id = chunk.get(k);
+					emf.getCache().evict(Contact.class, id);
+					changes.deleted(id);
+					count++;
+				}
+			}
+		} finally {
+			close(em);
+		}
+		return count;
+	}
+
+	/**
+	 * Delete all contacts and title grams with bulk DELETE statements in one transaction,
+	 * and empty EclipseLink's shared cache.
+	 * @see contact.service.ContactDao#removeAll()
+	 */
+	@Override
+	public void removeAll() {
+		EntityManager em = emf.createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			em.createQuery("DELETE FROM TitleGram g").executeUpdate();
+			em.createQuery("DELETE FROM Contact c").executeUpdate();
+			tx.commit();
+		} finally {
+			close(em);
+			emf.getCache().evictAll();
+		}
+		changes.cleared();
+	}
 }
@@ -1,12 +1,21 @@
 package contact.service.jpa;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
 import javax.persistence.Persistence;
 
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+
 import contact.service.*;
 import contact.service.mem.MemContactDao;
 
@@ -14,6 +23,10 @@ import contact.service.mem.MemContactDao;
  * JpaDaoFactory is a factory for DAO that use the Java Persistence API (JPA)
  * to persist objects.
  * The factory depends on the configuration information in META-INF/persistence.xml.
+ * The size of the JDBC connection pool can be set by system properties
+ * <tt>contact.jpa.pool.min</tt> and <tt>contact.jpa.pool.max</tt>;
+ * a request that needs a connection when all are in use waits for one.
+ * The DAO is wrapped in a CachedContactDao unless <tt>contact.jpa.cache.size</tt> is 0.
  * 
  * @see contact.service.DaoFactory
  * @version 2014.09.19
@@ -23,8 +36,11 @@ public class JpaDaoFactory extends DaoFactory {
 	private static final String PERSISTENCE_UNIT = "contacts";
 	/** instance of the entity DAO */
 	private ContactDao contactDao;
+	/** system property for the smallest number of pooled database connections */
+	public static final String POOL_MIN_PROPERTY = "contact.jpa.pool.min";
+	/** system property for the largest number of pooled database connections */
+	public static final String POOL_MAX_PROPERTY = "contact.jpa.pool.max";
 	private final EntityManagerFactory emf;
-	private EntityManager em;
 	private static Logger logger;
 	
 	static {
@@ -32,9 +48,99 @@ public class JpaDaoFactory extends DaoFactory {
 	}
 	
 	public JpaDaoFactory() {
-		emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
-		em = emf.createEntityManager();
-		contactDao = new JpaContactDao( em );
+		emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT, poolProperties());
+		initializeVersions();
+		createIndexes();
+		JpaContactDao dao = new JpaContactDao( emf );
+		int indexed = dao.indexTitles();
+		if (indexed > 0) logger.info("Indexed titles of "+indexed+" contacts");
+		// most requests read a few hot contacts, so keep them in memory unless caching is turned off
+		contactDao = (CachedContactDao.DEFAULT_SIZE > 0) ? new CachedContactDao( dao ) : (ContactDao) dao;
+	}
+	
+	/**
+	 * Connection pool settings from system properties, which override those in persistence.xml.
+	 * Reads outside a transaction use the read pool, and transactions use the default pool,
+	 * so both pools get the same sizes.
+	 * @return the properties for creating the EntityManagerFactory
+	 */
+	private static Map<String,String> poolProperties() {
+		Map<String,String> properties = new HashMap<String,String>();
+		String min = System.getProperty(POOL_MIN_PROPERTY);
+		String max = System.getProperty(POOL_MAX_PROPERTY);
+		for(String pool : new String[] { "default.", "read." }) {
+			String prefix = PersistenceUnitProperties.CONNECTION_POOL + pool;
+			if (min != null) {
+				properties.put(prefix + PersistenceUnitProperties.CONNECTION_POOL_INITIAL, min);
+				properties.put(prefix + PersistenceUnitProperties.CONNECTION_POOL_MIN, min);
+			}
+			if (max != null) properties.put(prefix + PersistenceUnitProperties.CONNECTION_POOL_MAX, max);
+		}
+		return properties;
+	}
+	
+	/**
+	 * Create the indexes used by title searches if their tables were created
+	 * before the indexes were declared. EclipseLink's create-or-extend-tables
+	 * adds new columns to an existing table, but not new indexes.
+	 */
+	private void createIndexes() {
+		createIndex("CONTACT", "IDX_CONTACT_TITLE_KEY", "title_key");
+		createIndex("TITLEGRAM", "IDX_TITLEGRAM_GRAM", "gram, contact_id");
+		createIndex("TITLEGRAM", "IDX_TITLEGRAM_CONTACT", "contact_id");
+	}
+	
+	/**
+	 * Create an index, the same as declared in an entity, unless it exists.
+	 * @param table name of the table, in upper case
+	 * @param index name of the index
+	 * @param columns the indexed columns, separated by commas
+	 */
+	private void createIndex(String table, String index, String columns) {
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			Connection connection = em.unwrap(Connection.class);
+			boolean found = false;
+			ResultSet indexes = connection.getMetaData().getIndexInfo(null, null, table, false, false);
+			while (indexes.next()) {
+				if (index.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) found = true;
+			}
+			indexes.close();
+			if (! found) {
+				em.createNativeQuery("CREATE INDEX "+index+" ON "+table+" ("+columns+")").executeUpdate();
+				logger.info("Created index "+index);
+			}
+			tx.commit();
+		} catch (PersistenceException ex) {
+			logger.log( Level.WARNING, "Could not create index "+index, ex );
+		} catch (SQLException ex) {
+			logger.log( Level.WARNING, "Could not create index "+index, ex );
+		} finally {
+			if (tx.isActive()) tx.rollback();
+			em.close();
+		}
+	}
+	
+	/**
+	 * Rows saved before Contact had a version column have a null version,
+	 * which JPA can't use for optimistic locking. Give them version 0.
+	 */
+	private void initializeVersions() {
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			int rows = em.createQuery("UPDATE Contact c SET c.version = 0 WHERE c.version IS NULL").executeUpdate();
+			tx.commit();
+			if (rows > 0) logger.info("Initialized version of "+rows+" contacts");
+		} catch (PersistenceException ex) {
+			logger.log( Level.WARNING, "Could not initialize contact versions", ex );
+			if (tx.isActive()) tx.rollback();
+		} finally {
+			em.close();
+		}
 	}
 	
 	@Override
@@ -45,7 +151,6 @@ public class JpaDaoFactory extends DaoFactory {
 	@Override
 	public void shutdown() {
 		try {
-			if (em != null && em.isOpen()) em.close();
 			if (emf != null && emf.isOpen()) emf.close();
 		} catch (IllegalStateException ex) {
 			logger.log( Level.SEVERE, ex.toString() );
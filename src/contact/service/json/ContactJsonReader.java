@@ -0,0 +1,324 @@
+package contact.service.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+
+/**
+ * Reads contacts in the JSON form written by ContactJsonWriter.
+ * Field names are the same as in the XML form; unknown fields are
+ * skipped, and a null or missing field leaves the contact's field null.
+ * <p>
+ * The operations of a bulk request are an array of objects that each have
+ * one field naming the operation, like the elements of the XML form:
+ * <tt>[{"save":{...}},{"update":{"id":101,...}},{"delete":102}]</tt>.
+ * <p>
+ * The JSON is parsed straight into Contact objects from a char buffer,
+ * without building a tree, and a string with no escapes is copied from
+ * the buffer in one step.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactJsonReader {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Deepest nesting of skipped values, so a hostile document can't overflow the stack. */
+	private static final int MAX_DEPTH = 64;
+
+	private final Reader in;
+	private final char[] buffer = new char[1024];
+	private int position;
+	private int limit;
+	/** number of chars before the buffer, for error messages */
+	private long offset;
+	private final StringBuilder text = new StringBuilder();
+	/** state of readOperations: 0 before the array, 1 in it, 2 after it */
+	private int operationsState;
+
+	/**
+	 * @param in the JSON document, in UTF-8
+	 */
+	public ContactJsonReader(InputStream in) {
+		this.in = new InputStreamReader(in, UTF8);
+	}
+
+	/**
+	 * Thrown when the input is not JSON, or not a contact.
+	 */
+	public static class MalformedJsonException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public MalformedJsonException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Read one contact object.
+	 * @return the contact
+	 * @throws MalformedJsonException if the input is not a contact object
+	 * @throws IOException if the input can't be read
+	 */
+	public Contact readContact() throws IOException {
+		expect('{');
+		Contact contact = new Contact();
+		if (peek() == '}') {
+			position++;
+			return contact;
+		}
+		do {
+			String name = readString();
+			expect(':');
+			if (name.equals("id")) contact.setId(readLong());
+			else if (name.equals("title")) contact.setTitle(readNullableString());
+			else if (name.equals("name")) contact.setName(readNullableString());
+			else if (name.equals("email")) contact.setEmail(readNullableString());
+			else if (name.equals("photoUrl")) contact.setPhotoUrl(readNullableString());
+			else skipValue(0);
+		} while (next(',', '}'));
+		return contact;
+	}
+
+	/**
+	 * Read an array of contact objects.
+	 * @return the contacts
+	 * @throws MalformedJsonException if the input is not an array of contacts
+	 * @throws IOException if the input can't be read
+	 */
+	public List<Contact> readContacts() throws IOException {
+		expect('[');
+		List<Contact> contacts = new ArrayList<Contact>();
+		if (peek() == ']') {
+			position++;
+			return contacts;
+		}
+		do {
+			contacts.add(readContact());
+		} while (next(',', ']'));
+		return contacts;
+	}
+
+	/**
+	 * Read the next operations of a bulk request.
+	 * @param max the most operations to read
+	 * @return up to max operations, or an empty list after the last one
+	 * @throws MalformedJsonException if the input is not an array of operations
+	 * @throws IOException if the input can't be read
+	 */
+	public List<BatchOperation> readOperations(int max) throws IOException {
+		List<BatchOperation> operations = new ArrayList<BatchOperation>();
+		if (operationsState == 0) {
+			expect('[');
+			operationsState = 1;
+			if (peek() == ']') {
+				position++;
+				operationsState = 2;
+			}
+		}
+		while (operationsState == 1 && operations.size() < max) {
+			operations.add(readOperation());
+			if (! next(',', ']')) operationsState = 2;
+		}
+		return operations;
+	}
+
+	/** Read one operation object, with its one field. */
+	private BatchOperation readOperation() throws IOException {
+		expect('{');
+		String name = readString();
+		expect(':');
+		BatchOperation operation;
+		if (name.equals("save")) operation = BatchOperation.save(readContact());
+		else if (name.equals("update")) operation = BatchOperation.update(readContact());
+		else if (name.equals("delete")) operation = BatchOperation.delete(readLong());
+		else throw error("save, update or delete");
+		expect('}');
+		return operation;
+	}
+
+	/**
+	 * Check that nothing but whitespace is left.
+	 * @throws MalformedJsonException if there is more
+	 * @throws IOException if the input can't be read
+	 */
+	public void end() throws IOException {
+		if (peek() >= 0) throw error("end of input");
+	}
+
+	/**
+	 * Read a separator or a closing bracket.
+	 * @return true for the separator, false for the bracket
+	 */
+	private boolean next(char separator, char close) throws IOException {
+		int c = peek();
+		if (c == separator || c == close) position++;
+		else throw error("'"+separator+"' or '"+close+"'");
+		return c == separator;
+	}
+
+	private String readNullableString() throws IOException {
+		if (peek() == 'n') {
+			readLiteral("null");
+			return null;
+		}
+		return readString();
+	}
+
+	private String readString() throws IOException {
+		expect('"');
+		// most strings have no escapes and fit in the buffer
+		for(int k = position; k < limit; k++) {
+			char c = buffer[k];
+			if (c == '"') {
+				String s = new String(buffer, position, k - position);
+				position = k + 1;
+				return s;
+			}
+			if (c == '\\' || c < 0x20) break;
+		}
+		text.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == '"') return text.toString();
+			if (c < 0) throw error("end of string");
+			if (c < 0x20) throw error("escaped control character");
+			if (c == '\\') c = readEscape();
+			text.append((char) c);
+		}
+	}
+
+	private int readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case '"': case '\\': case '/': return c;
+		case 'n': return '\n';
+		case 'r': return '\r';
+		case 't': return '\t';
+		case 'b': return '\b';
+		case 'f': return '\f';
+		case 'u':
+			int code = 0;
+			for(int k = 0; k < 4; k++) {
+				int digit = Character.digit(read(), 16);
+				if (digit < 0) throw error("hex digit");
+				code = code << 4 | digit;
+			}
+			return code;
+		default:
+			throw error("escape character");
+		}
+	}
+
+	private long readLong() throws IOException {
+		int c = peek();
+		boolean negative = c == '-';
+		if (negative) {
+			position++;
+			c = peek();
+		}
+		if (c < '0' || c > '9') throw error("an id number");
+		long value = 0;
+		while (c >= '0' && c <= '9') {
+			position++;
+			if (value > (Long.MAX_VALUE - (c - '0')) / 10) throw error("a smaller id");
+			value = value * 10 + (c - '0');
+			c = fill() ? buffer[position] : -1;
+		}
+		if (c == '.' || c == 'e' || c == 'E') throw error("a whole number");
+		return negative ? -value : value;
+	}
+
+	private void readLiteral(String literal) throws IOException {
+		for(int k = 0; k < literal.length(); k++) {
+			if (read() != literal.charAt(k)) throw error(literal);
+		}
+	}
+
+	/** Skip any JSON value. */
+	private void skipValue(int depth) throws IOException {
+		if (depth > MAX_DEPTH) throw error("less nesting");
+		int c = peek();
+		switch (c) {
+		case '{':
+			position++;
+			if (peek() == '}') {
+				position++;
+				return;
+			}
+			do {
+				readString();
+				expect(':');
+				skipValue(depth + 1);
+			} while (next(',', '}'));
+			return;
+		case '[':
+			position++;
+			if (peek() == ']') {
+				position++;
+				return;
+			}
+			do {
+				skipValue(depth + 1);
+			} while (next(',', ']'));
+			return;
+		case '"':
+			readString();
+			return;
+		case 't':
+			readLiteral("true");
+			return;
+		case 'f':
+			readLiteral("false");
+			return;
+		case 'n':
+			readLiteral("null");
+			return;
+		default:
+			if (c != '-' && (c < '0' || c > '9')) throw error("a value");
+			while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+				position++;
+				c = fill() ? buffer[position] : -1;
+			}
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		if (peek() != expected) throw error("'"+expected+"'");
+		position++;
+	}
+
+	/** @return the next char that isn't whitespace, without reading it, or -1 at the end */
+	private int peek() throws IOException {
+		while (fill()) {
+			char c = buffer[position];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+			position++;
+		}
+		return -1;
+	}
+
+	/** @return the next char, or -1 at the end */
+	private int read() throws IOException {
+		return fill() ? buffer[position++] : -1;
+	}
+
+	/** @return true if there is a char in the buffer, reading more if needed */
+	private boolean fill() throws IOException {
+		if (position < limit) return true;
+		offset += limit;
+		position = 0;
+		limit = Math.max(in.read(buffer), 0);
+		return limit > 0;
+	}
+
+	private MalformedJsonException error(String expected) {
+		return new MalformedJsonException("expected "+expected+" at character "+(offset + position));
+	}
+}
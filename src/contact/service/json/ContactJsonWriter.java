@@ -0,0 +1,238 @@
+package contact.service.json;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import contact.entity.BatchResult;
+import contact.entity.Contact;
+
+/**
+ * Writes contacts as JSON, with the same field names as the XML form:
+ * <tt>{"id":101,"title":"...","name":"...","email":"...","photoUrl":"..."}</tt>.
+ * A null field is left out, like JAXB does. A list of contacts is
+ * a JSON array. The results of a bulk request are an array of
+ * <tt>{"index":0,"id":101,"status":201}</tt>.
+ * <p>
+ * Characters are encoded as UTF-8 straight into one byte buffer, which
+ * is written to the output when full, so writing a contact creates
+ * no objects. The output is flushed every FLUSH_EVERY contacts of a list
+ * so a client receiving it gets the data in chunks.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactJsonWriter implements Flushable {
+	/** Size of the output buffer in bytes. */
+	private static final int BUFFER_SIZE = 1024;
+	/** Flush the output after this many contacts of a list. */
+	public static final int FLUSH_EVERY = 500;
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count;
+
+	/**
+	 * @param out where to write the JSON. It is flushed but not closed.
+	 */
+	public ContactJsonWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write one contact object.
+	 * @param contact the contact to write
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeContact(Contact contact) throws IOException {
+		ensure(30);
+		buffer[count++] = '{';
+		writeAscii("\"id\":");
+		writeLong(contact.getId());
+		writeField("title", contact.getTitle());
+		writeField("name", contact.getName());
+		writeField("email", contact.getEmail());
+		writeField("photoUrl", contact.getPhotoUrl());
+		ensure(1);
+		buffer[count++] = '}';
+	}
+
+	/**
+	 * Write an array of contacts, as they come from an iterator
+	 * (usually a ContactCursor), so the whole list is never in memory.
+	 * @param contacts the contacts to write
+	 * @return number of contacts written
+	 * @throws IOException if the output can't be written
+	 */
+	public int writeContacts(Iterator<Contact> contacts) throws IOException {
+		int written = 0;
+		ensure(1);
+		buffer[count++] = '[';
+		while (contacts.hasNext()) {
+			if (written > 0) {
+				ensure(1);
+				buffer[count++] = ',';
+			}
+			writeContact(contacts.next());
+			if (++written % FLUSH_EVERY == 0) flush();
+		}
+		ensure(1);
+		buffer[count++] = ']';
+		return written;
+	}
+
+	/**
+	 * Write an array of the results of bulk operations.
+	 * @param results the results to write
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeResults(List<BatchResult> results) throws IOException {
+		ensure(1);
+		buffer[count++] = '[';
+		int written = 0;
+		for(BatchResult result : results) {
+			if (written++ > 0) {
+				ensure(1);
+				buffer[count++] = ',';
+			}
+			writeAscii("{\"index\":");
+			writeLong(result.getIndex());
+			writeAscii(",\"id\":");
+			writeLong(result.getId());
+			writeAscii(",\"status\":");
+			writeLong(result.getStatus());
+			ensure(1);
+			buffer[count++] = '}';
+		}
+		ensure(1);
+		buffer[count++] = ']';
+	}
+
+	/**
+	 * Write the buffer and flush the output.
+	 * @throws IOException if the output can't be written
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/** Write a field with a leading comma, or nothing if the value is null. */
+	private void writeField(String name, String value) throws IOException {
+		if (value == null) return;
+		ensure(name.length() + 4);
+		buffer[count++] = ',';
+		buffer[count++] = '"';
+		writeAscii(name);
+		buffer[count++] = '"';
+		buffer[count++] = ':';
+		writeString(value);
+	}
+
+	/** Write text that is known to be ASCII with nothing to escape. */
+	private void writeAscii(String text) throws IOException {
+		int length = text.length();
+		ensure(length);
+		for(int k = 0; k < length; k++) buffer[count++] = (byte) text.charAt(k);
+	}
+
+	private void writeLong(long value) throws IOException {
+		ensure(20);
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			buffer[count++] = '-';
+			value = -value;
+		}
+		// digits are put at the end of the space, then moved to the front
+		int end = count + 19;
+		int start = end;
+		do {
+			buffer[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		int digits = end - start;
+		System.arraycopy(buffer, start, buffer, count, digits);
+		count += digits;
+	}
+
+	/** Write a quoted string, escaped and encoded as UTF-8. */
+	private void writeString(String value) throws IOException {
+		ensure(1);
+		buffer[count++] = '"';
+		int length = value.length();
+		for(int k = 0; k < length; k++) {
+			// the longest form of one char is a 6 byte \\u escape
+			ensure(6);
+			char c = value.charAt(k);
+			if (c < 0x80) {
+				if (c == '"' || c == '\\') {
+					buffer[count++] = '\\';
+					buffer[count++] = (byte) c;
+				} else if (c < 0x20) {
+					writeControl(c);
+				} else {
+					buffer[count++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buffer[count++] = (byte) (0xC0 | c >> 6);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && k + 1 < length && Character.isLowSurrogate(value.charAt(k+1))) {
+				int code = Character.toCodePoint(c, value.charAt(++k));
+				buffer[count++] = (byte) (0xF0 | code >> 18);
+				buffer[count++] = (byte) (0x80 | code >> 12 & 0x3F);
+				buffer[count++] = (byte) (0x80 | code >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | code & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				// a lone surrogate can't be UTF-8, but can be escaped
+				writeUnicodeEscape(c);
+			} else {
+				buffer[count++] = (byte) (0xE0 | c >> 12);
+				buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buffer[count++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		ensure(1);
+		buffer[count++] = '"';
+	}
+
+	private void writeControl(char c) {
+		buffer[count++] = '\\';
+		switch (c) {
+		case '\n': buffer[count++] = 'n'; break;
+		case '\r': buffer[count++] = 'r'; break;
+		case '\t': buffer[count++] = 't'; break;
+		case '\b': buffer[count++] = 'b'; break;
+		case '\f': buffer[count++] = 'f'; break;
+		default:
+			count--;
+			writeUnicodeEscape(c);
+		}
+	}
+
+	private void writeUnicodeEscape(char c) {
+		buffer[count++] = '\\';
+		buffer[count++] = 'u';
+		buffer[count++] = HEX[c >> 12 & 0xF];
+		buffer[count++] = HEX[c >> 8 & 0xF];
+		buffer[count++] = HEX[c >> 4 & 0xF];
+		buffer[count++] = HEX[c & 0xF];
+	}
+
+	/** Make room for n more bytes in the buffer, n &lt;= BUFFER_SIZE. */
+	private void ensure(int n) throws IOException {
+		if (count + n > buffer.length) drain();
+	}
+
+	/** Write the buffer to the output. */
+	private void drain() throws IOException {
+		if (count > 0) out.write(buffer, 0, count);
+		count = 0;
+	}
+}
@@ -0,0 +1,277 @@
+package contact.service.mem;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import contact.entity.Contact;
+
+/**
+ * A concurrent map from contact id to Contact.
+ * Ids are kept as primitive longs in open-addressing hash tables,
+ * so a lookup doesn't box the id or walk a list of contacts.
+ * The map is split into stripes, each guarded by its own lock,
+ * so threads that touch different stripes don't block each other.
+ * <p>
+ * The map also keeps an ordered index of the contacts by id,
+ * for listing contacts in id order and for paging through them.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+public class ContactMap {
+	/** Number of stripes. Must be a power of 2. */
+	private static final int STRIPES = 64;
+
+	private final Stripe[] stripes;
+	/** the same contacts ordered by id, changed only while holding the stripe lock */
+	private final ConcurrentSkipListMap<Long,Contact> ordered = new ConcurrentSkipListMap<Long,Contact>();
+	/** notified of each change while the stripe lock is held, may be null */
+	private final Listener listener;
+	private final AtomicInteger size = new AtomicInteger();
+	/** Incremented on every change, so snapshots know when they are stale. */
+	private final AtomicLong modCount = new AtomicLong();
+	/** The most recent snapshot of all contacts, rebuilt lazily after a change. */
+	private volatile Snapshot snapshot;
+	/** A live, read-only List view of the contacts. */
+	private final List<Contact> values = new ValuesView();
+
+	/**
+	 * Callback for changes to the map. It is called while the lock for
+	 * the contact's stripe is held, so changes to one contact are seen
+	 * in the same order they are made. It must not call back into the map.
+	 */
+	public interface Listener {
+		/**
+		 * A contact was added, replaced, updated or removed.
+		 * @param id the contact id
+		 * @param contact the contact now in the map, or null if it was removed
+		 */
+		void changed(long id, Contact contact);
+	}
+
+	public ContactMap() {
+		this(null);
+	}
+
+	/**
+	 * Create a map that reports changes to a listener.
+	 * Clearing the map is not reported.
+	 * @param listener the listener to notify of changes
+	 */
+	public ContactMap(Listener listener) {
+		this.listener = listener;
+		stripes = new Stripe[STRIPES];
+		for(int k=0; k<STRIPES; k++) stripes[k] = new Stripe();
+	}
+
+	/**
+	 * Get the contact with a given id.
+	 * @param id the contact id
+	 * @return the contact or null if there is no contact with this id
+	 */
+	public Contact get(long id) {
+		Stripe stripe = stripeFor(id);
+		synchronized(stripe) {
+			return stripe.get(id);
+		}
+	}
+
+	/**
+	 * Test if a contact with the given id is in the map.
+	 * @param id the contact id
+	 * @return true if the id is in the map
+	 */
+	public boolean containsKey(long id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Add or replace a contact, using the contact's id as key.
+	 * @param contact the contact to put in the map. Must not be null.
+	 * @return the previous contact with the same id, or null
+	 */
+	public Contact put(Contact contact) {
+		long id = contact.getId();
+		Stripe stripe = stripeFor(id);
+		Contact old;
+		synchronized(stripe) {
+			old = stripe.put(id, contact, true);
+			ordered.put(id, contact);
+			if (listener != null) listener.changed(id, contact);
+		}
+		changed(old == null ? 1 : 0);
+		return old;
+	}
+
+	/**
+	 * Add a contact only if no contact with the same id is in the map.
+	 * @param contact the contact to add. Must not be null.
+	 * @return the contact already in the map with this id, or null if contact was added
+	 */
+	public Contact putIfAbsent(Contact contact) {
+		long id = contact.getId();
+		Stripe stripe = stripeFor(id);
+		Contact old;
+		synchronized(stripe) {
+			old = stripe.put(id, contact, false);
+			if (old == null) ordered.put(id, contact);
+			if (listener != null && old == null) listener.changed(id, contact);
+		}
+		if (old == null) changed(1);
+		return old;
+	}
+
+	/**
+	 * Apply an update to the contact with the same id as the update.
+	 * The update is applied while holding the contact's stripe lock,
+	 * so concurrent updates of one contact don't interleave.
+	 * @param update the update values
+	 * @return the updated contact, or null if there is no contact with the update's id
+	 */
+	public Contact update(Contact update) {
+		Stripe stripe = stripeFor(update.getId());
+		Contact contact;
+		synchronized(stripe) {
+			contact = stripe.get(update.getId());
+			if (contact == null) return null;
+			contact.applyUpdate(update);
+			if (listener != null) listener.changed(contact.getId(), contact);
+		}
+		changed(0);
+		return contact;
+	}
+
+	/**
+	 * Remove the contact with a given id.
+	 * @param id the contact id
+	 * @return the removed contact, or null if the id was not in the map
+	 */
+	public Contact remove(long id) {
+		Stripe stripe = stripeFor(id);
+		Contact old;
+		synchronized(stripe) {
+			old = stripe.remove(id);
+			if (old != null) ordered.remove(id);
+			if (listener != null && old != null) listener.changed(id, null);
+		}
+		if (old != null) changed(-1);
+		return old;
+	}
+
+	/**
+	 * Remove all contacts.
+	 */
+	public void clear() {
+		for(Stripe stripe : stripes) {
+			int removed;
+			synchronized(stripe) {
+				removed = stripe.size();
+				Contact[] contacts = new Contact[removed];
+				stripe.copyValues(contacts, 0);
+				for(Contact c : contacts) ordered.remove(c.getId());
+				stripe.clear();
+			}
+			changed(-removed);
+		}
+	}
+
+	/**
+	 * @return number of contacts in the map
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Get a live, read-only view of the contacts, ordered by id.
+	 * The view always reflects the current contents of the map.
+	 * An iterator over the view works on a snapshot taken when the
+	 * iterator is created, so it is never affected by concurrent changes.
+	 * Each call of get and size uses the latest snapshot, so a loop by
+	 * index can mix snapshots; use an iterator for a consistent pass.
+	 * @return List view of all contacts
+	 */
+	public List<Contact> values() {
+		return values;
+	}
+
+	/**
+	 * Get a page of contacts in id order, starting after a given id.
+	 * @param afterId the page starts with the first contact whose id is greater than this
+	 * @param limit maximum number of contacts in the page
+	 * @return list of at most limit contacts, ordered by id
+	 */
+	public List<Contact> page(long afterId, int limit) {
+		List<Contact> page = new ArrayList<Contact>(Math.min(limit, 1024));
+		for(Contact contact : ordered.tailMap(afterId, false).values()) {
+			if (page.size() >= limit) break;
+			page.add(contact);
+		}
+		return page;
+	}
+
+	/**
+	 * Get a consistent copy of all contacts in the map, ordered by id.
+	 * The copy is shared by callers until the map changes, so don't modify it.
+	 * @return array of all contacts
+	 */
+	Contact[] snapshot() {
+		long stamp = modCount.get();
+		Snapshot snap = snapshot;
+		if (snap != null && snap.stamp == stamp) return snap.contacts;
+		Contact[] contacts = ordered.values().toArray(new Contact[0]);
+		// only publish the snapshot if nothing changed while it was built
+		if (modCount.get() == stamp) snapshot = new Snapshot(stamp, contacts);
+		return contacts;
+	}
+
+	private void changed(int sizeDelta) {
+		if (sizeDelta != 0) size.addAndGet(sizeDelta);
+		modCount.incrementAndGet();
+	}
+
+	private Stripe stripeFor(long id) {
+		// use the high bits of the hash for the stripe, low bits are used within the stripe
+		return stripes[(int)(LongHashMap.hash(id) >>> 58) & (STRIPES-1)];
+	}
+
+	/** An immutable copy of the contacts, tagged with the modCount it was built at. */
+	private static class Snapshot {
+		final long stamp;
+		final Contact[] contacts;
+
+		Snapshot(long stamp, Contact[] contacts) {
+			this.stamp = stamp;
+			this.contacts = contacts;
+		}
+	}
+
+	/** One segment of the map, guarded by its own monitor. */
+	private static class Stripe extends LongHashMap<Contact> {
+	}
+
+	/** Read-only List view of the map, backed by the current snapshot. */
+	private class ValuesView extends AbstractList<Contact> {
+		@Override
+		public Contact get(int index) {
+			return snapshot()[index];
+		}
+
+		@Override
+		public int size() {
+			return snapshot().length;
+		}
+
+		@Override
+		public Iterator<Contact> iterator() {
+			return Collections.unmodifiableList(Arrays.asList(snapshot())).iterator();
+		}
+	}
+}
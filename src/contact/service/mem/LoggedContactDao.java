@@ -0,0 +1,323 @@
+package contact.service.mem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ChangeLog;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.TitleQuery;
+
+/**
+ * A memory DAO that records every change in a WriteAheadLog,
+ * so MemDaoFactory can restore the contacts by replaying the log.
+ * A change to one contact is applied to the DAO and appended to the log
+ * while holding a lock for the contact's stripe of ids, so the records
+ * of each contact are in the same order as its changes, and changes to
+ * contacts in other stripes don't wait. Records of different contacts
+ * may be in any order, which replay doesn't care about; each record's
+ * sequence number still gives the log one order.
+ * Batches, deleteByIds and removeAll change many contacts, so they
+ * hold a lock that excludes all other changes while they run.
+ * Records are committed without any lock, so many threads share each
+ * write and force of the file. Saves and updates log the whole contact
+ * as it is after the change, so replaying a record twice does no harm.
+ * <p>
+ * checkpoint writes a SnapshotFile so the log can be discarded.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.30
+ */
+public class LoggedContactDao implements ContactDao {
+	private final ContactDao dao;
+	private final WriteAheadLog log;
+	/** Number of stripe locks. Must be a power of 2. */
+	private static final int STRIPES = 64;
+	/** held while a change to a contact in the stripe is applied and logged */
+	private final Object[] stripes;
+	/** read lock held for a change to one contact, write lock for a change to many */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param dao the DAO that keeps the contacts
+	 * @param log the log to record changes in, already replayed into dao
+	 */
+	public LoggedContactDao(ContactDao dao, WriteAheadLog log) {
+		this.dao = dao;
+		this.log = log;
+		stripes = new Object[STRIPES];
+		for(int k=0; k<STRIPES; k++) stripes[k] = new Object();
+	}
+
+	/** @return the log that changes are recorded in */
+	public WriteAheadLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Write a snapshot of all contacts, then delete the log records it replaces.
+	 * Changes wait only while the log is rotated and a cursor is opened;
+	 * the snapshot is written while changes continue. A contact changed
+	 * while the snapshot is written may be written with its new values,
+	 * but the change is also in the new log, which is replayed after
+	 * the snapshot is loaded, so the restored contacts are always right.
+	 * @param snapshot the snapshot file
+	 * @return number of contacts written
+	 * @throws IOException if the snapshot or log can't be written
+	 */
+	public synchronized int checkpoint(File snapshot) throws IOException {
+		File segment;
+		ContactCursor cursor;
+		lock.writeLock().lock();
+		try {
+			segment = log.rotate();
+			cursor = dao.openCursor();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		int count;
+		try {
+			count = SnapshotFile.write(snapshot, cursor);
+		} finally {
+			cursor.close();
+		}
+		log.deleteSegments(segment);
+		return count;
+	}
+
+	/** @return the lock for changes to a contact */
+	private Object stripeFor(long id) {
+		return stripes[(int)(LongHashMap.hash(id) >>> 58) & (STRIPES-1)];
+	}
+
+	/**
+	 * Commit a log record, so the change is durable as the fsync policy says.
+	 * @param sequence the record's sequence number, or 0 if nothing was logged
+	 */
+	private void commit(long sequence) {
+		if (sequence == 0) return;
+		try {
+			log.commit(sequence);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Can't write "+log.getFile(), ex);
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#save(contact.entity.Contact)
+	 */
+	@Override
+	public boolean save(Contact contact) {
+		long sequence = 0;
+		boolean saved;
+		lock.readLock().lock();
+		try {
+			if (contact.getId() != 0) {
+				synchronized (stripeFor(contact.getId())) {
+					saved = dao.save(contact);
+					if (saved) sequence = log.appendPut(contact);
+				}
+			} else {
+				// the stripe isn't known until the DAO gives the contact an id,
+				// and other threads may change the contact before it is logged,
+				// so log the contact as it is now, after any records they wrote
+				saved = dao.save(contact);
+				if (saved) {
+					synchronized (stripeFor(contact.getId())) {
+						Contact current = dao.find(contact.getId());
+						if (current != null) sequence = log.appendPut(current);
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		commit(sequence);
+		return saved;
+	}
+
+	/**
+	 * @see contact.service.ContactDao#update(contact.entity.Contact)
+	 */
+	@Override
+	public boolean update(Contact update) {
+		long sequence = 0;
+		boolean updated;
+		lock.readLock().lock();
+		try {
+			synchronized (stripeFor(update.getId())) {
+				updated = dao.update(update);
+				if (updated) sequence = log.appendPut(dao.find(update.getId()));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		commit(sequence);
+		return updated;
+	}
+
+	/**
+	 * @see contact.service.ContactDao#delete(long)
+	 */
+	@Override
+	public boolean delete(long id) {
+		long sequence = 0;
+		boolean deleted;
+		lock.readLock().lock();
+		try {
+			synchronized (stripeFor(id)) {
+				deleted = dao.delete(id);
+				if (deleted) sequence = log.appendDelete(id);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		commit(sequence);
+		return deleted;
+	}
+
+	/**
+	 * Apply the batch and log each operation that was applied.
+	 * The whole batch is committed at once.
+	 * @see contact.service.ContactDao#batch(java.util.List)
+	 */
+	@Override
+	public boolean[] batch(List<BatchOperation> operations) {
+		long sequence = 0;
+		boolean[] applied;
+		lock.writeLock().lock();
+		try {
+			applied = dao.batch(operations);
+			int k = 0;
+			for(BatchOperation op : operations) {
+				if (! applied[k++]) continue;
+				if (op.getType() == BatchOperation.Type.DELETE) {
+					sequence = log.appendDelete(op.getId());
+					continue;
+				}
+				// the contact as it is after the batch; null if a later operation deleted it
+				Contact contact = dao.find(op.getId());
+				if (contact != null) sequence = log.appendPut(contact);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		commit(sequence);
+		return applied;
+	}
+
+	/**
+	 * Log a delete for every id, since replaying the delete of a
+	 * contact that doesn't exist does nothing.
+	 * @see contact.service.ContactDao#deleteByIds(java.util.Collection)
+	 */
+	@Override
+	public int deleteByIds(Collection<Long> ids) {
+		long sequence = 0;
+		int count;
+		lock.writeLock().lock();
+		try {
+			count = dao.deleteByIds(ids);
+			if (count > 0) for(long id : ids) sequence = log.appendDelete(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		commit(sequence);
+		return count;
+	}
+
+	/**
+	 * @see contact.service.ContactDao#removeAll()
+	 */
+	@Override
+	public void removeAll() {
+		long sequence;
+		lock.writeLock().lock();
+		try {
+			dao.removeAll();
+			sequence = log.appendClear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		commit(sequence);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#find(long)
+	 */
+	@Override
+	public Contact find(long id) {
+		return dao.find(id);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findAll()
+	 */
+	@Override
+	public List<Contact> findAll() {
+		return dao.findAll();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitle(String match) {
+		return dao.findByTitle(match);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findByTitlePrefix(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitlePrefix(String prefix) {
+		return dao.findByTitlePrefix(prefix);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#search(contact.service.TitleQuery)
+	 */
+	@Override
+	public List<Contact> search(TitleQuery query) {
+		return dao.search(query);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findPage(long, int)
+	 */
+	@Override
+	public List<Contact> findPage(long afterId, int limit) {
+		return dao.findPage(afterId, limit);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#openCursor()
+	 */
+	@Override
+	public ContactCursor openCursor() {
+		return dao.openCursor();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return dao.getVersion();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findChanges(long)
+	 */
+	@Override
+	public List<ChangeLog.Change> findChanges(long since) {
+		return dao.findChanges(since);
+	}
+}
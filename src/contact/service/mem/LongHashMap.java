@@ -0,0 +1,148 @@
+package contact.service.mem;
+
+/**
+ * Hash map with primitive long keys, using open addressing with linear probing.
+ * A slot is empty when its value is null, so null values can't be stored.
+ * This class is not thread-safe.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.21
+ * @param <V> type of the values
+ */
+class LongHashMap<V> {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	LongHashMap() {
+		clear();
+	}
+
+	/**
+	 * @param key the key
+	 * @return value for the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		int mask = keys.length - 1;
+		for(int k = slot(key, mask); values[k] != null; k = (k+1) & mask) {
+			if (keys[k] == key) return (V) values[k];
+		}
+		return null;
+	}
+
+	/**
+	 * Add a value.
+	 * @param key the key
+	 * @param value the value, not null
+	 * @param replace if false, an existing value is not replaced
+	 * @return the previous value for the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	V put(long key, V value, boolean replace) {
+		int mask = keys.length - 1;
+		int k = slot(key, mask);
+		for( ; values[k] != null; k = (k+1) & mask) {
+			if (keys[k] == key) {
+				V old = (V) values[k];
+				if (replace) values[k] = value;
+				return old;
+			}
+		}
+		keys[k] = key;
+		values[k] = value;
+		// keep the load factor at or below 1/2
+		if (++size > keys.length/2) resize(keys.length*2);
+		return null;
+	}
+
+	/**
+	 * Remove a key.
+	 * @param key the key
+	 * @return the removed value or null
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		int mask = keys.length - 1;
+		int k = slot(key, mask);
+		for( ; values[k] != null; k = (k+1) & mask) {
+			if (keys[k] == key) break;
+		}
+		V old = (V) values[k];
+		if (old == null) return null;
+		// backward-shift deletion: move later entries of the probe run into the hole
+		int hole = k;
+		for(int j = (hole+1) & mask; values[j] != null; j = (j+1) & mask) {
+			int home = slot(keys[j], mask);
+			// can the entry at j move to the hole without passing its home slot?
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = 0;
+		values[hole] = null;
+		size--;
+		return old;
+	}
+
+	/** @return number of entries */
+	int size() {
+		return size;
+	}
+
+	/** Remove all entries. */
+	void clear() {
+		keys = new long[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Copy the values into an array.
+	 * @param dest the destination array, which must have room for all values
+	 * @param offset index in dest of the first value copied
+	 * @return offset of the element after the last value copied
+	 */
+	int copyValues(Object[] dest, int offset) {
+		for(Object v : values) if (v != null) dest[offset++] = v;
+		return offset;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for(int j=0; j<oldValues.length; j++) {
+			if (oldValues[j] == null) continue;
+			int k = slot(oldKeys[j], mask);
+			while(values[k] != null) k = (k+1) & mask;
+			keys[k] = oldKeys[j];
+			values[k] = oldValues[j];
+		}
+	}
+
+	/** Table slot for a key, using only the low bits of the hash. */
+	private static int slot(long key, int mask) {
+		return (int)hash(key) & mask;
+	}
+
+	/**
+	 * Spread the bits of a key, so sequential ids don't cluster in the table.
+	 * This is the finalizer from MurmurHash3.
+	 */
+	static long hash(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,129 @@
+package contact.service.mem;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive long values (contact ids), using open addressing.
+ * Used for the posting lists of the title index, so a list costs
+ * one small array instead of one object per id.
+ * The value 0 can't be stored, because it marks an empty slot.
+ * This class is not thread-safe.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.21
+ */
+class LongSet {
+	private long[] table;
+	private int size;
+
+	LongSet() {
+		table = new long[4];
+	}
+
+	/**
+	 * @param value a value, not 0
+	 * @return true if the value was added, false if it was already in the set
+	 */
+	boolean add(long value) {
+		int mask = table.length - 1;
+		int k = slot(value, mask);
+		for( ; table[k] != 0; k = (k+1) & mask) {
+			if (table[k] == value) return false;
+		}
+		table[k] = value;
+		// keep the load factor at or below 3/4
+		if (++size > table.length - (table.length >> 2)) resize(table.length*2);
+		return true;
+	}
+
+	/**
+	 * @param value a value
+	 * @return true if the value is in the set
+	 */
+	boolean contains(long value) {
+		int mask = table.length - 1;
+		for(int k = slot(value, mask); table[k] != 0; k = (k+1) & mask) {
+			if (table[k] == value) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param value a value
+	 * @return true if the value was removed
+	 */
+	boolean remove(long value) {
+		int mask = table.length - 1;
+		int k = slot(value, mask);
+		for( ; table[k] != 0; k = (k+1) & mask) {
+			if (table[k] == value) break;
+		}
+		if (table[k] == 0) return false;
+		int hole = k;
+		for(int j = (hole+1) & mask; table[j] != 0; j = (j+1) & mask) {
+			int home = slot(table[j], mask);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				table[hole] = table[j];
+				hole = j;
+			}
+		}
+		table[hole] = 0;
+		size--;
+		return true;
+	}
+
+	/** @return number of values in the set */
+	int size() {
+		return size;
+	}
+
+	/** @return true if the set is empty */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Offer all values of this set to a search's smallest ids.
+	 * @param dest the ids to offer to
+	 */
+	void offerTo(TitleIndex.SmallestIds dest) {
+		for(long v : table) if (v != 0) dest.offer(v);
+	}
+
+	/**
+	 * @return the values, in no order
+	 */
+	long[] toArray() {
+		long[] result = new long[size];
+		int n = 0;
+		for(long v : table) if (v != 0) result[n++] = v;
+		return result;
+	}
+
+	/**
+	 * @return the values in ascending order
+	 */
+	long[] toSortedArray() {
+		long[] result = new long[size];
+		int n = 0;
+		for(long v : table) if (v != 0) result[n++] = v;
+		Arrays.sort(result);
+		return result;
+	}
+
+	private void resize(int capacity) {
+		long[] old = table;
+		table = new long[capacity];
+		int mask = capacity - 1;
+		for(long v : old) {
+			if (v == 0) continue;
+			int k = slot(v, mask);
+			while(table[k] != 0) k = (k+1) & mask;
+			table[k] = v;
+		}
+	}
+
+	private static int slot(long value, int mask) {
+		return (int)LongHashMap.hash(value) & mask;
+	}
+}
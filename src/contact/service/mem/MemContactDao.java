@@ -2,14 +2,22 @@ package contact.service.mem;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ChangeLog;
+import contact.service.ContactCursor;
 import contact.service.ContactDao;
+import contact.service.TitleQuery;
 
 /**
  * Data access object for saving and retrieving contacts.
- * This DAO uses an in-memory list of contacts, which may
- * be lost when the application exits.
+ * This DAO keeps contacts in memory, in a concurrent map keyed by id,
+ * so it may be lost when the application exits.
+ * Find, save, update and delete take constant time and are
+ * safe to call from many threads at once.
+ * Titles are indexed, so searching by title doesn't scan all contacts.
  * Use DaoFactory to get an instance of this class, such as:
  * <p><tt>
  * dao = DaoFactory.getInstance().getContactDao()
@@ -17,11 +25,35 @@ import contact.service.ContactDao;
  * @author jim
  */
 public class MemContactDao implements ContactDao {
-	private List<Contact> contacts;
+	private final ContactMap contacts;
+	private final TitleIndex titles;
 	private AtomicLong nextId;
+	/** changes to contacts, and the store version */
+	private final ChangeLog changes = new ChangeLog();
+	/**
+	 * Single changes share the read lock, since the map is already safe for
+	 * concurrent writers. A batch takes the write lock so no other change
+	 * is mixed into it.
+	 */
+	private final ReadWriteLock batchLock = new ReentrantReadWriteLock();
 	
 	public MemContactDao() {
-		contacts = new ArrayList<Contact>();
+		titles = new TitleIndex();
+		// keep the title index and the change log up to date with every change
+		// to the contacts, while the map holds the contact's stripe lock, so
+		// the log has the changes of one contact in the order the map made them
+		contacts = new ContactMap(new ContactMap.Listener() {
+			@Override
+			public void changed(long id, Contact contact) {
+				if (contact == null) {
+					titles.remove(id);
+					changes.deleted(id);
+				} else {
+					titles.put(id, contact.getTitle() == null ? "" : contact.getTitle());
+					changes.updated(id);
+				}
+			}
+		});
 		nextId = new AtomicLong(1000L);
 		createTestContact( );
 	}
@@ -32,13 +64,13 @@ public class MemContactDao implements ContactDao {
 		if (find(id) == null) {
 			Contact test = new Contact("Test contact", "Joe Experimental", "none@testing.com");
 			test.setId(id);
-			contacts.add(test);
+			contacts.put(test);
 		}
 		id++;
 		if (find(id) == null) {
 			Contact test2 = new Contact("Another Test contact", "Testosterone", "testee@foo.com");
 			test2.setId(id);
-			contacts.add(test2);
+			contacts.put(test2);
 		}
 		if (nextId.longValue() <= id) nextId.set(id+1);
 	}
@@ -48,36 +80,111 @@ public class MemContactDao implements ContactDao {
 	 */
 	@Override
 	public Contact find(long id) {
-		for(Contact c : contacts) 
-			if (c.getId() == id) return c;
-		return null;
+		return contacts.get(id);
 	}
 
 	/**
+	 * Return a read-only list of all contacts, ordered by id.
+	 * The list is one snapshot of the map, so it doesn't change when
+	 * contacts are saved or deleted later, and indexing it is safe.
 	 * @see contact.service.ContactDao#findAll()
 	 */
 	@Override
 	public List<Contact> findAll() {
-		return java.util.Collections.unmodifiableList(contacts);
+		return Collections.unmodifiableList(Arrays.asList(contacts.snapshot()));
 	}
 
 	/**
-	 * Find contacts whose title contains string
+	 * Find contacts whose title contains string, using the title index.
 	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
 	 */
 	@Override
 	public List<Contact> findByTitle(String match) {
 		assert match != null : "Read the Javadoc for ContactDao";
-		
-		List<Contact> matchlist = new ArrayList<Contact>();
-		// a regular expression to match part of the title. Use \b to match word boundary.
-		Pattern pattern = Pattern.compile(".*"+match+".*", Pattern.CASE_INSENSITIVE);
-		int size = contacts.size();
-		for(int k=0; k<size; k++) {
-			Contact contact = contacts.get(k);
-			if ( pattern.matcher( contact.getTitle() ).matches() ) matchlist.add(contact);
+		return search( new TitleQuery(match) );
+	}
+
+	/**
+	 * Find contacts whose title starts with prefix, using the title index.
+	 * @see contact.service.ContactDao#findByTitlePrefix(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitlePrefix(String prefix) {
+		assert prefix != null : "Read the Javadoc for ContactDao";
+		TitleQuery query = new TitleQuery(prefix);
+		query.setPrefix(true);
+		return search(query);
+	}
+
+	/**
+	 * Search the title index. The index finds prefix matches in title order
+	 * and substring matches in id order, so when the query wants that order
+	 * the index stops as soon as it has enough matches.
+	 * @see contact.service.ContactDao#search(contact.service.TitleQuery)
+	 */
+	@Override
+	public List<Contact> search(TitleQuery query) {
+		TitleQuery.Order indexOrder = query.isPrefix() ? TitleQuery.Order.TITLE : TitleQuery.Order.ID;
+		boolean indexOrdered = query.getOrder() == indexOrder;
+		int limit = indexOrdered ? query.getLimit() : Integer.MAX_VALUE;
+		long[] ids = query.isPrefix() ? titles.findByPrefix(query.getMatch(), limit)
+				: titles.findBySubstring(query.getMatch(), limit);
+		List<Contact> result = toContacts(ids);
+		return indexOrdered ? result : query.orderAndLimit(result);
+	}
+	
+	/**
+	 * Get the contacts for some ids, skipping any that were deleted
+	 * after the ids were found.
+	 * @param ids contact ids
+	 * @return list of contacts in the same order as ids
+	 */
+	private List<Contact> toContacts(long[] ids) {
+		List<Contact> result = new ArrayList<Contact>(ids.length);
+		for(long id : ids) {
+			Contact contact = contacts.get(id);
+			if (contact != null) result.add(contact);
 		}
-		return matchlist;
+		return result;
+	}
+
+	/**
+	 * Get a page of contacts from the map's ordered id index.
+	 * @see contact.service.ContactDao#findPage(long, int)
+	 */
+	@Override
+	public List<Contact> findPage(long afterId, int limit) {
+		return contacts.page(afterId, limit);
+	}
+
+	/**
+	 * Open a cursor over a snapshot of the contacts.
+	 * @see contact.service.ContactDao#openCursor()
+	 */
+	@Override
+	public ContactCursor openCursor() {
+		final Iterator<Contact> iterator = contacts.values().iterator();
+		return new ContactCursor() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Contact next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				// nothing to release
+			}
+		};
 	}
 
 	/**
@@ -85,13 +192,12 @@ public class MemContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean delete(long id) {
-		for(int k=0; k<contacts.size(); k++) {
-			if (contacts.get(k).getId() == id) {
-				contacts.remove(k);
-				return true;
-			}
+		batchLock.readLock().lock();
+		try {
+			return remove(id);
+		} finally {
+			batchLock.readLock().unlock();
 		}
-		return false;
 	}
 	
 	/**
@@ -99,15 +205,12 @@ public class MemContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean save(Contact contact) {
-		if (contact.getId() == 0) {
-			contact.setId( getUniqueId() );
-			return contacts.add(contact);
+		batchLock.readLock().lock();
+		try {
+			return put(contact);
+		} finally {
+			batchLock.readLock().unlock();
 		}
-		// check if this contact is already in persistent storage
-		Contact other  = find(contact.getId());
-		if (other == contact) return true;
-		if ( other != null ) contacts.remove(other);
-		return contacts.add(contact);
 	}
 
 	/**
@@ -115,28 +218,120 @@ public class MemContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean update(Contact update) {
-		Contact contact = find(update.getId());
-		if (contact == null) return false;
-		contact.applyUpdate(update);
-		save(contact);
+		batchLock.readLock().lock();
+		try {
+			return applyUpdate(update);
+		} finally {
+			batchLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Apply all operations while holding the write lock, so they don't
+	 * interleave with other changes.
+	 * @see contact.service.ContactDao#batch(java.util.List)
+	 */
+	@Override
+	public boolean[] batch(List<BatchOperation> operations) {
+		boolean[] applied = new boolean[operations.size()];
+		batchLock.writeLock().lock();
+		try {
+			int k = 0;
+			for(BatchOperation op : operations) {
+				switch (op.getType()) {
+				case SAVE: applied[k] = create(op.getContact()); break;
+				case UPDATE: applied[k] = applyUpdate(op.getContact()); break;
+				case DELETE: applied[k] = remove(op.getId()); break;
+				}
+				k++;
+			}
+		} finally {
+			batchLock.writeLock().unlock();
+		}
+		return applied;
+	}
+
+	/**
+	 * Delete the contacts while holding the write lock, like a batch.
+	 * @see contact.service.ContactDao#deleteByIds(java.util.Collection)
+	 */
+	@Override
+	public int deleteByIds(Collection<Long> ids) {
+		int count = 0;
+		batchLock.writeLock().lock();
+		try {
+			for(long id : ids) if (remove(id)) count++;
+		} finally {
+			batchLock.writeLock().unlock();
+		}
+		return count;
+	}
+
+	private boolean remove(long id) {
+		return contacts.remove(id) != null;
+	}
+
+	private boolean put(Contact contact) {
+		if (contact.getId() == 0) {
+			// another thread may save a contact with the same id, so retry until we claim one
+			do {
+				contact.setId( getUniqueId() );
+			} while( contacts.putIfAbsent(contact) != null );
+		} else {
+			// replaces any saved contact with the same id
+			contacts.put(contact);
+		}
 		return true;
 	}
+
+	/** Save a contact unless its id is used, like a SAVE of a batch. */
+	private boolean create(Contact contact) {
+		if (contact.getId() == 0) return put(contact);
+		return contacts.putIfAbsent(contact) == null;
+	}
+
+	private boolean applyUpdate(Contact update) {
+		return contacts.update(update) != null;
+	}
+	
+	/**
+	 * @see contact.service.ContactDao#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return changes.getVersion();
+	}
+	
+	/**
+	 * @see contact.service.ContactDao#findChanges(long)
+	 */
+	@Override
+	public List<ChangeLog.Change> findChanges(long since) {
+		return changes.changesSince(since);
+	}
 	
 	/**
 	 * Get a unique contact ID.
 	 * @return unique id not in persistent storage
 	 */
-	private synchronized long getUniqueId() {
+	private long getUniqueId() {
 		long id = nextId.getAndAdd(1L);
 		while( id < Long.MAX_VALUE ) {	
-			if (find(id) == null) return id;
+			if (! contacts.containsKey(id)) return id;
 			id = nextId.getAndAdd(1L);
 		}
 		return id; // this should never happen
 	}
 	
 	public void removeAll(){
-		contacts.clear();
+		batchLock.writeLock().lock();
+		try {
+			contacts.clear();
+			titles.clear();
+			changes.cleared();
+		} finally {
+			batchLock.writeLock().unlock();
+		}
 	}
 	
 }
@@ -1,35 +1,164 @@
 package contact.service.mem;
 
 import java.io.File;
-import java.util.List;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
-import contact.entity.Contact;
-import contact.entity.ContactList;
 import contact.service.*;
 import contact.service.mem.MemContactDao;
+import contact.service.xml.ContactXmlReader;
+import contact.service.xml.ContactXmlWriter;
 
 /**
  * MemDaoFactory is a factory for getting instances of entity DAO object
  * that use memory-based persistence, which isn't really persistence at all!
+ * <p>
+ * Unless it is turned off, every change is recorded in a write-ahead log
+ * (see WriteAheadLog), which is replayed when the factory is created,
+ * so changes survive a crash. System properties configure it:
+ * <tt>contact.wal.file</tt> is the log file (empty for no log),
+ * <tt>contact.wal.fsync</tt> is the FsyncPolicy (always, batch or os), and
+ * <tt>contact.wal.intervalMillis</tt> is how often the batch policy forces the log.
+ * <p>
+ * With a log, a binary snapshot of all contacts (see SnapshotFile) is
+ * written in the background every <tt>contact.snapshot.intervalSeconds</tt>
+ * and at shutdown, and the log it replaces is deleted, so the log stays short.
+ * The snapshot file is <tt>contact.snapshot.file</tt>. When the factory
+ * is created it loads the snapshot, or the old XML file if there is no
+ * snapshot yet, then replays the log.
  * 
  * @see contact.service.DaoFactory
  * @version 2014.09.19
  * @author jim
  */
 public class MemDaoFactory extends DaoFactory {
+	/** Name of the system property for the log file. */
+	public static final String WAL_FILE_PROPERTY = "contact.wal.file";
+	/** Name of the system property for the fsync policy. */
+	public static final String WAL_FSYNC_PROPERTY = "contact.wal.fsync";
+	/** Name of the system property for the batch fsync interval. */
+	public static final String WAL_INTERVAL_PROPERTY = "contact.wal.intervalMillis";
+	/** Name of the system property for the snapshot file. */
+	public static final String SNAPSHOT_FILE_PROPERTY = "contact.snapshot.file";
+	/** Name of the system property for the time between snapshots. */
+	public static final String SNAPSHOT_INTERVAL_PROPERTY = "contact.snapshot.intervalSeconds";
+	/** Number of contacts saved in each batch by loadFile. */
+	private static final int LOAD_BATCH_SIZE = 1000;
+	private static final Logger logger = Logger.getLogger(MemDaoFactory.class.getName());
 	/** instance of the entity DAO */
 	private ContactDao daoInstance;
+	/** log of changes, or null if changes aren't logged */
+	private WriteAheadLog log;
+	/** the snapshot file, or null if there is no log */
+	private File snapshot;
+	/** writes snapshots in the background */
+	private ScheduledExecutorService checkpointer;
 	
 	public MemDaoFactory() {
-		daoInstance = new MemContactDao();
+		this(new MemContactDao());
+	}
+	
+	/**
+	 * Create a factory for another memory-based DAO.
+	 * Contacts in the snapshot, or in the XML data file if there is
+	 * no snapshot, are loaded into the DAO, then the log is replayed.
+	 * @param dao the DAO instance to use
+	 */
+	protected MemDaoFactory(ContactDao dao) {
+		daoInstance = dao;
+		String path = System.getProperty(WAL_FILE_PROPERTY, "/tmp/contact.wal");
+		if (! path.isEmpty()) snapshot = new File(System.getProperty(SNAPSHOT_FILE_PROPERTY, "/tmp/contact.snapshot"));
+		if (snapshot == null || ! loadSnapshot()) {
+			try {
+				loadFile("/tmp/contact.xml");
+			} catch (Exception e) {}
+		}
+		if (! path.isEmpty()) openLog(path);
+	}
+	
+	/**
+	 * Load the snapshot file, if there is one.
+	 * A damaged snapshot is renamed so it isn't replaced by a newer one that lacks its contacts.
+	 * @return true if the snapshot was loaded
+	 */
+	private boolean loadSnapshot() {
+		if (! snapshot.exists()) return false;
+		long start = System.nanoTime();
 		try {
-			loadFile("/tmp/contact.xml");
-		} catch (Exception e) {}
+			int count = SnapshotFile.load(snapshot, daoInstance);
+			logger.info("Loaded "+count+" contacts from "+snapshot+" in "+(System.nanoTime() - start)/1000000+" ms");
+			return true;
+		} catch (IOException e) {
+			File bad = new File(snapshot.getPath() + ".bad");
+			logger.severe("Can't load "+snapshot+", renamed it to "+bad+": "+e.getMessage());
+			snapshot.renameTo(bad);
+			return false;
+		}
+	}
+	
+	/**
+	 * Replay the write-ahead log into the DAO, and log its changes from now on.
+	 * If the log can't be opened the DAO works without one.
+	 * @param path name of the log file
+	 */
+	private void openLog(String path) {
+		WriteAheadLog.FsyncPolicy policy = WriteAheadLog.FsyncPolicy.valueOf(
+				System.getProperty(WAL_FSYNC_PROPERTY, "batch").toUpperCase(Locale.ROOT) );
+		long interval = Long.getLong(WAL_INTERVAL_PROPERTY, 10L);
+		try {
+			log = new WriteAheadLog(new File(path), policy, interval);
+			int count = log.replay(daoInstance);
+			logger.info("Replayed "+count+" changes from "+path);
+		} catch (IOException e) {
+			logger.warning("Can't use log "+path+", changes will not be logged: "+e.getMessage());
+			log = null;
+			return;
+		}
+		final LoggedContactDao logged = new LoggedContactDao(daoInstance, log);
+		daoInstance = logged;
+		long seconds = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 300L);
+		if (seconds <= 0) return;
+		checkpointer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "contact-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		checkpointer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkpoint(logged);
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Write a snapshot if anything was logged since the last one.
+	 * @param logged the DAO that logs changes
+	 */
+	private void checkpoint(LoggedContactDao logged) {
+		try {
+			if (log.isEmpty() && log.segments().isEmpty()) return;
+			long start = System.nanoTime();
+			int count = logged.checkpoint(snapshot);
+			logger.info("Wrote "+count+" contacts to "+snapshot+" in "+(System.nanoTime() - start)/1000000+" ms");
+		} catch (IOException e) {
+			logger.warning("Can't write "+snapshot+": "+e.getMessage());
+		}
 	}
 	
 	@Override
@@ -37,42 +166,52 @@ public class MemDaoFactory extends DaoFactory {
 		return daoInstance;
 	}
 	
+	/**
+	 * Write a snapshot, or if there is no log, write all contacts to an XML file.
+	 * The log stays open, so the DAO can still be used.
+	 */
 	@Override
 	public void shutdown() {
-		// Use JAXB to write all your contacts to a file on disk.
+		if (log != null) {
+			checkpoint((LoggedContactDao) daoInstance);
+			return;
+		}
+		// Write all your contacts to a file on disk, one at a time.
 		// Then recreate them the next time a MemFactoryDao and ContactDao are created.
+		ContactCursor cursor = daoInstance.openCursor();
 		try {
-			ContactList list = new ContactList();
-			list.setContacts(daoInstance.findAll());
-			JAXBContext jaxbContext = JAXBContext.newInstance(ContactList.class);
-			Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-			
-			jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			
-			jaxbMarshaller.marshal(list, new File("/tmp/contact.xml"));
-		} catch (JAXBException e) {
+			OutputStream out = new FileOutputStream("/tmp/contact.xml");
+			try {
+				ContactXmlWriter.write(out, cursor, Long.toString(daoInstance.getVersion()));
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			cursor.close();
 		}
-		
 	}
 	
+	/**
+	 * Save the contacts in an XML file to the DAO, a batch at a time,
+	 * without reading the whole file into memory.
+	 * @param url name of the file
+	 * @throws JAXBException if the file can't be read or is malformed
+	 */
 	@Override
 	public void loadFile(String url) throws JAXBException {
-		File file = null;
-		try{
-			file  = new File(url);
-			
-		}catch(Exception e){}
-
-		JAXBContext jaxbContext = JAXBContext.newInstance(ContactList.class);
-		
-		Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-		ContactList contactList = (ContactList)jaxbUnmarshaller.unmarshal(file);
-		
-		List<Contact> contacts = contactList.getContacts();
-		
-		for(Contact c : contacts){
-			daoInstance.save(c);
+		try {
+			InputStream in = new FileInputStream(url);
+			try {
+				new ContactXmlReader(in).readInto(daoInstance, LOAD_BATCH_SIZE);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new JAXBException("Can't read "+url, e);
+		} catch (XMLStreamException e) {
+			throw new JAXBException("Malformed XML in "+url, e);
 		}
 	}
 }
@@ -0,0 +1,195 @@
+package contact.service.mem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import contact.entity.Contact;
+import contact.service.ContactCodec;
+import contact.service.ContactDao;
+
+/**
+ * Compact binary snapshot of all contacts, which loads much faster
+ * than the XML file.
+ * <p>
+ * The file has a header (magic number and format version), then the
+ * contacts in chunks of up to CHUNK_SIZE records, then a table of the
+ * chunks and a trailer. Each record is its length (4 bytes) followed by
+ * the contact encoded by ContactCodec. Each chunk in the table has its
+ * offset, length in bytes, number of records, and CRC32. The trailer is
+ * the offset of the table (8 bytes), the number of chunks (4 bytes) and
+ * the magic number again, so a file that was not completely written is
+ * recognized.
+ * <p>
+ * load maps each chunk into memory and decodes the chunks on all cores.
+ * A snapshot is written to a temporary file that replaces the old
+ * snapshot only when it is complete.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.30
+ */
+public class SnapshotFile {
+	/** "CSNP", the first and last 4 bytes of a snapshot file. */
+	private static final int MAGIC = 0x43534E50;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int TRAILER_SIZE = 16;
+	/** size of one chunk in the table */
+	private static final int CHUNK_ENTRY_SIZE = 20;
+	/** Number of records in each chunk, the unit of work when loading. */
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	private SnapshotFile() {
+		// static methods only
+	}
+
+	/**
+	 * Write contacts to a snapshot file, replacing the file when done.
+	 * @param file the snapshot file
+	 * @param contacts the contacts to write
+	 * @return number of contacts written
+	 * @throws IOException if the file can't be written
+	 */
+	public static int write(File file, Iterator<Contact> contacts) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(temp);
+		int total = 0;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			long offset = HEADER_SIZE;
+			ByteBuffer table = ByteBuffer.allocate(1024);
+			CRC32 crc = new CRC32();
+			while (contacts.hasNext()) {
+				// one chunk
+				long start = offset;
+				int count = 0;
+				crc.reset();
+				while (count < CHUNK_SIZE && contacts.hasNext()) {
+					byte[] record = ContactCodec.encode(contacts.next());
+					byte[] length = ByteBuffer.allocate(4).putInt(record.length).array();
+					out.write(length);
+					out.write(record);
+					crc.update(length, 0, 4);
+					crc.update(record, 0, record.length);
+					offset += 4 + record.length;
+					count++;
+				}
+				if (table.remaining() < CHUNK_ENTRY_SIZE) {
+					ByteBuffer bigger = ByteBuffer.allocate(table.capacity() * 2);
+					table.flip();
+					table = bigger.put(table);
+				}
+				table.putLong(start).putInt((int) (offset - start)).putInt(count).putInt((int) crc.getValue());
+				total += count;
+			}
+			out.write(table.array(), 0, table.position());
+			out.writeLong(offset);
+			out.writeInt(table.position() / CHUNK_ENTRY_SIZE);
+			out.writeInt(MAGIC);
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			fileOut.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return total;
+	}
+
+	/**
+	 * Save the contacts in a snapshot file to a DAO.
+	 * Chunks are decoded and saved by one thread per core, so the DAO's
+	 * save must be safe to call from many threads at once.
+	 * @param file the snapshot file
+	 * @param dao the DAO to save contacts to
+	 * @return number of contacts loaded
+	 * @throws IOException if the file can't be read or is damaged
+	 */
+	public static int load(File file, final ContactDao dao) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ExecutorService executor = null;
+		try {
+			final FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE + TRAILER_SIZE || raf.readInt() != MAGIC || raf.readInt() != FORMAT_VERSION)
+				throw new IOException(file+" is not a contact snapshot");
+			raf.seek(size - TRAILER_SIZE);
+			long tableOffset = raf.readLong();
+			int chunks = raf.readInt();
+			if (raf.readInt() != MAGIC || chunks < 0 || tableOffset + (long) chunks * CHUNK_ENTRY_SIZE != size - TRAILER_SIZE)
+				throw new IOException(file+" is incomplete");
+			ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, (long) chunks * CHUNK_ENTRY_SIZE);
+
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>(chunks);
+			for(int k = 0; k < chunks; k++) {
+				final long offset = table.getLong();
+				final int length = table.getInt();
+				final int count = table.getInt();
+				final int sum = table.getInt();
+				// mapped here, so a bad offset is an IOException in this thread
+				if (offset < HEADER_SIZE || length < 0 || offset + length > tableOffset)
+					throw new IOException(file+" has a bad chunk at "+offset);
+				final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						return loadChunk(chunk, count, sum, dao);
+					}
+				}));
+			}
+			int total = 0;
+			for(Future<Integer> result : results) total += result.get();
+			return total;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading "+file);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+			throw new IOException("Can't load "+file, ex.getCause());
+		} finally {
+			if (executor != null) executor.shutdownNow();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Check and decode one chunk, and save its contacts.
+	 * @return number of contacts saved
+	 */
+	private static int loadChunk(ByteBuffer chunk, int count, int sum, ContactDao dao) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(chunk.duplicate());
+		if ((int) crc.getValue() != sum) throw new IOException("damaged snapshot chunk");
+		try {
+			for(int k = 0; k < count; k++) {
+				int length = chunk.getInt();
+				ByteBuffer record = chunk.slice();
+				record.limit(length);
+				dao.save(ContactCodec.decode(record));
+				chunk.position(chunk.position() + length);
+			}
+		} catch (RuntimeException ex) {
+			throw new IOException("malformed snapshot record: "+ex.getMessage());
+		}
+		return count;
+	}
+}
@@ -0,0 +1,306 @@
+package contact.service.mem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import contact.service.TitleGrams;
+
+/**
+ * Index of contact titles, for searching without scanning every contact.
+ * Titles are compared ignoring case.
+ * <p>
+ * Prefix queries are answered from a sorted map of titles.
+ * Substring queries are answered from an index of the trigrams (TitleGrams) of each
+ * title: the candidates are the contacts whose titles contain every trigram
+ * of the query, which are then checked for the whole query.
+ * <p>
+ * The index is thread-safe. It is split into segments by contact id, each
+ * with its own read-write lock, so changes to contacts in different segments
+ * don't wait for each other, and searches run concurrently. A search reads
+ * the segments one after another, so it may see a change to one contact
+ * and not a change to another made at the same time.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.21
+ */
+public class TitleIndex {
+	/** Number of segments of the index. Must be a power of 2. */
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments;
+
+	public TitleIndex() {
+		segments = new Segment[SEGMENTS];
+		for(int k=0; k<SEGMENTS; k++) segments[k] = new Segment();
+	}
+
+	/**
+	 * Add, replace or remove the title of a contact.
+	 * Only the contact's segment is locked.
+	 * @param id the contact id, not 0
+	 * @param title the contact's title, or null to remove the contact from the index
+	 */
+	public void put(long id, String title) {
+		segmentFor(id).put(id, title == null ? null : TitleGrams.normalize(title));
+	}
+
+	/**
+	 * Remove a contact from the index.
+	 * @param id the contact id
+	 */
+	public void remove(long id) {
+		put(id, null);
+	}
+
+	/**
+	 * Remove all titles.
+	 */
+	public void clear() {
+		for(Segment segment : segments) segment.clear();
+	}
+
+	/**
+	 * Find contacts whose title starts with a prefix, ignoring case.
+	 * Each segment finds up to limit matches, and the first limit of
+	 * all of them are returned.
+	 * @param prefix start of the title
+	 * @param limit maximum number of ids to return
+	 * @return ids of matching contacts, ordered by title and then by id
+	 */
+	public long[] findByPrefix(String prefix, int limit) {
+		if (limit <= 0) return new long[0];
+		String key = TitleGrams.normalize(prefix);
+		List<PrefixMatch> matches = new ArrayList<PrefixMatch>();
+		for(Segment segment : segments) segment.findByPrefix(key, limit, matches);
+		Collections.sort(matches);
+		long[] result = new long[Math.min(limit, matches.size())];
+		for(int k=0; k<result.length; k++) result[k] = matches.get(k).id;
+		return result;
+	}
+
+	/**
+	 * Find contacts whose title contains a string, ignoring case.
+	 * @param match the string to find in titles
+	 * @param limit maximum number of ids to return
+	 * @return the smallest ids of matching contacts, in ascending order
+	 */
+	public long[] findBySubstring(String match, int limit) {
+		if (limit <= 0) return new long[0];
+		String query = TitleGrams.normalize(match);
+		SmallestIds found = new SmallestIds(limit);
+		for(Segment segment : segments) segment.findBySubstring(query, found);
+		return found.toSortedArray();
+	}
+
+	private Segment segmentFor(long id) {
+		return segments[(int)(LongHashMap.hash(id) >>> 58) & (SEGMENTS-1)];
+	}
+
+	/**
+	 * The titles of the contacts whose ids hash to one segment, with their
+	 * sorted map and trigram index, guarded by the segment's own lock.
+	 */
+	private static class Segment {
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		/** normalized title of each contact id */
+		private final LongHashMap<String> titles = new LongHashMap<String>();
+		/** normalized title to ids of contacts with that title */
+		private final TreeMap<String,LongSet> sorted = new TreeMap<String,LongSet>();
+		/** trigram to ids of contacts whose padded title contains it */
+		private final Map<String,LongSet> grams = new HashMap<String,LongSet>();
+
+		/** @param key the normalized title, or null to remove the contact */
+		void put(long id, String key) {
+			lock.writeLock().lock();
+			try {
+				String old = titles.get(id);
+				if (old != null && old.equals(key)) return;
+				if (old != null) unindex(id, old);
+				if (key != null) {
+					titles.put(id, key, true);
+					postings(sorted, key).add(id);
+					for(String gram : TitleGrams.titleGrams(key)) postings(grams, gram).add(id);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void clear() {
+			lock.writeLock().lock();
+			try {
+				titles.clear();
+				sorted.clear();
+				grams.clear();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		/** Add up to limit matches of a normalized prefix, in title and id order. */
+		void findByPrefix(String key, int limit, List<PrefixMatch> matches) {
+			int count = 0;
+			lock.readLock().lock();
+			try {
+				NavigableMap<String,LongSet> tail = sorted.tailMap(key, true);
+				for(Map.Entry<String,LongSet> entry : tail.entrySet()) {
+					if (count >= limit || ! entry.getKey().startsWith(key)) break;
+					for(long id : entry.getValue().toSortedArray()) {
+						if (count++ >= limit) break;
+						matches.add(new PrefixMatch(entry.getKey(), id));
+					}
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/** Offer the ids whose title contains a normalized query. */
+		void findBySubstring(String query, SmallestIds found) {
+			lock.readLock().lock();
+			try {
+				if (query.isEmpty()) {
+					for(LongSet ids : sorted.values()) ids.offerTo(found);
+				} else if (query.length() < TitleGrams.GRAM_LENGTH) {
+					// a short query matches every title that has a trigram containing it
+					for(Map.Entry<String,LongSet> entry : grams.entrySet()) {
+						if (entry.getKey().contains(query)) entry.getValue().offerTo(found);
+					}
+				} else {
+					intersect(query, found);
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Offer to found the ids whose title contains the query.
+		 * Caller must hold the read lock.
+		 */
+		private void intersect(String query, SmallestIds found) {
+			List<String> queryGrams = TitleGrams.queryGrams(query);
+			LongSet[] lists = new LongSet[queryGrams.size()];
+			for(int k=0; k<lists.length; k++) {
+				lists[k] = grams.get(queryGrams.get(k));
+				if (lists[k] == null) return;
+			}
+			// walk the shortest posting list and probe the others
+			int shortest = 0;
+			for(int k=1; k<lists.length; k++) if (lists[k].size() < lists[shortest].size()) shortest = k;
+			for(long id : lists[shortest].toArray()) {
+				// an id that can't be kept isn't worth probing
+				if (! found.accepts(id)) continue;
+				boolean candidate = true;
+				for(int k=0; k<lists.length && candidate; k++) {
+					if (k != shortest) candidate = lists[k].contains(id);
+				}
+				// the trigrams may be in a different order, so check the whole query
+				if (candidate && titles.get(id).contains(query)) found.offer(id);
+			}
+		}
+
+		/** Remove an id from the posting lists for its old title. Caller must hold the write lock. */
+		private void unindex(long id, String title) {
+			titles.remove(id);
+			removePosting(sorted, title, id);
+			for(String gram : TitleGrams.titleGrams(title)) removePosting(grams, gram, id);
+		}
+	}
+
+	/** A contact found by a prefix, ordered by title and then by id. */
+	private static class PrefixMatch implements Comparable<PrefixMatch> {
+		final String title;
+		final long id;
+
+		PrefixMatch(String title, long id) {
+			this.title = title;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(PrefixMatch other) {
+			int c = title.compareTo(other.title);
+			return c != 0 ? c : Long.compare(id, other.id);
+		}
+	}
+
+	private static LongSet postings(Map<String,LongSet> map, String key) {
+		LongSet ids = map.get(key);
+		if (ids == null) {
+			ids = new LongSet();
+			map.put(key, ids);
+		}
+		return ids;
+	}
+
+	private static void removePosting(Map<String,LongSet> map, String key, long id) {
+		LongSet ids = map.get(key);
+		if (ids == null) return;
+		ids.remove(id);
+		if (ids.isEmpty()) map.remove(key);
+	}
+
+	/**
+	 * The smallest distinct ids offered to it, up to a limit, kept in a max-heap
+	 * so a search with a limit never collects or sorts all the matching ids.
+	 */
+	static class SmallestIds {
+		private final int limit;
+		/** max-heap of the ids kept, largest first */
+		private long[] heap;
+		private int count;
+		/** the ids in the heap, since short queries offer an id once for each of its trigrams */
+		private final LongSet kept = new LongSet();
+
+		SmallestIds(int limit) {
+			this.limit = limit;
+			heap = new long[Math.min(limit, 16)];
+		}
+
+		/** @return true if an id would be kept, if it isn't already */
+		boolean accepts(long id) {
+			return count < limit || id < heap[0];
+		}
+
+		void offer(long id) {
+			if (! accepts(id) || ! kept.add(id)) return;
+			if (count < limit) {
+				if (count == heap.length) heap = Arrays.copyOf(heap, (int)Math.min((long)limit, count*2L));
+				int k = count++;
+				// sift up
+				while (k > 0 && heap[(k-1)/2] < id) {
+					heap[k] = heap[(k-1)/2];
+					k = (k-1)/2;
+				}
+				heap[k] = id;
+			} else {
+				kept.remove(heap[0]);
+				// sift down from the top
+				int k = 0;
+				for(int child = 1; child < count; child = 2*k + 1) {
+					if (child + 1 < count && heap[child+1] > heap[child]) child++;
+					if (heap[child] <= id) break;
+					heap[k] = heap[child];
+					k = child;
+				}
+				heap[k] = id;
+			}
+		}
+
+		/** @return the ids kept, in ascending order */
+		long[] toSortedArray() {
+			long[] result = Arrays.copyOf(heap, count);
+			Arrays.sort(result);
+			return result;
+		}
+	}
+}
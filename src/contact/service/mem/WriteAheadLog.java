@@ -0,0 +1,489 @@
+package contact.service.mem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import contact.entity.Contact;
+import contact.service.ContactCodec;
+import contact.service.ContactDao;
+
+/**
+ * Append-only binary log of changes to a memory DAO, so the contacts
+ * can be restored after a crash by replaying the log into a new DAO.
+ * <p>
+ * The file starts with a magic number and format version. Each record is
+ * its length (4 bytes), a CRC32 of its body (4 bytes), and the body:
+ * a type byte followed by a contact encoded by ContactCodec (PUT),
+ * a contact id (DELETE), or nothing (CLEAR). A record that was only
+ * partly written when the program stopped fails its check, and it and
+ * anything after it are cut off when the log is replayed.
+ * <p>
+ * Records are appended to a buffer in memory, which is fast and keeps
+ * records in the order they are appended. commit writes the buffer to
+ * the file, and forces it to disk if the FsyncPolicy says so. Threads that
+ * commit at the same time share one write and one force (group commit):
+ * the first writes every record in the buffer, and the others find their
+ * records already written.
+ * <p>
+ * If a write fails, the file is cut back to its length before the write,
+ * so it doesn't end with part of a record, and the records stay in the
+ * buffer. The log is then failed: appends and commits throw, so changes
+ * are not reported as logged when they never will be.
+ * <p>
+ * rotate renames the log to a numbered segment (<tt>contact.wal.1</tt>,
+ * <tt>contact.wal.2</tt>, ...) and starts an empty log, so the segments
+ * can be deleted once a snapshot has all their changes. replay applies
+ * the segments in order and then the log.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.30
+ */
+public class WriteAheadLog {
+	/** When records are forced to disk. */
+	public enum FsyncPolicy {
+		/** commit forces the records to disk before it returns. */
+		ALWAYS,
+		/** a background thread forces records every interval; commit returns at once. */
+		BATCH,
+		/** commit writes records to the operating system, which writes them to disk when it likes. */
+		OS
+	}
+
+	/** "CWAL", the first 4 bytes of a log file. */
+	private static final int MAGIC = 0x4357414C;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	/** length and checksum before each record body */
+	private static final int RECORD_HEADER_SIZE = 8;
+	/** Largest record body, to recognize a garbage length. */
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	static final byte PUT = 1;
+	static final byte DELETE = 2;
+	static final byte CLEAR = 3;
+
+	private final File file;
+	/**
+	 * not a FileChannel, which is closed if a thread writing it is interrupted.
+	 * Replaced by rotate while holding syncLock and this.
+	 */
+	private RandomAccessFile raf;
+	private final FsyncPolicy policy;
+	/** records appended but not yet written. Guarded by this. */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	/** number of records appended. Guarded by this. */
+	private long appended;
+	/** number of records written to the file, and forced if the policy forces. Guarded by syncLock. */
+	private long written;
+	/** lets one thread at a time write and force the file */
+	private final Object syncLock = new Object();
+	private final CRC32 crc = new CRC32();
+	private Thread syncThread;
+	/** the sync thread waits on this between syncs */
+	private final Object timer = new Object();
+	private volatile boolean closed;
+	/** why a write failed, after which nothing more is written */
+	private volatile IOException failure;
+
+	/**
+	 * Open a log file, creating it if it doesn't exist.
+	 * Call replay before appending to a log that already has records.
+	 * @param file the log file
+	 * @param policy when records are forced to disk
+	 * @param intervalMillis how often records are forced with the BATCH policy
+	 * @throws IOException if the file can't be opened or isn't a log
+	 */
+	public WriteAheadLog(File file, FsyncPolicy policy, final long intervalMillis) throws IOException {
+		this.file = file;
+		this.policy = policy;
+		this.raf = open(file);
+		if (policy == FsyncPolicy.BATCH) {
+			syncThread = new Thread("contact-wal-sync") {
+				@Override
+				public void run() {
+					while (! closed) {
+						try {
+							synchronized (timer) {
+								if (! closed) timer.wait(intervalMillis);
+							}
+							sync();
+						} catch (InterruptedException ex) {
+							return;
+						} catch (IOException ex) {
+							Logger.getLogger(WriteAheadLog.class.getName()).severe("Can't sync "+WriteAheadLog.this.file+": "+ex.getMessage());
+							// the log is failed, and later syncs would fail the same way
+							if (failure != null) return;
+						}
+					}
+				}
+			};
+			syncThread.setDaemon(true);
+			syncThread.start();
+		}
+	}
+
+	/**
+	 * Open a log file for appending, writing the header if the file is new.
+	 * @param file the log file
+	 * @return the file, positioned at its end
+	 * @throws IOException if the file can't be opened or isn't a log
+	 */
+	private static RandomAccessFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		if (raf.length() < HEADER_SIZE) {
+			// a new file, or one that crashed before its header was written
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(FORMAT_VERSION);
+			raf.getFD().sync();
+		} else if (raf.readInt() != MAGIC || raf.readInt() != FORMAT_VERSION) {
+			raf.close();
+			throw new IOException(file+" is not a contact log");
+		}
+		raf.seek(raf.length());
+		return raf;
+	}
+
+	/**
+	 * Read every record in the rotated segments and the log, and apply it to a DAO.
+	 * A damaged or partly written record at the end of the log is cut off,
+	 * so new records follow the last good one.
+	 * @param dao the DAO to restore, usually a new one or one loaded from a snapshot
+	 * @return number of records applied
+	 * @throws IOException if the file can't be read
+	 */
+	public synchronized int replay(ContactDao dao) throws IOException {
+		int[] count = new int[1];
+		for(File segment : segments()) {
+			RandomAccessFile in = new RandomAccessFile(segment, "r");
+			try {
+				if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					throw new IOException(segment+" is not a contact log");
+				long good = readRecords(in, dao, count);
+				if (good < in.length()) Logger.getLogger(WriteAheadLog.class.getName()).warning("Ignoring damaged end of "+segment);
+			} finally {
+				in.close();
+			}
+		}
+		long good = readRecords(raf, dao, count);
+		if (good < raf.length()) {
+			Logger.getLogger(WriteAheadLog.class.getName()).warning("Discarding "+(raf.length() - good)+" bytes of damaged log at the end of "+file);
+			raf.setLength(good);
+			raf.getFD().sync();
+		}
+		raf.seek(good);
+		return count[0];
+	}
+
+	/**
+	 * Apply the records of a log file until the end or a damaged record.
+	 * @param raf the log file
+	 * @param dao the DAO to apply them to
+	 * @param count incremented for each record applied
+	 * @return offset just after the last good record
+	 */
+	private static long readRecords(RandomAccessFile raf, ContactDao dao, int[] count) throws IOException {
+		long good = HEADER_SIZE;
+		raf.seek(HEADER_SIZE);
+		// don't close the stream, which would close the file
+		InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()), 64 * 1024);
+		DataInputStream data = new DataInputStream(in);
+		CRC32 check = new CRC32();
+		try {
+			while (true) {
+				int length = data.readInt();
+				int sum = data.readInt();
+				if (length <= 0 || length > MAX_RECORD_SIZE) break;
+				byte[] body = new byte[length];
+				data.readFully(body);
+				check.reset();
+				check.update(body, 0, length);
+				if ((int) check.getValue() != sum) break;
+				apply(dao, ByteBuffer.wrap(body));
+				good += RECORD_HEADER_SIZE + length;
+				count[0]++;
+			}
+		} catch (EOFException ex) {
+			// the end of the log, possibly in the middle of a record
+		} catch (IllegalArgumentException ex) {
+			// a record that passed the check but can't be decoded
+		}
+		return good;
+	}
+
+	private static void apply(ContactDao dao, ByteBuffer body) {
+		byte type = body.get();
+		switch (type) {
+		case PUT: dao.save(ContactCodec.decode(body)); break;
+		case DELETE: dao.delete(body.getLong()); break;
+		case CLEAR: dao.removeAll(); break;
+		default: throw new IllegalArgumentException("unknown record type "+type);
+		}
+	}
+
+	/**
+	 * Append a record that a contact was saved or updated.
+	 * @param contact the contact as it is now, with its id
+	 * @return sequence number of the record, for commit
+	 */
+	public synchronized long appendPut(Contact contact) {
+		byte[] record = ContactCodec.encode(contact);
+		ByteBuffer body = ByteBuffer.allocate(1 + record.length);
+		body.put(PUT).put(record);
+		return append(body.array());
+	}
+
+	/**
+	 * Append a record that a contact was deleted.
+	 * @param id id of the contact
+	 * @return sequence number of the record, for commit
+	 */
+	public synchronized long appendDelete(long id) {
+		ByteBuffer body = ByteBuffer.allocate(9);
+		body.put(DELETE).putLong(id);
+		return append(body.array());
+	}
+
+	/**
+	 * Append a record that all contacts were removed.
+	 * @return sequence number of the record, for commit
+	 */
+	public synchronized long appendClear() {
+		return append(new byte[] { CLEAR });
+	}
+
+	private long append(byte[] body) {
+		if (closed) throw new IllegalStateException(file+" is closed");
+		if (failure != null) throw new IllegalStateException(file+" failed: "+failure.getMessage(), failure);
+		crc.reset();
+		crc.update(body, 0, body.length);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		header.putInt(body.length).putInt((int) crc.getValue());
+		pending.write(header.array(), 0, RECORD_HEADER_SIZE);
+		pending.write(body, 0, body.length);
+		return ++appended;
+	}
+
+	/**
+	 * Make a record durable as the policy says: write and force it (ALWAYS),
+	 * write it (OS), or leave it for the background thread (BATCH).
+	 * @param sequence sequence number returned by an append method
+	 * @throws IOException if the file can't be written, now or by an earlier write
+	 */
+	public void commit(long sequence) throws IOException {
+		checkFailure();
+		if (policy == FsyncPolicy.BATCH) return;
+		synchronized (syncLock) {
+			// another thread may have written this record with its own
+			if (written >= sequence) return;
+			write(policy == FsyncPolicy.ALWAYS);
+		}
+	}
+
+	/**
+	 * Write all appended records and force them to disk, whatever the policy.
+	 * @throws IOException if the file can't be written
+	 */
+	public void sync() throws IOException {
+		synchronized (syncLock) {
+			write(true);
+		}
+	}
+
+	/**
+	 * Write the records in the buffer to the file. Caller holds syncLock.
+	 * Appends can continue into a new buffer while the file is written.
+	 * If the write fails, the file is cut back to where it was, the records
+	 * are put back in front of the buffer, and the log is failed.
+	 */
+	private void write(boolean force) throws IOException {
+		checkFailure();
+		byte[] data;
+		long sequence;
+		synchronized (this) {
+			data = pending.toByteArray();
+			pending = new ByteArrayOutputStream();
+			sequence = appended;
+		}
+		long start = raf.getFilePointer();
+		try {
+			writeFile(raf, data);
+			if (force) raf.getFD().sync();
+		} catch (IOException ex) {
+			fail(data, start, ex);
+			throw ex;
+		}
+		written = sequence;
+	}
+
+	/**
+	 * Write bytes at the end of the log file. Tests replace this to make writes fail.
+	 * @param raf the log file, positioned at its end
+	 * @param data the records to write
+	 * @throws IOException if the file can't be written
+	 */
+	void writeFile(RandomAccessFile raf, byte[] data) throws IOException {
+		raf.write(data);
+	}
+
+	/**
+	 * Undo a failed write: cut off what was written of it, keep its records
+	 * in the buffer, and fail the log. Caller holds syncLock.
+	 */
+	private void fail(byte[] data, long start, IOException ex) {
+		synchronized (this) {
+			ByteArrayOutputStream restored = new ByteArrayOutputStream(data.length + pending.size());
+			restored.write(data, 0, data.length);
+			restored.write(pending.toByteArray(), 0, pending.size());
+			pending = restored;
+			failure = ex;
+		}
+		try {
+			raf.setLength(start);
+			raf.seek(start);
+		} catch (IOException truncateFailed) {
+			// replay cuts off the partial record, and nothing is written after it
+			Logger.getLogger(WriteAheadLog.class.getName()).severe("Can't cut off failed write to "+file+": "+truncateFailed.getMessage());
+		}
+	}
+
+	/** @throws IOException the cause, if a write has failed */
+	private void checkFailure() throws IOException {
+		IOException ex = failure;
+		if (ex != null) throw new IOException(file+" failed: "+ex.getMessage(), ex);
+	}
+
+	/**
+	 * Write all records and move the log to a new segment, then start an empty log.
+	 * Appends wait until the new log is open.
+	 * @return the new segment, which has every record appended before this call
+	 * @throws IOException if the log can't be written or renamed
+	 */
+	public File rotate() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (closed) throw new IllegalStateException(file+" is closed");
+				write(true);
+				raf.close();
+				List<File> segments = segments();
+				int number = segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size()-1)) + 1;
+				File segment = new File(file.getPath() + "." + number);
+				if (! file.renameTo(segment)) {
+					raf = open(file);
+					throw new IOException("Can't rename "+file+" to "+segment);
+				}
+				raf = open(file);
+				return segment;
+			}
+		}
+	}
+
+	/**
+	 * Delete rotated segments whose changes are all in a snapshot.
+	 * @param last the newest segment to delete, as returned by rotate
+	 */
+	public void deleteSegments(File last) {
+		int lastNumber = segmentNumber(last);
+		for(File segment : segments()) {
+			if (segmentNumber(segment) <= lastNumber && ! segment.delete())
+				Logger.getLogger(WriteAheadLog.class.getName()).warning("Can't delete "+segment);
+		}
+	}
+
+	/** @return rotated segments of this log, oldest first */
+	List<File> segments() {
+		File dir = file.getAbsoluteFile().getParentFile();
+		final String prefix = file.getName() + ".";
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				String name = f.getName();
+				return name.startsWith(prefix) && name.length() > prefix.length()
+						&& name.substring(prefix.length()).matches("[0-9]{1,9}");
+			}
+		});
+		List<File> segments = files == null ? new ArrayList<File>() : new ArrayList<File>(Arrays.asList(files));
+		Collections.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Integer.compare(segmentNumber(a), segmentNumber(b));
+			}
+		});
+		return segments;
+	}
+
+	private static int segmentNumber(File segment) {
+		String name = segment.getName();
+		return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+	}
+
+	/** @return the log file */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return size of the log file in bytes, not counting records that aren't written yet
+	 * @throws IOException if the size can't be read
+	 */
+	public long size() throws IOException {
+		synchronized (syncLock) {
+			return raf.length();
+		}
+	}
+
+	/**
+	 * @return true if the log has no records, written or not
+	 * @throws IOException if the size can't be read
+	 */
+	public boolean isEmpty() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				return pending.size() == 0 && raf.length() <= HEADER_SIZE;
+			}
+		}
+	}
+
+	/**
+	 * Write and force all records, and close the file.
+	 * @throws IOException if the file can't be written
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			// no more appends
+			if (closed) return;
+			closed = true;
+		}
+		if (syncThread != null) {
+			synchronized (timer) {
+				timer.notifyAll();
+			}
+			try {
+				syncThread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			sync();
+		} finally {
+			raf.close();
+		}
+	}
+}
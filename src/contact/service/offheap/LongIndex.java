@@ -0,0 +1,167 @@
+package contact.service.offheap;
+
+/**
+ * Open-addressing hash index from a contact id to the address
+ * of the contact's record. Keys and values are kept in two primitive
+ * arrays, so the index is only two objects no matter how many
+ * contacts it holds, and the garbage collector never has to trace it.
+ * <p>
+ * Id 0 is used to mark an empty slot, which is safe because
+ * a saved contact never has id 0.
+ * This class is not thread-safe; the DAO guards it with its lock.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+class LongIndex {
+	/** value returned by get when a key isn't in the index. */
+	static final long NOT_FOUND = -1L;
+	private static final long EMPTY = 0L;
+
+	private long[] keys;
+	private long[] values;
+	private int size;
+
+	/**
+	 * Create an index with room for a number of entries before it has to grow.
+	 * @param expected expected number of entries
+	 */
+	LongIndex(int expected) {
+		int capacity = 16;
+		while(capacity < expected*2) capacity <<= 1;
+		keys = new long[capacity];
+		values = new long[capacity];
+	}
+
+	/**
+	 * @param key a contact id
+	 * @return the value for the key, or NOT_FOUND
+	 */
+	long get(long key) {
+		int mask = keys.length - 1;
+		for(int k = slot(key, mask); keys[k] != EMPTY; k = (k+1) & mask) {
+			if (keys[k] == key) return values[k];
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Add or replace the value for a key.
+	 * @param key a contact id, not 0
+	 * @param value the record address
+	 * @return the previous value or NOT_FOUND
+	 */
+	long put(long key, long value) {
+		if (key == EMPTY) throw new IllegalArgumentException("id 0 can't be indexed");
+		int mask = keys.length - 1;
+		int k = slot(key, mask);
+		for( ; keys[k] != EMPTY; k = (k+1) & mask) {
+			if (keys[k] == key) {
+				long old = values[k];
+				values[k] = value;
+				return old;
+			}
+		}
+		keys[k] = key;
+		values[k] = value;
+		if (++size > keys.length/2) resize(keys.length*2);
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Remove a key.
+	 * @param key a contact id
+	 * @return the value that was removed, or NOT_FOUND
+	 */
+	long remove(long key) {
+		int mask = keys.length - 1;
+		int k = slot(key, mask);
+		for( ; keys[k] != EMPTY; k = (k+1) & mask) {
+			if (keys[k] == key) break;
+		}
+		if (keys[k] == EMPTY) return NOT_FOUND;
+		long old = values[k];
+		// backward-shift deletion keeps probe runs unbroken without tombstones
+		int hole = k;
+		for(int j = (hole+1) & mask; keys[j] != EMPTY; j = (j+1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = EMPTY;
+		values[hole] = 0;
+		size--;
+		return old;
+	}
+
+	/** @return number of entries */
+	int size() {
+		return size;
+	}
+
+	/** Remove all entries. */
+	void clear() {
+		keys = new long[16];
+		values = new long[16];
+		size = 0;
+	}
+
+	/**
+	 * Get all keys in the index, in no particular order.
+	 * @return new array of keys
+	 */
+	long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		for(long key : keys) if (key != EMPTY) result[n++] = key;
+		return result;
+	}
+
+	/** Visitor for index entries. */
+	interface EntryVisitor {
+		/**
+		 * Called for each entry.
+		 * @return the new value to store for the key
+		 */
+		long visit(long key, long value);
+	}
+
+	/**
+	 * Visit every entry, replacing each value with the one the visitor returns.
+	 * @param visitor the visitor
+	 */
+	void replaceAll(EntryVisitor visitor) {
+		for(int k=0; k<keys.length; k++) {
+			if (keys[k] != EMPTY) values[k] = visitor.visit(keys[k], values[k]);
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new long[capacity];
+		values = new long[capacity];
+		int mask = capacity - 1;
+		for(int j=0; j<oldKeys.length; j++) {
+			if (oldKeys[j] == EMPTY) continue;
+			int k = slot(oldKeys[j], mask);
+			while(keys[k] != EMPTY) k = (k+1) & mask;
+			keys[k] = oldKeys[j];
+			values[k] = oldValues[j];
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		// MurmurHash3 finalizer, so sequential ids spread over the table
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int)h & mask;
+	}
+}
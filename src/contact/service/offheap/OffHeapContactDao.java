@@ -0,0 +1,419 @@
+package contact.service.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import contact.entity.Contact;
+import contact.service.ContactCodec;
+import contact.service.BatchOperation;
+import contact.service.ChangeLog;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.TitleQuery;
+import contact.service.mem.TitleIndex;
+
+/**
+ * Data access object that keeps contacts in off-heap memory.
+ * Each contact is stored as a compact binary record (see ContactCodec)
+ * in direct memory, and located through a primitive id-to-address index.
+ * Contact objects are only created when find or findAll return them,
+ * so a large address book adds almost nothing to the Java heap and
+ * doesn't lengthen garbage collection pauses.
+ * <p>
+ * Because contacts are stored as bytes, each find returns a new
+ * Contact object. Changing that object doesn't change the saved
+ * contact; use save or update for that.
+ * Ids are also kept in ascending order in a SortedIds, so findPage reads
+ * only the ids in the page, not the whole id index.
+ * <p>
+ * Titles are kept in a TitleIndex on the heap, so searches don't decode records.
+ * That index is not off-heap: it holds each title as a String plus, for
+ * substring search, an entry in the posting list of each of the title's
+ * trigrams, so it costs roughly 100 bytes plus a few times the title length
+ * of heap per contact, and the garbage collector traces all of it.
+ * Contacts without titles, or a DAO used without title searches, still pay
+ * for the entries. Most of the contact's data stays off the heap.
+ * <p>
+ * Reads may run concurrently; writes are serialized by a lock.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+public class OffHeapContactDao implements ContactDao {
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final LongIndex index;
+	/** the ids in index, in ascending order */
+	private final SortedIds sortedIds;
+	private final RecordStore store;
+	private final TitleIndex titles;
+	private final AtomicLong nextId;
+	/** changes to contacts, and the store version */
+	private final ChangeLog changes = new ChangeLog();
+
+	/**
+	 * Create an empty DAO with the default slab size.
+	 */
+	public OffHeapContactDao() {
+		this(RecordStore.DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Create an empty DAO.
+	 * @param slabSize bytes of direct memory to allocate at a time
+	 */
+	public OffHeapContactDao(int slabSize) {
+		index = new LongIndex(1024);
+		sortedIds = new SortedIds();
+		store = new RecordStore(slabSize);
+		titles = new TitleIndex();
+		nextId = new AtomicLong(1000L);
+	}
+
+	/**
+	 * @see contact.service.ContactDao#find(long)
+	 */
+	@Override
+	public Contact find(long id) {
+		lock.readLock().lock();
+		try {
+			long address = index.get(id);
+			if (address == LongIndex.NOT_FOUND) return null;
+			return ContactCodec.decode(store.read(address));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Return all contacts ordered by id.
+	 * The list is a copy, so it doesn't change when the DAO changes.
+	 * @see contact.service.ContactDao#findAll()
+	 */
+	@Override
+	public List<Contact> findAll() {
+		lock.readLock().lock();
+		try {
+			long[] all = sortedIds.toArray();
+			List<Contact> result = new ArrayList<Contact>(all.length);
+			for(long id : all) result.add(ContactCodec.decode(store.read(index.get(id))));
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find contacts whose title contains string, using the title index.
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitle(String match) {
+		assert match != null : "Read the Javadoc for ContactDao";
+		return search( new TitleQuery(match) );
+	}
+
+	/**
+	 * Find contacts whose title starts with prefix, using the title index.
+	 * @see contact.service.ContactDao#findByTitlePrefix(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitlePrefix(String prefix) {
+		assert prefix != null : "Read the Javadoc for ContactDao";
+		TitleQuery query = new TitleQuery(prefix);
+		query.setPrefix(true);
+		return search(query);
+	}
+
+	/**
+	 * Search the title index. The index finds prefix matches in title order
+	 * and substring matches in id order, so when the query wants that order
+	 * the index stops as soon as it has enough matches.
+	 * @see contact.service.ContactDao#search(contact.service.TitleQuery)
+	 */
+	@Override
+	public List<Contact> search(TitleQuery query) {
+		TitleQuery.Order indexOrder = query.isPrefix() ? TitleQuery.Order.TITLE : TitleQuery.Order.ID;
+		boolean indexOrdered = query.getOrder() == indexOrder;
+		int limit = indexOrdered ? query.getLimit() : Integer.MAX_VALUE;
+		long[] ids = query.isPrefix() ? titles.findByPrefix(query.getMatch(), limit)
+				: titles.findBySubstring(query.getMatch(), limit);
+		List<Contact> result = toContacts(ids);
+		return indexOrdered ? result : query.orderAndLimit(result);
+	}
+	
+	/**
+	 * Decode the contacts for some ids, skipping any that were deleted
+	 * after the ids were found.
+	 * @param ids contact ids
+	 * @return list of contacts in the same order as ids
+	 */
+	private List<Contact> toContacts(long[] ids) {
+		List<Contact> result = new ArrayList<Contact>(ids.length);
+		lock.readLock().lock();
+		try {
+			for(long id : ids) {
+				long address = index.get(id);
+				if (address != LongIndex.NOT_FOUND) result.add(ContactCodec.decode(store.read(address)));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Get a page of contacts. The ids are read in order from the sorted
+	 * ids, so this decodes and reads only the contacts in the page.
+	 * @see contact.service.ContactDao#findPage(long, int)
+	 */
+	@Override
+	public List<Contact> findPage(long afterId, int limit) {
+		if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+		lock.readLock().lock();
+		try {
+			long[] pageIds = sortedIds.after(afterId, limit);
+			List<Contact> page = new ArrayList<Contact>(pageIds.length);
+			for(long id : pageIds) page.add(ContactCodec.decode(store.read(index.get(id))));
+			return page;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Open a cursor that decodes one contact at a time.
+	 * The cursor visits the contacts that exist when it is opened,
+	 * skipping any that are deleted before the cursor reaches them.
+	 * @see contact.service.ContactDao#openCursor()
+	 */
+	@Override
+	public ContactCursor openCursor() {
+		final long[] all;
+		lock.readLock().lock();
+		try {
+			all = sortedIds.toArray();
+		} finally {
+			lock.readLock().unlock();
+		}
+		return new ContactCursor() {
+			private int position = 0;
+			private Contact next = advance();
+
+			private Contact advance() {
+				while(position < all.length) {
+					Contact contact = find(all[position++]);
+					if (contact != null) return contact;
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Contact next() {
+				if (next == null) throw new NoSuchElementException();
+				Contact contact = next;
+				next = advance();
+				return contact;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				position = all.length;
+				next = null;
+			}
+		};
+	}
+
+	/**
+	 * @see contact.service.ContactDao#delete(long)
+	 */
+	@Override
+	public boolean delete(long id) {
+		lock.writeLock().lock();
+		try {
+			long address = index.remove(id);
+			if (address == LongIndex.NOT_FOUND) return false;
+			store.free(address);
+			sortedIds.remove(id);
+			titles.remove(id);
+			compactIfNeeded();
+			changes.deleted(id);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#save(contact.entity.Contact)
+	 */
+	@Override
+	public boolean save(Contact contact) {
+		if (contact == null) throw new IllegalArgumentException("Can't save a null contact");
+		lock.writeLock().lock();
+		try {
+			if (contact.getId() == 0) contact.setId( getUniqueId() );
+			put(contact);
+			changes.updated(contact.getId());
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#update(contact.entity.Contact)
+	 */
+	@Override
+	public boolean update(Contact update) {
+		lock.writeLock().lock();
+		try {
+			long address = index.get(update.getId());
+			if (address == LongIndex.NOT_FOUND) return false;
+			Contact contact = ContactCodec.decode(store.read(address));
+			contact.applyUpdate(update);
+			put(contact);
+			changes.updated(contact.getId());
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Apply all operations while holding the write lock.
+	 * The lock is reentrant, so each operation uses the same code as a single change.
+	 * @see contact.service.ContactDao#batch(java.util.List)
+	 */
+	@Override
+	public boolean[] batch(List<BatchOperation> operations) {
+		boolean[] applied = new boolean[operations.size()];
+		lock.writeLock().lock();
+		try {
+			int k = 0;
+			for(BatchOperation op : operations) {
+				switch (op.getType()) {
+				case SAVE:
+					// unlike save, a contact whose id is used is not replaced
+					long id = op.getContact().getId();
+					applied[k] = (id == 0 || index.get(id) == LongIndex.NOT_FOUND) && save(op.getContact());
+					break;
+				case UPDATE: applied[k] = update(op.getContact()); break;
+				case DELETE: applied[k] = delete(op.getId()); break;
+				}
+				k++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return applied;
+	}
+
+	/**
+	 * Delete the contacts while holding the write lock.
+	 * Freed records are compacted once, after all are deleted.
+	 * @see contact.service.ContactDao#deleteByIds(java.util.Collection)
+	 */
+	@Override
+	public int deleteByIds(Collection<Long> ids) {
+		int count = 0;
+		lock.writeLock().lock();
+		try {
+			for(long id : ids) {
+				long address = index.remove(id);
+				if (address == LongIndex.NOT_FOUND) continue;
+				store.free(address);
+				sortedIds.remove(id);
+				titles.remove(id);
+				changes.deleted(id);
+				count++;
+			}
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return count;
+	}
+
+	/**
+	 * @see contact.service.ContactDao#removeAll()
+	 */
+	@Override
+	public void removeAll() {
+		lock.writeLock().lock();
+		try {
+			index.clear();
+			sortedIds.clear();
+			store.clear();
+			titles.clear();
+			changes.cleared();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see contact.service.ContactDao#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return changes.getVersion();
+	}
+
+	/**
+	 * @see contact.service.ContactDao#findChanges(long)
+	 */
+	@Override
+	public List<ChangeLog.Change> findChanges(long since) {
+		return changes.changesSince(since);
+	}
+
+	/**
+	 * @return number of bytes of direct memory used to store contacts
+	 */
+	public long getAllocatedBytes() {
+		lock.readLock().lock();
+		try {
+			return store.allocatedBytes();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Store a contact, replacing any old record. Caller must hold the write lock. */
+	private void put(Contact contact) {
+		long old = index.put(contact.getId(), store.append(ContactCodec.encode(contact)));
+		titles.put(contact.getId(), contact.getTitle() == null ? "" : contact.getTitle());
+		if (old == LongIndex.NOT_FOUND) sortedIds.add(contact.getId());
+		else {
+			store.free(old);
+			compactIfNeeded();
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (store.needsCompaction()) store.compact(index);
+	}
+
+	/**
+	 * Get a unique contact ID. Caller must hold the write lock.
+	 * @return unique id not in persistent storage
+	 */
+	private long getUniqueId() {
+		long id = nextId.getAndAdd(1L);
+		while( index.get(id) != LongIndex.NOT_FOUND ) id = nextId.getAndAdd(1L);
+		return id;
+	}
+}
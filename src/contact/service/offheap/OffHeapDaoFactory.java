@@ -0,0 +1,24 @@
+package contact.service.offheap;
+
+import contact.service.mem.MemDaoFactory;
+
+/**
+ * OffHeapDaoFactory is a factory for a DAO that keeps contacts
+ * in direct memory outside the Java heap.
+ * Like MemDaoFactory, contacts are loaded from and saved to a file
+ * when the factory is created and shut down.
+ * The size of each block of direct memory can be set with the
+ * system property <tt>contact.offheap.slabSize</tt> (in bytes).
+ * 
+ * @see contact.service.DaoFactory
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+public class OffHeapDaoFactory extends MemDaoFactory {
+	/** Name of the system property for the slab size. */
+	public static final String SLAB_SIZE_PROPERTY = "contact.offheap.slabSize";
+	
+	public OffHeapDaoFactory() {
+		super( new OffHeapContactDao( Integer.getInteger(SLAB_SIZE_PROPERTY, RecordStore.DEFAULT_SLAB_SIZE) ) );
+	}
+}
@@ -0,0 +1,135 @@
+package contact.service.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only storage for variable length records in direct (off-heap) memory.
+ * Memory is allocated in fixed size slabs using ByteBuffer.allocateDirect,
+ * so the records are invisible to the garbage collector.
+ * Each record is stored as a 4 byte length followed by the record bytes.
+ * A record is identified by its address: the slab number in the high
+ * 32 bits and the offset within the slab in the low 32 bits.
+ * <p>
+ * Replacing or deleting a record only marks its space as garbage.
+ * The owner of the store should call {@link #compact(LongIndex)} when
+ * {@link #needsCompaction()} is true.
+ * This class is not thread-safe; the DAO guards it with its lock.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.20
+ */
+class RecordStore {
+	/** Default slab size is 64 MB. */
+	static final int DEFAULT_SLAB_SIZE = 64 << 20;
+	/** Don't bother compacting until there is at least this much garbage. */
+	private static final long MIN_GARBAGE = 1 << 20;
+
+	private final int slabSize;
+	private List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+	/** the slab that new records are appended to */
+	private ByteBuffer current;
+	/** bytes used by live records, including their length prefix */
+	private long liveBytes;
+	/** bytes used by replaced or deleted records */
+	private long garbageBytes;
+
+	/**
+	 * Create an empty store.
+	 * @param slabSize size of each block of direct memory, in bytes
+	 */
+	RecordStore(int slabSize) {
+		if (slabSize < 1024) throw new IllegalArgumentException("slab size too small: "+slabSize);
+		this.slabSize = slabSize;
+	}
+
+	/**
+	 * Append a record.
+	 * @param record the record bytes
+	 * @return address of the new record
+	 */
+	long append(byte[] record) {
+		int needed = 4 + record.length;
+		if (needed > slabSize) throw new IllegalArgumentException("record of "+record.length+" bytes is larger than slab");
+		if (current == null || current.remaining() < needed) {
+			current = ByteBuffer.allocateDirect(slabSize);
+			slabs.add(current);
+		}
+		long address = ((long)(slabs.size()-1) << 32) | current.position();
+		current.putInt(record.length);
+		current.put(record);
+		liveBytes += needed;
+		return address;
+	}
+
+	/**
+	 * Get a record.
+	 * @param address address of the record
+	 * @return a new buffer whose content is exactly the record bytes
+	 */
+	ByteBuffer read(long address) {
+		ByteBuffer slab = slabs.get((int)(address >>> 32)).duplicate();
+		int offset = (int)address;
+		int length = slab.getInt(offset);
+		slab.limit(offset + 4 + length);
+		slab.position(offset + 4);
+		return slab.slice();
+	}
+
+	/**
+	 * Mark a record as no longer used.
+	 * @param address address of the record
+	 */
+	void free(long address) {
+		ByteBuffer slab = slabs.get((int)(address >>> 32));
+		int size = 4 + slab.getInt((int)address);
+		liveBytes -= size;
+		garbageBytes += size;
+	}
+
+	/**
+	 * @return true if more than half of the used memory is garbage
+	 */
+	boolean needsCompaction() {
+		return garbageBytes > MIN_GARBAGE && garbageBytes > liveBytes;
+	}
+
+	/**
+	 * Copy all live records into new slabs and release the old ones.
+	 * The addresses in the index are updated to the new locations.
+	 * @param index index whose values are the addresses of all live records
+	 */
+	void compact(LongIndex index) {
+		final List<ByteBuffer> oldSlabs = slabs;
+		slabs = new ArrayList<ByteBuffer>();
+		current = null;
+		liveBytes = 0;
+		garbageBytes = 0;
+		index.replaceAll(new LongIndex.EntryVisitor() {
+			@Override
+			public long visit(long key, long address) {
+				ByteBuffer slab = oldSlabs.get((int)(address >>> 32));
+				int offset = (int)address;
+				byte[] record = new byte[slab.getInt(offset)];
+				ByteBuffer src = slab.duplicate();
+				src.position(offset + 4);
+				src.get(record);
+				return append(record);
+			}
+		});
+	}
+
+	/** Release all records. */
+	void clear() {
+		slabs = new ArrayList<ByteBuffer>();
+		current = null;
+		liveBytes = 0;
+		garbageBytes = 0;
+	}
+
+	/** @return bytes of direct memory allocated by this store */
+	long allocatedBytes() {
+		return (long)slabs.size() * slabSize;
+	}
+}
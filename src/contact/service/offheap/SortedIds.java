@@ -0,0 +1,162 @@
+package contact.service.offheap;
+
+import java.util.Arrays;
+
+/**
+ * Set of contact ids kept in ascending order, for reading pages of
+ * contacts by id without scanning the whole LongIndex.
+ * The ids are kept in primitive arrays (blocks) of at most BLOCK_SIZE
+ * sorted ids, and the blocks are in order too, so an id is found with
+ * two binary searches and adding or removing one moves at most one
+ * block of ids, not all of them. A full block is split in two.
+ * Like LongIndex, this costs about 8 bytes per id and a few objects
+ * per thousand ids, so the garbage collector has little to trace.
+ * <p>
+ * This class is not thread-safe; the DAO guards it with its lock.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+class SortedIds {
+	/** Most ids in one block. */
+	private static final int BLOCK_SIZE = 1024;
+
+	private long[][] blocks = new long[4][];
+	/** number of ids in each block */
+	private int[] sizes = new int[4];
+	/** number of blocks in use */
+	private int count;
+	private int size;
+
+	/**
+	 * Add an id.
+	 * @param id a contact id
+	 * @return true if the id was added, false if it was already in the set
+	 */
+	boolean add(long id) {
+		if (count == 0) insertBlock(0, new long[BLOCK_SIZE], 0);
+		int b = blockFor(id);
+		int k = Arrays.binarySearch(blocks[b], 0, sizes[b], id);
+		if (k >= 0) return false;
+		k = -k - 1;
+		if (sizes[b] == BLOCK_SIZE) {
+			// move the upper half to a new block after this one
+			int half = BLOCK_SIZE / 2;
+			long[] upper = new long[BLOCK_SIZE];
+			System.arraycopy(blocks[b], half, upper, 0, BLOCK_SIZE - half);
+			sizes[b] = half;
+			insertBlock(b + 1, upper, BLOCK_SIZE - half);
+			if (k > half) {
+				b++;
+				k -= half;
+			}
+		}
+		long[] block = blocks[b];
+		System.arraycopy(block, k, block, k + 1, sizes[b] - k);
+		block[k] = id;
+		sizes[b]++;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Remove an id.
+	 * @param id a contact id
+	 * @return true if the id was removed, false if it wasn't in the set
+	 */
+	boolean remove(long id) {
+		if (count == 0) return false;
+		int b = blockFor(id);
+		int k = Arrays.binarySearch(blocks[b], 0, sizes[b], id);
+		if (k < 0) return false;
+		long[] block = blocks[b];
+		System.arraycopy(block, k + 1, block, k, sizes[b] - k - 1);
+		size--;
+		if (--sizes[b] == 0) removeBlock(b);
+		return true;
+	}
+
+	/**
+	 * Get the smallest ids greater than an id.
+	 * @param afterId the ids returned are greater than this
+	 * @param limit most ids to return
+	 * @return up to limit ids in ascending order
+	 */
+	long[] after(long afterId, int limit) {
+		long[] result = new long[Math.min(limit, size)];
+		int n = 0;
+		if (count > 0 && afterId < Long.MAX_VALUE) {
+			int b = blockFor(afterId + 1);
+			int k = Arrays.binarySearch(blocks[b], 0, sizes[b], afterId + 1);
+			if (k < 0) k = -k - 1;
+			for( ; b < count && n < result.length; b++, k = 0) {
+				int copy = Math.min(sizes[b] - k, result.length - n);
+				System.arraycopy(blocks[b], k, result, n, copy);
+				n += copy;
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * @return all ids in ascending order
+	 */
+	long[] toArray() {
+		long[] result = new long[size];
+		int n = 0;
+		for(int b=0; b<count; b++) {
+			System.arraycopy(blocks[b], 0, result, n, sizes[b]);
+			n += sizes[b];
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of ids in the set
+	 */
+	int size() {
+		return size;
+	}
+
+	/** Remove all ids. */
+	void clear() {
+		blocks = new long[4][];
+		sizes = new int[4];
+		count = 0;
+		size = 0;
+	}
+
+	/**
+	 * Find the block where an id is or would be inserted:
+	 * the first block whose last id is not less than id, or the last block.
+	 * Requires at least one block.
+	 */
+	private int blockFor(long id) {
+		int low = 0;
+		int high = count - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if (blocks[mid][sizes[mid] - 1] < id) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private void insertBlock(int b, long[] block, int blockSize) {
+		if (count == blocks.length) {
+			blocks = Arrays.copyOf(blocks, count * 2);
+			sizes = Arrays.copyOf(sizes, count * 2);
+		}
+		System.arraycopy(blocks, b, blocks, b + 1, count - b);
+		System.arraycopy(sizes, b, sizes, b + 1, count - b);
+		blocks[b] = block;
+		sizes[b] = blockSize;
+		count++;
+	}
+
+	private void removeBlock(int b) {
+		System.arraycopy(blocks, b + 1, blocks, b, count - b - 1);
+		System.arraycopy(sizes, b + 1, sizes, b, count - b - 1);
+		blocks[--count] = null;
+	}
+}
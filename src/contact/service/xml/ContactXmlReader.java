@@ -0,0 +1,143 @@
+package contact.service.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactDao;
+
+/**
+ * Reads a list of contacts in the XML form of ContactList,
+ * <tt>&lt;contacts&gt;&lt;contact id="1"&gt;...&lt;/contact&gt;...&lt;/contacts&gt;</tt>,
+ * one contact element at a time. The document is read with StAX and
+ * each contact is unmarshalled with the thread's unmarshaller from
+ * JaxbSupport, so a file of any size is read with a small, fixed
+ * amount of memory.
+ * Elements other than contact, such as etag, are skipped.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactXmlReader {
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+	static {
+		// contacts never need a DTD, so don't let one read other files
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private final XMLStreamReader reader;
+	private boolean done;
+	/** true if the reader is on the event after a contact, instead of on the end of an element */
+	private boolean afterContact;
+	/** number of contacts saved by readInto */
+	private int saved;
+
+	/**
+	 * Start reading a list of contacts.
+	 * @param in the XML document
+	 * @throws XMLStreamException if the document doesn't start with a contacts element
+	 * @throws JAXBException if contacts can't be unmarshalled
+	 */
+	public ContactXmlReader(InputStream in) throws XMLStreamException, JAXBException {
+		reader = INPUT_FACTORY.createXMLStreamReader(in);
+		reader.nextTag();
+		reader.require(XMLStreamConstants.START_ELEMENT, null, "contacts");
+	}
+
+	/**
+	 * Read the next contacts.
+	 * @param max the most contacts to read
+	 * @return up to max contacts, or an empty list after the last one
+	 * @throws XMLStreamException if the XML is malformed
+	 * @throws JAXBException if a contact is malformed
+	 */
+	public List<Contact> next(int max) throws XMLStreamException, JAXBException {
+		List<Contact> contacts = new ArrayList<Contact>();
+		// got for each call, so readers on the same thread can't share it at once
+		Unmarshaller unmarshaller = JaxbSupport.getUnmarshaller();
+		while (! done && contacts.size() < max) {
+			int event = afterContact ? reader.getEventType() : reader.nextTag();
+			afterContact = false;
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				// end of the contacts element
+				done = true;
+				break;
+			}
+			reader.require(XMLStreamConstants.START_ELEMENT, null, null);
+			if (! reader.getLocalName().equals("contact")) {
+				skipElement();
+				continue;
+			}
+			contacts.add(unmarshaller.unmarshal(reader, Contact.class).getValue());
+			// the unmarshaller stops just after the contact, which may be whitespace
+			while (reader.isWhiteSpace() || reader.getEventType() == XMLStreamConstants.COMMENT) reader.next();
+			afterContact = true;
+		}
+		return contacts;
+	}
+
+	/** Skip the element the reader is on, with everything in it. */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	/**
+	 * Save all remaining contacts to a DAO, batchSize contacts at a time.
+	 * A contact with an id replaces the contact with that id: the contacts
+	 * with an id are updated in one ContactDao.batch, and the ones that
+	 * weren't there, and the contacts without an id, are saved in another,
+	 * since a batch save doesn't replace a contact.
+	 * If the same id is in a chunk more than once, the last contact is kept.
+	 * @param dao the DAO to save contacts to
+	 * @param batchSize number of contacts in each batch
+	 * @return number of contacts saved
+	 * @throws XMLStreamException if the XML is malformed; contacts in earlier batches are saved
+	 * @throws JAXBException if a contact is malformed; contacts in earlier batches are saved
+	 */
+	public int readInto(ContactDao dao, int batchSize) throws XMLStreamException, JAXBException {
+		List<Contact> contacts;
+		while (! (contacts = next(batchSize)).isEmpty()) {
+			Map<Long,Contact> withId = new LinkedHashMap<Long,Contact>();
+			List<BatchOperation> saves = new ArrayList<BatchOperation>();
+			for(Contact contact : contacts) {
+				if (contact.getId() == 0) saves.add(BatchOperation.save(contact));
+				else withId.put(contact.getId(), contact);
+			}
+			List<BatchOperation> updates = new ArrayList<BatchOperation>(withId.size());
+			for(Contact contact : withId.values()) updates.add(BatchOperation.update(contact));
+			if (! updates.isEmpty()) {
+				boolean[] updated = dao.batch(updates);
+				for(int k = 0; k < updated.length; k++) {
+					if (updated[k]) saved++;
+					else saves.add(BatchOperation.save(updates.get(k).getContact()));
+				}
+			}
+			if (! saves.isEmpty()) {
+				for(boolean applied : dao.batch(saves)) if (applied) saved++;
+			}
+		}
+		return saved;
+	}
+
+	/** @return number of contacts saved by readInto, including before an error */
+	public int getSaved() {
+		return saved;
+	}
+}
@@ -0,0 +1,90 @@
+package contact.service.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import contact.entity.Contact;
+
+/**
+ * Writes contacts in the XML form of ContactList with StAX,
+ * one contact at a time as they come from an iterator (usually a
+ * ContactCursor), so the whole list is never in memory.
+ * The output is not indented, and is flushed every FLUSH_EVERY contacts
+ * so a client receiving it gets the data in chunks.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class ContactXmlWriter {
+	/** Size of the output buffer in bytes. */
+	private static final int BUFFER_SIZE = 16*1024;
+	/** Flush the output after this many contacts. */
+	public static final int FLUSH_EVERY = 500;
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private ContactXmlWriter() {
+		// static methods only
+	}
+
+	/**
+	 * Write a contacts document.
+	 * @param output where to write the XML. It is flushed but not closed.
+	 * @param contacts the contacts to write
+	 * @param etag the store version for an etag element after the contacts, or null for none
+	 * @return number of contacts written
+	 * @throws IOException if the output can't be written
+	 */
+	public static int write(OutputStream output, Iterator<Contact> contacts, String etag) throws IOException {
+		OutputStream out = new BufferedOutputStream(output, BUFFER_SIZE);
+		int count = 0;
+		try {
+			XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("contacts");
+			while(contacts.hasNext()) {
+				writeContact(writer, contacts.next());
+				if (++count % FLUSH_EVERY == 0) {
+					writer.flush();
+					out.flush();
+				}
+			}
+			writeElement(writer, "etag", etag);
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+			out.flush();
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		}
+		return count;
+	}
+
+	/**
+	 * Write one contact element. Null attributes are left out, like JAXB does.
+	 * @param writer where to write the contact
+	 * @param contact the contact to write
+	 * @throws XMLStreamException if the contact can't be written
+	 */
+	public static void writeContact(XMLStreamWriter writer, Contact contact) throws XMLStreamException {
+		writer.writeStartElement("contact");
+		writer.writeAttribute("id", Long.toString(contact.getId()));
+		writeElement(writer, "title", contact.getTitle());
+		writeElement(writer, "name", contact.getName());
+		writeElement(writer, "email", contact.getEmail());
+		writeElement(writer, "photoUrl", contact.getPhotoUrl());
+		writer.writeEndElement();
+	}
+
+	private static void writeElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+		if (value == null) return;
+		writer.writeStartElement(name);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+}
@@ -0,0 +1,116 @@
+package contact.service.xml;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import contact.entity.BatchResult;
+import contact.entity.BatchResultList;
+import contact.entity.ChangeList;
+import contact.entity.Contact;
+import contact.entity.ContactList;
+import contact.entity.Tombstone;
+
+/**
+ * One JAXBContext for all the XML entities of the service, and
+ * per-thread marshallers and unmarshallers made from it.
+ * Creating a JAXBContext reflects over every bound class, so it is
+ * done once. A JAXBContext is thread-safe but marshallers and
+ * unmarshallers are not, so each thread gets its own and reuses it.
+ * <p>
+ * A marshaller is used by one caller at a time: get it, use it,
+ * and don't keep it after the method that got it returns.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class JaxbSupport {
+	/** Classes in the context, each an XmlRootElement. */
+	private static final Class<?>[] BOUND_CLASSES = {
+		Contact.class, ContactList.class, ChangeList.class, Tombstone.class,
+		BatchResult.class, BatchResultList.class
+	};
+	private static final Set<Class<?>> BOUND = new HashSet<Class<?>>(Arrays.asList(BOUND_CLASSES));
+	private static JAXBContext context;
+
+	private static final ThreadLocal<Marshaller> MARSHALLER = new ThreadLocal<Marshaller>() {
+		@Override
+		protected Marshaller initialValue() {
+			try {
+				return getContext().createMarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException("Can't create a marshaller", ex);
+			}
+		}
+	};
+	private static final ThreadLocal<Unmarshaller> UNMARSHALLER = new ThreadLocal<Unmarshaller>() {
+		@Override
+		protected Unmarshaller initialValue() {
+			try {
+				return getContext().createUnmarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException("Can't create an unmarshaller", ex);
+			}
+		}
+	};
+
+	private JaxbSupport() {
+		// static methods only
+	}
+
+	/**
+	 * Get the shared context, creating it the first time.
+	 * @return the context for all entity classes
+	 * @throws JAXBException if the context can't be created
+	 */
+	public static synchronized JAXBContext getContext() throws JAXBException {
+		if (context == null) context = JAXBContext.newInstance(BOUND_CLASSES);
+		return context;
+	}
+
+	/**
+	 * @param type a class
+	 * @return true if the shared context binds type
+	 */
+	public static boolean isBound(Class<?> type) {
+		return BOUND.contains(type);
+	}
+
+	/**
+	 * Get this thread's marshaller, with the default properties:
+	 * UTF-8, not formatted, and a whole document rather than a fragment.
+	 * They are reset every time, since the last user may have changed them.
+	 * @return the marshaller
+	 * @throws JAXBException if the marshaller can't be created or reset
+	 */
+	public static Marshaller getMarshaller() throws JAXBException {
+		Marshaller marshaller;
+		try {
+			marshaller = MARSHALLER.get();
+		} catch (IllegalStateException ex) {
+			throw (JAXBException) ex.getCause();
+		}
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.FALSE);
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.FALSE);
+		return marshaller;
+	}
+
+	/**
+	 * Get this thread's unmarshaller.
+	 * @return the unmarshaller
+	 * @throws JAXBException if the unmarshaller can't be created
+	 */
+	public static Unmarshaller getUnmarshaller() throws JAXBException {
+		try {
+			return UNMARSHALLER.get();
+		} catch (IllegalStateException ex) {
+			throw (JAXBException) ex.getCause();
+		}
+	}
+}
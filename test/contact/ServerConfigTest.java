@@ -0,0 +1,37 @@
+package contact;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for ServerConfig.
+ * @author Juthamas
+ */
+public class ServerConfigTest {
+
+	@Test
+	public void testDefaultsAndSettings() {
+		Properties properties = new Properties();
+		properties.setProperty("contact.server.maxThreads", " 400 ");
+		properties.setProperty("contact.server.virtualThreads", "true");
+		ServerConfig config = new ServerConfig(properties);
+		assertEquals( 400, config.getMaxThreads() );
+		assertTrue( config.isVirtualThreads() );
+		// not given, so Jetty's default
+		assertEquals( 8, config.getMinThreads() );
+		assertEquals( 8192, config.getRequestHeaderSize() );
+		assertTrue( config.isCompression() );
+		assertEquals( 1024, config.getCompressionMinSize() );
+		assertEquals( 9090, config.set("port", 9090).getPort() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNotANumber() {
+		Properties properties = new Properties();
+		properties.setProperty("contact.server.selectors", "many");
+		new ServerConfig(properties).getSelectors();
+	}
+}
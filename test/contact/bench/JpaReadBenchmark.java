@@ -0,0 +1,99 @@
+package contact.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactDao;
+import contact.service.jpa.JpaDaoFactory;
+
+/**
+ * Measures the throughput of JpaContactDao.find against the embedded
+ * Derby database with one thread and with many, to see that reads
+ * don't wait for each other on the connection pool.
+ * The reads are warmed up with one thread first, then timed.
+ * Run it with: java contact.bench.JpaReadBenchmark [threads] [readsPerThread]
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class JpaReadBenchmark {
+	private static final int CONTACTS = 200;
+	private static final int READS_PER_THREAD = 2000;
+
+	private final ContactDao dao;
+	private final List<Contact> saved = new ArrayList<Contact>();
+	private final int readsPerThread;
+
+	private JpaReadBenchmark(ContactDao dao, int readsPerThread) {
+		this.dao = dao;
+		this.readsPerThread = readsPerThread;
+	}
+
+	private void save() {
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		for(int k=0; k<CONTACTS; k++) {
+			Contact contact = new Contact("read bench "+k, "Read Bench", "read"+k+"@bench.com");
+			saved.add(contact);
+			ops.add(BatchOperation.save(contact));
+		}
+		dao.batch(ops);
+	}
+
+	private void delete() {
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		for(Contact contact : saved) ops.add(BatchOperation.delete(contact.getId()));
+		dao.batch(ops);
+	}
+
+	/**
+	 * @return reads per second by all threads
+	 */
+	private long run(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		long start = System.nanoTime();
+		for(int t=0; t<threads; t++) {
+			final int seed = t;
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int found = 0;
+					for(int k=0; k<readsPerThread; k++) {
+						if (dao.find(saved.get((k*7 + seed) % CONTACTS).getId()) != null) found++;
+					}
+					return found;
+				}
+			}));
+		}
+		int found = 0;
+		for(Future<Integer> result : results) found += result.get();
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		if (found != threads * readsPerThread) System.out.printf("only %d of %d reads found the contact%n", found, threads * readsPerThread);
+		return threads * (long)readsPerThread * 1000000000L / elapsed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0])
+				: Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+		int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : READS_PER_THREAD;
+		JpaDaoFactory factory = new JpaDaoFactory();
+		JpaReadBenchmark bench = new JpaReadBenchmark(factory.getContactDao(), readsPerThread);
+		bench.save();
+		try {
+			bench.run(1);  // warm up the cache and the JIT
+			long one = bench.run(1);
+			long many = bench.run(threads);
+			System.out.printf("JPA reads: 1 thread %d reads/s, %d threads %d reads/s%n", one, threads, many);
+		} finally {
+			bench.delete();
+			factory.shutdown();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package contact.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Load test client: sends GET /contacts/{id} requests over many
+ * concurrent connections and prints the throughput and latency.
+ * Run the server in another JVM (each side needs a file descriptor
+ * per connection), usually with SlowDaoFactory so each request blocks
+ * like a JPA query, for example:
+ * <pre>
+ * java -Dcontact.dao=contact.bench.SlowDaoFactory -Dcontact.server.maxThreads=200 \
+ *      [-Dcontact.server.virtualThreads=true] contact.JettyMain
+ * java contact.bench.LoadBenchmark http://localhost:8080/contacts 10000 100000
+ * </pre>
+ * With -Dcontact.bench.http2=true the requests are sent over cleartext
+ * HTTP/2 on a few connections (contact.bench.http2Connections, 4),
+ * and the second argument is the number of requests in flight at once.
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class LoadBenchmark {
+	/** Seconds to wait for one response. */
+	private static final int TIMEOUT_SECONDS = 120;
+
+	public static void main(String[] args) throws Exception {
+		String url = args.length > 0 ? args[0] : "http://localhost:8080/contacts";
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 10 * connections;
+
+		QueuedThreadPool clientThreads = new QueuedThreadPool(16);
+		clientThreads.setName("load-client");
+		HttpClient client;
+		if (Boolean.getBoolean("contact.bench.http2")) {
+			client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+			client.setMaxConnectionsPerDestination(Integer.getInteger("contact.bench.http2Connections", 4));
+		} else {
+			client = new HttpClient();
+			client.setMaxConnectionsPerDestination(connections);
+		}
+		client.setExecutor(clientThreads);
+		client.setMaxRequestsQueuedPerDestination(requests);
+		client.setIdleTimeout(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		client.start();
+
+		final Semaphore inFlight = new Semaphore(connections);
+		final CountDownLatch done = new CountDownLatch(requests);
+		final long[] latencies = new long[requests];
+		final AtomicInteger errors = new AtomicInteger();
+		long start = System.nanoTime();
+		for(int k = 0; k < requests; k++) {
+			inFlight.acquire();
+			final int index = k;
+			final long sent = System.nanoTime();
+			client.newRequest(url + "/" + (1 + k % SlowDaoFactory.CONTACTS))
+				.header("Accept", "application/json")
+				.timeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.send(new Response.CompleteListener() {
+					@Override
+					public void onComplete(Result result) {
+						latencies[index] = System.nanoTime() - sent;
+						if (result.isFailed() || result.getResponse().getStatus() != 200) errors.incrementAndGet();
+						inFlight.release();
+						done.countDown();
+					}
+				});
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		client.stop();
+
+		Arrays.sort(latencies);
+		System.out.printf("%d requests on %d connections in %.1f s: %.0f requests/s, %d errors%n",
+				requests, connections, seconds, requests / seconds, errors.get());
+		System.out.printf("latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n", percentile(latencies, 50),
+				percentile(latencies, 90), percentile(latencies, 99), latencies[requests - 1] / 1e6);
+	}
+
+	private static double percentile(long[] sorted, int percent) {
+		return sorted[(int) ((sorted.length - 1) * (long) percent / 100)] / 1e6;
+	}
+}
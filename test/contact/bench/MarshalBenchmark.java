@@ -0,0 +1,101 @@
+package contact.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import contact.entity.Contact;
+import contact.service.xml.JaxbSupport;
+
+/**
+ * Measures the cost of marshalling and unmarshalling one contact, as an
+ * XML request does, in three ways:
+ * <ol>
+ * <li>a new JAXBContext for each request, as MemDaoFactory used to do for each load and save,</li>
+ * <li>the shared JAXBContext with a new marshaller or unmarshaller for each request,
+ *     as Jersey does without a marshaller resolver,</li>
+ * <li>the shared context and this thread's marshaller or unmarshaller from JaxbSupport.</li>
+ * </ol>
+ * Each case is warmed up, then timed over ITERATIONS requests.
+ * Run it with: java contact.bench.MarshalBenchmark [iterations]
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class MarshalBenchmark {
+	private static final int ITERATIONS = 20000;
+	/** new contexts are so slow that they are measured with fewer requests */
+	private static final int CONTEXT_ITERATIONS = 200;
+
+	private final Contact contact;
+	private final byte[] xml;
+
+	private MarshalBenchmark() throws JAXBException {
+		contact = new Contact("Benchmark contact", "Joe Benchmark", "joe@bench.com");
+		contact.setId(101);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JaxbSupport.getMarshaller().marshal(contact, out);
+		xml = out.toByteArray();
+	}
+
+	/** One request, marshalling and unmarshalling the contact. */
+	private interface Request {
+		void run() throws JAXBException;
+	}
+
+	private void marshal(Marshaller marshaller) throws JAXBException {
+		marshaller.marshal(contact, new ByteArrayOutputStream(256));
+	}
+
+	private void unmarshal(Unmarshaller unmarshaller) throws JAXBException {
+		unmarshaller.unmarshal(new ByteArrayInputStream(xml));
+	}
+
+	/**
+	 * Run a request repeatedly and print the average time.
+	 * @return average time of a request in microseconds
+	 */
+	private static double time(String name, Request request, int iterations) throws JAXBException {
+		for(int k = 0; k < iterations; k++) request.run();
+		long start = System.nanoTime();
+		for(int k = 0; k < iterations; k++) request.run();
+		double micros = (System.nanoTime() - start) / 1000.0 / iterations;
+		System.out.printf("%-32s %10.2f us/request%n", name, micros);
+		return micros;
+	}
+
+	public static void main(String[] args) throws JAXBException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : ITERATIONS;
+		final MarshalBenchmark bench = new MarshalBenchmark();
+		final JAXBContext context = JaxbSupport.getContext();
+
+		time("new context", new Request() {
+			@Override
+			public void run() throws JAXBException {
+				JAXBContext ctx = JAXBContext.newInstance(Contact.class);
+				bench.marshal(ctx.createMarshaller());
+				bench.unmarshal(ctx.createUnmarshaller());
+			}
+		}, Math.min(iterations, CONTEXT_ITERATIONS));
+		double before = time("shared context, new marshaller", new Request() {
+			@Override
+			public void run() throws JAXBException {
+				bench.marshal(context.createMarshaller());
+				bench.unmarshal(context.createUnmarshaller());
+			}
+		}, iterations);
+		double after = time("shared context, thread marshaller", new Request() {
+			@Override
+			public void run() throws JAXBException {
+				bench.marshal(JaxbSupport.getMarshaller());
+				bench.unmarshal(JaxbSupport.getUnmarshaller());
+			}
+		}, iterations);
+		System.out.printf("reusing marshallers saves %.2f us/request (%.0f%%)%n",
+				before - after, 100 * (before - after) / before);
+	}
+}
@@ -0,0 +1,71 @@
+package contact.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import contact.entity.Contact;
+import contact.service.ContactDao;
+import contact.service.DaoFactory;
+import contact.service.mem.MemContactDao;
+
+/**
+ * A DaoFactory for load tests whose DAO waits before every call, like a
+ * DAO that waits for a database, except getVersion and findChanges,
+ * which every DAO answers from its ChangeLog in memory. Contacts are kept in memory, starting
+ * with CONTACTS contacts with ids 1 to CONTACTS.
+ * Select it with -Dcontact.dao=contact.bench.SlowDaoFactory and set the
+ * wait with -Dcontact.bench.latencyMillis (default 20).
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class SlowDaoFactory extends DaoFactory {
+	/** Number of contacts the DAO starts with. */
+	public static final int CONTACTS = 1000;
+	private static final long LATENCY_MILLIS = Long.getLong("contact.bench.latencyMillis", 20L);
+	/** Methods that don't wait. */
+	private static final Set<String> IN_MEMORY = new HashSet<String>(Arrays.asList("getVersion", "findChanges"));
+	private final ContactDao dao;
+
+	public SlowDaoFactory() {
+		final ContactDao memory = new MemContactDao();
+		memory.removeAll();
+		for(int id = 1; id <= CONTACTS; id++) {
+			Contact contact = new Contact("Contact "+id, "Load Test "+id, "load"+id+"@test.com");
+			contact.setId(id);
+			memory.save(contact);
+		}
+		dao = (ContactDao) Proxy.newProxyInstance(ContactDao.class.getClassLoader(), new Class<?>[] { ContactDao.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (! IN_MEMORY.contains(method.getName())) Thread.sleep(LATENCY_MILLIS);
+						try {
+							return method.invoke(memory, args);
+						} catch (InvocationTargetException ex) {
+							throw ex.getCause();
+						}
+					}
+				});
+	}
+
+	@Override
+	public ContactDao getContactDao() {
+		return dao;
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing is saved
+	}
+
+	@Override
+	public void loadFile(String url) {
+		// contacts are created by the constructor
+	}
+}
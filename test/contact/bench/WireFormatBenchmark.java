@@ -0,0 +1,110 @@
+package contact.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.xml.bind.JAXBException;
+
+import contact.entity.Contact;
+import contact.service.binary.ContactBinaryReader;
+import contact.service.binary.ContactBinaryWriter;
+import contact.service.json.ContactJsonReader;
+import contact.service.json.ContactJsonWriter;
+import contact.service.xml.JaxbSupport;
+
+/**
+ * Compares the wire formats of a single contact, as in a GET, POST or
+ * PUT of one contact: bytes per contact, and microseconds to encode and
+ * decode it. XML is encoded and decoded with JAXB like Jersey's XML
+ * provider, using the thread's marshaller and unmarshaller.
+ * Each case is warmed up, then timed over ITERATIONS contacts.
+ * Run it with: java contact.bench.WireFormatBenchmark [iterations]
+ *
+ * @author Juthamas Utamaphethai
+ * @version 2014.10.31
+ */
+public class WireFormatBenchmark {
+	private static final int ITERATIONS = 50000;
+
+	/** Encode and decode a contact in one format. */
+	private interface Format {
+		byte[] encode(Contact contact) throws IOException, JAXBException;
+		Contact decode(byte[] data) throws IOException, JAXBException;
+	}
+
+	private static final Format XML = new Format() {
+		@Override
+		public byte[] encode(Contact contact) throws JAXBException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+			JaxbSupport.getMarshaller().marshal(contact, out);
+			return out.toByteArray();
+		}
+		@Override
+		public Contact decode(byte[] data) throws JAXBException {
+			return (Contact) JaxbSupport.getUnmarshaller().unmarshal(new ByteArrayInputStream(data));
+		}
+	};
+
+	private static final Format JSON = new Format() {
+		@Override
+		public byte[] encode(Contact contact) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+			ContactJsonWriter writer = new ContactJsonWriter(out);
+			writer.writeContact(contact);
+			writer.flush();
+			return out.toByteArray();
+		}
+		@Override
+		public Contact decode(byte[] data) throws IOException {
+			return new ContactJsonReader(new ByteArrayInputStream(data)).readContact();
+		}
+	};
+
+	private static final Format BINARY = new Format() {
+		@Override
+		public byte[] encode(Contact contact) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+			ContactBinaryWriter writer = new ContactBinaryWriter(out);
+			writer.writeContact(contact);
+			writer.flush();
+			return out.toByteArray();
+		}
+		@Override
+		public Contact decode(byte[] data) throws IOException {
+			return new ContactBinaryReader(new ByteArrayInputStream(data)).readContact();
+		}
+	};
+
+	/** Time one format and print bytes and microseconds per contact. */
+	private static void time(String name, Format format, Contact[] contacts) throws IOException, JAXBException {
+		byte[][] encoded = new byte[contacts.length][];
+		long bytes = 0;
+		for(int round = 0; round < 2; round++) {
+			// the first round warms up
+			long start = System.nanoTime();
+			for(int k = 0; k < contacts.length; k++) encoded[k] = format.encode(contacts[k]);
+			long encode = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int k = 0; k < contacts.length; k++) format.decode(encoded[k]);
+			long decode = System.nanoTime() - start;
+			if (round == 0) continue;
+			for(byte[] data : encoded) bytes += data.length;
+			System.out.printf("%-8s %6.1f bytes/contact %8.2f us encode %8.2f us decode%n", name,
+					(double) bytes / contacts.length, encode / 1000.0 / contacts.length, decode / 1000.0 / contacts.length);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JAXBException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : ITERATIONS;
+		Contact[] contacts = new Contact[iterations];
+		for(int k = 0; k < iterations; k++) {
+			contacts[k] = new Contact("Contact number "+k, "Joe Benchmark "+k, "joe"+k+"@bench.com");
+			contacts[k].setId(k + 1);
+			contacts[k].setPhotoUrl("http://bench.com/photo/"+k+".jpg");
+		}
+		time("xml", XML, contacts);
+		time("json", JSON, contacts);
+		time("binary", BINARY, contacts);
+	}
+}
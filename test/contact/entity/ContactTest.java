@@ -0,0 +1,74 @@
+package contact.entity;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the Contact entity tag.
+ * @author Juthamas
+ */
+public class ContactTest {
+
+	@Test
+	public void testTagIsCachedUntilChanged() {
+		Contact contact = new Contact("title", "name", "email@foo.com");
+		contact.setId(10);
+		String tag = contact.getTag();
+		assertSame( "tag should be cached", tag, contact.getTag() );
+		contact.setPhotoUrl("http://foo.com/me.png");
+		assertNotEquals( "photoUrl is part of the tag", tag, contact.getTag() );
+	}
+
+	@Test
+	public void testUpdatesChangeTag() {
+		Contact contact = new Contact("title", "name", "email@foo.com");
+		contact.setId(10);
+		String tag = contact.getTag();
+		Contact update = new Contact(10);
+		update.setName("new name");
+		update.setEmail("email@foo.com");
+		update.setPhotoUrl("");
+		contact.applyUpdate(update);
+		assertNotEquals( tag, contact.getTag() );
+		
+		Contact copy = new Contact(10);
+		copy.copyOf(contact);
+		assertEquals( "same data has the same tag", contact.getTag(), copy.getTag() );
+	}
+
+	@Test
+	public void testReadersSeeOnlyPublishedTags() throws InterruptedException {
+		final Contact contact = new Contact("title 0", "name 0", "email 0");
+		contact.setId(10);
+		final String[] seen = new String[1];
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (! isInterrupted()) seen[0] = contact.getTag();
+			}
+		};
+		reader.start();
+		for(int k = 1; k <= 20000; k++) {
+			Contact update = new Contact("title "+k, "name "+k, "email "+k);
+			update.setId(10);
+			contact.applyUpdate(update);
+		}
+		reader.interrupt();
+		reader.join();
+		// whatever the reader cached while the updates ran, the tag is that of the last update
+		Contact last = new Contact("title 20000", "name 20000", "email 20000");
+		last.setId(10);
+		assertEquals( last.getTag(), contact.getTag() );
+	}
+
+	@Test
+	public void testMovingTextBetweenFieldsChangesTag() {
+		Contact a = new Contact("ab", "c", null);
+		Contact b = new Contact("a", "bc", null);
+		assertNotEquals( a.getTag(), b.getTag() );
+		Contact empty = new Contact("x", "", null);
+		Contact none = new Contact("x", null, null);
+		assertNotEquals( empty.getTag(), none.getTag() );
+	}
+}
@@ -0,0 +1,167 @@
+package contact.resource;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.ContactDao;
+import contact.service.ExecutorContactDao;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit test of the timeouts and full queue of the async resource,
+ * with a DAO that waits until the test releases it.
+ * @author Juthamas
+ */
+public class AsyncContactResourceTest {
+	private static final long TIMEOUT = 300;
+	private MemContactDao store;
+	private volatile CountDownLatch release;
+	/** name of the DAO method that waits for release */
+	private volatile String slowMethod = "find";
+	/** a permit for each call of slowMethod that has started */
+	private final Semaphore entered = new Semaphore(0);
+	private Server server;
+	private HttpClient client;
+	private String url;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new MemContactDao();
+		store.removeAll();
+		Contact contact = new Contact("one", "name", "email");
+		contact.setId(1);
+		store.save(contact);
+		release = new CountDownLatch(1);
+		ContactDao slow = (ContactDao) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ContactDao.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals(slowMethod)) {
+							entered.release();
+							release.await();
+						}
+						try {
+							return method.invoke(store, args);
+						} catch (InvocationTargetException ex) {
+							throw ex.getCause();
+						}
+					}
+				});
+		// one DAO thread and room for one more operation
+		AsyncContactResource resource = new AsyncContactResource(new ExecutorContactDao(slow, 1, 1), TIMEOUT);
+		server = new Server(0);
+		ServletContextHandler context = new ServletContextHandler();
+		ServletHolder holder = new ServletHolder(new ServletContainer(new ResourceConfig().register(resource)));
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, "/*");
+		server.setHandler(context);
+		server.start();
+		url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/async/contacts";
+		client = new HttpClient();
+		client.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		client.stop();
+		server.stop();
+	}
+
+	private FutureResponseListener send(HttpMethod method, String uri, String xml) {
+		Request request = client.newRequest(uri).method(method);
+		if (xml != null) request.content(new StringContentProvider(xml), "application/xml");
+		FutureResponseListener listener = new FutureResponseListener(request);
+		request.send(listener);
+		return listener;
+	}
+
+	private static String contact(long id, String title) {
+		return "<contact id=\"" + id + "\"><title>" + title + "</title></contact>";
+	}
+
+	@Test
+	public void testFullQueueAndTimeout() throws Exception {
+		FutureResponseListener running = send(HttpMethod.GET, url + "/1", null);
+		assertTrue( entered.tryAcquire(5, TimeUnit.SECONDS) );
+		FutureResponseListener queued = send(HttpMethod.POST, url, contact(50, "queued"));
+		// wait until the create is queued
+		Thread.sleep(TIMEOUT / 3);
+		ContentResponse rejected = client.GET(url + "/1");
+		assertEquals( Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), rejected.getStatus() );
+		assertEquals( "1", rejected.getHeaders().get("Retry-After") );
+
+		ContentResponse response = running.get(5, TimeUnit.SECONDS);
+		assertEquals( Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus() );
+		assertEquals( "1", response.getHeaders().get("Retry-After") );
+		response = queued.get(5, TimeUnit.SECONDS);
+		assertEquals( Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus() );
+
+		release.countDown();
+		// the cancelled create left the queue, so it is never done
+		assertEquals( Response.Status.OK.getStatusCode(), client.GET(url + "/1").getStatus() );
+		assertNull( store.find(50) );
+		response = client.newRequest(url).method(HttpMethod.POST)
+				.content(new StringContentProvider(contact(50, "retried")), "application/xml").send();
+		assertEquals( Response.Status.CREATED.getStatusCode(), response.getStatus() );
+	}
+
+	@Test
+	public void testStartedWriteIsNotRetry() throws Exception {
+		// the update is released during the extra wait, so its result is sent
+		slowMethod = "update";
+		FutureResponseListener put = send(HttpMethod.PUT, url + "/1", contact(1, "updated"));
+		assertTrue( entered.tryAcquire(5, TimeUnit.SECONDS) );
+		Thread.sleep(TIMEOUT * 3 / 2);
+		assertFalse( put.isDone() );
+		release.countDown();
+		assertEquals( Response.Status.OK.getStatusCode(), put.get(5, TimeUnit.SECONDS).getStatus() );
+		assertEquals( "updated", store.find(1).getTitle() );
+
+		// a create that is still not done after the extra wait
+		release = new CountDownLatch(1);
+		// create saves through a batch, which checks the id and saves in one step
+		slowMethod = "batch";
+		FutureResponseListener post = send(HttpMethod.POST, url, contact(60, "slow"));
+		assertTrue( entered.tryAcquire(5, TimeUnit.SECONDS) );
+		assertEquals( Response.Status.GATEWAY_TIMEOUT.getStatusCode(), post.get(5, TimeUnit.SECONDS).getStatus() );
+	}
+
+	@Test
+	public void testWriteAfterTimeoutIsNotStarted() throws Exception {
+		// the find of a delete is slower than the timeout
+		FutureResponseListener delete = send(HttpMethod.DELETE, url + "/1", null);
+		assertTrue( entered.tryAcquire(5, TimeUnit.SECONDS) );
+		assertEquals( Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), delete.get(5, TimeUnit.SECONDS).getStatus() );
+		release.countDown();
+		assertEquals( Response.Status.OK.getStatusCode(), client.GET(url + "/1").getStatus() );
+		// the delete that would follow the find was not started
+		assertNotNull( store.find(1) );
+	}
+}
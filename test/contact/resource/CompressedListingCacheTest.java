@@ -0,0 +1,78 @@
+package contact.resource;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit test of the cache of compressed contact lists.
+ * @author Juthamas
+ */
+public class CompressedListingCacheTest {
+	private MemContactDao dao;
+	private CompressedListingCache cache;
+
+	@Before
+	public void setUp() {
+		dao = new MemContactDao();
+		dao.removeAll();
+		cache = new CompressedListingCache(1 << 20, 0);
+	}
+
+	private void save(long id, String title) {
+		Contact contact = new Contact(title, "name"+id, "email"+id);
+		contact.setId(id);
+		assertTrue( dao.save(contact) );
+	}
+
+	private static String gunzip(byte[] gzip) throws IOException {
+		Scanner scanner = new Scanner(new GZIPInputStream(new ByteArrayInputStream(gzip)), "UTF-8");
+		try {
+			return scanner.useDelimiter("\\A").next();
+		} finally {
+			scanner.close();
+		}
+	}
+
+	@Test
+	public void testOnlySameVersionIsHit() throws IOException {
+		save(1, "first");
+		long first = dao.getVersion();
+		byte[] gzip = cache.get(dao, MediaType.APPLICATION_XML_TYPE, first);
+		assertTrue( gunzip(gzip).contains("first") );
+		assertSame( gzip, cache.get(dao, MediaType.APPLICATION_XML_TYPE, first) );
+
+		save(2, "second");
+		long second = dao.getVersion();
+		byte[] newer = cache.get(dao, MediaType.APPLICATION_XML_TYPE, second);
+		assertTrue( gunzip(newer).contains("second") );
+		// a request that read the version before the save doesn't replace the newer copy
+		assertNull( cache.get(dao, MediaType.APPLICATION_XML_TYPE, first) );
+		assertSame( newer, cache.get(dao, MediaType.APPLICATION_XML_TYPE, second) );
+		// other media types have their own copy
+		assertTrue( gunzip(cache.get(dao, MediaType.APPLICATION_JSON_TYPE, second)).startsWith("[") );
+	}
+
+	@Test
+	public void testListNewerThanVersionIsNotKept() throws IOException {
+		save(1, "first");
+		long version = dao.getVersion();
+		// the list changes after the request read the version
+		save(2, "second");
+		byte[] gzip = cache.get(dao, MediaType.APPLICATION_XML_TYPE, version);
+		assertTrue( gunzip(gzip).contains("second") );
+		assertEquals( 0, cache.size() );
+		assertNotSame( gzip, cache.get(dao, MediaType.APPLICATION_XML_TYPE, version) );
+	}
+}
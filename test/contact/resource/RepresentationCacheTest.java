@@ -0,0 +1,102 @@
+package contact.resource;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.Metrics;
+import contact.service.json.ContactJsonReader;
+import contact.service.mem.MemContactDao;
+import contact.service.xml.JaxbSupport;
+
+/**
+ * JUnit test of the cache of encoded contacts.
+ * @author Juthamas
+ */
+public class RepresentationCacheTest {
+	private MemContactDao dao;
+
+	@Before
+	public void setUp() {
+		dao = new MemContactDao();
+		dao.removeAll();
+	}
+
+	private Contact save(long id, String title) {
+		Contact contact = new Contact(title, "name"+id, "email"+id);
+		contact.setId(id);
+		assertTrue( dao.save(contact) );
+		return contact;
+	}
+
+	@Test
+	public void testChangedWhileEncodedIsNotKept() throws Exception {
+		RepresentationCache cache = new RepresentationCache(dao, 1 << 20);
+		// a contact whose tag was read before an update that is still going on
+		final String staleTag = save(1, "first").getTag();
+		Contact changing = new Contact("changed", "name1", "email1") {
+			@Override
+			public String getTag() {
+				return staleTag;
+			}
+		};
+		changing.setId(1);
+		byte[] xml = cache.get(changing, MediaType.APPLICATION_XML_TYPE);
+		Contact read = (Contact) JaxbSupport.getUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+		assertEquals( "changed", read.getTitle() );
+		assertEquals( 0, cache.size() );
+		// the stale tag still gets the bytes of the contact it was computed from
+		read = (Contact) JaxbSupport.getUnmarshaller().unmarshal(new ByteArrayInputStream(
+				cache.get(dao.find(1), MediaType.APPLICATION_XML_TYPE)));
+		assertEquals( "first", read.getTitle() );
+	}
+
+	@Test
+	public void testHitUntilChanged() throws Exception {
+		RepresentationCache cache = new RepresentationCache(dao, 1 << 20);
+		save(1, "first");
+		long hits = Metrics.counter("representationCache.hits").get();
+		byte[] xml = cache.get(dao.find(1), MediaType.APPLICATION_XML_TYPE);
+		Contact read = (Contact) JaxbSupport.getUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+		assertEquals( "first", read.getTitle() );
+		// the same bytes, not encoded again
+		assertSame( xml, cache.get(dao.find(1), MediaType.APPLICATION_XML_TYPE) );
+		assertEquals( hits + 1, Metrics.counter("representationCache.hits").get() );
+		// each media type has its own representation
+		byte[] json = cache.get(dao.find(1), MediaType.APPLICATION_JSON_TYPE);
+		assertEquals( "first", new ContactJsonReader(new ByteArrayInputStream(json)).readContact().getTitle() );
+		assertTrue( Metrics.snapshot().containsKey("representationCache.hitRatio") );
+
+		Contact update = new Contact("changed", "name1", "email1");
+		update.setId(1);
+		assertTrue( dao.update(update) );
+		xml = cache.get(dao.find(1), MediaType.APPLICATION_XML_TYPE);
+		read = (Contact) JaxbSupport.getUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+		assertEquals( "changed", read.getTitle() );
+	}
+
+	@Test
+	public void testWritesRemoveAndSizeEvicts() throws Exception {
+		Contact contact = save(1, "first");
+		int size = RepresentationCache.encode(contact, MediaType.APPLICATION_JSON_TYPE).length + RepresentationCache.OVERHEAD;
+		// room for two contacts
+		RepresentationCache cache = new RepresentationCache(dao, 2 * size + size / 2);
+		cache.get(contact, MediaType.APPLICATION_JSON_TYPE);
+		assertEquals( size, cache.size() );
+		// a delete frees the representations at the next lookup
+		dao.delete(1);
+		cache.get(save(2, "other"), MediaType.APPLICATION_JSON_TYPE);
+		assertEquals( size, cache.size() );
+
+		cache.get(save(3, "third"), MediaType.APPLICATION_JSON_TYPE);
+		cache.get(save(4, "forth"), MediaType.APPLICATION_JSON_TYPE);
+		// the least recently used contact was evicted
+		assertEquals( 2 * size, cache.size() );
+	}
+}
@@ -0,0 +1,64 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for the ChangeLog used for delta sync.
+ * @author Juthamas
+ */
+public class ChangeLogTest {
+
+	@Test
+	public void testChangesSince() {
+		ChangeLog log = new ChangeLog(100);
+		assertEquals(0, log.getVersion());
+		assertEquals(0, log.changesSince(0).size());
+		log.updated(1);
+		log.updated(2);
+		long v = log.getVersion();
+		log.updated(1);
+		log.deleted(3);
+		assertEquals(4, log.getVersion());
+		
+		List<ChangeLog.Change> changes = log.changesSince(v);
+		assertEquals(2, changes.size());
+		assertEquals(1, changes.get(0).getId());
+		assertFalse(changes.get(0).isDeleted());
+		assertEquals(3, changes.get(1).getId());
+		assertTrue(changes.get(1).isDeleted());
+		assertEquals(0, log.changesSince(log.getVersion()).size());
+		// a version that was never returned
+		assertNull(log.changesSince(log.getVersion() + 1));
+	}
+
+	@Test
+	public void testCompaction() {
+		ChangeLog log = new ChangeLog(100);
+		for(int k=0; k<1000; k++) log.updated(7);
+		log.deleted(7);
+		assertEquals(1, log.size());
+		List<ChangeLog.Change> changes = log.changesSince(0);
+		assertEquals(1, changes.size());
+		assertTrue(changes.get(0).isDeleted());
+		assertEquals(1001, changes.get(0).getVersion());
+	}
+
+	@Test
+	public void testRetention() {
+		ChangeLog log = new ChangeLog(10);
+		for(long id=1; id<=25; id++) log.updated(id);
+		assertEquals(10, log.size());
+		assertEquals(15, log.getFloor());
+		assertNull(log.changesSince(14));
+		assertEquals(10, log.changesSince(15).size());
+		
+		long v = log.cleared();
+		assertEquals(0, log.size());
+		assertNull(log.changesSince(20));
+		assertEquals(0, log.changesSince(v).size());
+	}
+}
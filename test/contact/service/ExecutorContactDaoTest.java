@@ -0,0 +1,111 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit test of the DAO that runs another DAO on its own threads.
+ * @author Juthamas
+ */
+public class ExecutorContactDaoTest {
+	private MemContactDao store;
+
+	@Before
+	public void setUp() {
+		store = new MemContactDao();
+		store.removeAll();
+	}
+
+	@Test
+	public void testOperations() throws Exception {
+		ExecutorContactDao dao = new ExecutorContactDao(store, 2, 10);
+		Contact contact = new Contact("async", "name", "email");
+		contact.setId(5);
+		assertTrue( dao.create(contact).get() );
+		// the id is used now
+		assertFalse( dao.create(contact).get() );
+		assertEquals( "async", dao.find(5).get(1, TimeUnit.SECONDS).getTitle() );
+		assertNull( dao.find(6).get() );
+		assertEquals( 1, dao.findPage(0, 10).get().size() );
+		assertTrue( dao.delete(5).get() );
+		assertFalse( dao.update(contact).get() );
+		dao.shutdown();
+	}
+
+	@Test
+	public void testConcurrentCreatesOfOneIdConflict() throws Exception {
+		ExecutorContactDao dao = new ExecutorContactDao(store, 8, 1000);
+		for (int round = 1; round <= 50; round++) {
+			List<CompletableFuture<Boolean>> created = new ArrayList<CompletableFuture<Boolean>>();
+			for (int k = 0; k < 8; k++) {
+				Contact contact = new Contact("create " + k, "name", "email");
+				contact.setId(round);
+				created.add(dao.create(contact));
+			}
+			int applied = 0;
+			for (CompletableFuture<Boolean> future : created) if (future.get()) applied++;
+			assertEquals( "one create of id " + round, 1, applied );
+		}
+		dao.shutdown();
+	}
+
+	@Test
+	public void testFullQueueIsRejected() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final List<Object> found = new CopyOnWriteArrayList<Object>();
+		// a DAO whose find waits until it is released, like a slow database
+		ContactDao slow = (ContactDao) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ContactDao.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("find")) {
+							found.add(args[0]);
+							started.countDown();
+							release.await();
+						}
+						return method.invoke(store, args);
+					}
+				});
+		ExecutorContactDao dao = new ExecutorContactDao(slow, 1, 1);
+		CompletableFuture<Contact> running = dao.find(1);
+		CompletableFuture<Contact> queued = dao.find(2);
+		assertTrue( started.await(1, TimeUnit.SECONDS) );
+		// work that has started can't be cancelled
+		assertFalse( running.cancel(false) );
+		CompletableFuture<Contact> rejected = dao.find(3);
+		assertTrue( rejected.isCompletedExceptionally() );
+		try {
+			rejected.get();
+			fail("expected rejection");
+		} catch (ExecutionException ex) {
+			assertTrue( ex.getCause() instanceof RejectedExecutionException );
+		}
+		// cancelled work is skipped, not run
+		assertTrue( queued.cancel(false) );
+		release.countDown();
+		assertNull( running.get(1, TimeUnit.SECONDS) );
+		// the cancelled find left the queue and was never run
+		assertNull( dao.find(4).get(1, TimeUnit.SECONDS) );
+		assertEquals( Arrays.<Object>asList(1L, 4L), found );
+		dao.shutdown();
+	}
+}
@@ -1,14 +1,29 @@
 package contact.service;
 
 import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.ws.rs.core.Response;
+import org.eclipse.jetty.client.AbstractConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -16,7 +31,10 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import contact.JettyMain;
+import contact.entity.BatchResult;
 import contact.entity.Contact;
+import contact.service.binary.ContactBinaryReader;
+import contact.service.binary.ContactBinaryWriter;
 /**
  * A JUnit test to test the Contact web service.
  * Test GET one contact, POST a new contact, PUT an update, DELETE contact.
@@ -80,6 +98,89 @@ public class WebServiceTest {
 		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
 	}
 	
+	@Test
+	public void testGetAll() throws InterruptedException, ExecutionException, TimeoutException{
+		response = client.GET(serviceUrl);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		String xml = response.getContentAsString();
+		assertTrue(xml.contains("<contacts>"));
+		assertTrue(xml.contains("<contact id=\""+tester1.getId()+"\"><title>"+tester1.getTitle()+"</title>"));
+		assertTrue(xml.contains("<contact id=\""+tester2.getId()+"\">"));
+		assertTrue(xml.endsWith("</contacts>"));
+	}
+	
+	@Test
+	public void testJson() throws InterruptedException, ExecutionException, TimeoutException{
+		response = client.newRequest(serviceUrl+"/"+tester1.getId()).header("Accept", "application/json").send();
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getMediaType().startsWith("application/json"));
+		assertTrue(response.getContentAsString().startsWith("{\"id\":"+tester1.getId()+",\"title\":\""+tester1.getTitle()+"\""));
+		
+		//streamed list and title search.
+		response = client.newRequest(serviceUrl).header("Accept", "application/json").send();
+		assertTrue(response.getMediaType().startsWith("application/json"));
+		assertTrue(response.getContentAsString().startsWith("[{\"id\":"));
+		response = client.newRequest(serviceUrl+"?title=another").header("Accept", "application/json").send();
+		assertTrue(response.getContentAsString().contains("\"id\":"+tester2.getId()));
+		//XML is still the default.
+		response = client.GET(serviceUrl);
+		assertTrue(response.getContentAsString().contains("<contacts>"));
+		
+		provider = new StringContentProvider("{\"id\":333,\"title\":\"Json contact\",\"email\":\"j@son.com\"}");
+		response = client.newRequest(serviceUrl).content(provider, "application/json").method(HttpMethod.POST).send();
+		assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+		assertEquals("j@son.com", dao.find(333).getEmail());
+		
+		provider = new StringContentProvider("{\"id\":333,\"title\":");
+		response = client.newRequest(serviceUrl).content(provider, "application/json").method(HttpMethod.POST).send();
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+	}
+	
+	@Test
+	public void testBinary() throws InterruptedException, ExecutionException, TimeoutException, IOException{
+		String binary = "application/x-contact-binary";
+		response = client.newRequest(serviceUrl+"/"+tester1.getId()).header("Accept", binary).send();
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertEquals(binary, response.getMediaType());
+		Contact contact = new ContactBinaryReader(new ByteArrayInputStream(response.getContent())).readContact();
+		assertEquals(tester1.getTitle(), contact.getTitle());
+		
+		response = client.newRequest(serviceUrl).header("Accept", binary).send();
+		assertEquals(2, new ContactBinaryReader(new ByteArrayInputStream(response.getContent())).readContacts().size());
+		
+		//POST, then a bulk update and delete.
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactBinaryWriter writer = new ContactBinaryWriter(out);
+		contact = new Contact("Binary contact", "Bin", "bin@testing.com");
+		contact.setId(444);
+		writer.writeContact(contact);
+		writer.flush();
+		response = client.newRequest(serviceUrl).content(new BytesContentProvider(out.toByteArray()), binary).method(HttpMethod.POST).send();
+		assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+		assertEquals("Bin", dao.find(444).getName());
+		
+		out.reset();
+		contact.setTitle("Binary update");
+		writer.writeOperation(BatchOperation.update(contact));
+		writer.writeOperation(BatchOperation.delete(tester2.getId()));
+		writer.flush();
+		response = client.newRequest(serviceUrl+"/bulk").content(new BytesContentProvider(out.toByteArray()), binary)
+				.header("Accept", binary).method(HttpMethod.POST).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		ContactBinaryReader reader = new ContactBinaryReader(new ByteArrayInputStream(response.getContent()));
+		BatchResult result = reader.readResult();
+		assertEquals(444, result.getId());
+		assertEquals(Response.Status.OK.getStatusCode(), result.getStatus());
+		assertEquals(1, reader.readResult().getIndex());
+		assertEquals("Binary update", dao.find(444).getTitle());
+		assertNull(dao.find(tester2.getId()));
+		
+		//an incomplete record.
+		response = client.newRequest(serviceUrl).content(new BytesContentProvider(new byte[]{0, 0, 0, 50, 1}), binary)
+				.method(HttpMethod.POST).send();
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+	}
+	
 	@Test
 	public void failGet() throws InterruptedException, ExecutionException, TimeoutException{
 		long wrongID = 123123123;
@@ -109,6 +210,355 @@ public class WebServiceTest {
 		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
 	}
 	
+	@Test
+	public void testGetByTitle() throws InterruptedException, ExecutionException, TimeoutException{
+		response = client.GET(serviceUrl+"?title=another");
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		assertFalse(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		
+		response = client.GET(serviceUrl+"?title=TEST&order=id&limit=1");
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		assertFalse(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		
+		response = client.GET(serviceUrl+"?title=test&match=prefix");
+		assertTrue(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		assertFalse(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		
+		response = client.GET(serviceUrl+"?title=test&order=size");
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),response.getStatus());
+	}
+	
+	@Test
+	public void testGetPages() throws InterruptedException, ExecutionException, TimeoutException{
+		response = client.GET(serviceUrl+"?limit=1");
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		assertFalse(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		
+		//follow the next link to the second page.
+		String link = response.getHeaders().get("Link");
+		assertNotNull(link);
+		String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+		response = client.GET(next);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		assertFalse(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		assertNull(response.getHeaders().get("Link"));
+		
+		response = client.GET(serviceUrl+"?cursor=bogus");
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),response.getStatus());
+	}
+	
+	@Test
+	public void testGetAllNotModified() throws InterruptedException, ExecutionException, TimeoutException{
+		response = client.GET(serviceUrl);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		String etag = response.getHeaders().get("ETag");
+		assertNotNull(etag);
+		
+		//same collection, so the client's copy is current.
+		response = client.newRequest(serviceUrl).header("If-None-Match", etag).send();
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),response.getStatus());
+		
+		//a different query string has a different tag.
+		response = client.newRequest(serviceUrl+"?title=test").header("If-None-Match", etag).send();
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		
+		//any change to a contact changes the tag.
+		dao.delete(tester2.getId());
+		response = client.newRequest(serviceUrl).header("If-None-Match", etag).send();
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertFalse(etag.equals(response.getHeaders().get("ETag")));
+	}
+	
+	@Test
+	public void testTagPerMediaType() throws InterruptedException, ExecutionException, TimeoutException{
+		String contactUrl = serviceUrl+"/"+tester1.getId();
+		response = client.newRequest(contactUrl).header("Accept", "application/xml").send();
+		String xmlTag = response.getHeaders().get("ETag");
+		assertTrue(response.getHeaders().get("Vary").contains("Accept"));
+		response = client.newRequest(contactUrl).header("Accept", "application/json").send();
+		String jsonTag = response.getHeaders().get("ETag");
+		assertTrue(response.getHeaders().get("Vary").contains("Accept"));
+		assertNotEquals(xmlTag, jsonTag);
+		
+		//a tag matches only the representation it came from.
+		response = client.newRequest(contactUrl).header("Accept", "application/json").header("If-None-Match", jsonTag).send();
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+		assertEquals(jsonTag, response.getHeaders().get("ETag"));
+		assertTrue(response.getHeaders().get("Vary").contains("Accept"));
+		response = client.newRequest(contactUrl).header("Accept", "application/xml").header("If-None-Match", jsonTag).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		response = client.newRequest(serviceUrl+"?limit=1").header("Accept", "application/json").send();
+		String listTag = response.getHeaders().get("ETag");
+		assertTrue(response.getHeaders().get("Vary").contains("Accept"));
+		response = client.newRequest(serviceUrl+"?limit=1").header("Accept", "application/x-contact-binary").header("If-None-Match", listTag).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		assertNotEquals(listTag, response.getHeaders().get("ETag"));
+		
+		//a write accepts the tag of any representation in If-Match.
+		provider = new StringContentProvider("<contact id=\""+tester1.getId()+"\"><title>Tagged</title></contact>");
+		response = client.newRequest(contactUrl).method(HttpMethod.PUT).content(provider, "application/xml")
+				.header("If-Match", jsonTag).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		response = client.newRequest(contactUrl).method(HttpMethod.DELETE).header("If-Match", jsonTag).send();
+		assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), response.getStatus());
+		assertNotNull(dao.find(tester1.getId()));
+	}
+	
+	@Test
+	public void testCompression() throws InterruptedException, ExecutionException, TimeoutException{
+		for(long id = 1; id <= 100; id++){
+			Contact contact = new Contact("Compressed contact "+id, "Name "+id, "contact"+id+"@testing.com");
+			contact.setId(id);
+			dao.save(contact);
+		}
+		//the client accepts gzip, and decodes the response.
+		response = client.GET(serviceUrl);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertEquals("gzip", response.getHeaders().get("Content-Encoding"));
+		String xml = response.getContentAsString();
+		assertTrue(xml.contains("<contact id=\"100\">"));
+		assertTrue(xml.endsWith("</contacts>"));
+		
+		//the same list again comes from the cache, until a contact changes.
+		response = client.GET(serviceUrl);
+		assertEquals(xml, response.getContentAsString());
+		//the gzip bytes have their own tag, which the server accepts in If-None-Match.
+		String etag = response.getHeaders().get("ETag");
+		assertTrue(etag.endsWith("--gzip\""));
+		response = client.newRequest(serviceUrl).header("If-None-Match", etag).send();
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),response.getStatus());
+		assertEquals(etag, response.getHeaders().get("ETag"));
+		dao.delete(100);
+		response = client.GET(serviceUrl);
+		assertEquals("gzip", response.getHeaders().get("Content-Encoding"));
+		assertFalse(response.getContentAsString().contains("<contact id=\"100\">"));
+		
+		//other responses are compressed by the server, but not small ones.
+		response = client.newRequest(serviceUrl+"?title=compressed").header("Accept", "application/json").send();
+		assertEquals("gzip", response.getHeaders().get("Content-Encoding"));
+		assertTrue(response.getContentAsString().contains("\"id\":99"));
+		response = client.GET(serviceUrl+"/1");
+		assertNull(response.getHeaders().get("Content-Encoding"));
+		
+		//a client that doesn't accept gzip gets the list as it is.
+		client.getContentDecoderFactories().clear();
+		response = client.GET(serviceUrl);
+		assertNull(response.getHeaders().get("Content-Encoding"));
+		assertTrue(response.getContentAsString().endsWith("</contacts>"));
+		assertNotEquals(etag, response.getHeaders().get("ETag"));
+		assertFalse(response.getHeaders().get("ETag").contains("--gzip"));
+	}
+	
+	@Test
+	public void testHttp2() throws Exception{
+		HttpClient http2 = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+		http2.start();
+		try{
+			for(long id = 1; id <= 50; id++){
+				Contact contact = new Contact("Http2 contact "+id, "Name "+id, "h2-"+id+"@testing.com");
+				contact.setId(id);
+				dao.save(contact);
+			}
+			//once the connection is open, many lookups at once share it, each on its own stream.
+			ContentResponse first = http2.GET(serviceUrl+"/1");
+			assertEquals(HttpVersion.HTTP_2, first.getVersion());
+			final List<Result> results = new CopyOnWriteArrayList<Result>();
+			final CountDownLatch done = new CountDownLatch(50);
+			for(long id = 1; id <= 50; id++){
+				http2.newRequest(serviceUrl+"/"+id).send(new BufferingResponseListener(){
+					@Override
+					public void onComplete(Result result){
+						results.add(result);
+						done.countDown();
+					}
+				});
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			for(Result result : results){
+				assertTrue(result.isSucceeded());
+				assertEquals(HttpVersion.HTTP_2, result.getResponse().getVersion());
+				assertEquals(Response.Status.OK.getStatusCode(), result.getResponse().getStatus());
+			}
+			HttpDestination destination = (HttpDestination) http2.getDestinations().get(0);
+			assertEquals(1, ((AbstractConnectionPool) destination.getConnectionPool()).getConnectionCount());
+			
+			//HTTP/1.1 still works on the same port.
+			response = client.GET(serviceUrl+"/1");
+			assertEquals(HttpVersion.HTTP_1_1, response.getVersion());
+			assertTrue(response.getContentAsString().contains("h2-1@testing.com"));
+		}finally{
+			http2.stop();
+		}
+	}
+	
+	@Test
+	public void testAsync() throws InterruptedException, ExecutionException, TimeoutException{
+		String asyncUrl = serviceUrl.replace("/contacts", "/async/contacts");
+		response = client.GET(asyncUrl+"/"+tester1.getId());
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("<title>"+tester1.getTitle()+"</title>"));
+		String etag = response.getHeaders().get("ETag");
+		response = client.newRequest(asyncUrl+"/"+tester1.getId()).header("If-None-Match", etag).send();
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),response.getStatus());
+		response = client.GET(asyncUrl+"/999");
+		assertEquals(Response.Status.NOT_FOUND.getStatusCode(),response.getStatus());
+		
+		response = client.GET(asyncUrl+"?title=another");
+		assertTrue(response.getContentAsString().contains("id=\""+tester2.getId()+"\""));
+		response = client.GET(asyncUrl+"?limit=1");
+		assertNotNull(response.getHeaders().get("Link"));
+		
+		provider = new StringContentProvider("<contact id=\"333\"><title>Async contact</title><email>a@sync.com</email></contact>");
+		response = client.newRequest(asyncUrl).content(provider, "application/xml").method(HttpMethod.POST).send();
+		assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+		assertTrue(response.getHeaders().get("Location").endsWith("/async/contacts/333"));
+		response = client.newRequest(asyncUrl).content(provider, "application/xml").method(HttpMethod.POST).send();
+		assertEquals(Response.Status.CONFLICT.getStatusCode(), response.getStatus());
+		
+		provider = new StringContentProvider("<contact id=\"333\"><title>Async update</title></contact>");
+		response = client.newRequest(asyncUrl+"/333").content(provider, "application/xml").method(HttpMethod.PUT).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		assertEquals("Async update", dao.find(333).getTitle());
+		
+		response = client.newRequest(asyncUrl+"/333").header("If-Match", "\"stale\"").method(HttpMethod.DELETE).send();
+		assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), response.getStatus());
+		response = client.newRequest(asyncUrl+"/333").method(HttpMethod.DELETE).send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		assertNull(dao.find(333));
+	}
+	
+	@Test
+	public void testSync() throws InterruptedException, ExecutionException, TimeoutException{
+		String syncUrl = serviceUrl.replace("contacts", "sync");
+		response = client.GET(syncUrl);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		assertTrue(response.getContentAsString().contains("id=\""+tester1.getId()+"\""));
+		String version = versionOf(response.getContentAsString());
+		
+		//only the changed contact and a tombstone for the deleted one.
+		tester1.setName("Synced");
+		dao.update(tester1);
+		dao.delete(tester2.getId());
+		response = client.GET(syncUrl+"?since="+version);
+		assertEquals(Response.Status.OK.getStatusCode(),response.getStatus());
+		String body = response.getContentAsString();
+		assertTrue(body.contains("<contact id=\""+tester1.getId()+"\""));
+		assertTrue(body.contains("<deleted id=\""+tester2.getId()+"\""));
+		assertFalse(body.contains("<contact id=\""+tester2.getId()+"\""));
+		
+		//nothing changed since the last sync.
+		response = client.GET(syncUrl+"?since="+versionOf(body));
+		assertFalse(response.getContentAsString().contains("id="));
+		
+		//a version from before a restart.
+		response = client.GET(syncUrl+"?since=old.1");
+		assertEquals(Response.Status.GONE.getStatusCode(),response.getStatus());
+		response = client.GET(syncUrl+"?since=bogus");
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),response.getStatus());
+	}
+	
+	private static String versionOf(String changes){
+		int start = changes.indexOf("version=\"", changes.indexOf("<changes")) + "version=\"".length();
+		return changes.substring(start, changes.indexOf('"', start));
+	}
+	
+	@Test
+	public void testBulk() throws InterruptedException, TimeoutException, ExecutionException{
+		provider = new StringContentProvider("<operations>"
+				+ "<save><contact><title>Bulk contact</title><name>Bulk Experimental</name><email>bulk@testing.com</email></contact></save>\n"
+				+ "<update><contact id=\""+tester1.getId()+"\"><title>Bulk update</title></contact></update>\n"
+				+ "<save><contact id=\""+tester1.getId()+"\"><title>Not replaced</title></contact></save>\n"
+				+ "<delete id=\""+tester2.getId()+"\"/>"
+				+ "<delete id=\"999\"/>"
+				+ "</operations>");
+		request = client.newRequest(serviceUrl+"/bulk");
+		request = request.content(provider, "application/xml");
+		request = request.method(HttpMethod.POST);
+		
+		response = request.send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		String body = response.getContentAsString();
+		assertTrue(body.contains("index=\"0\""));
+		assertTrue(body.contains("status=\"201\""));
+		assertTrue(body.contains("id=\"999\" status=\"404\""));
+		//like POST, a save doesn't replace a contact with the same id.
+		assertTrue(body.contains("id=\""+tester1.getId()+"\" status=\"409\""));
+		assertEquals("Bulk update", dao.find(tester1.getId()).getTitle());
+		assertNull(dao.find(tester2.getId()));
+		assertEquals(1, dao.findByTitle("Bulk contact").size());
+		
+		//an unknown operation.
+		provider = new StringContentProvider("<operations><rename id=\"1\"/></operations>");
+		request = client.newRequest(serviceUrl+"/bulk");
+		request = request.content(provider, "application/xml");
+		request = request.method(HttpMethod.POST);
+		response = request.send();
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+	}
+	
+	@Test
+	public void testBulkJson() throws InterruptedException, TimeoutException, ExecutionException{
+		provider = new StringContentProvider("[{\"save\":{\"title\":\"Bulk JSON\",\"name\":\"Bulk\"}},"
+				+ "{\"update\":{\"id\":"+tester1.getId()+",\"title\":\"JSON update\"}},"
+				+ "{\"delete\":"+tester2.getId()+"},{\"delete\":999}]");
+		request = client.newRequest(serviceUrl+"/bulk");
+		request = request.content(provider, "application/json");
+		request = request.method(HttpMethod.POST);
+		
+		response = request.send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		assertTrue(response.getMediaType().startsWith("application/json"));
+		String body = response.getContentAsString();
+		assertTrue(body.startsWith("[{\"index\":0,"));
+		assertTrue(body.contains("\"status\":201}"));
+		assertTrue(body.endsWith("{\"index\":3,\"id\":999,\"status\":404}]"));
+		assertEquals("JSON update", dao.find(tester1.getId()).getTitle());
+		assertNull(dao.find(tester2.getId()));
+		assertEquals(1, dao.findByTitle("Bulk JSON").size());
+		
+		//the chunk with a malformed operation is not applied.
+		provider = new StringContentProvider("[{\"delete\":"+tester1.getId()+"},{\"rename\":1}]");
+		request = client.newRequest(serviceUrl+"/bulk");
+		request = request.content(provider, "application/json");
+		request = request.method(HttpMethod.POST);
+		response = request.send();
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		assertNotNull(dao.find(tester1.getId()));
+	}
+	
+	@Test
+	public void testAdminExportImport() throws InterruptedException, TimeoutException, ExecutionException{
+		String adminUrl = serviceUrl.replace("/contacts", "/admin");
+		response = client.GET(adminUrl+"/export");
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		String exported = response.getContentAsString();
+		assertTrue(exported.contains("<contact id=\""+tester1.getId()+"\">"));
+		assertTrue(exported.contains("<etag>"));
+		
+		//import the export into an empty store.
+		dao.removeAll();
+		provider = new StringContentProvider(exported);
+		request = client.newRequest(adminUrl+"/import");
+		request = request.content(provider, "application/xml");
+		request = request.method(HttpMethod.POST);
+		response = request.send();
+		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		assertEquals("2", response.getContentAsString().trim());
+		assertEquals(tester2.getTitle(), dao.find(tester2.getId()).getTitle());
+		
+		//malformed XML after one contact.
+		provider = new StringContentProvider("<contacts><contact><title>Imported</title></contact><contact>");
+		request = client.newRequest(adminUrl+"/import");
+		request = request.content(provider, "application/xml");
+		request = request.method(HttpMethod.POST);
+		response = request.send();
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+	}
+	
 	@Test
 	public void failPost() throws InterruptedException, TimeoutException, ExecutionException{
 		provider = new StringContentProvider("<contact id=\"101\"><title>Test contact</title><name>test Experimental</name><email>test@testing.com</email><photoUrl/></contact>");
@@ -123,6 +573,9 @@ public class WebServiceTest {
 	@Test
 	public void testPut() throws InterruptedException, TimeoutException, ExecutionException{
 		long id = tester1.getId();
+		//the old contact is cached, but is not sent after the update.
+		response = client.GET(serviceUrl+"/"+id);
+		assertTrue(response.getContentAsString().contains("<title>"+tester1.getTitle()+"</title>"));
 		provider = new StringContentProvider("<contact id=\""+ id +"\"><title>Test put contact</title><name>Put Experimental</name><email>put@testing.com</email><photoUrl/></contact>");
 		request = client.newRequest(serviceUrl+"/"+id);
 		request = request.content(provider, "application/xml");
@@ -130,6 +583,8 @@ public class WebServiceTest {
 			
 		response = request.send();
 		assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+		response = client.GET(serviceUrl+"/"+id);
+		assertTrue(response.getContentAsString().contains("<title>Test put contact</title>"));
 	}
 	
 	@Test
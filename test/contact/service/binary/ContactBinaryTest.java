@@ -0,0 +1,102 @@
+package contact.service.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import contact.entity.BatchResult;
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+
+/**
+ * JUnit test for ContactBinaryReader and ContactBinaryWriter.
+ * @author Juthamas
+ */
+public class ContactBinaryTest {
+
+	private static ContactBinaryReader reader(ByteArrayOutputStream out) {
+		return new ContactBinaryReader(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void testWriteAndReadContacts() throws IOException {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(long id=1; id<=1200; id++) {
+			Contact c = new Contact("title "+id, "name é "+id, null);
+			c.setId(id);
+			contacts.add(c);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactBinaryWriter writer = new ContactBinaryWriter(out);
+		assertEquals( 1200, writer.writeContacts(contacts.iterator()) );
+		writer.flush();
+
+		List<Contact> read = reader(out).readContacts();
+		assertEquals( 1200, read.size() );
+		assertEquals( 1200, read.get(1199).getId() );
+		assertEquals( "name é 600", read.get(599).getName() );
+		assertNull( read.get(0).getEmail() );
+		assertEquals( "", read.get(0).getPhotoUrl() );
+	}
+
+	@Test
+	public void testOperationsAndResults() throws IOException {
+		Contact contact = new Contact("new", "n", "e");
+		Contact update = new Contact("updated", "u", "e");
+		update.setId(7);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactBinaryWriter writer = new ContactBinaryWriter(out);
+		for(BatchOperation op : Arrays.asList(BatchOperation.save(contact), BatchOperation.update(update), BatchOperation.delete(8)))
+			writer.writeOperation(op);
+		writer.flush();
+
+		ContactBinaryReader reader = reader(out);
+		List<BatchOperation> ops = reader.nextOperations(2);
+		assertEquals( 2, ops.size() );
+		assertEquals( BatchOperation.Type.SAVE, ops.get(0).getType() );
+		assertEquals( "new", ops.get(0).getContact().getTitle() );
+		assertEquals( 7, ops.get(1).getId() );
+		ops = reader.nextOperations(2);
+		assertEquals( 1, ops.size() );
+		assertEquals( BatchOperation.Type.DELETE, ops.get(0).getType() );
+		assertEquals( 8, ops.get(0).getId() );
+		assertTrue( reader.nextOperations(2).isEmpty() );
+
+		out.reset();
+		writer.writeResult(new BatchResult(3, 7, 200));
+		writer.flush();
+		reader = reader(out);
+		BatchResult result = reader.readResult();
+		assertEquals( 3, result.getIndex() );
+		assertEquals( 7, result.getId() );
+		assertEquals( 200, result.getStatus() );
+		assertNull( reader.readResult() );
+	}
+
+	@Test
+	public void testMalformed() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactBinaryWriter writer = new ContactBinaryWriter(out);
+		writer.writeContact(new Contact("title", "name", "email"));
+		writer.flush();
+		byte[] whole = out.toByteArray();
+		byte[][] bad = { Arrays.copyOf(whole, whole.length - 1), { 0x7f, 0, 0, 0 }, { 0, 0, 0, 2, 1, 2 }, { 9 } };
+		for(byte[] data : bad) {
+			try {
+				ContactBinaryReader reader = new ContactBinaryReader(new ByteArrayInputStream(data));
+				if (data.length == 1) reader.nextOperations(1);
+				else reader.readContact();
+				fail("read malformed data "+Arrays.toString(data));
+			} catch (ContactBinaryReader.MalformedRecordException ex) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package contact.service.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.Metrics;
+import contact.service.TitleQuery;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit test of the cache in front of the JPA DAO.
+ * A memory DAO stands in for the database, so no database is needed.
+ * @author Juthamas
+ */
+public class CachedContactDaoTest {
+	private MemContactDao store;
+	private CachedContactDao dao;
+
+	@Before
+	public void setUp() {
+		store = new MemContactDao();
+		store.removeAll();
+		dao = new CachedContactDao(store, 2, 10, 60000);
+	}
+
+	private Contact save(long id, String title) {
+		Contact contact = new Contact(title, "name"+id, "email"+id);
+		contact.setId(id);
+		assertTrue( dao.save(contact) );
+		return contact;
+	}
+
+	@Test
+	public void testFindIsCached() {
+		save(1, "one");
+		long hits = Metrics.counter("jpa.cache.hits").get();
+		long misses = Metrics.counter("jpa.cache.misses").get();
+		Contact first = dao.find(1);
+		assertSame(first, dao.find(1));
+		assertEquals(hits + 1, Metrics.counter("jpa.cache.hits").get());
+		assertEquals(misses + 1, Metrics.counter("jpa.cache.misses").get());
+		assertNull(dao.find(99));
+	}
+
+	@Test
+	public void testEvictOnChange() {
+		save(1, "one");
+		dao.find(1);
+		Contact update = new Contact(1);
+		update.setTitle("uno");
+		assertTrue( dao.update(update) );
+		assertEquals("uno", dao.find(1).getTitle());
+		assertTrue( dao.delete(1) );
+		assertNull( dao.find(1) );
+	}
+
+	@Test
+	public void testEvictOnDeleteByIds() {
+		save(1, "one");
+		save(2, "two");
+		dao.find(1);
+		dao.find(2);
+		assertEquals( 2, dao.deleteByIds(Arrays.asList(1L, 2L)) );
+		assertNull( dao.find(1) );
+		assertNull( dao.find(2) );
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		save(1, "one");
+		save(2, "two");
+		save(3, "three");
+		Contact one = dao.find(1);
+		Contact two = dao.find(2);
+		dao.find(1);
+		dao.find(3);  // cache holds 2 contacts, so 2 is evicted
+		assertSame(one, dao.find(1));
+		// replace 2 in the store without telling the cache; it must be read again
+		Contact newTwo = new Contact("two", "other", "other");
+		newTwo.setId(2);
+		store.save(newTwo);
+		assertNotSame(two, dao.find(2));
+	}
+
+	@Test
+	public void testUsedContactStaysCached() {
+		for(long id=1; id<=50; id++) save(id, "title "+id);
+		Contact one = dao.find(1);
+		for(long id=2; id<=50; id++) {
+			// 1 is used between each miss, so the clock keeps it
+			assertSame(one, dao.find(1));
+			dao.find(id);
+		}
+		assertSame(one, dao.find(1));
+		// the cache holds 2 contacts: 1 and 50
+		Contact newTwo = new Contact("two", "other", "other");
+		newTwo.setId(2);
+		store.save(newTwo);
+		assertSame(newTwo, dao.find(2));
+	}
+
+	@Test
+	public void testSearchIsCachedUntilChange() {
+		save(1, "alpha");
+		save(2, "alphabet");
+		long hits = Metrics.counter("jpa.queryCache.hits").get();
+		List<Contact> first = dao.search(new TitleQuery("alpha"));
+		assertEquals(2, first.size());
+		assertSame(first, dao.search(new TitleQuery("alpha")));
+		assertEquals(hits + 1, Metrics.counter("jpa.queryCache.hits").get());
+		save(3, "alphanumeric");
+		assertEquals(3, dao.search(new TitleQuery("alpha")).size());
+	}
+
+	@Test
+	public void testSearchExpires() throws InterruptedException {
+		dao = new CachedContactDao(store, 2, 10, 1);
+		save(1, "alpha");
+		List<Contact> first = dao.search(new TitleQuery("alpha"));
+		Thread.sleep(5);
+		assertNotSame(first, dao.search(new TitleQuery("alpha")));
+	}
+}
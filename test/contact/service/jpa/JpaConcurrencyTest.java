@@ -0,0 +1,110 @@
+package contact.service.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactDao;
+
+/**
+ * Load test of the JPA DAO with many threads against the embedded Derby database.
+ * Each thread finds and updates contacts at the same time as the others,
+ * and every result must be correct. The throughput of the reads is measured
+ * by contact.bench.JpaReadBenchmark.
+ * 
+ * @author Juthamas
+ */
+public class JpaConcurrencyTest {
+	private static final int CONTACTS = 200;
+	private static final int READS_PER_THREAD = 2000;
+	private JpaDaoFactory factory;
+	private ContactDao dao;
+	private List<Contact> saved;
+
+	@Before
+	public void setUp() {
+		factory = new JpaDaoFactory();
+		dao = factory.getContactDao();
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		saved = new ArrayList<Contact>();
+		for(int k=0; k<CONTACTS; k++) {
+			Contact contact = new Contact("load test "+k, "Load Tester", "load"+k+"@testing.com");
+			saved.add(contact);
+			ops.add(BatchOperation.save(contact));
+		}
+		dao.batch(ops);
+	}
+
+	@After
+	public void tearDown() {
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		for(Contact contact : saved) ops.add(BatchOperation.delete(contact.getId()));
+		dao.batch(ops);
+		factory.shutdown();
+	}
+
+	/**
+	 * Many threads read the same contacts, and each read finds the right one.
+	 */
+	@Test
+	public void testConcurrentReads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int t=0; t<8; t++) {
+			final int seed = t;
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int ok = 0;
+					for(int k=0; k<READS_PER_THREAD; k++) {
+						Contact expected = saved.get((k*7 + seed) % CONTACTS);
+						Contact found = dao.find(expected.getId());
+						if (found != null && expected.getTitle().equals(found.getTitle())) ok++;
+					}
+					return ok;
+				}
+			}));
+		}
+		for(Future<Integer> result : results) assertEquals(READS_PER_THREAD, result.get().intValue());
+		executor.shutdown();
+	}
+
+	/**
+	 * Update contacts while other threads read them.
+	 */
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for(int t=0; t<4; t++) {
+			final int first = t;
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					// each thread updates its own contacts and reads all of them
+					for(int k=first; k<CONTACTS; k+=4) {
+						Contact update = new Contact(saved.get(k).getId());
+						update.setName("Updated "+k);
+						if (! dao.update(update)) return false;
+						if (dao.find(saved.get((k+1) % CONTACTS).getId()) == null) return false;
+					}
+					return true;
+				}
+			}));
+		}
+		for(Future<Boolean> result : results) assertTrue(result.get());
+		executor.shutdown();
+		for(int k=0; k<CONTACTS; k++) assertEquals("Updated "+k, dao.find(saved.get(k).getId()).getName());
+	}
+}
@@ -2,6 +2,10 @@ package contact.service.jpa;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.AfterClass;
 import org.junit.Assume;
 import org.junit.Before;
@@ -10,6 +14,7 @@ import org.junit.Test;
 
 import contact.JettyMain;
 import contact.entity.Contact;
+import contact.service.BatchOperation;
 import contact.service.ContactDao;
 import contact.service.jpa.JpaDaoFactory;
 
@@ -63,7 +68,118 @@ public class JpaContactDaoTest {
 		// Now find it again
 		Contact fooAgain = contactDao.find(foo.getId());
 		assertNotNull( fooAgain );
-		assertSame( "DAO should return the same object reference", foo, fooAgain ); // foo == fooAgain
+		// each operation has its own EntityManager, so the DAO returns a copy of foo
+		assertEquals( foo.getId(), fooAgain.getId() );
+		assertEquals( foo.getTitle(), fooAgain.getTitle() );
+	}
+	
+	@Test
+	public void testSearchTitles() {
+		// a word that no other contact has, so only these contacts match
+		String word = "Zq" + Long.toString(System.nanoTime(), 36);
+		Contact a = new Contact(word + " Alpha", "A", "a@bar.com");
+		Contact b = new Contact("Beta " + word.toUpperCase(), "B", "b@bar.com");
+		Contact c = new Contact("Gamma", "C", "c@bar.com");
+		assertTrue( contactDao.save(a) );
+		assertTrue( contactDao.save(b) );
+		assertTrue( contactDao.save(c) );
+		try {
+			// substring search uses the title grams, ignoring case
+			assertEquals( 2, contactDao.findByTitle(word.toLowerCase()).size() );
+			assertEquals( 1, contactDao.findByTitle(word + " al").size() );
+			assertEquals( 1, contactDao.findByTitlePrefix(word.toLowerCase()).size() );
+			// a new title replaces the old grams
+			Contact update = new Contact(c.getId());
+			update.setTitle("Gamma " + word);
+			assertTrue( contactDao.update(update) );
+			assertEquals( 3, contactDao.findByTitle(word).size() );
+			assertEquals( 0, contactDao.findByTitle("gamma " + word + "x").size() );
+		} finally {
+			contactDao.delete(a.getId());
+			contactDao.delete(b.getId());
+			contactDao.delete(c.getId());
+		}
+		assertEquals( 0, contactDao.findByTitle(word).size() );
+	}
+	
+	@Test
+	public void testDeleteByIds() {
+		String word = "Zd" + Long.toString(System.nanoTime(), 36);
+		List<Long> ids = new ArrayList<Long>();
+		for(int k=0; k<5; k++) {
+			Contact contact = new Contact(word + " " + k, "name", "email");
+			assertTrue( contactDao.save(contact) );
+			ids.add(contact.getId());
+		}
+		assertNotNull( contactDao.find(ids.get(0)) );
+		// an id that doesn't exist isn't counted
+		ids.add(-1L);
+		assertEquals( 5, contactDao.deleteByIds(ids) );
+		assertNull( contactDao.find(ids.get(0)) );
+		assertEquals( 0, contactDao.findByTitle(word).size() );
+		assertEquals( 0, contactDao.deleteByIds(ids) );
+	}
+	
+	@Test
+	public void testBatchTitleGrams() {
+		String word = "Zb" + Long.toString(System.nanoTime(), 36);
+		Contact a = new Contact(word + " alpha", "A", "a@bar.com");
+		Contact b = new Contact(word + " beta", "B", "b@bar.com");
+		assertTrue( contactDao.save(a) );
+		assertTrue( contactDao.save(b) );
+		// an id that no other contact has, so it can be updated in the batch that saves it
+		Contact c = new Contact(word + " epsilon", "C", "c@bar.com");
+		c.setId(1000000000L + System.nanoTime() % 1000000000L);
+		Contact retitleA = new Contact(a.getId());
+		retitleA.setTitle("gamma " + word);
+		Contact retitleC = new Contact(c.getId());
+		retitleC.setTitle("zeta " + word);
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		ops.add(BatchOperation.save(c));
+		// grams not flushed yet and grams in the database are both replaced
+		ops.add(BatchOperation.update(retitleC));
+		ops.add(BatchOperation.update(retitleA));
+		ops.add(BatchOperation.delete(b.getId()));
+		try {
+			boolean[] applied = contactDao.batch(ops);
+			assertTrue( applied[0] && applied[1] && applied[2] && applied[3] );
+			assertEquals( 2, contactDao.findByTitle(word).size() );
+			assertEquals( 0, contactDao.findByTitle(word + " alp").size() );
+			assertEquals( 0, contactDao.findByTitle(word + " bet").size() );
+			assertEquals( 0, contactDao.findByTitle(word + " eps").size() );
+			assertEquals( 1, contactDao.findByTitle("gamma " + word).size() );
+			assertEquals( 1, contactDao.findByTitle("zeta " + word).size() );
+		} finally {
+			contactDao.deleteByIds(Arrays.asList(a.getId(), b.getId(), c.getId()));
+		}
+	}
+	
+	@Test
+	public void testBatchRetriesFailedTransaction() {
+		String word = "Zr" + Long.toString(System.nanoTime(), 36);
+		Contact a = new Contact(word + " a", "A", "a@bar.com");
+		StringBuilder longTitle = new StringBuilder(word);
+		while (longTitle.length() < 1000) longTitle.append(" too long");
+		// longer than the title column, so its insert fails and rolls back the transaction
+		Contact bad = new Contact(longTitle.toString(), "B", "b@bar.com");
+		Contact c = new Contact(word + " c", "C", "c@bar.com");
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		ops.add(BatchOperation.save(a));
+		ops.add(BatchOperation.save(bad));
+		ops.add(BatchOperation.save(c));
+		try {
+			boolean[] applied = contactDao.batch(ops);
+			// only the operation that fails by itself is not applied
+			assertTrue( applied[0] );
+			assertFalse( applied[1] );
+			assertTrue( applied[2] );
+			assertEquals( 0, bad.getId() );
+			assertEquals( word + " a", contactDao.find(a.getId()).getTitle() );
+			assertEquals( word + " c", contactDao.find(c.getId()).getTitle() );
+			assertEquals( 2, contactDao.findByTitle(word).size() );
+		} finally {
+			contactDao.deleteByIds(Arrays.asList(a.getId(), c.getId()));
+		}
 	}
 	
 	// this test requires that testSaveAndFind be performed first
@@ -0,0 +1,149 @@
+package contact.service.json;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import contact.entity.BatchResult;
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+
+/**
+ * JUnit test for ContactJsonReader and ContactJsonWriter.
+ * @author Juthamas
+ */
+public class ContactJsonTest {
+
+	private static ContactJsonReader reader(String json) throws IOException {
+		return new ContactJsonReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+	}
+
+	private static String write(Contact contact) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactJsonWriter writer = new ContactJsonWriter(out);
+		writer.writeContact(contact);
+		writer.flush();
+		return out.toString("UTF-8");
+	}
+
+	@Test
+	public void testWriteContact() throws IOException {
+		Contact contact = new Contact("Test contact", "Joe", "joe@testing.com");
+		contact.setId(101);
+		assertEquals( "{\"id\":101,\"title\":\"Test contact\",\"name\":\"Joe\",\"email\":\"joe@testing.com\",\"photoUrl\":\"\"}",
+				write(contact) );
+		// null fields are left out
+		contact = new Contact(-7);
+		contact.setTitle("t");
+		assertEquals( "{\"id\":-7,\"title\":\"t\"}", write(contact) );
+	}
+
+	@Test
+	public void testEscapesAndUnicode() throws IOException {
+		String title = "quote \" slash \\ tab\t line\n nul\u0000 café € 😀";
+		Contact contact = new Contact(title, null, null);
+		String json = write(contact);
+		assertTrue( json.contains("quote \\\" slash \\\\ tab\\t line\\n nul\\u0000") );
+		Contact read = reader(json).readContact();
+		assertEquals( title, read.getTitle() );
+		assertNull( read.getName() );
+	}
+
+	@Test
+	public void testWriteAndReadList() throws IOException {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(long id=1; id<=1200; id++) {
+			Contact c = new Contact("title "+id, "name "+id, "email"+id+"@foo.com");
+			c.setId(id);
+			contacts.add(c);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactJsonWriter writer = new ContactJsonWriter(out);
+		assertEquals( 1200, writer.writeContacts(contacts.iterator()) );
+		writer.flush();
+
+		ContactJsonReader reader = new ContactJsonReader(new ByteArrayInputStream(out.toByteArray()));
+		List<Contact> read = reader.readContacts();
+		reader.end();
+		assertEquals( 1200, read.size() );
+		assertEquals( 1200, read.get(1199).getId() );
+		assertEquals( "email600@foo.com", read.get(599).getEmail() );
+	}
+
+	@Test
+	public void testReadSkipsUnknownFields() throws IOException {
+		ContactJsonReader reader = reader(" { \"extra\" : {\"a\":[1, 2.5e3, true, null, \"x\"]},\n"
+				+ "\"id\": 5, \"title\":\"five\", \"name\":null, \"photoUrl\":\"p\\u0041\" } ");
+		Contact contact = reader.readContact();
+		reader.end();
+		assertEquals( 5, contact.getId() );
+		assertEquals( "five", contact.getTitle() );
+		assertNull( contact.getName() );
+		assertEquals( "pA", contact.getPhotoUrl() );
+	}
+
+	@Test
+	public void testReadOperations() throws IOException {
+		ContactJsonReader reader = reader("[ {\"save\":{\"title\":\"new\"}}, {\"update\":{\"id\":101,\"title\":\"changed\"}},\n"
+				+ "{\"delete\":102} ]");
+		List<BatchOperation> operations = reader.readOperations(2);
+		assertEquals( 2, operations.size() );
+		assertEquals( BatchOperation.Type.SAVE, operations.get(0).getType() );
+		assertEquals( "new", operations.get(0).getContact().getTitle() );
+		assertEquals( BatchOperation.Type.UPDATE, operations.get(1).getType() );
+		assertEquals( 101, operations.get(1).getContact().getId() );
+		operations = reader.readOperations(2);
+		assertEquals( 1, operations.size() );
+		assertEquals( BatchOperation.Type.DELETE, operations.get(0).getType() );
+		assertEquals( 102, operations.get(0).getId() );
+		assertTrue( reader.readOperations(2).isEmpty() );
+		reader.end();
+		assertTrue( reader(" [ ] ").readOperations(10).isEmpty() );
+
+		String[] bad = { "{}", "[{\"rename\":1}]", "[{\"delete\":1,\"save\":{}}]", "[{\"delete\":1}" };
+		for(String json : bad) {
+			try {
+				reader = reader(json);
+				while (! reader.readOperations(10).isEmpty()) { }
+				fail("read malformed operations: "+json);
+			} catch (ContactJsonReader.MalformedJsonException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testWriteResults() throws IOException {
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		results.add(new BatchResult(0, 5, 201));
+		results.add(new BatchResult(1, 999, 404));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactJsonWriter writer = new ContactJsonWriter(out);
+		writer.writeResults(results);
+		writer.flush();
+		assertEquals( "[{\"index\":0,\"id\":5,\"status\":201},{\"index\":1,\"id\":999,\"status\":404}]",
+				out.toString("UTF-8") );
+	}
+
+	@Test
+	public void testMalformed() throws IOException {
+		String[] bad = { "", "[]", "{\"id\":1.5}", "{\"title\":\"x\"", "{\"title\":\"x\"} extra",
+				"{\"id\":99999999999999999999}", "{\"title\":tru}" };
+		for(String json : bad) {
+			try {
+				ContactJsonReader reader = reader(json);
+				reader.readContact();
+				reader.end();
+				fail("read malformed JSON: "+json);
+			} catch (ContactJsonReader.MalformedJsonException ex) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package contact.service.mem;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+
+/**
+ * JUnit test for the id-keyed ContactMap used by MemContactDao.
+ * @author Juthamas
+ */
+public class ContactMapTest {
+	private ContactMap map;
+
+	@Before
+	public void setUp() {
+		map = new ContactMap();
+	}
+
+	private static Contact contact(long id) {
+		Contact c = new Contact("title"+id, "name"+id, "email"+id);
+		c.setId(id);
+		return c;
+	}
+
+	@Test
+	public void testPutGetRemove() {
+		int n = 10000;
+		for(long id=1; id<=n; id++) assertNull( map.put(contact(id)) );
+		assertEquals(n, map.size());
+		for(long id=1; id<=n; id++) assertEquals(id, map.get(id).getId());
+		assertNull( map.get(n+1) );
+		// remove every other contact, the rest must still be found
+		for(long id=1; id<=n; id+=2) assertNotNull( map.remove(id) );
+		assertEquals(n/2, map.size());
+		for(long id=1; id<=n; id++) {
+			if (id % 2 == 1) assertNull( map.get(id) );
+			else assertEquals(id, map.get(id).getId());
+		}
+		assertNull( map.remove(1) );
+	}
+
+	@Test
+	public void testPutReplacesAndPutIfAbsentDoesNot() {
+		Contact first = contact(7);
+		Contact second = contact(7);
+		assertNull( map.put(first) );
+		assertSame( first, map.putIfAbsent(second) );
+		assertSame( first, map.get(7) );
+		assertSame( first, map.put(second) );
+		assertSame( second, map.get(7) );
+		assertEquals( 1, map.size() );
+	}
+
+	@Test
+	public void testValuesViewIsLiveAndOrdered() {
+		List<Contact> values = map.values();
+		assertEquals(0, values.size());
+		map.put(contact(30));
+		map.put(contact(10));
+		map.put(contact(20));
+		assertEquals(3, values.size());
+		assertEquals(10, values.get(0).getId());
+		assertEquals(30, values.get(2).getId());
+		map.remove(20);
+		assertEquals(2, values.size());
+		map.clear();
+		assertTrue(values.isEmpty());
+	}
+
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		final int threads = 8;
+		final int perThread = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final long base = t * (long)perThread;
+			workers[t] = new Thread() {
+				public void run() {
+					try { start.await(); } catch (InterruptedException e) { return; }
+					for(long id=base+1; id<=base+perThread; id++) map.put(contact(id));
+					// remove a quarter of our own contacts again
+					for(long id=base+1; id<=base+perThread; id+=4) map.remove(id);
+				}
+			};
+			workers[t].start();
+		}
+		start.countDown();
+		for(Thread worker : workers) worker.join();
+		int expected = threads * (perThread - perThread/4);
+		assertEquals(expected, map.size());
+		assertEquals(expected, map.values().size());
+		for(long id=1; id<=threads*(long)perThread; id++) {
+			assertEquals( (id-1) % 4 != 0, map.containsKey(id) );
+		}
+	}
+}
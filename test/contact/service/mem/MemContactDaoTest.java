@@ -0,0 +1,94 @@
+package contact.service.mem;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.ChangeLog;
+
+/**
+ * JUnit test of the memory DAO's change log and list of contacts.
+ * @author Juthamas
+ */
+public class MemContactDaoTest {
+	private static final int IDS = 16;
+	private static final int ROUNDS = 20000;
+	private MemContactDao dao;
+
+	@Before
+	public void setUp() {
+		dao = new MemContactDao();
+		dao.removeAll();
+	}
+
+	@Test
+	public void testChangesAreLoggedInMapOrder() throws InterruptedException {
+		final long since = dao.getVersion();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread saver = new Thread() {
+			@Override
+			public void run() {
+				await(start);
+				for(int k = 0; k < ROUNDS; k++) {
+					Contact contact = new Contact("title "+k, "name", "email");
+					contact.setId(1 + k % IDS);
+					dao.save(contact);
+				}
+			}
+		};
+		Thread deleter = new Thread() {
+			@Override
+			public void run() {
+				await(start);
+				for(int k = 0; k < ROUNDS; k++) dao.delete(1 + k % IDS);
+			}
+		};
+		saver.start();
+		deleter.start();
+		start.countDown();
+		saver.join();
+		deleter.join();
+		// the last change to each contact agrees with whether it is still there
+		List<ChangeLog.Change> changes = dao.findChanges(since);
+		assertNotNull( changes );
+		for(long id = 1; id <= IDS; id++) {
+			ChangeLog.Change last = null;
+			for(ChangeLog.Change change : changes) if (change.getId() == id) last = change;
+			assertNotNull( last );
+			assertEquals( "contact "+id, dao.find(id) == null, last.isDeleted() );
+		}
+	}
+
+	@Test
+	public void testFindAllIsOneSnapshot() {
+		for(long id = 1; id <= 10; id++) {
+			Contact contact = new Contact("title "+id, "name", "email");
+			contact.setId(id);
+			dao.save(contact);
+		}
+		List<Contact> all = dao.findAll();
+		for(long id = 1; id <= 5; id++) dao.delete(id);
+		assertEquals( 10, all.size() );
+		for(int k = 0; k < all.size(); k++) assertEquals( k + 1, all.get(k).getId() );
+		assertEquals( 5, dao.findAll().size() );
+		try {
+			all.remove(0);
+			fail("findAll list can be changed");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package contact.service.mem;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+
+/**
+ * JUnit test for SnapshotFile.
+ * @author Juthamas
+ */
+public class SnapshotFileTest {
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("contact", ".snapshot");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static List<Contact> contacts(int n) {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(long id=1; id<=n; id++) {
+			Contact c = new Contact("title "+id, "name "+id, "email"+id+"@foo.com");
+			c.setId(id);
+			if (id % 3 == 0) c.setPhotoUrl("http://foo.com/"+id+".jpg");
+			contacts.add(c);
+		}
+		return contacts;
+	}
+
+	/** A memory DAO without its test contacts. */
+	private static MemContactDao emptyDao() {
+		MemContactDao dao = new MemContactDao();
+		dao.removeAll();
+		return dao;
+	}
+
+	@Test
+	public void testWriteAndLoad() throws IOException {
+		// more than one chunk, and a partial last chunk
+		int n = SnapshotFile.CHUNK_SIZE * 2 + 100;
+		List<Contact> contacts = contacts(n);
+		assertEquals( n, SnapshotFile.write(file, contacts.iterator()) );
+		MemContactDao dao = emptyDao();
+		assertEquals( n, SnapshotFile.load(file, dao) );
+		assertEquals( n, dao.findAll().size() );
+		Contact c = dao.find(300);
+		assertEquals( "title 300", c.getTitle() );
+		assertEquals( "email300@foo.com", c.getEmail() );
+		assertEquals( "http://foo.com/300.jpg", c.getPhotoUrl() );
+		assertEquals( contacts.get(300).getPhotoUrl(), dao.find(301).getPhotoUrl() );
+		assertEquals( 1, dao.findByTitle("title 32868").size() );
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertEquals( 0, SnapshotFile.write(file, new ArrayList<Contact>().iterator()) );
+		assertEquals( 0, SnapshotFile.load(file, emptyDao()) );
+	}
+
+	@Test(expected=IOException.class)
+	public void testIncompleteFile() throws IOException {
+		SnapshotFile.write(file, contacts(100).iterator());
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 10);
+		raf.close();
+		SnapshotFile.load(file, emptyDao());
+	}
+
+	@Test(expected=IOException.class)
+	public void testDamagedChunk() throws IOException {
+		SnapshotFile.write(file, contacts(100).iterator());
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(40);
+		raf.write(raf.read() ^ 0xff);
+		raf.close();
+		SnapshotFile.load(file, emptyDao());
+	}
+}
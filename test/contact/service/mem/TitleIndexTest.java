@@ -0,0 +1,81 @@
+package contact.service.mem;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for TitleIndex prefix and substring searches.
+ * @author Juthamas
+ */
+public class TitleIndexTest {
+	private TitleIndex index;
+
+	@Before
+	public void setUp() {
+		index = new TitleIndex();
+		index.put(1, "Fred Flintstone");
+		index.put(2, "Barney Rubble");
+		index.put(3, "fred astaire");
+		index.put(4, "Al");
+		index.put(5, "Wilma Flintstone");
+	}
+
+	@Test
+	public void testPrefix() {
+		assertArrayEquals( new long[] {3, 1}, index.findByPrefix("FRED", 10) );
+		assertArrayEquals( new long[] {3}, index.findByPrefix("fred", 1) );
+		assertArrayEquals( new long[] {4}, index.findByPrefix("a", 10) );
+		assertArrayEquals( new long[0], index.findByPrefix("zz", 10) );
+	}
+
+	@Test
+	public void testSubstring() {
+		assertArrayEquals( new long[] {1, 5}, index.findBySubstring("FLINT", 10) );
+		assertArrayEquals( new long[] {1, 3}, index.findBySubstring("red", 10) );
+		// short queries, including a title shorter than a trigram
+		assertArrayEquals( new long[] {4}, index.findBySubstring("al", 10) );
+		assertArrayEquals( new long[] {1, 2, 3, 5}, index.findBySubstring("e", 10) );
+		// all trigrams present, but not together
+		assertArrayEquals( new long[0], index.findBySubstring("stonefred", 10) );
+		assertArrayEquals( new long[] {1, 2}, index.findBySubstring("", 2) );
+	}
+
+	@Test
+	public void testSubstringLimitKeepsSmallestIds() {
+		index.clear();
+		// added in an order unrelated to the ids
+		for(long id = 1; id <= 1000; id++) {
+			long scrambled = (id * 7919) % 1000 + 1;
+			index.put(scrambled, (scrambled % 2 == 0 ? "even " : "odd ") + scrambled);
+		}
+		assertArrayEquals( new long[] {1, 2, 3}, index.findBySubstring("", 3) );
+		assertArrayEquals( new long[] {2, 4, 6, 8}, index.findBySubstring("ev", 4) );
+		assertArrayEquals( new long[] {1, 3, 5}, index.findBySubstring("odd", 3) );
+		assertArrayEquals( new long[] {10, 12, 14}, index.findBySubstring("en 1", 3) );
+		assertEquals( 500, index.findBySubstring("d", Integer.MAX_VALUE).length );
+		// prefix matches from every segment, merged in title order
+		assertArrayEquals( new long[] {10, 100, 1000}, index.findByPrefix("even 1", 3) );
+		assertEquals( 500, index.findByPrefix("odd", Integer.MAX_VALUE).length );
+		assertArrayEquals( new long[0], index.findBySubstring("e", 0) );
+	}
+
+	@Test
+	public void testRegexCharactersAreLiteral() {
+		index.put(6, "a.*(b+)+$");
+		assertArrayEquals( new long[] {6}, index.findBySubstring(".*(b+)+", 10) );
+		assertArrayEquals( new long[0], index.findBySubstring("(a+)+b", 10) );
+	}
+
+	@Test
+	public void testUpdateAndRemove() {
+		index.put(1, "Pebbles");
+		assertArrayEquals( new long[] {3}, index.findByPrefix("fred", 10) );
+		assertArrayEquals( new long[] {1}, index.findBySubstring("pebb", 10) );
+		index.remove(1);
+		assertArrayEquals( new long[0], index.findBySubstring("pebb", 10) );
+		index.clear();
+		assertArrayEquals( new long[0], index.findBySubstring("", 10) );
+	}
+}
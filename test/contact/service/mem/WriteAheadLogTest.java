@@ -0,0 +1,277 @@
+package contact.service.mem;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+import contact.service.ContactDao;
+
+/**
+ * JUnit test for WriteAheadLog and LoggedContactDao.
+ * @author Juthamas
+ */
+public class WriteAheadLogTest {
+	private File file;
+	private WriteAheadLog log;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("contact", ".wal");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (log != null) {
+			for(File segment : log.segments()) segment.delete();
+			log.close();
+		}
+		file.delete();
+	}
+
+	/** Open the log and replay it into a new DAO, like MemDaoFactory does. */
+	private ContactDao open(WriteAheadLog.FsyncPolicy policy) throws IOException {
+		if (log != null) log.close();
+		MemContactDao dao = new MemContactDao();
+		dao.removeAll();
+		log = new WriteAheadLog(file, policy, 5);
+		log.replay(dao);
+		return new LoggedContactDao(dao, log);
+	}
+
+	private static Contact contact(long id, String title) {
+		Contact c = new Contact(title, "name"+id, "email"+id);
+		c.setId(id);
+		return c;
+	}
+
+	@Test
+	public void testReplayRestoresChanges() throws IOException {
+		ContactDao dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		dao.save(contact(1, "one"));
+		dao.save(contact(2, "two"));
+		dao.save(contact(3, "three"));
+		Contact update = new Contact(2);
+		update.setTitle("deux");
+		update.setName("new name");
+		assertTrue( dao.update(update) );
+		assertTrue( dao.delete(3) );
+
+		dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		assertEquals( 2, dao.findAll().size() );
+		assertEquals( "one", dao.find(1).getTitle() );
+		assertEquals( "deux", dao.find(2).getTitle() );
+		assertEquals( "new name", dao.find(2).getName() );
+		assertNull( dao.find(3) );
+		assertEquals( 1, dao.findByTitle("deux").size() );
+	}
+
+	@Test
+	public void testReplayBatchAndClear() throws IOException {
+		ContactDao dao = open(WriteAheadLog.FsyncPolicy.OS);
+		dao.save(contact(1, "gone"));
+		dao.removeAll();
+		List<BatchOperation> ops = new ArrayList<BatchOperation>();
+		ops.add(BatchOperation.save(contact(5, "five")));
+		ops.add(BatchOperation.save(contact(6, "six")));
+		ops.add(BatchOperation.save(contact(7, "seven")));
+		ops.add(BatchOperation.delete(6));
+		dao.batch(ops);
+		assertEquals( 1, dao.deleteByIds(Arrays.asList(7L, 8L)) );
+
+		dao = open(WriteAheadLog.FsyncPolicy.OS);
+		assertEquals( 1, dao.findAll().size() );
+		assertEquals( "five", dao.find(5).getTitle() );
+	}
+
+	@Test
+	public void testDamagedEndIsDiscarded() throws IOException {
+		ContactDao dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		dao.save(contact(1, "one"));
+		dao.save(contact(2, "two"));
+		log.close();
+		log = null;
+		// cut the last record in half, as if the program stopped while writing it
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		assertEquals( 1, dao.findAll().size() );
+		assertNotNull( dao.find(1) );
+		// new records follow the last good one
+		dao.save(contact(3, "three"));
+		dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		assertEquals( 2, dao.findAll().size() );
+		assertNotNull( dao.find(3) );
+	}
+
+	@Test
+	public void testConcurrentGroupCommit() throws Exception {
+		final ContactDao dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		final int threads = 8;
+		final int each = 200;
+		Thread[] writers = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final int first = t * each + 1;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int id=first; id<first+each; id++) dao.save(contact(id, "title "+id));
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread writer : writers) writer.join();
+
+		ContactDao restored = open(WriteAheadLog.FsyncPolicy.BATCH);
+		assertEquals( threads * each, restored.findAll().size() );
+		assertEquals( "title 1600", restored.find(1600).getTitle() );
+	}
+
+	@Test
+	public void testConcurrentChangesToOneContactReplayInOrder() throws Exception {
+		final ContactDao dao = open(WriteAheadLog.FsyncPolicy.BATCH);
+		final int threads = 8;
+		Thread[] writers = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final Random random = new Random(t);
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int k=0; k<2000; k++) {
+						// few ids, so threads often change the same contact
+						long id = 1 + random.nextInt(16);
+						switch (random.nextInt(4)) {
+						case 0: dao.save(contact(id, "saved "+k)); break;
+						case 1: dao.update(contact(id, "updated "+k)); break;
+						case 2: dao.delete(id); break;
+						default: dao.save(contact(0, "new "+k));
+						}
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread writer : writers) writer.join();
+		List<Contact> expected = dao.findAll();
+
+		ContactDao restored = open(WriteAheadLog.FsyncPolicy.BATCH);
+		List<Contact> found = restored.findAll();
+		assertEquals( expected.size(), found.size() );
+		for(Contact contact : expected) {
+			assertEquals( contact.getTitle(), restored.find(contact.getId()).getTitle() );
+		}
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		File snapshot = new File(file.getPath() + ".snapshot");
+		try {
+			LoggedContactDao dao = (LoggedContactDao) open(WriteAheadLog.FsyncPolicy.OS);
+			dao.save(contact(1, "one"));
+			dao.save(contact(2, "two"));
+			assertEquals( 2, dao.checkpoint(snapshot) );
+			// the snapshot has the changes, so the log is empty and no segments are left
+			assertTrue( log.isEmpty() );
+			assertTrue( log.segments().isEmpty() );
+			dao.delete(1);
+			dao.save(contact(3, "three"));
+			// a rotated segment that wasn't deleted is replayed too
+			File segment = log.rotate();
+			dao.save(contact(4, "four"));
+
+			log.close();
+			log = null;
+			MemContactDao restored = new MemContactDao();
+			restored.removeAll();
+			assertEquals( 2, SnapshotFile.load(snapshot, restored) );
+			log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.OS, 5);
+			assertEquals( 3, log.replay(restored) );
+			assertNull( restored.find(1) );
+			assertEquals( "two", restored.find(2).getTitle() );
+			assertEquals( "three", restored.find(3).getTitle() );
+			assertEquals( "four", restored.find(4).getTitle() );
+			log.deleteSegments(segment);
+			assertFalse( segment.exists() );
+		} finally {
+			snapshot.delete();
+		}
+	}
+
+	@Test
+	public void testFailedWriteIsCutOffAndFailsLog() throws IOException {
+		final boolean[] failing = new boolean[1];
+		MemContactDao mem = new MemContactDao();
+		mem.removeAll();
+		log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5) {
+			@Override
+			void writeFile(RandomAccessFile raf, byte[] data) throws IOException {
+				if (! failing[0]) {
+					super.writeFile(raf, data);
+					return;
+				}
+				// the disk fills up in the middle of a record
+				raf.write(data, 0, data.length / 2);
+				throw new IOException("No space left on device");
+			}
+		};
+		ContactDao dao = new LoggedContactDao(mem, log);
+		dao.save(contact(1, "one"));
+		long size = log.size();
+		failing[0] = true;
+		try {
+			dao.save(contact(2, "two"));
+			fail("write should fail");
+		} catch (UncheckedIOException ex) {
+			// expected
+		}
+		// no torn record is left in the file
+		assertEquals( size, file.length() );
+		// nothing more is written after a failure, even when the disk is back
+		failing[0] = false;
+		try {
+			dao.save(contact(3, "three"));
+			fail("log should be failed");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		try {
+			log.commit(1);
+			fail("commit should fail");
+		} catch (IOException ex) {
+			// expected
+		}
+		try {
+			log.close();
+		} catch (IOException ex) {
+			// the records that failed are still not written
+		}
+		log = null;
+
+		dao = open(WriteAheadLog.FsyncPolicy.ALWAYS);
+		assertEquals( 1, dao.findAll().size() );
+		assertEquals( "one", dao.find(1).getTitle() );
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotALog() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.writeBytes("<contacts></contacts>");
+		raf.close();
+		log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.OS, 5);
+	}
+}
@@ -0,0 +1,162 @@
+package contact.service.offheap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.BatchOperation;
+
+/**
+ * JUnit test for the off-heap contact DAO.
+ * @author Juthamas
+ */
+public class OffHeapContactDaoTest {
+	private OffHeapContactDao dao;
+
+	@Before
+	public void setUp() {
+		// small slabs, so tests exercise more than one slab
+		dao = new OffHeapContactDao(4096);
+	}
+
+	@Test
+	public void testSaveAndFind() {
+		Contact contact = new Contact("Fred title", "Fred Flintstone", "fred@bedrock.com");
+		contact.setPhotoUrl("http://bedrock.com/fred.jpg");
+		assertTrue( dao.save(contact) );
+		assertTrue( "DAO must assign contact id", contact.getId() > 0 );
+		Contact found = dao.find(contact.getId());
+		assertEquals( contact, found );
+		assertEquals( "Fred title", found.getTitle() );
+		assertEquals( "Fred Flintstone", found.getName() );
+		assertEquals( "fred@bedrock.com", found.getEmail() );
+		assertEquals( "http://bedrock.com/fred.jpg", found.getPhotoUrl() );
+		assertNull( dao.find(contact.getId()+1) );
+	}
+
+	@Test
+	public void testNullFieldsAndUnicode() {
+		Contact contact = new Contact(55);
+		contact.setTitle("สวัสดี");
+		dao.save(contact);
+		Contact found = dao.find(55);
+		assertEquals( contact.getTitle(), found.getTitle() );
+		assertNull( found.getName() );
+		assertNull( found.getEmail() );
+	}
+
+	@Test
+	public void testUpdateAndDelete() {
+		Contact contact = new Contact("title", "name", "email");
+		dao.save(contact);
+		long id = contact.getId();
+		Contact update = new Contact(id);
+		update.setName("new name");
+		assertTrue( dao.update(update) );
+		Contact found = dao.find(id);
+		assertEquals( "title", found.getTitle() );
+		assertEquals( "new name", found.getName() );
+		assertFalse( dao.update(new Contact(id+1)) );
+		assertTrue( dao.delete(id) );
+		assertNull( dao.find(id) );
+		assertFalse( dao.delete(id) );
+	}
+
+	@Test
+	public void testDeleteByIds() {
+		for(long id=1; id<=10; id++) {
+			Contact c = new Contact("title "+id, "name", "email");
+			c.setId(id);
+			dao.save(c);
+		}
+		assertEquals( 3, dao.deleteByIds(Arrays.asList(2L, 4L, 6L, 99L)) );
+		assertNull( dao.find(4) );
+		assertEquals( 7, dao.findAll().size() );
+		assertEquals( 0, dao.findByTitle("title 6").size() );
+		assertEquals( 0, dao.deleteByIds(Arrays.asList(2L)) );
+	}
+
+	@Test
+	public void testBatchSaveDoesNotReplace() {
+		Contact contact = new Contact("first", "name", "email");
+		contact.setId(7);
+		dao.save(contact);
+		Contact other = new Contact("second", "name", "email");
+		other.setId(7);
+		List<BatchOperation> ops = Arrays.asList(BatchOperation.save(other), BatchOperation.save(new Contact("new", "name", "email")));
+		boolean[] applied = dao.batch(ops);
+		assertFalse( applied[0] );
+		assertTrue( applied[1] );
+		assertEquals( "first", dao.find(7).getTitle() );
+	}
+
+	@Test
+	public void testManyWritesAcrossSlabs() {
+		int n = 2000;
+		for(long id=1; id<=n; id++) {
+			Contact c = new Contact("title "+id, "name "+id, "email"+id+"@foo.com");
+			c.setId(id);
+			dao.save(c);
+		}
+		// rewrite every contact a few times so old records become garbage and get compacted
+		for(int round=0; round<5; round++) {
+			for(long id=1; id<=n; id++) {
+				Contact update = new Contact(id);
+				update.setName("round "+round);
+				update.setEmail("email"+id+"@foo.com");
+				assertTrue( dao.update(update) );
+			}
+		}
+		List<Contact> all = dao.findAll();
+		assertEquals(n, all.size());
+		for(int k=0; k<n; k++) {
+			Contact c = all.get(k);
+			assertEquals(k+1, c.getId());
+			assertEquals("title "+(k+1), c.getTitle());
+			assertEquals("round 4", c.getName());
+		}
+		List<Contact> found = dao.findByTitle("TITLE 199");
+		// "title 199" and "title 1990" to "title 1999"
+		assertEquals(11, found.size());
+	}
+
+	@Test
+	public void testPagesFollowIdOrder() {
+		// enough ids in random order that the sorted ids split into many blocks
+		Random random = new Random(42);
+		TreeSet<Long> expected = new TreeSet<Long>();
+		for(int k=0; k<5000; k++) {
+			long id = 1 + random.nextInt(20000);
+			Contact c = new Contact("title "+id, "name", "email");
+			c.setId(id);
+			dao.save(c);
+			expected.add(id);
+		}
+		List<Long> deleted = new ArrayList<Long>();
+		for(long id : expected) if (id % 3 == 0) deleted.add(id);
+		assertEquals( deleted.size(), dao.deleteByIds(deleted) );
+		expected.removeAll(deleted);
+		for(long id=1; id<=20000; id+=7) if (expected.remove(id)) assertTrue( dao.delete(id) );
+
+		List<Long> paged = new ArrayList<Long>();
+		long after = 0;
+		for(List<Contact> page = dao.findPage(after, 100); ! page.isEmpty(); page = dao.findPage(after, 100)) {
+			assertTrue( page.size() <= 100 );
+			for(Contact c : page) paged.add(c.getId());
+			after = page.get(page.size()-1).getId();
+		}
+		assertEquals( new ArrayList<Long>(expected), paged );
+		assertEquals( expected.higher(5000L).longValue(), dao.findPage(5000, 1).get(0).getId() );
+		assertTrue( dao.findPage(Long.MAX_VALUE, 10).isEmpty() );
+		dao.removeAll();
+		assertTrue( dao.findPage(0, 10).isEmpty() );
+	}
+}
@@ -0,0 +1,142 @@
+package contact.service.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit test for ContactXmlReader, ContactXmlWriter and JaxbSupport.
+ * @author Juthamas
+ */
+public class ContactXmlTest {
+
+	private static ContactXmlReader reader(String xml) throws XMLStreamException, JAXBException {
+		return new ContactXmlReader(new ByteArrayInputStream(xml.getBytes()));
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for(long id=1; id<=2500; id++) {
+			Contact c = new Contact("title "+id, "name & <"+id+">", "email"+id+"@foo.com");
+			c.setId(id);
+			contacts.add(c);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals( 2500, ContactXmlWriter.write(out, contacts.iterator(), "42") );
+
+		ContactXmlReader reader = new ContactXmlReader(new ByteArrayInputStream(out.toByteArray()));
+		List<Contact> first = reader.next(1000);
+		assertEquals( 1000, first.size() );
+		assertEquals( 1, first.get(0).getId() );
+		assertEquals( "name & <1>", first.get(0).getName() );
+		assertEquals( 1000, reader.next(1000).size() );
+		assertEquals( 500, reader.next(1000).size() );
+		// the etag is skipped
+		assertTrue( reader.next(1000).isEmpty() );
+	}
+
+	@Test
+	public void testReadIntoDao() throws Exception {
+		MemContactDao dao = new MemContactDao();
+		dao.removeAll();
+		ContactXmlReader reader = reader("<?xml version=\"1.0\"?>\n<contacts>\n"
+				+ "  <contact id=\"5\"><title>five</title></contact>\n"
+				+ "  <!-- a comment -->\n"
+				+ "  <contact><title>new</title><name>x</name></contact>\n"
+				+ "  <etag>7</etag>\n"
+				+ "  <contact id=\"6\"><title>six</title></contact>"
+				+ "</contacts>");
+		assertEquals( 3, reader.readInto(dao, 2) );
+		assertEquals( "five", dao.find(5).getTitle() );
+		assertEquals( "six", dao.find(6).getTitle() );
+		assertEquals( 1, dao.findByTitle("new").size() );
+	}
+
+	@Test
+	public void testReadIntoReplacesContacts() throws Exception {
+		MemContactDao dao = new MemContactDao();
+		dao.removeAll();
+		Contact old = new Contact("old", "old name", "old@b.com");
+		old.setId(5);
+		dao.save(old);
+		ContactXmlReader reader = reader("<contacts>"
+				+ "<contact id=\"5\"><title>five</title><name>new name</name></contact>"
+				+ "<contact id=\"6\"><title>six</title></contact>"
+				+ "<contact id=\"6\"><title>six again</title></contact>"
+				+ "</contacts>");
+		assertEquals( 2, reader.readInto(dao, 10) );
+		assertEquals( "five", dao.find(5).getTitle() );
+		assertEquals( "new name", dao.find(5).getName() );
+		assertEquals( "six again", dao.find(6).getTitle() );
+		assertEquals( 2, dao.findAll().size() );
+	}
+
+	@Test
+	public void testMalformedKeepsEarlierBatches() throws Exception {
+		MemContactDao dao = new MemContactDao();
+		dao.removeAll();
+		ContactXmlReader reader = reader("<contacts><contact id=\"1\"><title>one</title></contact>"
+				+ "<contact id=\"2\"><title>two</title></contact><contact id=\"3\">");
+		try {
+			reader.readInto(dao, 1);
+			fail("malformed XML was read");
+		} catch (XMLStreamException ex) {
+			// expected
+		} catch (JAXBException ex) {
+			// expected
+		}
+		assertEquals( 2, reader.getSaved() );
+		assertNotNull( dao.find(2) );
+	}
+
+	@Test
+	public void testThreadMarshallerIsReset() throws Exception {
+		Marshaller marshaller = JaxbSupport.getMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		// the same marshaller on this thread, with the default properties again
+		assertSame( marshaller, JaxbSupport.getMarshaller() );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Contact contact = new Contact("title", "name", "a@b.com");
+		contact.setId(1);
+		marshaller.marshal(contact, out);
+		String xml = out.toString("UTF-8");
+		assertTrue( xml.startsWith("<?xml") );
+		assertFalse( xml.contains("\n") );
+
+		final Marshaller[] other = new Marshaller[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					other[0] = JaxbSupport.getMarshaller();
+				} catch (JAXBException ex) {
+					// other[0] stays null
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull( other[0] );
+		assertNotSame( marshaller, other[0] );
+	}
+
+	@Test(expected=XMLStreamException.class)
+	public void testWrongRoot() throws IOException, XMLStreamException, JAXBException {
+		reader("<operations/>");
+	}
+}